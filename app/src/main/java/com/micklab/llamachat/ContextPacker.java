@@ -0,0 +1,188 @@
+package com.micklab.llamachat;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * /api/chat に送るメッセージ列を num_ctx に収める詰め込み器。
+ *
+ * <ul>
+ *   <li>予算は num_ctx − num_predict − 安全余白。system と最新メッセージ（検索・記憶の文脈を含む）は必ず残し、
+ *       残りを直近のターンで埋める。メッセージごとのトークン数は（モデル, 本文ハッシュ）でキャッシュする。</li>
+ *   <li>古いターンは 1 件ずつではなく、予算の {@value #SLACK_DIVISOR} 分の 1 の空きができるまでまとめて落とす。
+ *       落とした位置（先頭に残したターン）を覚えておき、収まる間は同じ位置から送るため、
+ *       ターンをまたいでプロンプトの先頭が変わらず、サーバー側の KV キャッシュを再利用できる。
+ *       先頭のターンはオブジェクトの同一性で探す（履歴の同じ JSONObject を渡し続けること）。
+ *       本文で探すと「ok」のような短いターンの重複で前の方の同じ文面に取り違えるため。</li>
+ *   <li>残す先頭は user のターンに揃える（assistant から始まる履歴を送らない）。同じ入力には常に同じ結果を返す。</li>
+ *   <li>検索・記憶の文脈は最新メッセージの質問の後ろに付ける（{@link #withTrailingContext}）。履歴には質問だけが
+ *       残るため、次のターンでは文脈の手前（質問の末尾）までが前回のプロンプトと一致し、再利用できる。</li>
+ *   <li>system 以外に固定して残すターンは持たない。このアプリには要約や設定のように常に送るべき会話ターンが無く、
+ *       先頭の安定は上の「まとめて落とす」で足りる（古いターンを固定すると予算を使うだけで再利用は増えない）。</li>
+ *   <li>保存側の履歴も {@link #blockTrimCount} で同じくまとめて削る（1 件ずつ削ると覚えた先頭が毎回消えるため）。</li>
+ *   <li>直前に詰めたプロンプトの推定トークン数を {@link #lastPromptTokens} で返す。応答の prompt_eval_count と
+ *       比べると（{@link #describePromptEval}）、サーバー側で再利用されたプレフィックスの量が分かる。</li>
+ * </ul>
+ *
+ * <p>履歴（会話相手）ごとにインスタンスを分けること。スレッドセーフ。Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class ContextPacker {
+
+    /** チャットテンプレートがメッセージごとに足す分（ロール名・区切りトークン）の見込み。 */
+    static final int MESSAGE_OVERHEAD_TOKENS = 4;
+    /** 推定誤差に備えて空けておく最小トークン数（num_ctx の 1/20 と大きい方）。 */
+    static final int MIN_SAFETY_TOKENS = 32;
+    /** 落とすときに空ける割合の逆数（予算・件数上限の 1/4）。 */
+    static final int SLACK_DIVISOR = 4;
+    private static final int CACHE_CAPACITY = 512;
+
+    private final Map<String, Integer> tokenCache = new LinkedHashMap<String, Integer>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+    // 前回先頭に残したターン（参照の同一性で探す）。null なら未確定。
+    private JSONObject anchor;
+    private int lastPromptTokens;
+
+    /**
+     * メッセージ列を詰める。
+     *
+     * @param model      トークン数キャッシュのキーに使うモデル名
+     * @param counter    本文のトークン数（ネットワークを使わないものを渡すこと）
+     * @param system     system メッセージ（無ければ null）
+     * @param turns      system を除く会話ターン（古い順）。末尾が今回のメッセージで、必ず残す
+     * @param maxTurns   末尾を除いて残すターン数の上限
+     * @param numCtx     コンテキスト長（0 以下ならトークン数では制限しない）
+     * @param numPredict 生成用に空けておくトークン数
+     * @return 送るメッセージ列（system、残したターン、末尾の順）
+     */
+    public synchronized List<JSONObject> pack(String model, ToIntFunction<String> counter, JSONObject system,
+                                              List<JSONObject> turns, int maxTurns, int numCtx, int numPredict) {
+        List<JSONObject> out = new ArrayList<>(turns.size() + 1);
+        if (system != null) out.add(system);
+        if (turns.isEmpty()) {
+            anchor = null;
+            lastPromptTokens = cost(model, counter, system);
+            return out;
+        }
+        int n = turns.size() - 1; // 末尾を除いた候補数
+        int limit = Math.max(0, maxTurns);
+        long budget = Long.MAX_VALUE;
+        if (numCtx > 0) {
+            int safety = Math.max(MIN_SAFETY_TOKENS, numCtx / 20);
+            budget = (long) numCtx - Math.max(0, numPredict) - safety
+                    - cost(model, counter, system) - cost(model, counter, turns.get(n));
+        }
+        int[] costs = new int[n];
+        for (int i = 0; i < n; i++) costs[i] = cost(model, counter, turns.get(i));
+
+        int start = anchorIndex(turns, n);
+        if (!fits(costs, start, limit, budget)) {
+            start = trimmedStart(costs, turns, start, limit, budget);
+        }
+        anchor = start < n ? turns.get(start) : null;
+        long used = (long) cost(model, counter, system) + cost(model, counter, turns.get(n));
+        for (int i = start; i < n; i++) used += costs[i];
+        lastPromptTokens = (int) Math.min(Integer.MAX_VALUE, used);
+        for (int i = start; i <= n; i++) out.add(turns.get(i));
+        return out;
+    }
+
+    /** 直前の {@link #pack} で詰めたメッセージ列の推定トークン数（テンプレート分の見込みを含む）。 */
+    public synchronized int lastPromptTokens() {
+        return lastPromptTokens;
+    }
+
+    /**
+     * 保存履歴が maxMessages を超えたときに先頭から削る件数。超過分を上限の 1/{@value #SLACK_DIVISOR}（偶数、最小 2）の
+     * ブロック単位に切り上げる。超えていなければ 0。
+     */
+    public static int blockTrimCount(int retained, int maxMessages) {
+        int over = retained - Math.max(0, maxMessages);
+        if (over <= 0) return 0;
+        int block = Math.max(2, maxMessages / SLACK_DIVISOR);
+        if (block % 2 != 0) block++;
+        int blocks = (over + block - 1) / block;
+        return Math.min(retained, blocks * block);
+    }
+
+    /**
+     * /api/chat の最終応答（done）の prompt_eval_count と推定プロンプト長を並べたデバッグ用の 1 行。
+     * prompt_eval_count はサーバーが実際に評価したトークン数で、KV キャッシュで再利用された分は含まれない。
+     */
+    public static String describePromptEval(JSONObject done, int promptTokens) {
+        int evaluated = done == null ? -1 : done.optInt("prompt_eval_count", -1);
+        StringBuilder sb = new StringBuilder();
+        sb.append("prompt_eval_count=").append(evaluated < 0 ? "?" : String.valueOf(evaluated));
+        sb.append(" / prompt≈").append(promptTokens).append(" tokens");
+        if (evaluated >= 0 && promptTokens > 0) {
+            int reused = Math.max(0, promptTokens - evaluated);
+            sb.append(" (reused≈").append(reused)
+                    .append(", ").append(Math.round(100f * reused / promptTokens)).append("%)");
+        }
+        int generated = done == null ? -1 : done.optInt("eval_count", -1);
+        if (generated >= 0) sb.append(", eval_count=").append(generated);
+        return sb.toString();
+    }
+
+    /**
+     * 質問の後ろに検索・記憶などの文脈を付けた、送信用の最新メッセージ本文。
+     * 先頭は履歴に保存する質問と同じ文字列になる。文脈が空なら質問をそのまま返す。
+     */
+    public static String withTrailingContext(String question, String header, String context) {
+        if (context == null || context.trim().isEmpty()) return question;
+        return question + "\n\n" + header + "\n" + context;
+    }
+
+    /** 覚えている先頭ターンの位置。見つからなければ（履歴の消去・切り詰め後）0。 */
+    private int anchorIndex(List<JSONObject> turns, int n) {
+        if (anchor == null) return 0;
+        for (int i = 0; i < n; i++) {
+            if (turns.get(i) == anchor) return i;
+        }
+        return 0;
+    }
+
+    /** from 以降で、件数・トークンとも上限の 1/{@value #SLACK_DIVISOR} 以上の空きができる最初の user ターンの位置。 */
+    private static int trimmedStart(int[] costs, List<JSONObject> turns, int from, int limit, long budget) {
+        int n = costs.length;
+        int countTarget = limit - limit / SLACK_DIVISOR;
+        long tokenTarget = budget == Long.MAX_VALUE ? budget : budget - budget / SLACK_DIVISOR;
+        long used = 0;
+        for (int i = from; i < n; i++) used += costs[i];
+        int start = from;
+        while (start < n && (n - start > countTarget || used > tokenTarget)) {
+            used -= costs[start];
+            start++;
+        }
+        while (start < n && !"user".equals(turns.get(start).optString("role"))) start++;
+        return start;
+    }
+
+    private static boolean fits(int[] costs, int start, int limit, long budget) {
+        int n = costs.length;
+        if (n - start > limit) return false;
+        long used = 0;
+        for (int i = start; i < n; i++) used += costs[i];
+        return used <= budget;
+    }
+
+    private int cost(String model, ToIntFunction<String> counter, JSONObject message) {
+        if (message == null) return 0;
+        String content = message.optString("content", "");
+        String k = model + '\u0000' + VectorCodec.textHash(content);
+        Integer cached = tokenCache.get(k);
+        if (cached == null) {
+            cached = Math.max(0, counter.applyAsInt(content));
+            tokenCache.put(k, cached);
+        }
+        return cached + MESSAGE_OVERHEAD_TOKENS;
+    }
+}
@@ -0,0 +1,389 @@
+package com.micklab.llamachat;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 会話ターンの全履歴（{@link ConversationStore} のメモリ上の窓 200 件より古いものも含む）。
+ *
+ * <ul>
+ *   <li>ターンは時刻・ロール・話者付きで追記のみ。会話リセットでも消さない。</li>
+ *   <li>{@link #pageBefore} で指定位置（時刻, ID）より古いターンをページ単位で読む（チャット画面の遡り表示用）。</li>
+ *   <li>{@link #recall} は指定時刻より前のターンから、キーワード（FTS4、{@link MemorySearchIndex} で分かち書きし BM25 で
+ *       採点）と int8 量子化埋め込みの類似度の順位を RRF で統合して関連するものを選ぶ（記憶呼び出しの補足用）。
+ *       未埋め込みのターンは呼び出しごとに {@link #EMBED_BACKFILL_BUDGET} 件ずつ補完し、ベクトル側の走査は新しい方から
+ *       {@link #VECTOR_SCAN_BUDGET} 件まで。</li>
+ * </ul>
+ *
+ * <p>記憶 DB とは別ファイル。DB アクセスを伴うためワーカースレッドから呼び出すこと。</p>
+ */
+public final class ConversationArchive extends SQLiteOpenHelper {
+    private static final String DB_NAME = "llamachat_conversations.db";
+    // v2: 全文検索用 FTS4 テーブル（turns_fts）と埋め込みサイドテーブル（turn_embeddings）を追加し、既存ターンを索引へ投入。
+    private static final int DB_VERSION = 2;
+
+    static final String TABLE = "turns";
+    static final String COL_ID = "id";
+    static final String COL_CREATED_AT = "created_at";
+    static final String COL_ROLE = "role";
+    static final String COL_SPEAKER = "speaker";
+    static final String COL_CONTENT = "content";
+
+    // 全文検索テーブル（docid = turns.id）。
+    static final String FTS_TABLE = "turns_fts";
+    static final String FTS_COL_TOKENS = "tokens";
+
+    // 埋め込みサイドテーブル（ターンID × 埋め込みモデル名で一意、int8 量子化のみ保持）。
+    static final String EMB_TABLE = "turn_embeddings";
+    static final String EMB_COL_TURN_ID = "turn_id";
+    static final String EMB_COL_MODEL = "model";
+    static final String EMB_COL_VECTOR_Q8 = "vector_q8";
+
+    /** 字句・ベクトルそれぞれのランキングの最大件数。 */
+    static final int RANKING_BUDGET = 20;
+    /** 1 回の呼び出しで補完する未埋め込みターンの最大件数。 */
+    static final int EMBED_BACKFILL_BUDGET = 16;
+    /** 類似度検索で走査する埋め込みの最大件数（新しい順）。 */
+    static final int VECTOR_SCAN_BUDGET = 5000;
+
+    /** {@link Turn#speaker} の値。 */
+    public static final String SPEAKER_USER = "user";
+    public static final String SPEAKER_BASE = "base";
+    public static final String SPEAKER_CHATTER = "chatter";
+
+    /** 保存済みの 1 ターン。 */
+    public static final class Turn {
+        public final long id;
+        public final long createdAt;
+        public final String role;     // "user" | "assistant"
+        public final String speaker;  // SPEAKER_USER | SPEAKER_BASE | SPEAKER_CHATTER
+        public final String content;
+
+        public Turn(long id, long createdAt, String role, String speaker, String content) {
+            this.id = id;
+            this.createdAt = createdAt;
+            this.role = role;
+            this.speaker = speaker;
+            this.content = content;
+        }
+    }
+
+    private static volatile ConversationArchive instance;
+
+    public static ConversationArchive get(Context ctx) {
+        if (instance == null) {
+            synchronized (ConversationArchive.class) {
+                if (instance == null) {
+                    instance = new ConversationArchive(ctx.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private ConversationArchive(Context ctx) {
+        super(ctx, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + COL_CREATED_AT + " INTEGER NOT NULL,"
+                + COL_ROLE + " TEXT NOT NULL,"
+                + COL_SPEAKER + " TEXT NOT NULL,"
+                + COL_CONTENT + " TEXT NOT NULL"
+                + ")");
+        db.execSQL("CREATE INDEX " + TABLE + "_created_at ON " + TABLE
+                + " (" + COL_CREATED_AT + ", " + COL_ID + ")");
+        createSearchTables(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createSearchTables(db);
+            rebuildFtsIndex(db);
+        }
+    }
+
+    /** ターンをまとめて追記する（1 トランザクション）。空本文は飛ばす。 */
+    public void appendAll(List<Turn> turns) {
+        if (turns == null || turns.isEmpty()) return;
+        SQLiteDatabase w = getWritableDatabase();
+        w.beginTransaction();
+        try {
+            for (Turn t : turns) {
+                if (t.content == null || t.content.trim().isEmpty()) continue;
+                ContentValues v = new ContentValues();
+                v.put(COL_CREATED_AT, t.createdAt);
+                v.put(COL_ROLE, t.role != null ? t.role : "");
+                v.put(COL_SPEAKER, t.speaker != null ? t.speaker : "");
+                v.put(COL_CONTENT, t.content);
+                long id = w.insert(TABLE, null, v);
+                if (id > 0) indexFts(w, id, t.content);
+            }
+            w.setTransactionSuccessful();
+        } finally {
+            w.endTransaction();
+        }
+    }
+
+    /** 保存済みターン数。 */
+    public int count() {
+        try (Cursor c = getReadableDatabase().rawQuery("SELECT COUNT(*) FROM " + TABLE, null)) {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        }
+    }
+
+    /**
+     * before より前のターンを新しい順に最大 limit 件返す。同じ時刻のターンは ID で前後を決める
+     * （表示用の並べ替え・絞り込みは {@link ConversationTimeline#olderPage}）。
+     */
+    public List<Turn> pageBefore(ConversationTimeline.Position before, int limit) {
+        List<Turn> out = new ArrayList<>();
+        String at = String.valueOf(before.createdAt);
+        try (Cursor c = getReadableDatabase().query(TABLE, null,
+                COL_CREATED_AT + " < ? OR (" + COL_CREATED_AT + " = ? AND " + COL_ID + " < ?)",
+                new String[]{at, at, String.valueOf(before.id)},
+                null, null, COL_CREATED_AT + " DESC, " + COL_ID + " DESC",
+                String.valueOf(Math.max(1, limit)))) {
+            while (c.moveToNext()) out.add(fromCursor(c));
+        }
+        return out;
+    }
+
+    /**
+     * before（epoch ms）より前のターンから query に関連するものを関連度順に最大 limit 件返す。
+     * 字句側（{@link #searchIds}）とベクトル側（{@link #searchSimilarIds}）の順位を RRF で統合する。
+     * embedding が null ならキーワード検索のみ。
+     *
+     * @param semanticQuery 埋め込みに使う文（通常はユーザ発話そのもの）
+     * @param lexicalQuery  キーワード検索に使う語句（空なら字句側は省略）
+     */
+    public List<Turn> recall(EmbeddingClient embedding, String semanticQuery, String lexicalQuery,
+                             long before, int limit) {
+        List<Long> lexical = searchIds(lexicalQuery, before, RANKING_BUDGET);
+        List<Long> vector = searchSimilarIds(embedding, semanticQuery, before, RANKING_BUDGET);
+        return getByIds(MemorySearchIndex.reciprocalRankFusion(
+                Arrays.asList(lexical, vector), HybridMemoryRetriever.RRF_K, limit));
+    }
+
+    /**
+     * before より前でキーワードに一致するターンの ID を BM25 の高い順（同点は新しい順）に最大 limit 件。
+     * まず全トークンを含むターン（AND）を採点し、limit 件に満たないときだけいずれかを含むターン（OR）で埋める。
+     * FTS が使えなければ LIKE 検索の新しい順。
+     */
+    public List<Long> searchIds(String query, long before, int limit) {
+        if (query == null || query.trim().isEmpty()) return new ArrayList<>();
+        int k = Math.max(1, limit);
+        String all = MemorySearchIndex.matchAllQuery(query);
+        if (all != null) {
+            try {
+                List<Long> ids = rankMatches(all, before, k);
+                String any = MemorySearchIndex.matchQuery(query);
+                if (ids.size() < k && any != null && !any.equals(all)) {
+                    for (Long id : rankMatches(any, before, k)) {
+                        if (ids.size() >= k) break;
+                        if (!ids.contains(id)) ids.add(id);
+                    }
+                }
+                return ids;
+            } catch (SQLException e) {
+                // FTS テーブルが無い（FTS4 非対応端末）→ LIKE へ
+            }
+        }
+        List<Long> ids = new ArrayList<>();
+        try (Cursor c = getReadableDatabase().query(TABLE, new String[]{COL_ID},
+                COL_CREATED_AT + " < ? AND " + COL_CONTENT + " LIKE ?",
+                new String[]{String.valueOf(before), "%" + query.trim() + "%"},
+                null, null, COL_CREATED_AT + " DESC, " + COL_ID + " DESC", String.valueOf(k))) {
+            while (c.moveToNext()) ids.add(c.getLong(0));
+        }
+        return ids;
+    }
+
+    /**
+     * before より前で query と意味の近いターンの ID を類似度順に最大 limit 件。クエリと未埋め込みターンの補完分は
+     * 1 回のバッチ要求にまとめる。embedding が null、または埋め込みに失敗したら空。
+     */
+    public List<Long> searchSimilarIds(EmbeddingClient embedding, String query, long before, int limit) {
+        List<Long> out = new ArrayList<>();
+        if (embedding == null || query == null || query.trim().isEmpty()) return out;
+        try {
+            String model = embedding.getModel();
+            List<Turn> backfill = missingEmbeddings(model, before, EMBED_BACKFILL_BUDGET);
+            List<String> texts = new ArrayList<>(backfill.size() + 1);
+            texts.add(query);
+            for (Turn t : backfill) texts.add(t.content);
+            EmbeddingBatch vecs = embedding.embedBatchFlat(texts);
+            if (vecs.isEmpty()) return out;
+            byte[] q8 = QuantizedVectors.encodeInt8(EmbeddingClient.l2Normalize(vecs.get(0)));
+            putEmbeddings(model, backfill, vecs);
+
+            long[] ids = new long[VECTOR_SCAN_BUDGET];
+            float[] scores = new float[VECTOR_SCAN_BUDGET];
+            int n = 0;
+            try (Cursor c = getReadableDatabase().rawQuery(
+                    "SELECT e." + EMB_COL_TURN_ID + ", e." + EMB_COL_VECTOR_Q8
+                            + " FROM " + EMB_TABLE + " e JOIN " + TABLE + " t ON t." + COL_ID + " = e." + EMB_COL_TURN_ID
+                            + " WHERE e." + EMB_COL_MODEL + " = ? AND t." + COL_CREATED_AT + " < ?"
+                            + " ORDER BY e." + EMB_COL_TURN_ID + " DESC LIMIT " + VECTOR_SCAN_BUDGET,
+                    new String[]{model, String.valueOf(before)})) {
+                while (c.moveToNext() && n < ids.length) {
+                    byte[] v = c.getBlob(1);
+                    if (v == null || v.length != q8.length) continue; // 次元の違う古い埋め込みは飛ばす
+                    ids[n] = c.getLong(0);
+                    scores[n] = QuantizedVectors.dotInt8(q8, v);
+                    n++;
+                }
+            }
+            for (int i : VectorScoring.topK(scores, n, limit)) out.add(ids[i]);
+        } catch (Exception e) {
+            return new ArrayList<>();
+        }
+        return out;
+    }
+
+    /** ID 列の順にターンを返す（見つからない ID は飛ばす）。 */
+    public List<Turn> getByIds(List<Long> ids) {
+        List<Turn> out = new ArrayList<>();
+        if (ids == null || ids.isEmpty()) return out;
+        StringBuilder in = new StringBuilder();
+        String[] args = new String[ids.size()];
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) in.append(',');
+            in.append('?');
+            args[i] = String.valueOf(ids.get(i));
+        }
+        Map<Long, Turn> byId = new HashMap<>();
+        try (Cursor c = getReadableDatabase().query(TABLE, null,
+                COL_ID + " IN (" + in + ")", args, null, null, null)) {
+            while (c.moveToNext()) {
+                Turn t = fromCursor(c);
+                byId.put(t.id, t);
+            }
+        }
+        for (Long id : ids) {
+            Turn t = byId.get(id);
+            if (t != null) out.add(t);
+        }
+        return out;
+    }
+
+    // ===== internal =====
+
+    /**
+     * FTS4 テーブルと埋め込みサイドテーブルを作る。分かち書きは Java 側で行うため、FTS への投入は
+     * {@link #appendAll} が同一トランザクション内で行う。FTS4 が使えない端末では作成に失敗するが、
+     * その場合も検索は LIKE にフォールバックするので無視する。
+     */
+    private static void createSearchTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + EMB_TABLE + " ("
+                + EMB_COL_TURN_ID + " INTEGER NOT NULL,"
+                + EMB_COL_MODEL + " TEXT NOT NULL,"
+                + EMB_COL_VECTOR_Q8 + " BLOB NOT NULL,"
+                + "PRIMARY KEY (" + EMB_COL_TURN_ID + ", " + EMB_COL_MODEL + ")"
+                + ")");
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + FTS_TABLE
+                    + " USING fts4(" + FTS_COL_TOKENS + ", tokenize=simple)");
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /** 既存の全ターンを FTS 索引へ投入し直す（アップグレード時のみ）。 */
+    private static void rebuildFtsIndex(SQLiteDatabase db) {
+        try {
+            db.execSQL("DELETE FROM " + FTS_TABLE);
+            try (Cursor c = db.query(TABLE, new String[]{COL_ID, COL_CONTENT},
+                    null, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    ContentValues v = new ContentValues();
+                    v.put("docid", c.getLong(0));
+                    v.put(FTS_COL_TOKENS, MemorySearchIndex.indexText(c.getString(1)));
+                    db.insert(FTS_TABLE, null, v);
+                }
+            }
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private static void indexFts(SQLiteDatabase w, long id, String content) {
+        try {
+            ContentValues v = new ContentValues();
+            v.put("docid", id);
+            v.put(FTS_COL_TOKENS, MemorySearchIndex.indexText(content));
+            w.insert(FTS_TABLE, null, v);
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /** FTS の一致を BM25 で採点し、上位 limit 件の ID を返す（新しい順に読み、同点は新しい方が残る）。 */
+    private List<Long> rankMatches(String match, long before, int limit) {
+        MemorySearchIndex.TopHits top = new MemorySearchIndex.TopHits(limit);
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT " + FTS_TABLE + ".docid, matchinfo(" + FTS_TABLE + ", '"
+                        + MemorySearchIndex.MATCHINFO_FORMAT + "') FROM " + FTS_TABLE
+                        + " JOIN " + TABLE + " t ON t." + COL_ID + " = " + FTS_TABLE + ".docid"
+                        + " WHERE " + FTS_TABLE + " MATCH ? AND t." + COL_CREATED_AT + " < ?"
+                        + " ORDER BY " + FTS_TABLE + ".docid DESC",
+                new String[]{match, String.valueOf(before)})) {
+            while (c.moveToNext()) {
+                top.add(c.getLong(0), MemorySearchIndex.bm25(MemorySearchIndex.matchinfo(c.getBlob(1))));
+            }
+        }
+        return top.drainIds();
+    }
+
+    /** before より前で、指定モデルの埋め込みがまだ無いターンを新しい順に最大 limit 件。 */
+    private List<Turn> missingEmbeddings(String model, long before, int limit) {
+        List<Turn> out = new ArrayList<>();
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT * FROM " + TABLE + " t WHERE t." + COL_CREATED_AT + " < ? AND NOT EXISTS (SELECT 1 FROM "
+                        + EMB_TABLE + " e WHERE e." + EMB_COL_TURN_ID + " = t." + COL_ID
+                        + " AND e." + EMB_COL_MODEL + " = ?) ORDER BY t." + COL_ID + " DESC LIMIT " + limit,
+                new String[]{String.valueOf(before), model})) {
+            while (c.moveToNext()) out.add(fromCursor(c));
+        }
+        return out;
+    }
+
+    /** vecs[1..] を backfill の順に int8 量子化して保存する（vecs[0] はクエリ）。 */
+    private void putEmbeddings(String model, List<Turn> backfill, EmbeddingBatch vecs) {
+        if (backfill.isEmpty()) return;
+        SQLiteDatabase w = getWritableDatabase();
+        w.beginTransaction();
+        try {
+            for (int i = 1; i < vecs.size() && i <= backfill.size(); i++) {
+                ContentValues v = new ContentValues();
+                v.put(EMB_COL_TURN_ID, backfill.get(i - 1).id);
+                v.put(EMB_COL_MODEL, model);
+                v.put(EMB_COL_VECTOR_Q8, QuantizedVectors.encodeInt8(EmbeddingClient.l2Normalize(vecs.get(i))));
+                w.insertWithOnConflict(EMB_TABLE, null, v, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            w.setTransactionSuccessful();
+        } finally {
+            w.endTransaction();
+        }
+    }
+
+    private static Turn fromCursor(Cursor c) {
+        return new Turn(
+                c.getLong(c.getColumnIndexOrThrow(COL_ID)),
+                c.getLong(c.getColumnIndexOrThrow(COL_CREATED_AT)),
+                c.getString(c.getColumnIndexOrThrow(COL_ROLE)),
+                c.getString(c.getColumnIndexOrThrow(COL_SPEAKER)),
+                c.getString(c.getColumnIndexOrThrow(COL_CONTENT)));
+    }
+}
@@ -1,16 +1,18 @@
 package com.micklab.llamachat;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Log;
 
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -18,19 +20,36 @@ import java.util.concurrent.CopyOnWriteArrayList;
 /**
  * MainActivity と FloatOverlayService が同一プロセス内で共有する会話ログのシングルトン。
  *
- * 表示用の user/assistant ターンのみを保持し、backing file（overlay_sync_log.jsonl）へ永続化する。
+ * 表示用の user/assistant ターンのみを保持し、追記専用のセグメントログ（{@link SegmentedLog}、
+ * ディレクトリ overlay_sync_log/）へ永続化する。追記は 1 行書くだけで、上限を超えた古い記録は
+ * 閉じたセグメントごと削除する（全件の書き直しはしない）。起動時は末尾の必要な分だけ読む。
+ * ディスクへの書き込みは専用スレッドの {@link GroupCommitWriter} がまとめて行うため、{@link #append} は
+ * 呼び出し元（UI スレッド・OkHttp のコールバックスレッド）でファイル I/O をしない。
  * どちらのコンポーネントから追記しても全リスナーへ通知され、双方向にライブ同期される。
+ * メモリ上の窓（最新 200 件）を外れたターンも含めた全履歴は、同じ書き出しスレッドから
+ * {@link ConversationArchive} へ追記する（遡り表示用。会話リセットでは消さない）。
+ * ターンの時刻は狭義単調増加で、全履歴の並びと遡り表示の境界に使う（{@link ConversationTimeline}）。
+ * 共有しない CHATTER 話者のターンは {@link #archiveOnly} で同じ書き出し順に載せ、全履歴にだけ話者付きで残す。
+ * 全履歴は {@link #recall} で記憶呼び出しの補足（窓より前の関連する会話）にも使う。
  * system プロンプトは各コンポーネントが自前で付与するため本ストアでは保持しない。
  */
 public final class ConversationStore {
 
     public static final class Entry {
         public final String role;     // "user" | "assistant"
+        public final String speaker;  // ConversationArchive.SPEAKER_*
         public final String content;
+        public final long createdAt;  // 追記時刻（epoch ms）
 
-        public Entry(String role, String content) {
+        public Entry(String role, String content, long createdAt) {
+            this(role, defaultSpeaker(role), content, createdAt);
+        }
+
+        public Entry(String role, String speaker, String content, long createdAt) {
             this.role = role;
+            this.speaker = speaker;
             this.content = content;
+            this.createdAt = createdAt;
         }
     }
 
@@ -42,8 +61,27 @@ public final class ConversationStore {
         void onCleared();
     }
 
-    private static final String BACKING_FILE = "overlay_sync_log.jsonl";
+    // 旧形式（単一ファイル）。初回起動時にセグメントログへ取り込んで削除する。
+    private static final String LEGACY_BACKING_FILE = "overlay_sync_log.jsonl";
+    private static final String LOG_DIR = "overlay_sync_log";
     private static final int MAX_ENTRIES = 200;
+    // 1 セグメントの件数。ディスク上の件数は最大で MAX_ENTRIES + 2 × この値程度になる。
+    private static final int SEGMENT_ENTRIES = 50;
+    // 書き出し待ちキューの上限（満杯時のみ append が待つ）。
+    private static final int WRITER_QUEUE_CAPACITY = 256;
+    // この間に届いた追記を 1 回の書き込み＋fsync にまとめる。
+    private static final long COMMIT_INTERVAL_MS = 250;
+    private static final boolean SYNC_ON_COMMIT = true;
+    // flush() の最大待ち時間。onDestroy（UI スレッド）から呼ぶため短くする。間に合わなかった分も
+    // 書き出しスレッドはプロセスが生きている限り書き続け、失うのは強制終了時の直近の追記だけ。
+    private static final long FLUSH_TIMEOUT_MS = 200;
+    // 最後に会話リセットした時刻（遡り表示の下限）。
+    private static final String PREFS = "conversation_store";
+    private static final String KEY_CLEARED_AT = "cleared_at";
+    // 全履歴にだけ書くレコードの印（共有ログには書かない）。
+    private static final String KEY_ARCHIVE_ONLY = "archive_only";
+
+    private static final String TAG = "ConversationStore";
 
     private static ConversationStore instance;
 
@@ -55,15 +93,59 @@ public final class ConversationStore {
     }
 
     private final Context appContext;
+    private final SegmentedLog log;
+    private final ConversationArchive archive;
+    private final GroupCommitWriter writer;
     private final List<Entry> entries = new ArrayList<>();
+    // 最後に振った時刻（同じミリ秒に追記しても時刻が重ならないようにする）。
+    private long lastCreatedAt;
+    // 全履歴が空なら最初の書き出しの前に取り込む、起動時に読んだ窓の分（書き出しスレッドのみが触る）。
+    private List<Entry> archiveSeed;
     private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // 書き出しキューへ積む順序をメモリ上の順序と揃えるためのロック。キューが満杯で待つ間も
+    // ストア本体（this）のロックは手放しておき、snapshot()/size() を止めない。
+    private final Object enqueueLock = new Object();
     // 通知は必ずメインスレッドへ post（非同期）する。これにより append 呼び出し元が
     // storeRenderedCount を更新し終えた後にリスナーが走り、発信元の二重描画を防ぐ。
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     private ConversationStore(Context appContext) {
         this.appContext = appContext;
+        this.log = new SegmentedLog(new File(appContext.getFilesDir(), LOG_DIR), SEGMENT_ENTRIES);
+        this.archive = ConversationArchive.get(appContext);
         loadFromFile();
+        this.archiveSeed = new ArrayList<>(entries);
+        this.writer = new GroupCommitWriter("conversation-writer", new GroupCommitWriter.Sink() {
+            @Override
+            public void write(List<String> records) throws IOException {
+                List<String> shared = sharedRecords(records);
+                if (!shared.isEmpty()) {
+                    log.appendAll(shared);
+                }
+                seedArchive();
+                archiveRecords(records);
+                // 上限より 1 セグメント以上多くなったら古いセグメントを削除する（書き出しスレッド上で行う）
+                if (log.size() >= MAX_ENTRIES + SEGMENT_ENTRIES) {
+                    log.compact(MAX_ENTRIES);
+                }
+            }
+
+            @Override
+            public void sync() throws IOException {
+                log.sync();
+            }
+
+            @Override
+            public void clear() {
+                log.clear();
+            }
+
+            @Override
+            public void failed(Exception e, int records) {
+                // ディスク満杯などで失われた追記を黙って捨てない
+                Log.w(TAG, "conversation log write failed (" + records + " records)", e);
+            }
+        }, WRITER_QUEUE_CAPACITY, COMMIT_INTERVAL_MS, SYNC_ON_COMMIT);
     }
 
     public synchronized List<Entry> snapshot() {
@@ -82,16 +164,18 @@ public final class ConversationStore {
         if (trimmed.isEmpty()) {
             return;
         }
+        String speaker = defaultSpeaker(role);
         int newSize;
-        synchronized (this) {
-            entries.add(new Entry(role, trimmed));
-            boolean trimmed_ = trimMemory();
-            newSize = entries.size();
-            if (trimmed_) {
-                rewriteFile();
-            } else {
-                persistAppend(role, trimmed);
+        synchronized (enqueueLock) {
+            long now;
+            synchronized (this) {
+                now = ConversationTimeline.nextTimestamp(lastCreatedAt, System.currentTimeMillis());
+                lastCreatedAt = now;
+                entries.add(new Entry(role, speaker, trimmed, now));
+                trimMemory();
+                newSize = entries.size();
             }
+            persistAppend(role, speaker, trimmed, now, false);
         }
         final int sz = newSize;
         mainHandler.post(() -> {
@@ -101,17 +185,35 @@ public final class ConversationStore {
         });
     }
 
+    /**
+     * 共有ストア（メモリ上の窓・セグメントログ・リスナー通知）には載せず、全履歴にだけ話者付きで残す。
+     * MainActivity の CHATTER 話者のターン用。時刻は共有ターンと同じ単調な列から振るため、遡り表示で前後が崩れない。
+     */
+    public void archiveOnly(String role, String speaker, String content) {
+        if (role == null || speaker == null || content == null) {
+            return;
+        }
+        String trimmed = content.trim();
+        if (trimmed.isEmpty()) {
+            return;
+        }
+        synchronized (enqueueLock) {
+            long now;
+            synchronized (this) {
+                now = ConversationTimeline.nextTimestamp(lastCreatedAt, System.currentTimeMillis());
+                lastCreatedAt = now;
+            }
+            persistAppend(role, speaker, trimmed, now, true);
+        }
+    }
+
     public void clear() {
-        synchronized (this) {
-            entries.clear();
-            File f = new File(appContext.getFilesDir(), BACKING_FILE);
-            if (f.exists() && !f.delete()) {
-                // 削除に失敗した場合は空で上書きする。
-                try (FileOutputStream fos = appContext.openFileOutput(BACKING_FILE, Context.MODE_PRIVATE)) {
-                    fos.write(new byte[0]);
-                } catch (Exception ignored) {
-                }
+        synchronized (enqueueLock) {
+            synchronized (this) {
+                entries.clear();
             }
+            writer.clear();
+            prefs().edit().putLong(KEY_CLEARED_AT, System.currentTimeMillis()).apply();
         }
         mainHandler.post(() -> {
             for (Listener l : listeners) {
@@ -120,6 +222,37 @@ public final class ConversationStore {
         });
     }
 
+    /**
+     * 書き出し待ちの追記をディスクへ書き終えるまで待つ（サービス/画面の終了時に呼ぶ）。
+     * 間に合わなかった、または前回の flush 以降に書き出しが失敗していれば false。
+     */
+    public boolean flush() {
+        return writer.flush(FLUSH_TIMEOUT_MS);
+    }
+
+    /**
+     * before より前の、現在の会話（最後のリセット以降）のターンを新しい方から最大 limit 件、古い順に返す。
+     * チャット画面の遡り表示用。DB を読むためワーカースレッドから呼ぶこと。
+     */
+    public List<ConversationArchive.Turn> loadOlder(ConversationTimeline.Position before, int limit) {
+        long clearedAt = prefs().getLong(KEY_CLEARED_AT, 0L);
+        return ConversationTimeline.olderPage(archive.pageBefore(before, limit), before, clearedAt);
+    }
+
+    /**
+     * query に関連する過去のターンを関連度順に最大 limit 件返す（{@link ConversationArchive#recall}）。
+     * プロンプトに載る会話と重ならないよう、メモリ上の窓より前（会話リセット前も含む）のターンだけを対象にする。
+     * DB・ネットワークを伴うためワーカースレッドから呼ぶこと。
+     */
+    public List<ConversationArchive.Turn> recall(EmbeddingClient embedding, String semanticQuery,
+                                                 String lexicalQuery, int limit) {
+        long before;
+        synchronized (this) {
+            before = entries.isEmpty() ? Long.MAX_VALUE : entries.get(0).createdAt;
+        }
+        return archive.recall(embedding, semanticQuery, lexicalQuery, before, limit);
+    }
+
     public void addListener(Listener l) {
         if (l != null && !listeners.contains(l)) {
             listeners.add(l);
@@ -132,73 +265,184 @@ public final class ConversationStore {
 
     // ----- internal -----
 
-    /** メモリ上限を超えたら先頭から削る。削った場合 true。 */
-    private boolean trimMemory() {
-        boolean removed = false;
+    /** メモリ上限を超えたら先頭から削る（ディスク側は書き出し時に古いセグメントごと削る）。 */
+    private void trimMemory() {
         while (entries.size() > MAX_ENTRIES) {
             entries.remove(0);
-            removed = true;
         }
-        return removed;
     }
 
     private void loadFromFile() {
-        File f = new File(appContext.getFilesDir(), BACKING_FILE);
-        if (!f.exists()) {
+        importLegacyFile();
+        try {
+            List<Entry> loaded = new ArrayList<>();
+            for (String line : log.readTail(MAX_ENTRIES)) {
+                Entry e = parseLine(line);
+                if (e != null) {
+                    loaded.add(e);
+                }
+            }
+            long[] times = new long[loaded.size()];
+            boolean legacy = false;
+            for (int i = 0; i < times.length; i++) {
+                times[i] = loaded.get(i).createdAt;
+                legacy |= times[i] <= 0;
+            }
+            if (legacy) {
+                // 時刻を持たない旧形式の行に仮の時刻を振り、次回以降も同じ値になるようログへ書き戻す
+                times = ConversationTimeline.stampLegacy(times, System.currentTimeMillis());
+                List<String> records = new ArrayList<>(times.length);
+                for (int i = 0; i < times.length; i++) {
+                    Entry e = loaded.get(i);
+                    loaded.set(i, new Entry(e.role, e.speaker, e.content, times[i]));
+                    records.add(toRecord(e.role, e.speaker, e.content, times[i], false));
+                }
+                log.clear();
+                log.appendAll(records);
+                log.sync();
+            }
+            entries.addAll(loaded);
+            if (!loaded.isEmpty()) {
+                lastCreatedAt = times[times.length - 1];
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * 全履歴が空なら（初回起動・旧バージョンからの更新時）、起動時に読んだ窓の分を取り込む。
+     * 新しいターンより先に入るよう、書き出しスレッドで最初の書き出しの前に 1 度だけ行う。
+     */
+    private void seedArchive() {
+        List<Entry> seed = archiveSeed;
+        archiveSeed = null;
+        if (seed == null || seed.isEmpty()) {
             return;
         }
-        try (BufferedReader r = new BufferedReader(new FileReader(f))) {
-            String line;
-            List<Entry> loaded = new ArrayList<>();
-            while ((line = r.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) {
+        try {
+            if (archive.count() > 0) {
+                return;
+            }
+            List<ConversationArchive.Turn> turns = new ArrayList<>(seed.size());
+            for (Entry e : seed) {
+                turns.add(toTurn(e));
+            }
+            archive.appendAll(turns);
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    /** 書き出したレコードを全履歴へも追記する（書き出しスレッド上）。失敗してもログ側の書き出しは止めない。 */
+    private void archiveRecords(List<String> records) {
+        try {
+            List<ConversationArchive.Turn> turns = new ArrayList<>(records.size());
+            for (String record : records) {
+                Entry e = parseLine(record);
+                if (e != null) {
+                    turns.add(toTurn(e));
+                }
+            }
+            archive.appendAll(turns);
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    /** 書き出すレコードのうち共有ログに載せるもの（{@link #archiveOnly} の分を除く）。 */
+    private static List<String> sharedRecords(List<String> records) {
+        List<String> out = new ArrayList<>(records.size());
+        for (String record : records) {
+            try {
+                if (new JSONObject(record).optBoolean(KEY_ARCHIVE_ONLY, false)) {
                     continue;
                 }
-                try {
-                    JSONObject o = new JSONObject(line);
-                    String role = o.optString("role", "").trim();
-                    String content = o.optString("content", "").trim();
-                    if (content.isEmpty()) {
+            } catch (Exception ignored) {
+            }
+            out.add(record);
+        }
+        return out;
+    }
+
+    private static ConversationArchive.Turn toTurn(Entry e) {
+        return new ConversationArchive.Turn(0, e.createdAt, e.role, e.speaker, e.content);
+    }
+
+    /** 話者の記録が無いターンの話者。共有ストアに載るアシスタントのターンは BASE 話者のもの。 */
+    private static String defaultSpeaker(String role) {
+        return "user".equals(role) ? ConversationArchive.SPEAKER_USER : ConversationArchive.SPEAKER_BASE;
+    }
+
+    private SharedPreferences prefs() {
+        return appContext.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    /** 旧形式の単一ファイルがあれば、末尾 MAX_ENTRIES 件をセグメントログへ移して削除する。 */
+    private void importLegacyFile() {
+        File f = new File(appContext.getFilesDir(), LEGACY_BACKING_FILE);
+        if (!f.exists()) {
+            return;
+        }
+        if (log.size() == 0) {
+            ArrayDeque<String> tail = new ArrayDeque<>();
+            try (BufferedReader r = new BufferedReader(new FileReader(f))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    if (parseLine(line) == null) {
                         continue;
                     }
-                    if ("user".equals(role) || "assistant".equals(role)) {
-                        loaded.add(new Entry(role, content));
+                    tail.addLast(line.trim());
+                    if (tail.size() > MAX_ENTRIES) {
+                        tail.removeFirst();
                     }
-                } catch (Exception ignored) {
                 }
+                for (String record : tail) {
+                    log.append(record);
+                }
+            } catch (Exception ignored) {
             }
-            int start = Math.max(0, loaded.size() - MAX_ENTRIES);
-            for (int i = start; i < loaded.size(); i++) {
-                entries.add(loaded.get(i));
-            }
-        } catch (Exception ignored) {
         }
+        f.delete();
     }
 
-    private void persistAppend(String role, String content) {
+    /** ログ 1 行を解釈する。不正行・対象外ロール・空本文は null。 */
+    private static Entry parseLine(String line) {
+        line = line.trim();
+        if (line.isEmpty()) {
+            return null;
+        }
         try {
-            JSONObject o = new JSONObject();
-            o.put("role", role);
-            o.put("content", content);
-            try (FileOutputStream fos = appContext.openFileOutput(BACKING_FILE, Context.MODE_APPEND)) {
-                fos.write((o.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            JSONObject o = new JSONObject(line);
+            String role = o.optString("role", "").trim();
+            String content = o.optString("content", "").trim();
+            if (content.isEmpty()) {
+                return null;
+            }
+            if ("user".equals(role) || "assistant".equals(role)) {
+                String speaker = o.optString("speaker", "").trim();
+                return new Entry(role, speaker.isEmpty() ? defaultSpeaker(role) : speaker,
+                        content, o.optLong("ts", 0L));
             }
         } catch (Exception ignored) {
         }
+        return null;
     }
 
-    /** メモリ内容で backing file を丸ごと書き直す（トリム発生時に呼ぶ）。 */
-    private void rewriteFile() {
-        try (FileOutputStream fos = appContext.openFileOutput(BACKING_FILE, Context.MODE_PRIVATE)) {
-            StringBuilder sb = new StringBuilder();
-            for (Entry e : entries) {
-                JSONObject o = new JSONObject();
-                o.put("role", e.role);
-                o.put("content", e.content);
-                sb.append(o.toString()).append("\n");
-            }
-            fos.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+    /** ログ 1 行の JSON。 */
+    private static String toRecord(String role, String speaker, String content, long createdAt,
+                                   boolean archiveOnly) throws Exception {
+        JSONObject o = new JSONObject();
+        o.put("role", role);
+        o.put("speaker", speaker);
+        o.put("content", content);
+        o.put("ts", createdAt);
+        if (archiveOnly) {
+            o.put(KEY_ARCHIVE_ONLY, true);
+        }
+        return o.toString();
+    }
+
+    private void persistAppend(String role, String speaker, String content, long createdAt, boolean archiveOnly) {
+        try {
+            writer.append(toRecord(role, speaker, content, createdAt, archiveOnly));
         } catch (Exception ignored) {
         }
     }
@@ -0,0 +1,89 @@
+package com.micklab.llamachat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 会話ターンの時刻と、チャット画面の遡り表示のページ境界を扱う。
+ *
+ * <ul>
+ *   <li>{@link ConversationStore} はターンに狭義単調増加の時刻（epoch ms）を振る（{@link #nextTimestamp}）。
+ *       時刻を持たない旧形式の行には {@link #stampLegacy} で読み込み順を保つ時刻を振り、ログへ書き戻して
+ *       次回起動以降も（全履歴に取り込んだ値と）同じ時刻を使う。</li>
+ *   <li>遡り表示の位置は（時刻, 全履歴の ID）の組（{@link Position}）で表す。同じミリ秒のターンがページの境界を
+ *       またいでも ID で区別するため、取りこぼしも重複も起きない。</li>
+ * </ul>
+ *
+ * <p>Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class ConversationTimeline {
+
+    /** 表示行・ページ境界の位置。 */
+    public static final class Position {
+        public final long createdAt;
+        /** 全履歴（{@link ConversationArchive}）の ID。分からない行（メモリ上の窓から描いた行）は 0。 */
+        public final long id;
+
+        public Position(long createdAt, long id) {
+            this.createdAt = createdAt;
+            this.id = id;
+        }
+
+        /** (createdAt, id) のターンがこの位置より前か。 */
+        public boolean follows(long createdAt, long id) {
+            return createdAt < this.createdAt || (createdAt == this.createdAt && id < this.id);
+        }
+    }
+
+    private ConversationTimeline() {
+    }
+
+    /** 直前のターンの時刻 previous より必ず後になる時刻（now が同じか巻き戻っていれば previous + 1）。 */
+    public static long nextTimestamp(long previous, long now) {
+        return previous >= now ? previous + 1 : now;
+    }
+
+    /**
+     * 時刻（0 以下は無し）の列を古い順に受け取り、無いものに仮の時刻を振った列を返す。
+     * 仮の時刻は直後の時刻付きの行（無ければ now）より前に 1 ms ずつ詰めて並べるため、読み込み順が保たれる。
+     */
+    public static long[] stampLegacy(long[] createdAt, long now) {
+        long[] out = createdAt.clone();
+        long bound = now;
+        for (int i = out.length - 1; i >= 0; i--) {
+            if (out[i] > 0) {
+                bound = Math.min(bound, out[i]);
+            } else {
+                out[i] = --bound;
+            }
+        }
+        return out;
+    }
+
+    /** 表示行の tag 群のうち最も古い位置。{@link Position} が 1 つも無ければ null。 */
+    public static Position oldest(List<?> tags) {
+        Position oldest = null;
+        for (Object tag : tags) {
+            if (!(tag instanceof Position)) continue;
+            Position p = (Position) tag;
+            if (oldest == null || oldest.follows(p.createdAt, p.id)) oldest = p;
+        }
+        return oldest;
+    }
+
+    /**
+     * 全履歴から新しい順に読んだページを、表示に差し込む古い順の並びにする。
+     * before 以降のターンと、最後の会話リセット（clearedAt）より前のターンは除く。
+     */
+    public static List<ConversationArchive.Turn> olderPage(List<ConversationArchive.Turn> newestFirst,
+                                                           Position before, long clearedAt) {
+        List<ConversationArchive.Turn> out = new ArrayList<>(newestFirst.size());
+        for (ConversationArchive.Turn t : newestFirst) {
+            if (t.createdAt < clearedAt) break; // 以降はすべてリセット前
+            if (before.follows(t.createdAt, t.id)) out.add(t);
+        }
+        Collections.reverse(out);
+        return out;
+    }
+}
@@ -0,0 +1,86 @@
+package com.micklab.llamachat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 埋め込みのバッチ結果。n 本の d 次元ベクトルを 1 本の連続した float 配列（行優先）で保持する。
+ *
+ * <p>i 番目のベクトルは {@code data[offset(i) .. offset(i) + dimension())}。
+ * 個別の float[] が必要なときだけ {@link #get(int)} でコピーを取り出す。</p>
+ */
+public final class EmbeddingBatch {
+
+    private final float[] data;
+    private final int size;
+    private final int dimension;
+
+    EmbeddingBatch(float[] data, int size, int dimension) {
+        if ((long) size * dimension > data.length) {
+            throw new IllegalArgumentException("data too short: " + data.length + " < " + size + "x" + dimension);
+        }
+        this.data = data;
+        this.size = size;
+        this.dimension = dimension;
+    }
+
+    /** ベクトル本数。 */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** 次元数（空のバッチでは 0）。 */
+    public int dimension() {
+        return dimension;
+    }
+
+    /** 連続配列（呼び出し側で書き換えないこと）。 */
+    public float[] data() {
+        return data;
+    }
+
+    /** i 番目のベクトルの先頭位置。 */
+    public int offset(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        return i * dimension;
+    }
+
+    /** i 番目のベクトルのコピー。 */
+    public float[] get(int i) {
+        float[] v = new float[dimension];
+        System.arraycopy(data, offset(i), v, 0, dimension);
+        return v;
+    }
+
+    /** 従来 API 向けに個別配列のリストへ展開する。 */
+    public List<float[]> toList() {
+        List<float[]> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) out.add(get(i));
+        return out;
+    }
+
+    /** 各ベクトルを L2 正規化した新しいバッチ（内積 = コサイン類似度で採点できる。{@link VectorScoring}）。 */
+    public EmbeddingBatch normalized() {
+        return new EmbeddingBatch(VectorScoring.normalizeRows(data, size, dimension), size, dimension);
+    }
+
+    /** i 番目のベクトルと q のコサイン類似度。コピーを作らずに計算する（次元不一致・零ベクトルは 0）。 */
+    public float cosineSimilarity(int i, float[] q) {
+        if (q == null || q.length != dimension || dimension == 0) return 0f;
+        int off = offset(i);
+        double dot = 0.0, na = 0.0, nb = 0.0;
+        for (int k = 0; k < dimension; k++) {
+            float a = q[k];
+            float b = data[off + k];
+            dot += (double) a * b;
+            na += (double) a * a;
+            nb += (double) b * b;
+        }
+        if (na == 0.0 || nb == 0.0) return 0f;
+        return (float) (dot / (Math.sqrt(na) * Math.sqrt(nb)));
+    }
+}
@@ -0,0 +1,106 @@
+package com.micklab.llamachat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 埋め込みベクトルのキャッシュ。キーは（モデル名, テキストの SHA-1）。
+ *
+ * <p>容量上限付きのメモリ上 LRU と、任意の永続ストア（{@link Store}）の 2 段構成。
+ * メモリに無いキーだけをストアへまとめて問い合わせ、見つかったものはメモリへ載せる。
+ * {@link EmbeddingClient} はこれを前段に置き、未キャッシュの入力だけをサーバーへ送る。</p>
+ *
+ * <p>スレッドセーフ。返すベクトルは共有されるため呼び出し側で書き換えないこと。
+ * Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class EmbeddingCache {
+
+    /** 永続ストア。実装は {@link EmbeddingCacheDatabase}。 */
+    public interface Store {
+        /** 指定ハッシュのうち保存済みのものを返す（ハッシュ → ベクトル）。 */
+        Map<String, float[]> load(String model, Collection<String> textHashes);
+
+        /** まとめて保存する（既存は置き換え）。 */
+        void save(String model, Map<String, float[]> vectors);
+    }
+
+    private final int memoryCapacity;
+    private final Store store; // null 可（メモリのみ）
+    private final LinkedHashMap<String, float[]> lru;
+
+    public EmbeddingCache(int memoryCapacity, Store store) {
+        this.memoryCapacity = Math.max(1, memoryCapacity);
+        this.store = store;
+        this.lru = new LinkedHashMap<String, float[]>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > EmbeddingCache.this.memoryCapacity;
+            }
+        };
+    }
+
+    /** キャッシュ済みのベクトルを返す（ハッシュ → ベクトル。見つからないものは含まない）。 */
+    public Map<String, float[]> getAll(String model, Collection<String> textHashes) {
+        Map<String, float[]> out = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        synchronized (lru) {
+            for (String h : textHashes) {
+                if (out.containsKey(h)) continue;
+                float[] v = lru.get(key(model, h));
+                if (v != null) {
+                    out.put(h, v);
+                } else {
+                    misses.add(h);
+                }
+            }
+        }
+        if (store == null || misses.isEmpty()) return out;
+        Map<String, float[]> loaded;
+        try {
+            loaded = store.load(model, misses);
+        } catch (RuntimeException e) {
+            return out; // 永続層の失敗はキャッシュミス扱い
+        }
+        if (!loaded.isEmpty()) {
+            synchronized (lru) {
+                for (Map.Entry<String, float[]> e : loaded.entrySet()) {
+                    lru.put(key(model, e.getKey()), e.getValue());
+                }
+            }
+            out.putAll(loaded);
+        }
+        return out;
+    }
+
+    /** ベクトルをメモリと永続ストアへ書き込む。 */
+    public void putAll(String model, Map<String, float[]> vectors) {
+        if (vectors.isEmpty()) return;
+        synchronized (lru) {
+            for (Map.Entry<String, float[]> e : vectors.entrySet()) {
+                lru.put(key(model, e.getKey()), e.getValue());
+            }
+        }
+        if (store != null) {
+            try {
+                store.save(model, vectors);
+            } catch (RuntimeException ignored) {
+                // 永続化できなくてもメモリ上のキャッシュは有効
+            }
+        }
+    }
+
+    /** メモリ上のエントリ数。 */
+    public int memorySize() {
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+
+    private static String key(String model, String textHash) {
+        return model + '\u0000' + textHash;
+    }
+}
@@ -0,0 +1,131 @@
+package com.micklab.llamachat;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link EmbeddingCache} の永続ストア（モデル名 × テキストハッシュ → ベクトル）。
+ *
+ * <p>ベクトルは float16（{@link QuantizedVectors} 形式）で保存し、読み出し時に float に戻す。
+ * 再ランキングのコサイン類似度には十分な精度で、容量は float32 の半分になる。</p>
+ *
+ * <p>記憶 DB とは別ファイル。行数が上限を超えたら古いものから削除する。
+ * プロセス共通のキャッシュは {@link #sharedCache(Context)} で取得する。</p>
+ */
+public final class EmbeddingCacheDatabase extends SQLiteOpenHelper implements EmbeddingCache.Store {
+    private static final String DB_NAME = "llamachat_embedding_cache.db";
+    // v2: ベクトルを float32 から float16 に変更（キャッシュなので作り直す）。
+    private static final int DB_VERSION = 2;
+
+    static final String TABLE = "embedding_cache";
+    static final String COL_MODEL = "model";
+    static final String COL_TEXT_HASH = "text_hash";
+    static final String COL_VECTOR = "vector";
+    static final String COL_CREATED_AT = "created_at";
+
+    /** 永続化する最大件数（1024 次元 float16 で約 40MB）。 */
+    static final int MAX_ENTRIES = 20000;
+    /** メモリ上 LRU の件数。 */
+    static final int MEMORY_CAPACITY = 512;
+    private static final int IN_CLAUSE_CHUNK = 500;
+
+    private static volatile EmbeddingCache sharedCache;
+
+    /** プロセス共通の埋め込みキャッシュ（メモリ LRU ＋ このデータベース）。 */
+    public static EmbeddingCache sharedCache(Context ctx) {
+        if (sharedCache == null) {
+            synchronized (EmbeddingCacheDatabase.class) {
+                if (sharedCache == null) {
+                    sharedCache = new EmbeddingCache(MEMORY_CAPACITY,
+                            new EmbeddingCacheDatabase(ctx.getApplicationContext()));
+                }
+            }
+        }
+        return sharedCache;
+    }
+
+    private EmbeddingCacheDatabase(Context ctx) {
+        super(ctx, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COL_MODEL + " TEXT NOT NULL,"
+                + COL_TEXT_HASH + " TEXT NOT NULL,"
+                + COL_VECTOR + " BLOB NOT NULL,"
+                + COL_CREATED_AT + " INTEGER NOT NULL,"
+                + "PRIMARY KEY (" + COL_MODEL + ", " + COL_TEXT_HASH + "))");
+        db.execSQL("CREATE INDEX idx_" + TABLE + "_created ON " + TABLE + "(" + COL_CREATED_AT + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // キャッシュなので作り直してよい
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    @Override
+    public Map<String, float[]> load(String model, Collection<String> textHashes) {
+        Map<String, float[]> out = new HashMap<>();
+        if (model == null || textHashes.isEmpty()) return out;
+        List<String> all = new ArrayList<>(textHashes);
+        SQLiteDatabase db = getReadableDatabase();
+        for (int from = 0; from < all.size(); from += IN_CLAUSE_CHUNK) {
+            List<String> part = all.subList(from, Math.min(all.size(), from + IN_CLAUSE_CHUNK));
+            String[] args = new String[part.size() + 1];
+            args[0] = model;
+            StringBuilder ph = new StringBuilder();
+            for (int i = 0; i < part.size(); i++) {
+                args[i + 1] = part.get(i);
+                ph.append(i == 0 ? "?" : ",?");
+            }
+            try (Cursor c = db.query(TABLE, new String[]{COL_TEXT_HASH, COL_VECTOR},
+                    COL_MODEL + "=? AND " + COL_TEXT_HASH + " IN (" + ph + ")",
+                    args, null, null, null)) {
+                while (c.moveToNext()) {
+                    float[] vec = QuantizedVectors.decodeFloat16(c.getBlob(1));
+                    if (vec != null && vec.length > 0) out.put(c.getString(0), vec);
+                }
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public void save(String model, Map<String, float[]> vectors) {
+        if (model == null || vectors.isEmpty()) return;
+        SQLiteDatabase db = getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, float[]> e : vectors.entrySet()) {
+                ContentValues cv = new ContentValues();
+                cv.put(COL_MODEL, model);
+                cv.put(COL_TEXT_HASH, e.getKey());
+                cv.put(COL_VECTOR, QuantizedVectors.encodeFloat16(e.getValue()));
+                cv.put(COL_CREATED_AT, now);
+                db.insertWithOnConflict(TABLE, null, cv, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            long excess = DatabaseUtils.queryNumEntries(db, TABLE) - MAX_ENTRIES;
+            if (excess > 0) {
+                db.execSQL("DELETE FROM " + TABLE + " WHERE rowid IN (SELECT rowid FROM " + TABLE
+                        + " ORDER BY " + COL_CREATED_AT + " ASC LIMIT " + excess + ")");
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -6,14 +6,19 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * Ollama 埋め込み生成クライアント。
@@ -21,6 +26,9 @@ import okhttp3.Response;
  * <p>新エンドポイント {@code POST /api/embed}（バッチ入力対応・レスポンス {@code embeddings})を優先し、
  * 旧サーバー向けに {@code POST /api/embeddings}（単一・レスポンス {@code embedding}）へ自動フォールバックする。</p>
  *
+ * <p>{@link EmbeddingCache} を渡した場合は（モデル, テキスト）単位でキャッシュを引き、
+ * 未キャッシュの入力だけをサーバーへ送って結果を入力順に合成する。</p>
+ *
  * <p>同期メソッドのため、必ずバックグラウンドスレッドから呼び出すこと
  * （{@code client.newCall(req).execute()} を用いる）。</p>
  */
@@ -34,11 +42,17 @@ public final class EmbeddingClient {
     private final OkHttpClient client;
     private final String baseUrl;
     private final String model;
+    private final EmbeddingCache cache; // null 可（キャッシュしない）
 
     public EmbeddingClient(OkHttpClient client, String baseUrl, String model) {
+        this(client, baseUrl, model, null);
+    }
+
+    public EmbeddingClient(OkHttpClient client, String baseUrl, String model, EmbeddingCache cache) {
         this.client = client;
         this.baseUrl = normalizeBaseUrl(baseUrl);
         this.model = (model == null || model.trim().isEmpty()) ? DEFAULT_MODEL : model.trim();
+        this.cache = cache;
     }
 
     public String getModel() {
@@ -47,7 +61,7 @@ public final class EmbeddingClient {
 
     /** 単一テキストの埋め込みベクトルを返す。失敗時は例外を投げる。 */
     public float[] embed(String text) throws IOException, JSONException {
-        List<float[]> out = embedBatch(Collections.singletonList(text));
+        EmbeddingBatch out = embedBatchFlat(Collections.singletonList(text));
         if (out.isEmpty()) {
             throw new IOException("Empty embedding response");
         }
@@ -56,22 +70,91 @@ public final class EmbeddingClient {
 
     /** 複数テキストの埋め込みをまとめて取得する。入力順に対応した結果リストを返す。 */
     public List<float[]> embedBatch(List<String> inputs) throws IOException, JSONException {
+        return embedBatchFlat(inputs).toList();
+    }
+
+    /**
+     * 複数テキストの埋め込みをまとめて取得し、1 本の連続配列で返す（入力順）。
+     * 個別の float[] を作らずに採点できるため、件数の多いバッチではこちらを使う。
+     */
+    public EmbeddingBatch embedBatchFlat(List<String> inputs) throws IOException, JSONException {
         if (inputs == null || inputs.isEmpty()) {
-            return new ArrayList<>();
+            return new EmbeddingBatch(new float[0], 0, 0);
+        }
+        if (cache == null) {
+            return fetchBatch(inputs);
         }
+        int n = inputs.size();
+        String[] hashes = new String[n];
+        for (int i = 0; i < n; i++) {
+            hashes[i] = VectorCodec.textHash(inputs.get(i) == null ? "" : inputs.get(i));
+        }
+        Map<String, float[]> known = new HashMap<>(cache.getAll(model, Arrays.asList(hashes)));
+        // 未キャッシュの入力（同一テキストは 1 回だけ）をサーバーへ送る
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (!known.containsKey(hashes[i]) && !missing.containsKey(hashes[i])) {
+                missing.put(hashes[i], inputs.get(i));
+            }
+        }
+        if (!missing.isEmpty()) {
+            EmbeddingBatch fetched = fetchBatch(new ArrayList<>(missing.values()));
+            if (fetched.size() != missing.size()) {
+                throw new IOException("embedding count mismatch: " + fetched.size() + " != " + missing.size());
+            }
+            Map<String, float[]> fresh = new HashMap<>();
+            int j = 0;
+            for (String h : missing.keySet()) {
+                fresh.put(h, fetched.get(j++));
+            }
+            cache.putAll(model, fresh);
+            if (missing.size() == n) {
+                return fetched;
+            }
+            known.putAll(fresh);
+        }
+        int dim = known.get(hashes[0]).length;
+        float[] data = new float[n * dim];
+        for (int i = 0; i < n; i++) {
+            float[] v = known.get(hashes[i]);
+            if (v.length != dim) {
+                // 同名モデルの差し替えで次元が変わった → 取り直し、古いエントリを上書きする
+                EmbeddingBatch refetched = fetchBatch(inputs);
+                Map<String, float[]> replaced = new HashMap<>();
+                for (int k = 0; k < n && k < refetched.size(); k++) {
+                    replaced.put(hashes[k], refetched.get(k));
+                }
+                cache.putAll(model, replaced);
+                return refetched;
+            }
+            System.arraycopy(v, 0, data, i * dim, dim);
+        }
+        return new EmbeddingBatch(data, n, dim);
+    }
+
+    /** キャッシュを通さずにサーバーから取得する。 */
+    private EmbeddingBatch fetchBatch(List<String> inputs) throws IOException, JSONException {
         try {
             return embedViaApiEmbed(inputs);
         } catch (EndpointUnavailableException e) {
             // 旧 Ollama には /api/embed が無い → /api/embeddings に 1 件ずつフォールバック
-            List<float[]> out = new ArrayList<>(inputs.size());
-            for (String in : inputs) {
-                out.add(embedViaLegacy(in));
+            float[] data = null;
+            int dim = 0;
+            for (int i = 0; i < inputs.size(); i++) {
+                float[] v = embedViaLegacy(inputs.get(i));
+                if (data == null) {
+                    dim = v.length;
+                    data = new float[inputs.size() * dim];
+                } else if (v.length != dim) {
+                    throw new IOException("embedding dimension mismatch: " + v.length + " != " + dim);
+                }
+                System.arraycopy(v, 0, data, i * dim, dim);
             }
-            return out;
+            return new EmbeddingBatch(data, inputs.size(), dim);
         }
     }
 
-    private List<float[]> embedViaApiEmbed(List<String> inputs) throws IOException, JSONException {
+    private EmbeddingBatch embedViaApiEmbed(List<String> inputs) throws IOException, JSONException {
         JSONObject body = new JSONObject();
         body.put("model", model);
         JSONArray inputArr = new JSONArray();
@@ -90,20 +173,17 @@ public final class EmbeddingClient {
             if (response.code() == 404 || response.code() == 405) {
                 throw new EndpointUnavailableException();
             }
-            String respBody = response.body() != null ? response.body().string() : "";
+            ResponseBody rb = response.body();
             if (!response.isSuccessful()) {
+                String respBody = rb != null ? rb.string() : "";
                 throw new IOException("/api/embed HTTP " + response.code() + ": " + respBody);
             }
-            JSONObject json = new JSONObject(respBody);
-            JSONArray embeddings = json.optJSONArray("embeddings");
-            if (embeddings == null) {
-                throw new IOException("/api/embed: missing 'embeddings' field");
-            }
-            List<float[]> out = new ArrayList<>(embeddings.length());
-            for (int i = 0; i < embeddings.length(); i++) {
-                out.add(toFloatArray(embeddings.getJSONArray(i)));
+            if (rb == null) {
+                throw new IOException("/api/embed: empty body");
             }
-            return out;
+            // 本文を String 化せず、数値を連続配列へ直接読み込む
+            return EmbeddingResponseParser.parse(
+                    rb.charStream(), EmbeddingResponseParser.FIELD_EMBEDDINGS, inputs.size());
         }
     }
 
@@ -118,25 +198,17 @@ public final class EmbeddingClient {
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
-            String respBody = response.body() != null ? response.body().string() : "";
+            ResponseBody rb = response.body();
             if (!response.isSuccessful()) {
+                String respBody = rb != null ? rb.string() : "";
                 throw new IOException("/api/embeddings HTTP " + response.code() + ": " + respBody);
             }
-            JSONObject json = new JSONObject(respBody);
-            JSONArray arr = json.optJSONArray("embedding");
-            if (arr == null) {
-                throw new IOException("/api/embeddings: missing 'embedding' field");
+            if (rb == null) {
+                throw new IOException("/api/embeddings: empty body");
             }
-            return toFloatArray(arr);
-        }
-    }
-
-    private static float[] toFloatArray(JSONArray arr) throws JSONException {
-        float[] v = new float[arr.length()];
-        for (int i = 0; i < arr.length(); i++) {
-            v[i] = (float) arr.getDouble(i);
+            return EmbeddingResponseParser.parse(
+                    rb.charStream(), EmbeddingResponseParser.FIELD_EMBEDDING, 1).get(0);
         }
-        return v;
     }
 
     private static String normalizeBaseUrl(String url) {
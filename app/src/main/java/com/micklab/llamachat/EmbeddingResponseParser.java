@@ -0,0 +1,339 @@
+package com.micklab.llamachat;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Ollama の埋め込みレスポンスを読むストリーミング JSON パーサ。
+ *
+ * <p>{@code /api/embed}（{@code {"embeddings":[[...],[...]]}}）と旧 {@code /api/embeddings}
+ * （{@code {"embedding":[...]}}）の対象フィールドだけを解釈し、数値を 1 本の float 配列へ直接書き込む。
+ * レスポンス全体の String 化・org.json のツリー構築・Double のボックス化を行わない。
+ * 対象外のフィールド（model・total_duration など）は読み飛ばす。</p>
+ *
+ * <p>Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+final class EmbeddingResponseParser {
+
+    /** /api/embed のフィールド名（ベクトルの配列）。 */
+    static final String FIELD_EMBEDDINGS = "embeddings";
+    /** 旧 /api/embeddings のフィールド名（ベクトル 1 本）。 */
+    static final String FIELD_EMBEDDING = "embedding";
+
+    // 正確に表現できる 10 の累乗（double の仮数部 53bit に収まる範囲）
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // 仮数部として保持する最大有効桁数（long に収まり、float への丸めには十分）
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos = 0;
+    private int limit = 0;
+
+    private final int expectedCount;
+    private float[] data;
+    private int length = 0;    // data の使用済み要素数
+    private int count = 0;     // 読み終えたベクトル本数
+    private int dimension = -1;
+
+    private EmbeddingResponseParser(Reader in, int expectedCount) {
+        this.in = in;
+        this.expectedCount = Math.max(1, expectedCount);
+        this.data = new float[1024];
+    }
+
+    /**
+     * レスポンス本文を読み、field のベクトルをバッチとして返す。
+     *
+     * @param field         {@link #FIELD_EMBEDDINGS} か {@link #FIELD_EMBEDDING}
+     * @param expectedCount 期待するベクトル本数（配列の事前確保に使う。目安で良い）
+     * @throws IOException 読み込み失敗・JSON 不正・フィールド欠落・次元不一致
+     */
+    static EmbeddingBatch parse(Reader in, String field, int expectedCount) throws IOException {
+        EmbeddingResponseParser p = new EmbeddingResponseParser(in, expectedCount);
+        boolean batch = FIELD_EMBEDDINGS.equals(field);
+        if (!p.readObjectField(field, batch)) {
+            throw new IOException("missing '" + field + "' field");
+        }
+        return new EmbeddingBatch(p.data, p.count, Math.max(0, p.dimension));
+    }
+
+    /** トップレベルのオブジェクトを走査し、field を見つけたら解釈する。見つかれば true。 */
+    private boolean readObjectField(String field, boolean batch) throws IOException {
+        expect('{');
+        boolean found = false;
+        if (peekNonWs() == '}') {
+            pos++;
+            return false;
+        }
+        while (true) {
+            expect('"');
+            String key = readStringBody();
+            expect(':');
+            if (!found && field.equals(key) && peekNonWs() == '[') {
+                if (batch) {
+                    readVectorArray();
+                } else {
+                    readVector();
+                }
+                found = true;
+            } else {
+                skipValue();
+            }
+            int c = nextNonWs();
+            if (c == '}') return found;
+            if (c != ',') throw syntax("',' or '}'", c);
+        }
+    }
+
+    private void readVectorArray() throws IOException {
+        expect('[');
+        if (peekNonWs() == ']') {
+            pos++;
+            return;
+        }
+        while (true) {
+            readVector();
+            int c = nextNonWs();
+            if (c == ']') return;
+            if (c != ',') throw syntax("',' or ']'", c);
+        }
+    }
+
+    private void readVector() throws IOException {
+        expect('[');
+        int start = length;
+        if (peekNonWs() == ']') {
+            pos++;
+        } else {
+            while (true) {
+                float v = readNumber();
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                data[length++] = v;
+                int c = nextNonWs();
+                if (c == ']') break;
+                if (c != ',') throw syntax("',' or ']'", c);
+            }
+        }
+        int n = length - start;
+        if (dimension < 0) {
+            dimension = n;
+            // 1 本目で次元が分かったので残りの本数分をまとめて確保する
+            long want = (long) expectedCount * n;
+            if (want > data.length && want <= Integer.MAX_VALUE) {
+                data = Arrays.copyOf(data, (int) want);
+            }
+        } else if (n != dimension) {
+            throw new IOException("embedding dimension mismatch: " + n + " != " + dimension);
+        }
+        count++;
+    }
+
+    /** JSON の数値を読み、float に丸めて返す（中間文字列を作らない）。 */
+    private float readNumber() throws IOException {
+        skipWs();
+        boolean negative = false;
+        int c = peek();
+        if (c == '-') {
+            negative = true;
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean any = false;
+        while (isDigit(c = peek())) {
+            pos++;
+            any = true;
+            if (digits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                exp10++;
+            }
+        }
+        if (c == '.') {
+            pos++;
+            while (isDigit(c = peek())) {
+                pos++;
+                any = true;
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) digits++;
+                    exp10--;
+                }
+            }
+        }
+        if (!any) throw syntax("number", c);
+        if (c == 'e' || c == 'E') {
+            pos++;
+            boolean expNegative = false;
+            c = peek();
+            if (c == '+' || c == '-') {
+                expNegative = c == '-';
+                pos++;
+            }
+            int e = 0;
+            boolean expAny = false;
+            while (isDigit(c = peek())) {
+                pos++;
+                expAny = true;
+                if (e < 10000) e = e * 10 + (c - '0');
+            }
+            if (!expAny) throw syntax("exponent digits", c);
+            exp10 += expNegative ? -e : e;
+        }
+        double v = mantissa;
+        if (v != 0.0) {
+            if (exp10 < 0) {
+                v = -exp10 < POW10.length ? v / POW10[-exp10] : v / Math.pow(10, -exp10);
+            } else if (exp10 > 0) {
+                v = exp10 < POW10.length ? v * POW10[exp10] : v * Math.pow(10, exp10);
+            }
+        }
+        return (float) (negative ? -v : v);
+    }
+
+    // ===== 読み飛ばし =====
+
+    private void skipValue() throws IOException {
+        int c = peekNonWs();
+        switch (c) {
+            case '"':
+                pos++;
+                skipStringBody();
+                return;
+            case '{':
+            case '[':
+                skipContainer();
+                return;
+            case 't':
+                expectLiteral("true");
+                return;
+            case 'f':
+                expectLiteral("false");
+                return;
+            case 'n':
+                expectLiteral("null");
+                return;
+            default:
+                readNumber();
+        }
+    }
+
+    /** オブジェクト/配列を対応する閉じ括弧まで読み飛ばす（文字列中の括弧は無視）。 */
+    private void skipContainer() throws IOException {
+        int depth = 0;
+        while (true) {
+            int c = next();
+            if (c == '"') {
+                skipStringBody();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (--depth == 0) return;
+            } else if (c < 0) {
+                throw syntax("end of container", c);
+            }
+        }
+    }
+
+    private void skipStringBody() throws IOException {
+        while (true) {
+            int c = next();
+            if (c == '"') return;
+            if (c == '\\') next();
+            if (c < 0) throw syntax("'\"'", c);
+        }
+    }
+
+    /** 開始の {@code "} の後から文字列を読む（キー用。エスケープは最小限に解釈する）。 */
+    private String readStringBody() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = next();
+            if (c == '"') return sb.toString();
+            if (c < 0) throw syntax("'\"'", c);
+            if (c == '\\') {
+                int e = next();
+                if (e == 'u') {
+                    int cp = 0;
+                    for (int i = 0; i < 4; i++) cp = cp * 16 + Character.digit(next(), 16);
+                    sb.append((char) cp);
+                } else {
+                    sb.append((char) e);
+                }
+            } else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    private void expectLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            int c = next();
+            if (c != literal.charAt(i)) throw syntax(literal, c);
+        }
+    }
+
+    // ===== 文字入力 =====
+
+    private void expect(char expected) throws IOException {
+        int c = nextNonWs();
+        if (c != expected) throw syntax("'" + expected + "'", c);
+    }
+
+    private int next() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos++];
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos];
+    }
+
+    private int nextNonWs() throws IOException {
+        skipWs();
+        return next();
+    }
+
+    private int peekNonWs() throws IOException {
+        skipWs();
+        return peek();
+    }
+
+    private void skipWs() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+            pos++;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = in.read(buf, 0, buf.length);
+        } while (n == 0);
+        if (n < 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static IOException syntax(String expected, int actual) {
+        String got = actual < 0 ? "end of input" : ("'" + (char) actual + "'");
+        return new IOException("malformed embedding response: expected " + expected + ", got " + got);
+    }
+}
@@ -69,7 +69,6 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Random;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.pm.ServiceInfo;
@@ -126,20 +125,24 @@ public class FloatOverlayService extends Service {
     private int numCtx = DEFAULT_NUM_CTX;
     private int numPredict = DEFAULT_NUM_PREDICT;
     private static final String CHAT_KEEP_ALIVE = "30m";
+    // TaskScheduler 上のキャンセル単位（activeResponseToken と組で使う）
+    private static final String TASK_GROUP = "float-overlay";
 
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private final Object historyLock = new Object();
+    // /api/chat メッセージ詰め込み器（num_ctx に収め、送る先頭を固定する）
+    private final ContextPacker contextPacker = new ContextPacker();
     private final List<JSONObject> conversationHistory = new ArrayList<>();
     private final ExpertSelector expertSelector = new ExpertSelector();
     private final WebSearchExpertHandler webSearchExpertHandler = new WebSearchExpertHandler();
     private final ChatFlowController chatFlowController =
             new ChatFlowController(expertSelector, webSearchExpertHandler);
-    private final OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(60, TimeUnit.SECONDS)
-            .readTimeout(3600, TimeUnit.SECONDS)
-            .writeTimeout(60, TimeUnit.SECONDS)
-            .callTimeout(3600, TimeUnit.SECONDS)
-            .build();
+    // 用途別クライアント（接続プールはプロセス全体で共有）
+    private final OkHttpClient client = HttpClients.chat();
+    private final OkHttpClient apiClient = HttpClients.api();
+    // Web 用はディスクキャッシュ付き（onCreate で HttpClients.installCache 後に取得）
+    private OkHttpClient webClient;
+    private OkHttpClient webFetchClient;
 
     private WindowManager windowManager;
     private View overlayView;
@@ -155,6 +158,8 @@ public class FloatOverlayService extends Service {
     private TextView bubbleTitleView;
     private GestureDetector gestureDetector;
     private MarkdownRenderer markdownRenderer;
+    private StreamingMarkdownRenderer streamingMarkdownRenderer;
+    private TextView streamingRenderBubble;
     private TextView currentResponseBubble;
     private Bitmap avatarC0Bitmap;
     private Bitmap avatarC1Bitmap;
@@ -233,6 +238,7 @@ public class FloatOverlayService extends Service {
                 }
                 ttsSpeaking.set(false);
                 activeResponseToken++;
+                TaskScheduler.get().cancelStale(TASK_GROUP, activeResponseToken);
                 if (currentCall != null) {
                     currentCall.cancel();
                     currentCall = null;
@@ -320,6 +326,9 @@ public class FloatOverlayService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        HttpClients.installCache(this);
+        webClient = HttpClients.web();
+        webFetchClient = HttpClients.fetch();
         DebugLogger.log(this, "=== FloatOverlayService onCreate START ===");
         try {
             DebugLogger.log(this, "Getting ViewConfiguration");
@@ -382,6 +391,7 @@ public class FloatOverlayService extends Service {
     public void onDestroy() {
         DebugLogger.log(this, "onDestroy: intentionalStop=" + intentionalStop);
         stopProactiveScheduler();
+        TaskScheduler.get().cancelGroup(TASK_GROUP);
         if (currentCall != null) {
             currentCall.cancel();
             currentCall = null;
@@ -392,7 +402,14 @@ public class FloatOverlayService extends Service {
         }
         if (conversationStore != null) {
             conversationStore.removeListener(storeListener);
+            // 書き出し待ちの会話ログをプロセス終了前にディスクへ
+            if (!conversationStore.flush()) {
+                DebugLogger.log(this, "conversation log flush incomplete or failed at shutdown");
+            }
         }
+        // 近似最近傍索引は一定間隔でしか書き出さないため、終了時に残りを保存する
+        TaskScheduler.get().submit(TaskScheduler.Pool.DATABASE, TaskScheduler.Priority.BACKGROUND,
+                MemoryDatabase.get(this)::flushVectorIndex);
         if (tts != null) {
             tts.stop();
             tts.shutdown();
@@ -1024,6 +1041,7 @@ public class FloatOverlayService extends Service {
 
     private void cancelCurrentRequest() {
         activeResponseToken++;
+        TaskScheduler.get().cancelStale(TASK_GROUP, activeResponseToken);
         stopThinkingIndicator(activeResponseToken);
         if (currentCall != null) {
             currentCall.cancel();
@@ -1040,7 +1058,8 @@ public class FloatOverlayService extends Service {
 
     private void sendChat(String transientUserMessage, boolean replaceLastUserMessage, int requestToken) {
         try {
-            JSONArray messages = new JSONArray();
+            JSONObject sys = null;
+            List<JSONObject> turns = new ArrayList<>();
             boolean shouldReplaceLastUser = replaceLastUserMessage && transientUserMessage != null;
             synchronized (historyLock) {
                 if (!conversationHistory.isEmpty()) {
@@ -1051,22 +1070,20 @@ public class FloatOverlayService extends Service {
                         if (webSearchEnabled && !searchSystemPrompt.isEmpty() && !systemContent.contains(searchSystemPrompt)) {
                             systemContent = systemContent + "\n" + searchSystemPrompt;
                         }
-                        JSONObject sys = new JSONObject();
+                        sys = new JSONObject();
                         sys.put("role", "system");
                         sys.put("content", systemContent);
-                        messages.put(sys);
                     }
                 }
                 int size = conversationHistory.size();
-                int start = Math.max(1, size - Math.max(0, historyLimit));
-                for (int i = start; i < size; i++) {
+                for (int i = 1; i < size; i++) {
                     JSONObject msg = conversationHistory.get(i);
                     if (shouldReplaceLastUser && i == size - 1 && "user".equals(msg.optString("role"))) {
                         JSONObject replaced = new JSONObject(msg.toString());
                         replaced.put("content", transientUserMessage);
-                        messages.put(replaced);
+                        turns.add(replaced);
                     } else {
-                        messages.put(msg);
+                        turns.add(msg);
                     }
                 }
             }
@@ -1074,13 +1091,22 @@ public class FloatOverlayService extends Service {
                 JSONObject extra = new JSONObject();
                 extra.put("role", "user");
                 extra.put("content", transientUserMessage);
-                messages.put(extra);
+                turns.add(extra);
+            }
+            String model = selectedModel;
+            // 直近ターンを num_ctx に収める（先頭を固定して KV キャッシュを再利用させる）
+            TokenCounter tokens = new TokenCounter(client, ollamaBaseUrl, model);
+            JSONArray messages = new JSONArray();
+            for (JSONObject m : contextPacker.pack(model, tokens::estimateCalibrated, sys, turns,
+                    Math.max(0, historyLimit), numCtx, numPredict)) {
+                messages.put(m);
             }
 
             JSONObject body = new JSONObject();
-            body.put("model", selectedModel);
+            body.put("model", model);
             body.put("messages", messages);
             body.put("stream", streamingEnabled);
+            applyOllamaOptions(body);
 
             Request request = new Request.Builder()
                     .url(ollamaBaseUrl + "/api/chat")
@@ -1099,9 +1125,23 @@ public class FloatOverlayService extends Service {
         }
     }
 
+    /**
+     * 応答フローのバックグラウンド処理を共通スケジューラへ投入する。requestToken に紐づけるため、
+     * キャンセルや会話消去で activeResponseToken が進むと、未実行なら破棄され、実行中なら割り込まれる。
+     */
+    private void submitTask(int requestToken, Runnable task) {
+        TaskScheduler.get().submit(TaskScheduler.Pool.NETWORK, TaskScheduler.Priority.INTERACTIVE,
+                TASK_GROUP, requestToken, task);
+    }
+
+    /** 定時ブリーフィング用。ユーザ操作起点の処理より後回しにし、応答のキャンセルには巻き込まない。 */
+    private void submitProactiveTask(Runnable task) {
+        TaskScheduler.get().submit(TaskScheduler.Pool.NETWORK, TaskScheduler.Priority.BACKGROUND, task);
+    }
+
     private void performWebSearchFlow(String userMsg, String searchKeywords, int requestToken) {
         updateThinkingLabel(t("Web searching", "Web検索中"), requestToken);
-        new Thread(() -> {
+        submitTask(requestToken, () -> {
             String augmentedMessage = null;
             try {
                 String keywords = searchKeywords == null ? null : searchKeywords.trim();
@@ -1126,12 +1166,13 @@ public class FloatOverlayService extends Service {
             }
             String finalAugmented = augmentedMessage;
             mainHandler.post(() -> sendChat(finalAugmented, finalAugmented != null, requestToken));
-        }).start();
+        });
     }
 
     private MemoryFlowHelper newMemoryHelper() {
         return new MemoryFlowHelper(memoryRepository, embeddingClient, client, ollamaBaseUrl,
-                selectedModel, StructuredOutput.Mode.fromString(structuredOutputMode), appLanguage);
+                selectedModel, StructuredOutput.Mode.fromString(structuredOutputMode), appLanguage,
+                conversationStore);
     }
 
     private void performMemorySaveFlow(String userMsg, int requestToken) {
@@ -1140,7 +1181,7 @@ public class FloatOverlayService extends Service {
             return;
         }
         updateThinkingLabel(t("Saving to memory...", "記録を保存中..."), requestToken);
-        new Thread(() -> {
+        submitTask(requestToken, () -> {
             MemoryFlowHelper helper = newMemoryHelper();
             MemoryFlowHelper.SaveResult saved = helper.extractAndSave(userMsg);
             final String message;
@@ -1154,7 +1195,7 @@ public class FloatOverlayService extends Service {
                 message = helper.confirmationText(saved);
             }
             mainHandler.post(() -> finishResponse(message, requestToken));
-        }).start();
+        });
     }
 
     private void performMemoryRecallFlow(String userMsg, int requestToken) {
@@ -1163,26 +1204,34 @@ public class FloatOverlayService extends Service {
             return;
         }
         updateThinkingLabel(t("Searching memory...", "記録を検索中..."), requestToken);
-        new Thread(() -> {
+        submitTask(requestToken, () -> {
             try {
                 String memoryContext = newMemoryHelper().buildRecallContext(userMsg);
                 String augmentedMessage = TextUtils.isEmpty(memoryContext) ? null
-                        : "MEMORIES:\n" + memoryContext + "\n\nUser: " + userMsg;
+                        : ContextPacker.withTrailingContext(userMsg, "MEMORIES:", memoryContext);
                 mainHandler.post(() -> sendChat(augmentedMessage, !TextUtils.isEmpty(memoryContext), requestToken));
             } catch (Exception e) {
                 DebugLogger.log(this, "performMemoryRecallFlow error: " + e.getMessage());
                 mainHandler.post(() -> sendChat(null, false, requestToken));
             }
-        }).start();
+        });
     }
 
     private String callWebSearchApi(String keywords) {
         if ("WIKIPEDIA".equals(webSearchMode)) {
-            return WikipediaSearchHelper.search(client, keywords);
-        }
-        if (isBraveWebSearchUrl(webSearchUrl)) {
-            return callBraveWebSearchApi(keywords);
+            return WikipediaSearchHelper.search(webClient, keywords);
         }
+        // 同じ検索先・同じクエリ（正規化後）の結果は TTL の間使い回す（ブースト時のページ取得も省ける）
+        boolean brave = isBraveWebSearchUrl(webSearchUrl);
+        String namespace = (brave ? "brave" + (braveBoostEnabled ? "+boost" : "") : "api") + "|" + webSearchUrl;
+        String cached = SearchResultCache.shared().get(namespace, keywords);
+        if (cached != null) return cached;
+        String result = brave ? callBraveWebSearchApi(keywords) : callGenericWebSearchApi(keywords);
+        SearchResultCache.shared().put(namespace, keywords, result);
+        return result;
+    }
+
+    private String callGenericWebSearchApi(String keywords) {
         try {
             String url = webSearchUrl + "?q=" + java.net.URLEncoder.encode(keywords, "UTF-8");
             Request.Builder reqBuilder = new Request.Builder()
@@ -1195,7 +1244,7 @@ public class FloatOverlayService extends Service {
                 reqBuilder.addHeader("Authorization", "Bearer " + webSearchApiKey);
                 reqBuilder.addHeader("X-Api-Key", webSearchApiKey);
             }
-            Response response = client.newCall(reqBuilder.build()).execute();
+            Response response = webClient.newCall(reqBuilder.build()).execute();
             String respBody = response.body() != null ? response.body().string() : "";
             if (!response.isSuccessful()) return null;
             JSONObject json = new JSONObject(respBody);
@@ -1205,7 +1254,7 @@ public class FloatOverlayService extends Service {
             if (extractedText.isEmpty()) return null;
             return "SEARCH_RESULTS:\n" + extractedText;
         } catch (Exception e) {
-            DebugLogger.log(this, "callWebSearchApi error: " + e.getMessage());
+            DebugLogger.log(this, "callGenericWebSearchApi error: " + e.getMessage());
             return null;
         }
     }
@@ -1230,7 +1279,7 @@ public class FloatOverlayService extends Service {
             if (!webSearchApiKey.isEmpty()) {
                 reqBuilder.addHeader("X-Subscription-Token", webSearchApiKey);
             }
-            Response response = client.newCall(reqBuilder.build()).execute();
+            Response response = webClient.newCall(reqBuilder.build()).execute();
             String respBody = response.body() != null ? response.body().string() : "";
             if (!response.isSuccessful()) return null;
             JSONObject json = new JSONObject(respBody);
@@ -1238,47 +1287,9 @@ public class FloatOverlayService extends Service {
             JSONArray results = web != null ? web.optJSONArray("results") : null;
             if (results == null || results.length() == 0) return null;
 
-            int limit = Math.min(results.length(), 8);
-            StringBuilder extracted = new StringBuilder();
-            for (int i = 0; i < limit; i++) {
-                JSONObject item = results.optJSONObject(i);
-                if (item == null) continue;
-                String title = item.optString("title", "").trim();
-                String description = item.optString("description", "").trim();
-                String resultUrl = item.optString("url", "").trim();
-                if (title.isEmpty() && description.isEmpty() && resultUrl.isEmpty()) continue;
-                if (extracted.length() > 0) extracted.append("\n\n");
-                extracted.append("[").append(i + 1).append("]");
-                if (!title.isEmpty()) extracted.append(" ").append(title);
-                extracted.append("\n");
-                if (!resultUrl.isEmpty()) extracted.append(resultUrl).append("\n");
-
-                if (braveBoostEnabled && !resultUrl.isEmpty()) {
-                    String pageText = fetchUrlContent(resultUrl, 1500);
-                    if (pageText != null) {
-                        extracted.append(pageText);
-                    } else {
-                        if (!description.isEmpty()) extracted.append(description);
-                        JSONArray snippets = item.optJSONArray("extra_snippets");
-                        if (snippets != null) {
-                            for (int j = 0; j < snippets.length() && j < 2; j++) {
-                                String s = snippets.optString(j, "").trim();
-                                if (!s.isEmpty()) extracted.append("\n").append(s);
-                            }
-                        }
-                    }
-                } else {
-                    if (!description.isEmpty()) extracted.append(description);
-                    JSONArray snippets = item.optJSONArray("extra_snippets");
-                    if (snippets != null) {
-                        for (int j = 0; j < snippets.length() && j < 2; j++) {
-                            String s = snippets.optString(j, "").trim();
-                            if (!s.isEmpty()) extracted.append("\n").append(s);
-                        }
-                    }
-                }
-            }
-            String extractedText = extracted.toString().trim();
+            // ブーストモード時は各結果 URL の本文を並行取得する（期限切れ・失敗分はスニペットにフォールバック）
+            String extractedText = new WebPageFetcher(webFetchClient)
+                    .renderBraveResults(results, WebPageFetcher.BRAVE_RESULT_LIMIT, braveBoostEnabled);
             if (extractedText.isEmpty()) return null;
             return "SEARCH_RESULTS:\n" + extractedText;
         } catch (Exception e) {
@@ -1287,54 +1298,6 @@ public class FloatOverlayService extends Service {
         }
     }
 
-    private String fetchUrlContent(String url, int maxChars) {
-        try {
-            okhttp3.OkHttpClient fetchClient = client.newBuilder()
-                    .connectTimeout(5, java.util.concurrent.TimeUnit.SECONDS)
-                    .readTimeout(8, java.util.concurrent.TimeUnit.SECONDS)
-                    .build();
-            Request req = new Request.Builder()
-                    .url(url)
-                    .get()
-                    .addHeader("User-Agent", "Mozilla/5.0 (Android) AppleWebKit/537.36")
-                    .addHeader("Accept", "text/html,application/xhtml+xml")
-                    .build();
-            try (Response resp = fetchClient.newCall(req).execute()) {
-                if (!resp.isSuccessful()) return null;
-                String contentType = resp.header("Content-Type", "");
-                if (!contentType.contains("text/html") && !contentType.contains("text/plain")
-                        && !contentType.contains("application/xhtml")) return null;
-                String html = resp.body() != null ? resp.body().string() : "";
-                if (html.length() > 300_000) html = html.substring(0, 300_000);
-                String text = stripHtml(html);
-                if (text.isEmpty()) return null;
-                return text.length() > maxChars ? text.substring(0, maxChars) : text;
-            }
-        } catch (Exception e) {
-            DebugLogger.log(this, "fetchUrlContent failed: " + url + " - " + e.getMessage());
-            return null;
-        }
-    }
-
-    private String stripHtml(String html) {
-        if (html == null || html.isEmpty()) return "";
-        String pre = html
-                .replaceAll("(?is)<script[^>]*>.*?</script>", " ")
-                .replaceAll("(?is)<style[^>]*>.*?</style>", " ")
-                .replaceAll("(?is)<!--.*?-->", " ");
-        String text;
-        try {
-            text = android.text.Html.fromHtml(pre, android.text.Html.FROM_HTML_MODE_COMPACT).toString();
-        } catch (Exception e) {
-            text = pre.replaceAll("<[^>]+>", " ")
-                      .replace("&nbsp;", " ").replace("&amp;", "&")
-                      .replace("&lt;", "<").replace("&gt;", ">")
-                      .replace("&quot;", "\"").replace("&#39;", "'")
-                      .replaceAll("&#\\d+;", "");
-        }
-        return text.replaceAll(" {2,}", " ").replaceAll("\n{3,}", "\n\n").trim();
-    }
-
     private void extractAllStringValues(Object obj, StringBuilder sb, int depth) {
         if (depth > 10) return;
         try {
@@ -1363,11 +1326,9 @@ public class FloatOverlayService extends Service {
     }
 
     private String buildSearchAugmentedUserMessage(String userMsg, String searchResultsBlock) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("以下はWeb検索結果です。SEARCH_RESULTSとして扱ってください。\n");
-        sb.append(searchResultsBlock);
-        sb.append("\n\n質問: ").append(userMsg);
-        return sb.toString();
+        // 検索結果は質問の後ろに付ける（履歴に残る質問までのプレフィックスを次のターンで再利用させる）
+        return ContextPacker.withTrailingContext(userMsg,
+                "以下はWeb検索結果です。SEARCH_RESULTSとして扱ってください。", searchResultsBlock);
     }
 
     private void ensureVoiceController() {
@@ -1508,7 +1469,9 @@ public class FloatOverlayService extends Service {
                     return;
                 }
 
-                String visibleResponse = "";
+                StringBuilder rawResponse = new StringBuilder();
+                // 推論ブロックを差分単位で除去する（MainActivity と共通のフィルタ）
+                ReasoningStreamFilter reasoningFilter = new ReasoningStreamFilter();
                 try (InputStream is = response.body() != null ? response.body().byteStream() : null;
                      BufferedReader reader = is != null
                              ? new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))
@@ -1524,14 +1487,24 @@ public class FloatOverlayService extends Service {
                         if (line.trim().isEmpty()) continue;
                         JSONObject json = new JSONObject(line);
                         if (json.has("message")) {
-                            visibleResponse += json.getJSONObject("message").optString("content", "");
-                            setResponseText(visibleResponse, requestToken);
-                            updateNotificationResponse(visibleResponse);
+                            String content = json.getJSONObject("message").optString("content", "");
+                            rawResponse.append(content);
+                            String visibleDelta = reasoningFilter.feed(content);
+                            if (!visibleDelta.isEmpty()) {
+                                appendResponseDelta(visibleDelta, requestToken);
+                                updateNotificationResponse(reasoningFilter.visibleText());
+                            }
                         }
                         if (json.optBoolean("done", false)) {
                             break;
                         }
                     }
+                    reasoningFilter.finish();
+                    String visibleResponse = reasoningFilter.visibleText();
+                    if (visibleResponse.trim().isEmpty()) {
+                        // 推論のみ／未閉じタグでも中身があれば見せる
+                        visibleResponse = ReasoningStreamFilter.recoverVisibleText(rawResponse.toString());
+                    }
                     finishResponse(visibleResponse.trim().isEmpty()
                             ? t("(No response)", "（応答なし）")
                             : visibleResponse, requestToken);
@@ -1570,9 +1543,10 @@ public class FloatOverlayService extends Service {
                         return;
                     }
                     JSONObject json = new JSONObject(body);
-                    String text = json.optJSONObject("message") != null
+                    String raw = json.optJSONObject("message") != null
                             ? json.optJSONObject("message").optString("content", "")
                             : "";
+                    String text = ReasoningStreamFilter.recoverVisibleText(raw);
                     finishResponse(text.trim().isEmpty()
                             ? t("(No response)", "（応答なし）")
                             : text, requestToken);
@@ -1614,11 +1588,39 @@ public class FloatOverlayService extends Service {
         return t("Error: ", "エラー: ") + detail;
     }
 
+    /**
+     * ストリーミング中の差分描画。閉じた Markdown ブロックは再解析せず、末尾の開いているブロックだけを
+     * 描画し直す（{@link StreamingMarkdownRenderer}）。完了時は {@link #setResponseText} が全文を描画する。
+     */
+    private void appendResponseDelta(String delta, int requestToken) {
+        mainHandler.post(() -> {
+            if (requestToken != activeResponseToken) return;
+            if (TextUtils.isEmpty(delta)) return;
+            stopThinkingIndicator(requestToken);
+            if (currentResponseBubble == null) {
+                currentResponseBubble = appendMessageBubble(baseName, "", false);
+                if (currentResponseBubble == null) return;
+            }
+            StreamingMarkdownRenderer renderer = getStreamingMarkdownRenderer();
+            if (streamingRenderBubble != currentResponseBubble) {
+                streamingRenderBubble = currentResponseBubble;
+                renderer.begin(currentResponseBubble, baseName);
+            }
+            renderer.append(delta);
+            adjustMessageAreaHeight();
+            scrollMessagesToBottom();
+        });
+    }
+
     private void setResponseText(String text, int requestToken) {
         mainHandler.post(() -> {
             if (requestToken != activeResponseToken) return;
             if (TextUtils.isEmpty(text)) return;
             stopThinkingIndicator(requestToken);
+            if (streamingRenderBubble != null) {
+                streamingRenderBubble = null;
+                getStreamingMarkdownRenderer().end();
+            }
             if (currentResponseBubble == null) {
                 currentResponseBubble = appendMessageBubble(baseName, text, false);
             } else {
@@ -1842,6 +1844,13 @@ public class FloatOverlayService extends Service {
         return markdownRenderer;
     }
 
+    private StreamingMarkdownRenderer getStreamingMarkdownRenderer() {
+        if (streamingMarkdownRenderer == null) {
+            streamingMarkdownRenderer = new StreamingMarkdownRenderer(getMarkdownRenderer());
+        }
+        return streamingMarkdownRenderer;
+    }
+
     private void renderMessageBubble(TextView bubble, String name, String text) {
         getMarkdownRenderer().render(bubble, name, text);
     }
@@ -1917,8 +1926,10 @@ public class FloatOverlayService extends Service {
                 && "system".equals(conversationHistory.get(0).optString("role"))
                 ? 1 : 0;
         int maxMessages = Math.max(MIN_RETAINED_HISTORY_MESSAGES, historyLimit * 4);
-        while (conversationHistory.size() - keepStart > maxMessages) {
-            conversationHistory.remove(keepStart);
+        // 1 件ずつではなくブロック単位で削り、送信側が覚えている先頭ターンを毎ターン消さない
+        int drop = ContextPacker.blockTrimCount(conversationHistory.size() - keepStart, maxMessages);
+        if (drop > 0) {
+            conversationHistory.subList(keepStart, keepStart + drop).clear();
         }
     }
 
@@ -2070,8 +2081,9 @@ public class FloatOverlayService extends Service {
         String resolvedEmbed = (embeddingModel == null || embeddingModel.trim().isEmpty()
                 || "default".equals(embeddingModel.trim())) ? "default" : embeddingModel.trim();
         if (embeddingClient == null || !resolvedEmbed.equals(embeddingClient.getModel())) {
-            embeddingClient = new EmbeddingClient(client, ollamaBaseUrl, resolvedEmbed);
-            webSearchRagHelper = new WebSearchRagHelper(embeddingClient, client, ollamaBaseUrl, selectedModel);
+            embeddingClient = new EmbeddingClient(apiClient, ollamaBaseUrl, resolvedEmbed,
+                    EmbeddingCacheDatabase.sharedCache(this));
+            webSearchRagHelper = new WebSearchRagHelper(embeddingClient, apiClient, ollamaBaseUrl, selectedModel);
         }
         applyTtsSettings();
     }
@@ -2181,7 +2193,7 @@ public class FloatOverlayService extends Service {
 
     private void fireMorningBriefing() {
         proactiveBusy.set(true);
-        new Thread(() -> {
+        submitProactiveTask(() -> {
             try {
                 boolean ja = "ja".equals(appLanguage);
                 String agenda = "";
@@ -2219,7 +2231,7 @@ public class FloatOverlayService extends Service {
                 DebugLogger.log(this, "fireMorningBriefing error: " + e.getMessage());
                 finishProactive(null);
             }
-        }).start();
+        });
     }
 
     private void fireUpcomingReminder() {
@@ -2228,7 +2240,7 @@ public class FloatOverlayService extends Service {
             return;
         }
         proactiveBusy.set(true);
-        new Thread(() -> {
+        submitProactiveTask(() -> {
             try {
                 boolean ja = "ja".equals(appLanguage);
                 MemoryFlowHelper helper = newMemoryHelper();
@@ -2248,12 +2260,12 @@ public class FloatOverlayService extends Service {
                 DebugLogger.log(this, "fireUpcomingReminder error: " + e.getMessage());
                 finishProactive(null);
             }
-        }).start();
+        });
     }
 
     private void fireNewsBriefing() {
         proactiveBusy.set(true);
-        new Thread(() -> {
+        submitProactiveTask(() -> {
             try {
                 if (!isWebSearchExpertAvailable()) {
                     finishProactive(null);
@@ -2279,7 +2291,7 @@ public class FloatOverlayService extends Service {
                 DebugLogger.log(this, "fireNewsBriefing error: " + e.getMessage());
                 finishProactive(null);
             }
-        }).start();
+        });
     }
 
     /** ペルソナ（システムプロンプト＋名前）で指示文を会話調に言い換える。失敗時は fallback を返す。 */
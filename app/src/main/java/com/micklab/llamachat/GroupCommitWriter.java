@@ -0,0 +1,189 @@
+package com.micklab.llamachat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 追記を専用スレッドでまとめて書き出すライタ（グループコミット）。
+ *
+ * <ul>
+ *   <li>{@link #append} は有界キューに積むだけで戻る（キューが満杯のときだけ空くまで待つ）。</li>
+ *   <li>書き出しスレッドは最初の 1 件を受け取ってから最大 commitIntervalMs の間に届いた分を集め、
+ *       1 回の {@link Sink#write} にまとめる。sync 指定時は続けて {@link Sink#sync} を 1 回呼ぶ。</li>
+ *   <li>{@link #clear} も同じキューを通すため、先に積まれた追記より後・後に積まれた追記より前に効く。</li>
+ *   <li>{@link #flush} はそれまでに積まれた操作がすべて書き出されるまで待つ（終了時用）。待っている間は集める間隔を待たない。</li>
+ * </ul>
+ *
+ * <p>書き出しの失敗は追記の呼び出し元へは伝えない（永続化は失敗しても表示・会話を止めない）。
+ * 失敗は {@link Sink#failed} へ通知して {@link #failureCount} に数え、{@link #flush} は前回の flush 以降に
+ * 失敗があれば false を返す。スレッドセーフ。Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class GroupCommitWriter {
+
+    /** 書き出し先。すべて書き出しスレッドから呼ばれる。 */
+    public interface Sink {
+        /** records をこの順で書き出す（できるだけ 1 回の書き込みで）。 */
+        void write(List<String> records) throws IOException;
+
+        /** 書き出した内容を記憶装置へ確定させる（fsync）。 */
+        void sync() throws IOException;
+
+        /** 書き出し済みの内容をすべて消す。 */
+        void clear();
+
+        /** records 件の書き出し（または sync）が失敗した。ログ出力用。 */
+        default void failed(Exception e, int records) {
+        }
+    }
+
+    private static final Object CLEAR = new Object();
+    private static final Object FLUSH = new Object();
+
+    private final Sink sink;
+    private final long commitIntervalMs;
+    private final boolean syncOnCommit;
+    private final BlockingQueue<Object> queue;
+    // 積んだ操作の通し番号（キューへの投入順と一致させるため投入ごと排他する）
+    private final Object enqueueLock = new Object();
+    private long submitted;
+    // 書き出しスレッドが処理し終えた操作数と、失敗した書き出しの回数（前回の flush 時点の値も持つ）
+    private final Object progress = new Object();
+    private long completed;
+    private long failures;
+    private long failuresAtLastFlush;
+
+    /**
+     * @param name             書き出しスレッド名
+     * @param capacity         キューの上限（満杯なら追記側が待つ）
+     * @param commitIntervalMs 1 回の書き出しにまとめる待ち時間
+     * @param syncOnCommit     書き出しごとに {@link Sink#sync} するか
+     */
+    public GroupCommitWriter(String name, Sink sink, int capacity, long commitIntervalMs, boolean syncOnCommit) {
+        this.sink = sink;
+        this.commitIntervalMs = Math.max(0, commitIntervalMs);
+        this.syncOnCommit = syncOnCommit;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        Thread t = new Thread(this::run, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** 1 レコードを書き出し待ちに積む。 */
+    public void append(String record) {
+        if (record != null) enqueue(record);
+    }
+
+    /** 書き出し済み・書き出し待ちの内容を消す。 */
+    public void clear() {
+        enqueue(CLEAR);
+    }
+
+    /**
+     * これまでに積んだ操作がすべて書き出されるまで最大 timeoutMs 待つ。
+     * 間に合い、かつ前回の flush 以降に書き出しの失敗が無ければ true。
+     */
+    public boolean flush(long timeoutMs) {
+        long ticket = enqueue(FLUSH);
+        if (ticket < 0) return false;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (progress) {
+            while (completed < ticket) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) return false;
+                try {
+                    progress.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            boolean failedSinceLast = failures != failuresAtLastFlush;
+            failuresAtLastFlush = failures;
+            return !failedSinceLast;
+        }
+    }
+
+    /** これまでに失敗した書き出しの回数。 */
+    public long failureCount() {
+        synchronized (progress) {
+            return failures;
+        }
+    }
+
+    /** 操作を積み、その通し番号（1 始まり）を返す。割り込まれたら -1。 */
+    private long enqueue(Object op) {
+        synchronized (enqueueLock) {
+            try {
+                queue.put(op);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+            return ++submitted;
+        }
+    }
+
+    // ===== 書き出しスレッド =====
+
+    private void run() {
+        List<Object> ops = new ArrayList<>();
+        while (true) {
+            ops.clear();
+            try {
+                ops.add(queue.take());
+                gather(ops);
+            } catch (InterruptedException e) {
+                // デーモンスレッドなので割り込みは無視して続ける（集めた分は下で書き出す）
+            }
+            boolean ok = commit(ops);
+            synchronized (progress) {
+                if (!ok) failures++;
+                completed += ops.size();
+                progress.notifyAll();
+            }
+        }
+    }
+
+    /** 最初の操作から commitIntervalMs の間に届いた分を集める。flush が来たら待たずに終える。 */
+    private void gather(List<Object> ops) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + commitIntervalMs;
+        while (ops.get(ops.size() - 1) != FLUSH) {
+            queue.drainTo(ops);
+            if (ops.contains(FLUSH)) return;
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) return;
+            Object next = queue.poll(wait, TimeUnit.MILLISECONDS);
+            if (next == null) return;
+            ops.add(next);
+        }
+    }
+
+    /** 集めた操作を書き出す。書き出しに失敗したら false。 */
+    private boolean commit(List<Object> ops) {
+        List<String> batch = new ArrayList<>(ops.size());
+        for (Object op : ops) {
+            if (op == CLEAR) {
+                batch.clear();
+                sink.clear();
+            } else if (op instanceof String) {
+                batch.add((String) op);
+            }
+        }
+        if (batch.isEmpty()) return true;
+        try {
+            sink.write(batch);
+            if (syncOnCommit) sink.sync();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            try {
+                sink.failed(e, batch.size());
+            } catch (RuntimeException ignored) {
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.micklab.llamachat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * int8 量子化埋め込み（{@link QuantizedVectors} 形式）上の HNSW（Hierarchical Navigable Small World）近似最近傍索引。
+ *
+ * <ul>
+ *   <li>類似度は {@link QuantizedVectors#dotInt8}（正規化済みベクトルならコサイン類似度の近似）。</li>
+ *   <li>各ノードは確率的に決めた層まで存在し、層ごとに最大 M（最下層は 2M）本の近傍リンクを持つ。
+ *       近傍は多様性ヒューリスティックで選ぶ（同じ方向の近傍ばかりにならない）。</li>
+ *   <li>削除は墓標（検索結果から除くが経路としては使う）。同じ ID の再登録は古いノードを墓標にして追加する。
+ *       墓標が増えたら {@link #compact()} で作り直す。</li>
+ *   <li>{@link #writeTo} / {@link #readFrom} でバイナリ保存・復元する。</li>
+ * </ul>
+ *
+ * <p>スレッドセーフではない（呼び出し側で排他する）。Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class HnswIndex {
+
+    static final int DEFAULT_M = 16;
+    static final int DEFAULT_EF_CONSTRUCTION = 100;
+    static final int DEFAULT_EF_SEARCH = 64;
+    private static final int MAGIC = 0x484e5331; // "HNS1"
+
+    private final int m;
+    private final int maxLinks0;
+    private final int efConstruction;
+    private final double levelMult;
+    private final Random random;
+
+    private int dimension = -1;
+    private int count = 0;
+    private long[] ids = new long[16];
+    private byte[][] vectors = new byte[16][];
+    private int[][][] links = new int[16][][];
+    private boolean[] deleted = new boolean[16];
+    private int deletedCount = 0;
+    private final Map<Long, Integer> nodeById = new HashMap<>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private int[] visitedMark = new int[16];
+    private int visitGeneration = 0;
+
+    public HnswIndex(int m, int efConstruction, long seed) {
+        this.m = Math.max(2, m);
+        this.maxLinks0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMult = 1.0 / Math.log(this.m);
+        this.random = new Random(seed);
+    }
+
+    public HnswIndex() {
+        this(DEFAULT_M, DEFAULT_EF_CONSTRUCTION, 42L);
+    }
+
+    /** 有効な（墓標でない）要素数。 */
+    public int size() {
+        return count - deletedCount;
+    }
+
+    /** 墓標を含むノード数に対する墓標の割合。 */
+    public float deletedRatio() {
+        return count == 0 ? 0f : deletedCount / (float) count;
+    }
+
+    public boolean contains(long id) {
+        return nodeById.containsKey(id);
+    }
+
+    /** 要素を追加する（同じ ID があれば置き換える）。次元が既存要素と違うベクトルは無視して false。 */
+    public boolean add(long id, byte[] vector) {
+        int dim = QuantizedVectors.int8Dimension(vector);
+        if (dim <= 0 || (dimension >= 0 && dim != dimension)) return false;
+        dimension = dim;
+        remove(id);
+
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMult);
+        int node = allocate(id, vector, level);
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return true;
+        }
+
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) ep = greedyClosest(vector, ep, l);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            Candidate[] found = searchLayer(vector, ep, efConstruction, l);
+            int maxLinks = l == 0 ? maxLinks0 : m;
+            int[] selected = selectNeighbors(found, m);
+            links[node][l] = selected;
+            for (int nb : selected) connect(nb, node, l, maxLinks);
+            ep = found[0].node;
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return true;
+    }
+
+    /** 要素を削除する（墓標にする）。無ければ false。 */
+    public boolean remove(long id) {
+        Integer node = nodeById.remove(id);
+        if (node == null) return false;
+        deleted[node] = true;
+        deletedCount++;
+        return true;
+    }
+
+    /** q に近い順に最大 k 件の ID。ef は探索幅（k 未満なら k を使う）。 */
+    public long[] search(byte[] q, int k, int ef) {
+        if (entryPoint < 0 || k <= 0 || QuantizedVectors.int8Dimension(q) != dimension) return new long[0];
+        int ep = entryPoint;
+        for (int l = maxLevel; l > 0; l--) ep = greedyClosest(q, ep, l);
+        Candidate[] found = searchLayer(q, ep, Math.max(ef, k), 0);
+        long[] out = new long[Math.min(k, found.length)];
+        int n = 0;
+        for (Candidate c : found) {
+            if (n >= out.length) break;
+            if (!deleted[c.node]) out[n++] = ids[c.node];
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    public long[] search(byte[] q, int k) {
+        return search(q, k, DEFAULT_EF_SEARCH);
+    }
+
+    /** 墓標を除いた要素だけで作り直した索引。 */
+    public HnswIndex compact() {
+        HnswIndex fresh = new HnswIndex(m, efConstruction, random.nextLong());
+        for (int i = 0; i < count; i++) {
+            if (!deleted[i]) fresh.add(ids[i], vectors[i]);
+        }
+        return fresh;
+    }
+
+    // ===== グラフ操作 =====
+
+    private static final class Candidate {
+        final int node;
+        final float sim;
+
+        Candidate(int node, float sim) {
+            this.node = node;
+            this.sim = sim;
+        }
+    }
+
+    private float sim(byte[] q, int node) {
+        return QuantizedVectors.dotInt8(q, vectors[node]);
+    }
+
+    /** 層 l を貪欲に辿り、q に最も近いノードを返す。 */
+    private int greedyClosest(byte[] q, int ep, int l) {
+        int cur = ep;
+        float curSim = sim(q, cur);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] nbs = linksAt(cur, l);
+            for (int nb : nbs) {
+                float s = sim(q, nb);
+                if (s > curSim) {
+                    curSim = s;
+                    cur = nb;
+                    improved = true;
+                }
+            }
+        }
+        return cur;
+    }
+
+    /** 層 l で ef 件の近傍を探す（類似度の降順）。墓標も経路・候補に含める。 */
+    private Candidate[] searchLayer(byte[] q, int ep, int ef, int l) {
+        int generation = nextVisitGeneration();
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>(ef * 2, (a, b) -> Float.compare(b.sim, a.sim));
+        PriorityQueue<Candidate> best = new PriorityQueue<>(ef + 1, (a, b) -> Float.compare(a.sim, b.sim));
+        Candidate start = new Candidate(ep, sim(q, ep));
+        visitedMark[ep] = generation;
+        frontier.add(start);
+        best.add(start);
+        while (!frontier.isEmpty()) {
+            Candidate c = frontier.poll();
+            if (best.size() >= ef && c.sim < best.peek().sim) break;
+            for (int nb : linksAt(c.node, l)) {
+                if (visitedMark[nb] == generation) continue;
+                visitedMark[nb] = generation;
+                float s = sim(q, nb);
+                if (best.size() < ef || s > best.peek().sim) {
+                    Candidate cand = new Candidate(nb, s);
+                    frontier.add(cand);
+                    best.add(cand);
+                    if (best.size() > ef) best.poll();
+                }
+            }
+        }
+        Candidate[] out = best.toArray(new Candidate[0]);
+        Arrays.sort(out, (a, b) -> Float.compare(b.sim, a.sim));
+        return out;
+    }
+
+    /**
+     * 近い順の候補から最大 max 本を選ぶ。既に選んだ近傍より自分に近い候補だけを採り（多様性ヒューリスティック）、
+     * 足りなければ残りを近い順に補う。
+     */
+    private int[] selectNeighbors(Candidate[] sortedDesc, int max) {
+        int[] out = new int[Math.min(max, sortedDesc.length)];
+        boolean[] taken = new boolean[sortedDesc.length];
+        int n = 0;
+        for (int i = 0; i < sortedDesc.length && n < out.length; i++) {
+            Candidate c = sortedDesc[i];
+            boolean good = true;
+            for (int j = 0; j < n; j++) {
+                if (QuantizedVectors.dotInt8(vectors[c.node], vectors[out[j]]) > c.sim) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) {
+                out[n++] = c.node;
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < sortedDesc.length && n < out.length; i++) {
+            if (!taken[i]) out[n++] = sortedDesc[i].node;
+        }
+        return out;
+    }
+
+    /** from の層 l の近傍に to を加える。上限を超えたら from から見た近傍を選び直す。 */
+    private void connect(int from, int to, int l, int maxLinks) {
+        int[] cur = linksAt(from, l);
+        if (cur.length < maxLinks) {
+            int[] grown = Arrays.copyOf(cur, cur.length + 1);
+            grown[cur.length] = to;
+            links[from][l] = grown;
+            return;
+        }
+        Candidate[] cands = new Candidate[cur.length + 1];
+        for (int i = 0; i < cur.length; i++) cands[i] = new Candidate(cur[i], sim(vectors[from], cur[i]));
+        cands[cur.length] = new Candidate(to, sim(vectors[from], to));
+        Arrays.sort(cands, (a, b) -> Float.compare(b.sim, a.sim));
+        links[from][l] = selectNeighbors(cands, maxLinks);
+    }
+
+    private int[] linksAt(int node, int l) {
+        int[][] perLevel = links[node];
+        return l < perLevel.length && perLevel[l] != null ? perLevel[l] : EMPTY;
+    }
+
+    private static final int[] EMPTY = new int[0];
+
+    private int allocate(long id, byte[] vector, int level) {
+        if (count == ids.length) {
+            int cap = ids.length * 2;
+            ids = Arrays.copyOf(ids, cap);
+            vectors = Arrays.copyOf(vectors, cap);
+            links = Arrays.copyOf(links, cap);
+            deleted = Arrays.copyOf(deleted, cap);
+            visitedMark = Arrays.copyOf(visitedMark, cap);
+        }
+        int node = count++;
+        ids[node] = id;
+        vectors[node] = vector;
+        links[node] = new int[level + 1][];
+        nodeById.put(id, node);
+        return node;
+    }
+
+    private int nextVisitGeneration() {
+        if (++visitGeneration == Integer.MAX_VALUE) {
+            Arrays.fill(visitedMark, 0);
+            visitGeneration = 1;
+        }
+        return visitGeneration;
+    }
+
+    // ===== 保存・復元 =====
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(m);
+        out.writeInt(efConstruction);
+        out.writeInt(dimension);
+        out.writeInt(count);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(ids[i]);
+            out.writeBoolean(deleted[i]);
+            out.writeInt(vectors[i].length);
+            out.write(vectors[i]);
+            out.writeInt(links[i].length);
+            for (int[] level : links[i]) {
+                int[] nbs = level == null ? EMPTY : level;
+                out.writeInt(nbs.length);
+                for (int nb : nbs) out.writeInt(nb);
+            }
+        }
+    }
+
+    /** {@link #writeTo} で保存した索引。形式が違えば IOException。 */
+    public static HnswIndex readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("not an HNSW index");
+        HnswIndex index = new HnswIndex(in.readInt(), in.readInt(), 42L);
+        index.dimension = in.readInt();
+        int n = in.readInt();
+        index.entryPoint = in.readInt();
+        index.maxLevel = in.readInt();
+        if (n < 0 || index.entryPoint >= n) throw new IOException("corrupt HNSW index");
+        int cap = Math.max(16, n);
+        index.ids = new long[cap];
+        index.vectors = new byte[cap][];
+        index.links = new int[cap][][];
+        index.deleted = new boolean[cap];
+        index.visitedMark = new int[cap];
+        for (int i = 0; i < n; i++) {
+            index.ids[i] = in.readLong();
+            index.deleted[i] = in.readBoolean();
+            byte[] v = new byte[in.readInt()];
+            in.readFully(v);
+            index.vectors[i] = v;
+            int levels = in.readInt();
+            if (levels < 0 || levels > 64) throw new IOException("corrupt HNSW index");
+            index.links[i] = new int[levels][];
+            for (int l = 0; l < levels; l++) {
+                int[] nbs = new int[in.readInt()];
+                for (int j = 0; j < nbs.length; j++) {
+                    nbs[j] = in.readInt();
+                    if (nbs[j] < 0 || nbs[j] >= n) throw new IOException("corrupt HNSW index");
+                }
+                index.links[i][l] = nbs;
+            }
+            if (index.deleted[i]) {
+                index.deletedCount++;
+            } else {
+                index.nodeById.put(index.ids[i], i);
+            }
+        }
+        index.count = n;
+        return index;
+    }
+}
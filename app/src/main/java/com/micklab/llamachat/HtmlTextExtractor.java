@@ -0,0 +1,308 @@
+package com.micklab.llamachat;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HTML を先頭から 1 文字ずつ読み、本文テキストを取り出す小さなトークナイザ。
+ *
+ * <ul>
+ *   <li>script / style / noscript / title 等の中身、コメント、nav / footer / aside 等の周辺要素、フォームの操作部品は読み飛ばす。
+ *       head と form は要素ごとには読み飛ばさない（head は終了タグが省略されることがあり、form は本文全体を囲むページがあるため。
+ *       head の中身はもともと上記の中身を読み飛ばす要素と文字を持たない要素だけ）。</li>
+ *   <li>主要な名前付き文字参照と数値文字参照（{@code &#123;} / {@code &#x1F;}）を展開する。</li>
+ *   <li>空白は 1 つに畳み、ブロック要素の境界と {@code <br>} は改行にする（連続する改行は 1 つ）。</li>
+ *   <li>出力が maxChars に達した時点で読むのをやめる（残りの HTML は受信もしない）。</li>
+ * </ul>
+ *
+ * <p>正規表現や DOM を使わず、保持するのは出力バッファと読み取り用の小さなバッファだけ。
+ * Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class HtmlTextExtractor {
+
+    /** 中身を文字列として扱い、対応する終了タグまで丸ごと読み飛ばす要素。 */
+    private static final Set<String> RAW_TEXT_TAGS = new HashSet<>(Arrays.asList(
+            "script", "style", "noscript", "template", "textarea", "title"));
+    /** 本文ではない周辺要素（入れ子を数えて終了タグまで読み飛ばす）。 */
+    private static final Set<String> SKIPPED_TAGS = new HashSet<>(Arrays.asList(
+            "nav", "footer", "aside", "iframe", "svg", "button", "select", "menu", "dialog"));
+    private static final Set<String> BLOCK_TAGS = new HashSet<>(Arrays.asList(
+            "p", "div", "br", "li", "ul", "ol", "dl", "dt", "dd", "h1", "h2", "h3", "h4", "h5", "h6",
+            "tr", "table", "section", "article", "main", "header", "blockquote", "pre", "hr",
+            "figure", "figcaption", "address"));
+    private static final Map<String, Character> ENTITIES = new HashMap<>();
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    static {
+        ENTITIES.put("amp", '&');
+        ENTITIES.put("lt", '<');
+        ENTITIES.put("gt", '>');
+        ENTITIES.put("quot", '"');
+        ENTITIES.put("apos", '\'');
+        ENTITIES.put("nbsp", ' ');
+        ENTITIES.put("copy", '©');
+        ENTITIES.put("reg", '®');
+        ENTITIES.put("yen", '¥');
+        ENTITIES.put("middot", '·');
+        ENTITIES.put("times", '×');
+        ENTITIES.put("laquo", '«');
+        ENTITIES.put("raquo", '»');
+        ENTITIES.put("ndash", '–');
+        ENTITIES.put("mdash", '—');
+        ENTITIES.put("lsquo", '‘');
+        ENTITIES.put("rsquo", '’');
+        ENTITIES.put("ldquo", '“');
+        ENTITIES.put("rdquo", '”');
+        ENTITIES.put("hellip", '…');
+        ENTITIES.put("bull", '•');
+    }
+
+    private final Reader in;
+    private final int maxChars;
+    private final StringBuilder out;
+    private final char[] buf = new char[4096];
+    private int pos = 0;
+    private int limit = 0;
+    private int pushedBack = -1;
+    private int skipDepth = 0;
+    private boolean pendingSpace = false;
+    private boolean pendingNewline = false;
+
+    private HtmlTextExtractor(Reader in, int maxChars) {
+        this.in = in;
+        this.maxChars = maxChars;
+        this.out = new StringBuilder(Math.min(maxChars, 4096));
+    }
+
+    /** 文字列の HTML から本文テキスト（最大 maxChars 文字）を取り出す。 */
+    public static String extract(String html, int maxChars) {
+        if (html == null || html.isEmpty()) return "";
+        try {
+            return extract(new StringReader(html), maxChars);
+        } catch (IOException e) {
+            return ""; // StringReader では起きない
+        }
+    }
+
+    /** Reader から本文テキスト（最大 maxChars 文字）を取り出す。Reader は閉じない。 */
+    public static String extract(Reader in, int maxChars) throws IOException {
+        if (maxChars <= 0) return "";
+        HtmlTextExtractor x = new HtmlTextExtractor(in, maxChars);
+        x.run();
+        return x.out.toString().trim();
+    }
+
+    private void run() throws IOException {
+        int c;
+        while (out.length() < maxChars && (c = read()) >= 0) {
+            if (c == '<') {
+                readMarkup();
+            } else if (skipDepth > 0) {
+                // 周辺要素の中身は捨てる
+            } else if (c == '&') {
+                readEntity();
+            } else {
+                emit(c);
+            }
+        }
+        if (out.length() > maxChars) out.setLength(maxChars);
+    }
+
+    private void emit(int c) {
+        if (c == '\uFFFD' || c == 0) return; // 途中で切れた多バイト文字など
+        if (c == '\n' || c == '\r' || c == ' ' || c == '\t' || c == '\f' || c == '\u00A0') {
+            pendingSpace = true;
+            return;
+        }
+        if (out.length() > 0) {
+            if (pendingNewline) {
+                out.append('\n');
+            } else if (pendingSpace) {
+                out.append(' ');
+            }
+        }
+        pendingSpace = false;
+        pendingNewline = false;
+        out.append((char) c);
+    }
+
+    private void blockBoundary() {
+        pendingNewline = true;
+    }
+
+    private void readMarkup() throws IOException {
+        int c = read();
+        if (c < 0) return;
+        if (c == '!') {
+            int c2 = read();
+            if (c2 == '>') return;
+            int c3 = c2 == '-' ? read() : -1;
+            if (c2 == '-' && c3 == '-') {
+                skipPast("-->");
+            } else {
+                if (c3 >= 0) unread(c3);
+                skipPast(">"); // <!DOCTYPE> / <![CDATA[ 等
+            }
+            return;
+        }
+        if (c == '?') {
+            skipPast(">");
+            return;
+        }
+        boolean closing = c == '/';
+        if (closing) c = read();
+        if (!isLetter(c)) {
+            // "<" の後がタグ名でなければただの文字
+            if (skipDepth == 0) {
+                emit('<');
+                if (closing) emit('/');
+            }
+            if (c >= 0) unread(c);
+            return;
+        }
+        StringBuilder name = new StringBuilder();
+        while (c >= 0 && (isLetter(c) || (c >= '0' && c <= '9') || c == '-' || c == ':')) {
+            if (name.length() < 16) name.append((char) Character.toLowerCase(c));
+            c = read();
+        }
+        boolean selfClosing = skipAttributes(c);
+        String tag = name.toString().toLowerCase(Locale.ROOT);
+
+        if (!closing && RAW_TEXT_TAGS.contains(tag)) {
+            if (!selfClosing) skipRawText(tag);
+            return;
+        }
+        if (SKIPPED_TAGS.contains(tag)) {
+            if (closing) {
+                if (skipDepth > 0) skipDepth--;
+            } else if (!selfClosing) {
+                skipDepth++;
+            }
+            blockBoundary();
+            return;
+        }
+        if (BLOCK_TAGS.contains(tag)) blockBoundary();
+    }
+
+    /** 属性部分を引用符を考慮して {@code >} まで読み飛ばす。{@code />} で閉じていれば true。 */
+    private boolean skipAttributes(int c) throws IOException {
+        int quote = 0;
+        int prev = 0;
+        while (c >= 0) {
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return prev == '/';
+            }
+            prev = c;
+            c = read();
+        }
+        return false;
+    }
+
+    /** {@code </tag} が現れるまで読み飛ばし、その終了タグも消費する。 */
+    private void skipRawText(String tag) throws IOException {
+        String end = "</" + tag;
+        int matched = 0;
+        int c;
+        while ((c = read()) >= 0) {
+            if (Character.toLowerCase(c) == end.charAt(matched)) {
+                matched++;
+                if (matched == end.length()) {
+                    skipAttributes(read());
+                    return;
+                }
+            } else {
+                matched = Character.toLowerCase(c) == end.charAt(0) ? 1 : 0;
+            }
+        }
+    }
+
+    private void skipPast(String terminator) throws IOException {
+        int matched = 0;
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == terminator.charAt(matched)) {
+                matched++;
+                if (matched == terminator.length()) return;
+            } else {
+                matched = c == terminator.charAt(0) ? 1 : 0;
+            }
+        }
+    }
+
+    /** {@code &} の後を読み、文字参照なら展開して出力する。参照でなければ原文のまま出力し、区切りの文字は戻す。 */
+    private void readEntity() throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c;
+        while ((c = read()) >= 0 && c != ';' && name.length() < MAX_ENTITY_LENGTH
+                && (isLetter(c) || (c >= '0' && c <= '9') || c == '#')) {
+            name.append((char) c);
+        }
+        if (c == ';' && name.length() > 0) {
+            int cp = decodeEntity(name.toString());
+            if (cp >= 0) {
+                if (Character.isSupplementaryCodePoint(cp)) {
+                    emit(Character.highSurrogate(cp));
+                    emit(Character.lowSurrogate(cp));
+                } else {
+                    emit(cp);
+                }
+                return;
+            }
+        }
+        emit('&');
+        for (int i = 0; i < name.length(); i++) emit(name.charAt(i));
+        if (c >= 0) unread(c);
+    }
+
+    private static int decodeEntity(String name) {
+        if (name.charAt(0) == '#') {
+            try {
+                int cp = name.length() > 1 && (name.charAt(1) == 'x' || name.charAt(1) == 'X')
+                        ? Integer.parseInt(name.substring(2), 16)
+                        : Integer.parseInt(name.substring(1));
+                return cp > 0 && Character.isValidCodePoint(cp) ? cp : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        Character ch = ENTITIES.get(name);
+        if (ch == null) ch = ENTITIES.get(name.toLowerCase(Locale.ROOT));
+        return ch == null ? -1 : ch;
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private int read() throws IOException {
+        if (pushedBack >= 0) {
+            int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        if (pos >= limit) {
+            limit = in.read(buf, 0, buf.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buf[pos++];
+    }
+
+    private void unread(int c) {
+        pushedBack = c;
+    }
+}
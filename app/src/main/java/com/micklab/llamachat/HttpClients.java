@@ -0,0 +1,125 @@
+package com.micklab.llamachat;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * プロセス共通の OkHttpClient 群。MainActivity と FloatOverlayService はここから用途別のクライアントを受け取る。
+ *
+ * <p>用途別クライアントはすべて同じ {@link ConnectionPool} と {@link Dispatcher} を共有する
+ * （{@link OkHttpClient#newBuilder()} で派生させたものはプールとディスパッチャを引き継ぐ）。
+ * そのため画面とフロートの間でも Ollama / 検索 API への接続が再利用され、リクエストごとの TCP/TLS 確立が減る。
+ * HTTPS の接続先では ALPN で HTTP/2 が選ばれ、同一ホストへの並行要求は 1 本の接続に多重化される
+ * （平文の Ollama は HTTP/1.1 のまま）。</p>
+ *
+ * <p>タイムアウトは用途ごとに決め、応答しない接続がワーカースレッドを長時間占有しないようにする。</p>
+ *
+ * <p>{@link #installCache(Context)} 後の {@link #web()} / {@link #fetch()} はディスク上の HTTP キャッシュを共有し、
+ * Cache-Control に従って Wikipedia REST 要約や検索結果ページの再取得を省く（条件付き要求での再検証を含む）。</p>
+ */
+public final class HttpClients {
+
+    private HttpClients() {
+    }
+
+    // 生成は遅いが、読み取りタイムアウトはバイト間隔なのでストリーミング中は切れない。
+    // 非ストリーミング生成（応答全体が届くまで無通信）の上限も兼ねる。
+    private static final long CHAT_READ_TIMEOUT_SECONDS = 600;
+
+    private static final OkHttpClient BASE = buildBase();
+    private static final OkHttpClient CHAT = BASE.newBuilder()
+            .connectTimeout(15, TimeUnit.SECONDS)
+            .writeTimeout(60, TimeUnit.SECONDS)
+            .readTimeout(CHAT_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .build();
+    private static final OkHttpClient API = BASE.newBuilder()
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .writeTimeout(30, TimeUnit.SECONDS)
+            .readTimeout(60, TimeUnit.SECONDS)
+            .callTimeout(120, TimeUnit.SECONDS)
+            .build();
+    private static final long HTTP_CACHE_BYTES = 16L * 1024 * 1024;
+    private static final String HTTP_CACHE_DIR = "http";
+
+    private static final OkHttpClient WEB = BASE.newBuilder()
+            .connectTimeout(5, TimeUnit.SECONDS)
+            .writeTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(15, TimeUnit.SECONDS)
+            .callTimeout(30, TimeUnit.SECONDS)
+            .build();
+    private static final OkHttpClient FETCH = BASE.newBuilder()
+            .connectTimeout(5, TimeUnit.SECONDS)
+            .writeTimeout(5, TimeUnit.SECONDS)
+            .readTimeout(8, TimeUnit.SECONDS)
+            .callTimeout(15, TimeUnit.SECONDS)
+            .build();
+
+    private static volatile Cache httpCache;
+    private static volatile OkHttpClient web = WEB;
+    private static volatile OkHttpClient fetch = FETCH;
+
+    private static OkHttpClient buildBase() {
+        Dispatcher dispatcher = new Dispatcher();
+        // 非同期呼び出しのホスト別同時数。単一の Ollama への集中は抑えつつ、
+        // Wikipedia の並行取得（1 言語版あたり最大 5 要求）は待たされない値にする
+        dispatcher.setMaxRequestsPerHost(5);
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(8, 5, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .build();
+    }
+
+    /**
+     * Web 用クライアントにディスクキャッシュ（アプリのキャッシュディレクトリ、上限 {@link #HTTP_CACHE_BYTES}）を付ける。
+     * 2 回目以降の呼び出しは何もしない。{@link #web()} / {@link #fetch()} を取得する前に呼ぶこと。
+     */
+    public static synchronized void installCache(Context context) {
+        if (httpCache != null) return;
+        Cache cache = new Cache(new File(context.getCacheDir(), HTTP_CACHE_DIR), HTTP_CACHE_BYTES);
+        web = WEB.newBuilder().cache(cache).build();
+        fetch = FETCH.newBuilder().cache(cache).build();
+        httpCache = cache;
+    }
+
+    /** デバッグ表示用の HTTP キャッシュ統計（未導入なら null）。 */
+    public static String cacheStatsLine() {
+        Cache cache = httpCache;
+        if (cache == null) return null;
+        long size;
+        try {
+            size = cache.size();
+        } catch (Exception e) {
+            size = -1;
+        }
+        return String.format(Locale.ROOT, "http cache: %d hit / %d network of %d requests, %d KB",
+                cache.hitCount(), cache.networkCount(), cache.requestCount(), size < 0 ? -1 : size / 1024);
+    }
+
+    /** Ollama の /api/chat（ストリーミング/非ストリーミング生成、キーワード・記憶抽出）用。 */
+    public static OkHttpClient chat() {
+        return CHAT;
+    }
+
+    /** Ollama の短い API（/api/embed・/api/tokenize・/api/tags）用。 */
+    public static OkHttpClient api() {
+        return API;
+    }
+
+    /** 外部 Web 検索 API（Wikipedia / Brave / 汎用）用。 */
+    public static OkHttpClient web() {
+        return web;
+    }
+
+    /** 検索結果ページ本文の取得用（接続・読み取りとも短く打ち切る）。 */
+    public static OkHttpClient fetch() {
+        return fetch;
+    }
+}
@@ -0,0 +1,168 @@
+package com.micklab.llamachat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 記憶呼び出し用のハイブリッド検索。字句ランキング（FTS/BM25）とベクトルランキング（保存済み埋め込みとの
+ * コサイン類似度 top-k）を Reciprocal Rank Fusion で統合する。
+ *
+ * <p>字句一致しない言い換えでもベクトル側から候補に入る。各段の件数に上限（予算）を設けているため、
+ * 1 回の呼び出しで行う処理量は DB 件数に依らず一定。埋め込み取得はクエリと未埋め込み記憶の補完分を
+ * 1 回のバッチ要求にまとめる。埋め込みが {@link #ANN_MIN_SIZE} 件以上になると HNSW 索引で全件から候補を取るため、
+ * 走査予算より古い記憶も呼び出せる。ネットワーク/DB を伴うためワーカースレッドから呼び出すこと。</p>
+ */
+public final class HybridMemoryRetriever {
+
+    /** 字句ランキングの最大件数。 */
+    static final int LEXICAL_BUDGET = 20;
+    /** ベクトル採点で走査する保存済み埋め込みの最大件数（新しい順）。 */
+    static final int VECTOR_SCAN_BUDGET = 2000;
+    /** ベクトルランキングの最大件数。 */
+    static final int VECTOR_TOP_K = 20;
+    /** 埋め込みがこの件数以上なら近似最近傍索引（HNSW）で候補を取る（未満なら総当たり走査で全件を見られる）。 */
+    static final int ANN_MIN_SIZE = VECTOR_SCAN_BUDGET + 1;
+    /** 量子化走査・近似最近傍探索で残す候補数の倍率（VECTOR_TOP_K × この値を float で再採点する）。 */
+    static final int RESCORE_FACTOR = 3;
+    /** 1 回の呼び出しで補完する未埋め込み記憶の最大件数。 */
+    static final int BACKFILL_BUDGET = 16;
+    /** RRF の定数 k（一般的な既定値）。 */
+    static final int RRF_K = 60;
+
+    private final MemoryRepository repo;
+    private final EmbeddingClient embedding; // null 可（その場合は字句ランキングのみ）
+    private final String lang;
+
+    public HybridMemoryRetriever(MemoryRepository repo, EmbeddingClient embedding, String lang) {
+        this.repo = repo;
+        this.embedding = embedding;
+        this.lang = lang;
+    }
+
+    /**
+     * 関連度順に最大 limit 件の記憶を返す。
+     *
+     * @param semanticQuery  埋め込みに使う文（通常はユーザ発話そのもの）
+     * @param lexicalQuery   字句検索に使う語句（呼び出しトリガー語を除いたもの。空なら字句側は省略）
+     */
+    public List<MemoryRecord> retrieve(String semanticQuery, String lexicalQuery, int limit) {
+        List<Long> lexical = (lexicalQuery == null || lexicalQuery.trim().isEmpty())
+                ? new ArrayList<>() : repo.searchIds(lexicalQuery, LEXICAL_BUDGET);
+        List<Long> vector = embedding != null
+                ? vectorRanking(semanticQuery, lexical) : new ArrayList<>();
+        List<Long> fused = MemorySearchIndex.reciprocalRankFusion(
+                Arrays.asList(lexical, vector), RRF_K, limit);
+        return repo.getByIds(fused);
+    }
+
+    /** 記憶を埋め込むときのテキスト（内容＋予定ラベル）。 */
+    public String embeddingText(MemoryRecord r) {
+        String sched = r.scheduleLabel(lang);
+        return sched.isEmpty() ? r.content : (r.content + " " + sched);
+    }
+
+    /**
+     * クエリと補完対象（字句ヒットのうち埋め込みが無い/古いもの＋未埋め込みの新しい記憶）を 1 回で埋め込み、
+     * 補完分は保存してから、走査予算内の保存済み埋め込みとの類似度上位を返す。失敗時は空。
+     */
+    private List<Long> vectorRanking(String semanticQuery, List<Long> lexical) {
+        try {
+            String model = embedding.getModel();
+            List<MemoryRecord> backfill = staleLexicalHits(model, lexical);
+            for (MemoryRecord r : repo.getMissingEmbeddings(model, BACKFILL_BUDGET)) {
+                if (!containsId(backfill, r.id)) backfill.add(r);
+            }
+
+            List<String> texts = new ArrayList<>(backfill.size() + 1);
+            texts.add(semanticQuery == null ? "" : semanticQuery);
+            for (MemoryRecord r : backfill) texts.add(embeddingText(r));
+            EmbeddingBatch vecs = embedding.embedBatchFlat(texts);
+            if (vecs.isEmpty()) return new ArrayList<>();
+            float[] q = EmbeddingClient.l2Normalize(vecs.get(0));
+            for (int i = 1; i < vecs.size() && i <= backfill.size(); i++) {
+                MemoryRecord r = backfill.get(i - 1);
+                repo.putEmbedding(r.id, model, VectorCodec.textHash(texts.get(i)),
+                        EmbeddingClient.l2Normalize(vecs.get(i)));
+            }
+
+            // 索引の探索・更新と量子化走査・再採点は計算が主なので CPU プールで行う
+            return TaskScheduler.get().call(TaskScheduler.Pool.CPU, TaskScheduler.Priority.INTERACTIVE,
+                    () -> nearestByVector(model, q));
+        } catch (Exception e) {
+            return new ArrayList<>();
+        }
+    }
+
+    /** 正規化済みクエリ q に近い記憶の上位 {@link #VECTOR_TOP_K} 件（HNSW 索引、小さいうちは量子化走査）。 */
+    private List<Long> nearestByVector(String model, float[] q) {
+        byte[] q8 = QuantizedVectors.encodeInt8(q);
+        long[] nearest = repo.searchNearestIds(model, q8, VECTOR_TOP_K * RESCORE_FACTOR, ANN_MIN_SIZE);
+        if (nearest != null) {
+            List<Long> ids = new ArrayList<>(nearest.length);
+            for (long id : nearest) ids.add(id);
+            return rescore(model, q, ids, null, VECTOR_TOP_K);
+        }
+        List<MemoryRepository.QuantizedEmbedding> scanned =
+                repo.getRecentQuantizedEmbeddings(model, VECTOR_SCAN_BUDGET);
+        return topK(model, q, q8, scanned, VECTOR_TOP_K);
+    }
+
+    /** 字句ヒットのうち、指定モデルの埋め込みが無いかテキストが変わっているもの。 */
+    private List<MemoryRecord> staleLexicalHits(String model, List<Long> lexical) {
+        List<MemoryRecord> out = new ArrayList<>();
+        if (lexical.isEmpty()) return out;
+        Map<Long, MemoryRepository.StoredEmbedding> stored = repo.getEmbeddings(model, lexical);
+        for (MemoryRecord r : repo.getByIds(lexical)) {
+            MemoryRepository.StoredEmbedding e = stored.get(r.id);
+            if (e == null || !VectorCodec.textHash(embeddingText(r)).equals(e.textHash)) out.add(r);
+        }
+        return out;
+    }
+
+    /**
+     * 上位 k 件。まず int8 量子化ベクトルの整数内積で全件を一次採点して {@link #RESCORE_FACTOR} 倍の候補に絞り、
+     * 候補だけ float16 ベクトルを読んで正確な内積で採点し直す（保存済み埋め込みは正規化済み）。
+     */
+    private List<Long> topK(String model, float[] q, byte[] q8,
+                            List<MemoryRepository.QuantizedEmbedding> scanned, int k) {
+        int n = scanned.size();
+        float[] approx = new float[n];
+        for (int i = 0; i < n; i++) approx[i] = QuantizedVectors.dotInt8(q8, scanned.get(i).vector);
+        int[] candidates = VectorScoring.topK(approx, n, k * RESCORE_FACTOR);
+
+        List<Long> ids = new ArrayList<>(candidates.length);
+        float[] fallback = new float[candidates.length];
+        for (int j = 0; j < candidates.length; j++) {
+            ids.add(scanned.get(candidates[j]).memoryId);
+            fallback[j] = approx[candidates[j]];
+        }
+        return rescore(model, q, ids, fallback, k);
+    }
+
+    /**
+     * 候補の float16 ベクトルを読み、正確な内積で採点し直した上位 k 件。
+     * ベクトルが読めない候補は fallback の近似値（null なら除外）を使う。
+     */
+    private List<Long> rescore(String model, float[] q, List<Long> ids, float[] fallback, int k) {
+        Map<Long, MemoryRepository.StoredEmbedding> exact = repo.getEmbeddings(model, ids);
+        float[] scores = new float[ids.size()];
+        for (int j = 0; j < scores.length; j++) {
+            MemoryRepository.StoredEmbedding e = exact.get(ids.get(j));
+            if (e != null) scores[j] = VectorScoring.dot(q, e.vector);
+            else scores[j] = fallback != null ? fallback[j] : Float.NaN;
+        }
+        int[] top = VectorScoring.topK(scores, scores.length, k);
+        List<Long> out = new ArrayList<>(top.length);
+        for (int j : top) out.add(ids.get(j));
+        return out;
+    }
+
+    private static boolean containsId(List<MemoryRecord> list, long id) {
+        for (MemoryRecord r : list) {
+            if (r.id == id) return true;
+        }
+        return false;
+    }
+}
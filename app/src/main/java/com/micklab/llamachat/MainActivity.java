@@ -70,7 +70,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Random;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import okhttp3.Call;
@@ -93,6 +92,8 @@ import okhttp3.Response;
 public class MainActivity extends ComponentActivity implements TextToSpeech.OnInitListener {
 
     private static final String TAG = "OllamaChat";
+    // TaskScheduler 上のキャンセル単位（activeStreamingToken と組で使う）
+    private static final String TASK_GROUP = "main-activity";
     private static final String SETTINGS_FILE = "chat_settings.json";
     private static final String OVERLAY_SYNC_LOG_FILE = "overlay_sync_log.jsonl";
     private static final String SETTINGS_PROFILE_DIR = "settings_profiles";
@@ -164,10 +165,12 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
     private static final int THINKING_ANIMATION_INTERVAL_MS = 360;
     private static final int MIN_RETAINED_HISTORY_MESSAGES = 24;
     private static final int MIN_VISIBLE_MESSAGE_ROWS = 80;
+    // 最上部までスクロールしたときに全履歴から読み足す件数と、読み足した分を含めた表示行数の上限の最小値
+    // （実際の上限は maxVisibleRows。遡り表示と trimVisibleMessageRows で同じ値を使う）。
+    private static final int SCROLLBACK_PAGE_SIZE = 30;
+    private static final int MAX_SCROLLBACK_ROWS = 300;
+    private boolean scrollbackLoading = false;
     private static final int MAX_OVERLAY_SYNC_IMPORT_LINES = 120;
-    private static final String[] REASONING_OPEN_TAGS = new String[]{
-            "<think>", "<analysis>", "<|thought|>"
-    };
 
     // --- UI ---
     private LinearLayout messageContainer;
@@ -306,16 +309,6 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         }
     }
 
-    private static class ReasoningFilterResult {
-        private final String visibleText;
-        private final boolean reasoningActive;
-
-        private ReasoningFilterResult(String visibleText, boolean reasoningActive) {
-            this.visibleText = visibleText;
-            this.reasoningActive = reasoningActive;
-        }
-    }
-
     // --- Avatar ---
     private final Handler avatarHandler = new Handler(Looper.getMainLooper());
     private final Handler autoHandler = new Handler(Looper.getMainLooper());
@@ -414,6 +407,8 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
     private final ChatFlowController chatFlowController =
             new ChatFlowController(expertSelector, webSearchExpertHandler);
     private SemanticExpertClassifier semanticExpertClassifier = new SemanticExpertClassifier();
+    // 代表発話の埋め込み行列（分類器の作り直し・再起動をまたいで再利用する）
+    private SemanticExampleStore semanticExampleStore;
 
     // --- Chat ---
     private final List<JSONObject> conversationHistory = new ArrayList<>();
@@ -421,10 +416,14 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
     private volatile boolean isProcessing = false;
     private volatile boolean isListening = false;
     private final Object historyLock = new Object();
+    // 会話相手ごとの /api/chat メッセージ詰め込み器（num_ctx に収め、送る先頭を固定する）
+    private final ContextPacker baseContextPacker = new ContextPacker();
+    private final ContextPacker chatterContextPacker = new ContextPacker();
     private ChatSpeaker nextChatterSpeaker = ChatSpeaker.BASE;
     private String lastBaseResponse = null;
     private String lastChatterResponse = null;
     private MarkdownRenderer markdownRenderer;
+    private StreamingMarkdownRenderer streamingMarkdownRenderer;
     private TextView currentStreamingBubble;
     private TextView currentThinkingBubble;
     private ChatSpeaker currentStreamingSpeaker = ChatSpeaker.BASE;
@@ -667,16 +666,19 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             "・Email: micklab2026@gmail.com";
 
     // --- Network ---
-    private final OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(3600, TimeUnit.SECONDS)
-            .writeTimeout(3600, TimeUnit.SECONDS)
-            .readTimeout(3600, TimeUnit.SECONDS)
-            .callTimeout(3600, TimeUnit.SECONDS)
-            .build();
+    // 用途別クライアント（接続プールはプロセス全体で共有）
+    private final OkHttpClient client = HttpClients.chat();
+    private final OkHttpClient apiClient = HttpClients.api();
+    // Web 用はディスクキャッシュ付き（onCreate で HttpClients.installCache 後に取得）
+    private OkHttpClient webClient;
+    private OkHttpClient webFetchClient;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        HttpClients.installCache(this);
+        webClient = HttpClients.web();
+        webFetchClient = HttpClients.fetch();
         DebugLogger.clear(this);
         DebugLogger.log(this, "=== MainActivity onCreate ===");
         requestWindowFeature(Window.FEATURE_NO_TITLE);
@@ -807,6 +809,13 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         ivCounterpartMiniBackground = findViewById(R.id.ivCounterpartMiniBackground);
         ivCounterpartMiniAvatar = findViewById(R.id.ivCounterpartMiniAvatar);
         scrollView = findViewById(R.id.scrollView);
+        if (scrollView != null) {
+            scrollView.setOnScrollChangeListener((v, x, y, oldX, oldY) -> {
+                if (y == 0 && oldY > 0) {
+                    loadOlderMessages();
+                }
+            });
+        }
         settingsPanel = findViewById(R.id.settingsPanel);
         topPanel = findViewById(R.id.topPanel);
         chatPanel = findViewById(R.id.chatPanel);
@@ -1758,6 +1767,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             currentCall = null;
         }
         activeStreamingToken = streamingTokenCounter.incrementAndGet();
+        TaskScheduler.get().cancelStale(TASK_GROUP, activeStreamingToken);
         resetStreamBuffer();
         hideThinkingIndicator();
         stopTts();
@@ -1785,6 +1795,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             currentCall = null;
         }
         activeStreamingToken = streamingTokenCounter.incrementAndGet();
+        TaskScheduler.get().cancelStale(TASK_GROUP, activeStreamingToken);
         resetStreamBuffer();
         hideThinkingIndicator();
         isProcessing = false;
@@ -2244,6 +2255,9 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             if (speaker == ChatSpeaker.BASE && responseText != null && !responseText.trim().isEmpty()) {
                 conversationStore.append("assistant", responseText);
                 storeRenderedCount = conversationStore.size();
+            } else if (speaker == ChatSpeaker.CHATTER && responseText != null && !responseText.trim().isEmpty()) {
+                // CHATTER のターンは Float と共有しないが、遡り表示のため全履歴には話者付きで残す
+                conversationStore.archiveOnly("assistant", ConversationArchive.SPEAKER_CHATTER, responseText);
             }
             if (autoChatterEnabled) {
                 if (responseText != null && !responseText.trim().isEmpty()) {
@@ -3095,7 +3109,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         }
         // Text normalization (similar to ollama-chat speak())
         // Markdown / HTML の装飾はタグ名ごと先に除去（句読点正規化で語として残さない）。
-        String source = TtsTextSanitizer.sanitize(stripReasoningSegments(text));
+        String source = TtsTextSanitizer.sanitize(ReasoningStreamFilter.strip(text));
         String clean = source
                 .replaceAll("[\\n\\r\\t]", "、")
                 .replaceAll("[!@#$%^&*()_+={}\\[\\]|\\\\:;<>.?/]", "、")
@@ -3216,6 +3230,13 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                 addToHistory(conversationHistory, "assistant", e.content);
                 lastBaseResponse = e.content;
                 imported = true;
+            } else {
+                continue;
+            }
+            // 遡り表示の起点になるよう、行には追記時刻を記録しておく（UI スレッド上なので直前の行が該当行）
+            if (messageContainer != null && messageContainer.getChildCount() > 0) {
+                messageContainer.getChildAt(messageContainer.getChildCount() - 1)
+                        .setTag(new ConversationTimeline.Position(e.createdAt, 0));
             }
         }
         storeRenderedCount = snap.size();
@@ -3254,7 +3275,8 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         if (history.isEmpty()) return;
         try {
             JSONObject sys = history.get(0);
-            if ("system".equals(sys.optString("role"))) {
+            // 同じ内容なら書き換えない（プロンプト先頭が変わるのは名前・設定を変えたときだけ）
+            if ("system".equals(sys.optString("role")) && !prompt.equals(sys.optString("content"))) {
                 sys.put("content", prompt);
             }
         } catch (Exception e) {
@@ -3333,8 +3355,10 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         }
         int keepStart = "system".equals(history.get(0).optString("role")) ? 1 : 0;
         int maxMessages = Math.max(MIN_RETAINED_HISTORY_MESSAGES, historyLimit * 4);
-        while (history.size() - keepStart > maxMessages) {
-            history.remove(keepStart);
+        // 1 件ずつではなくブロック単位で削り、送信側が覚えている先頭ターンを毎ターン消さない
+        int drop = ContextPacker.blockTrimCount(history.size() - keepStart, maxMessages);
+        if (drop > 0) {
+            history.subList(keepStart, keepStart + drop).clear();
         }
     }
 
@@ -3345,7 +3369,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             String url = ollamaBaseUrl + "/api/tags";
             Request request = new Request.Builder().url(url).get().build();
 
-            client.newCall(request).enqueue(new Callback() {
+            apiClient.newCall(request).enqueue(new Callback() {
                 @Override
                 public void onFailure(Call call, IOException e) {
                     Log.w(TAG, "fetchModels failed: " + e.getMessage(), e);
@@ -3485,7 +3509,11 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
     }
 
     private void rebuildSemanticClassifier() {
-        semanticExpertClassifier = new SemanticExpertClassifier(semanticThreshold, semanticRelMargin);
+        if (semanticExampleStore == null) {
+            semanticExampleStore = new SemanticExampleStore(getFilesDir());
+        }
+        semanticExpertClassifier = new SemanticExpertClassifier(
+                semanticThreshold, semanticRelMargin, semanticExampleStore);
     }
 
     private StructuredOutput.Mode structuredMode() {
@@ -3503,12 +3531,12 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         isProcessing = true;
         updateSendButton();
         final String embModel = resolveEmbeddingModelName();
-        new Thread(() -> {
+        submitTask(() -> {
             SemanticExpertClassifier.Result result;
             try {
-                EmbeddingClient embedder = new EmbeddingClient(client, ollamaBaseUrl, embModel);
-                result = semanticExpertClassifier.classify(
-                        userMsg, embedder::embed, webAvailable, memoryAvailable, embModel);
+                EmbeddingClient embedder = newEmbeddingClient(embModel);
+                result = semanticExpertClassifier.classify(userMsg,
+                        SemanticExpertClassifier.embedderFor(embedder), webAvailable, memoryAvailable, embModel);
             } catch (Exception e) {
                 Log.w(TAG, "semantic routing error", e);
                 result = null;
@@ -3533,7 +3561,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                 appendExpertRoutingDebug(dispatchResult);
                 dispatchChatFlow(userMsg, dispatchResult);
             });
-        }).start();
+        });
     }
 
     /**
@@ -3562,10 +3590,15 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         sendChat(null);
     }
 
+    /** 埋め込みクライアント（プロセス共通の埋め込みキャッシュ付き）。 */
+    private EmbeddingClient newEmbeddingClient(String model) {
+        return new EmbeddingClient(apiClient, ollamaBaseUrl, model, EmbeddingCacheDatabase.sharedCache(this));
+    }
+
     private MemoryFlowHelper newMemoryHelper() {
-        EmbeddingClient emb = new EmbeddingClient(client, ollamaBaseUrl, resolveEmbeddingModelName());
+        EmbeddingClient emb = newEmbeddingClient(resolveEmbeddingModelName());
         return new MemoryFlowHelper(memoryRepository, emb, client, ollamaBaseUrl,
-                selectedModel, structuredMode(), appLanguage);
+                selectedModel, structuredMode(), appLanguage, conversationStore);
     }
 
     private void performMemorySaveFlow(String userMsg) {
@@ -3576,7 +3609,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         }
         isProcessing = true;
         updateSendButton();
-        new Thread(() -> {
+        submitTask(() -> {
             MemoryFlowHelper helper = newMemoryHelper();
             MemoryFlowHelper.SaveResult saved = helper.extractAndSave(userMsg);
             final String message = (saved == null)
@@ -3590,7 +3623,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                 conversationStore.append("assistant", message);
                 storeRenderedCount = conversationStore.size();
             });
-        }).start();
+        });
     }
 
     private void performMemoryRecallFlow(String userMsg) {
@@ -3600,7 +3633,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         }
         isProcessing = true;
         updateSendButton();
-        new Thread(() -> {
+        submitTask(() -> {
             String memoryContext;
             try {
                 memoryContext = newMemoryHelper().buildRecallContext(userMsg);
@@ -3609,13 +3642,13 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             }
             final boolean hasContext = memoryContext != null && !memoryContext.trim().isEmpty();
             final String augmented = hasContext
-                    ? "MEMORIES:\n" + memoryContext + "\n\nUser: " + userMsg : null;
+                    ? ContextPacker.withTrailingContext(userMsg, "MEMORIES:", memoryContext) : null;
             runOnUiThread(() -> {
                 isProcessing = false;
                 updateSendButton();
                 sendChat(augmented, hasContext);
             });
-        }).start();
+        });
     }
 
     private boolean isWebSearchExpertAvailable() {
@@ -3635,7 +3668,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         setThinkingIndicator(true, ChatSpeaker.BASE, expertToken);
         setThinkingIndicatorLabel(labelForExpertStep(steps.get(0).getExpertType()), expertToken);
 
-        new Thread(() -> {
+        submitTask(() -> {
             String searchResultsBlock = null;
             try {
                 for (ChatFlowController.ChatFlowStep step : steps) {
@@ -3659,13 +3692,14 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                         ));
                         String rawResults = callWebSearchApi(displayQuery);
                         final String wikiDebug = t("Query: ", "クエリ: ") + displayQuery
-                                + (rawResults != null ? t("\nResult: found", "\n結果: あり") : t("\nResult: no results", "\n結果: なし"));
+                                + (rawResults != null ? t("\nResult: found", "\n結果: あり") : t("\nResult: no results", "\n結果: なし"))
+                                + searchCacheDebugText();
                         runOnUiThread(() -> { if (debugEnabled) appendDebug("Wikipedia Search", wikiDebug); });
                         if (rawResults != null && !rawResults.isEmpty()) {
                             runOnUiThread(() -> setThinkingIndicatorLabel(
                                     t("Ranking results...", "結果を絞り込み中..."), expertToken));
-                            EmbeddingClient emb = new EmbeddingClient(client, ollamaBaseUrl, resolveEmbeddingModelName());
-                            WebSearchRagHelper rag = new WebSearchRagHelper(emb, client, ollamaBaseUrl, resolveBaseChatModel());
+                            EmbeddingClient emb = newEmbeddingClient(resolveEmbeddingModelName());
+                            WebSearchRagHelper rag = new WebSearchRagHelper(emb, apiClient, ollamaBaseUrl, resolveBaseChatModel());
                             searchResultsBlock = rag.rerankSearchResults(userMsg, rawResults);
                         } else {
                             searchResultsBlock = t("SEARCH_RESULTS:\n(No results found for: " + displayQuery + ")",
@@ -3690,7 +3724,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                 Log.e(TAG, "Ordered expert flow error", e);
                 continueStandardChatFlow();
             }
-        }).start();
+        });
     }
 
     private String labelForExpertStep(ExpertType expertType) {
@@ -3745,7 +3779,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         setThinkingIndicatorLabel(t("Web searching", "Web検索中"), webSearchToken);
 
         final String[] augmentedMessageHolder = new String[1];
-        new Thread(() -> {
+        submitTask(() -> {
             try {
                 String keywords = searchKeywords == null ? null : searchKeywords.trim();
                 if (keywords != null && !keywords.isEmpty()) {
@@ -3761,13 +3795,14 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                     ));
                     String searchResults = callWebSearchApi(searchQuery_);
                     final String debugInfo = t("Query: ", "クエリ: ") + searchQuery_
-                            + (searchResults != null ? t("\nResult: found", "\n結果: あり") : t("\nResult: no results", "\n結果: なし"));
+                            + (searchResults != null ? t("\nResult: found", "\n結果: あり") : t("\nResult: no results", "\n結果: なし"))
+                            + searchCacheDebugText();
                     runOnUiThread(() -> { if (debugEnabled) appendDebug("Wikipedia Search", debugInfo); });
                     if (searchResults != null && !searchResults.isEmpty()) {
                         runOnUiThread(() -> setThinkingIndicatorLabel(
                                 t("Ranking results...", "結果を絞り込み中..."), webSearchToken));
-                        EmbeddingClient emb = new EmbeddingClient(client, ollamaBaseUrl, resolveEmbeddingModelName());
-                        WebSearchRagHelper rag = new WebSearchRagHelper(emb, client, ollamaBaseUrl, resolveBaseChatModel());
+                        EmbeddingClient emb = newEmbeddingClient(resolveEmbeddingModelName());
+                        WebSearchRagHelper rag = new WebSearchRagHelper(emb, apiClient, ollamaBaseUrl, resolveBaseChatModel());
                         searchResults = rag.rerankSearchResults(userMsg, searchResults);
                         augmentedMessageHolder[0] = buildSearchAugmentedUserMessage(userMsg, searchResults);
                     } else {
@@ -3790,17 +3825,33 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                     }
                 });
             }
-        }).start();
+        });
+    }
+
+    /** デバッグパネル用の検索キャッシュ統計（改行始まり）。 */
+    private String searchCacheDebugText() {
+        StringBuilder sb = new StringBuilder("\n").append(SearchResultCache.shared().statsLine());
+        String http = HttpClients.cacheStatsLine();
+        if (http != null) sb.append("\n").append(http);
+        return sb.toString();
     }
 
     /** Call Web Search API and get structured results (generic) */
     private String callWebSearchApi(String keywords) {
         if (WEB_MODE_WIKIPEDIA.equals(webSearchMode)) {
-            return WikipediaSearchHelper.search(client, keywords);
-        }
-        if (isBraveWebSearchUrl(webSearchUrl)) {
-            return callBraveWebSearchApi(keywords);
-        }
+            return WikipediaSearchHelper.search(webClient, keywords);
+        }
+        // 同じ検索先・同じクエリ（正規化後）の結果は TTL の間使い回す（ブースト時のページ取得も省ける）
+        boolean brave = isBraveWebSearchUrl(webSearchUrl);
+        String namespace = (brave ? "brave" + (braveBoostEnabled ? "+boost" : "") : "api") + "|" + webSearchUrl;
+        String cached = SearchResultCache.shared().get(namespace, keywords);
+        if (cached != null) return cached;
+        String result = brave ? callBraveWebSearchApi(keywords) : callGenericWebSearchApi(keywords);
+        SearchResultCache.shared().put(namespace, keywords, result);
+        return result;
+    }
+
+    private String callGenericWebSearchApi(String keywords) {
         try {
             String url = webSearchUrl + "?q=" + java.net.URLEncoder.encode(keywords, "UTF-8");
 
@@ -3822,13 +3873,13 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             if (debugEnabled) {
                 appendDebug("Web API Request", buildRequestDebugText(request, null));
             }
-            Response response = client.newCall(request).execute();
+            Response response = webClient.newCall(request).execute();
             String respBody = response.body() != null ? response.body().string() : "";
             if (debugEnabled) {
                 appendDebug("Web API Response", buildResponseDebugText(response, respBody));
             }
             if (!response.isSuccessful()) {
-                Log.w(TAG, "callWebSearchApi HTTP error: " + response.code());
+                Log.w(TAG, "callGenericWebSearchApi HTTP error: " + response.code());
                 return null;
             }
             JSONObject json = new JSONObject(respBody);
@@ -3844,7 +3895,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             Log.d(TAG, "Web search results: " + result);
             return result;
         } catch (Exception e) {
-            Log.e(TAG, "callWebSearchApi error", e);
+            Log.e(TAG, "callGenericWebSearchApi error", e);
             return null;
         }
     }
@@ -3875,7 +3926,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             if (debugEnabled) {
                 appendDebug("Web API Request (Brave)", buildRequestDebugText(request, null));
             }
-            Response response = client.newCall(request).execute();
+            Response response = webClient.newCall(request).execute();
             String respBody = response.body() != null ? response.body().string() : "";
             if (debugEnabled) {
                 appendDebug("Web API Response (Brave)", buildResponseDebugText(response, respBody));
@@ -3890,52 +3941,9 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             JSONArray results = web != null ? web.optJSONArray("results") : null;
             if (results == null || results.length() == 0) return null;
 
-            // ブーストモード時は URL 先の本文を取得（上位5件のみ）
-            int limit = Math.min(results.length(), 8);
-
-            StringBuilder extracted = new StringBuilder();
-            for (int i = 0; i < limit; i++) {
-                JSONObject item = results.optJSONObject(i);
-                if (item == null) continue;
-                String title = item.optString("title", "").trim();
-                String description = item.optString("description", "").trim();
-                String resultUrl = item.optString("url", "").trim();
-
-                if (title.isEmpty() && description.isEmpty() && resultUrl.isEmpty()) continue;
-                if (extracted.length() > 0) extracted.append("\n\n");
-                extracted.append("[").append(i + 1).append("]");
-                if (!title.isEmpty()) extracted.append(" ").append(title);
-                extracted.append("\n");
-                if (!resultUrl.isEmpty()) extracted.append(resultUrl).append("\n");
-
-                if (braveBoostEnabled && !resultUrl.isEmpty()) {
-                    String pageText = fetchUrlContent(resultUrl, 1500);
-                    if (pageText != null) {
-                        extracted.append(pageText);
-                    } else {
-                        // 取得失敗時はスニペットにフォールバック
-                        if (!description.isEmpty()) extracted.append(description);
-                        JSONArray snippets = item.optJSONArray("extra_snippets");
-                        if (snippets != null) {
-                            for (int j = 0; j < snippets.length() && j < 2; j++) {
-                                String snippet = snippets.optString(j, "").trim();
-                                if (!snippet.isEmpty()) extracted.append("\n").append(snippet);
-                            }
-                        }
-                    }
-                } else {
-                    if (!description.isEmpty()) extracted.append(description);
-                    JSONArray snippets = item.optJSONArray("extra_snippets");
-                    if (snippets != null) {
-                        for (int j = 0; j < snippets.length() && j < 2; j++) {
-                            String snippet = snippets.optString(j, "").trim();
-                            if (!snippet.isEmpty()) extracted.append("\n").append(snippet);
-                        }
-                    }
-                }
-            }
-
-            String extractedText = extracted.toString().trim();
+            // ブーストモード時は各結果 URL の本文を並行取得する（期限切れ・失敗分はスニペットにフォールバック）
+            String extractedText = new WebPageFetcher(webFetchClient)
+                    .renderBraveResults(results, WebPageFetcher.BRAVE_RESULT_LIMIT, braveBoostEnabled);
             if (extractedText.isEmpty()) return null;
 
             String result = "SEARCH_RESULTS:\n" + extractedText;
@@ -3947,59 +3955,6 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         }
     }
 
-    private String fetchUrlContent(String url, int maxChars) {
-        try {
-            okhttp3.OkHttpClient fetchClient = client.newBuilder()
-                    .connectTimeout(5, java.util.concurrent.TimeUnit.SECONDS)
-                    .readTimeout(8, java.util.concurrent.TimeUnit.SECONDS)
-                    .build();
-            Request req = new Request.Builder()
-                    .url(url)
-                    .get()
-                    .addHeader("User-Agent", "Mozilla/5.0 (Android) AppleWebKit/537.36")
-                    .addHeader("Accept", "text/html,application/xhtml+xml")
-                    .build();
-            try (Response resp = fetchClient.newCall(req).execute()) {
-                if (!resp.isSuccessful()) return null;
-                String contentType = resp.header("Content-Type", "");
-                if (!contentType.contains("text/html") && !contentType.contains("text/plain")
-                        && !contentType.contains("application/xhtml")) return null;
-                String html = resp.body() != null ? resp.body().string() : "";
-                // 大きな HTML は先頭 300KB のみ処理してメモリ・速度を節約
-                if (html.length() > 300_000) html = html.substring(0, 300_000);
-                String text = stripHtml(html);
-                if (text.isEmpty()) return null;
-                // タグ除去後の純テキストで maxChars を計算
-                return text.length() > maxChars ? text.substring(0, maxChars) : text;
-            }
-        } catch (Exception e) {
-            Log.d(TAG, "fetchUrlContent failed: " + url + " - " + e.getMessage());
-            return null;
-        }
-    }
-
-    private String stripHtml(String html) {
-        if (html == null || html.isEmpty()) return "";
-        // script / style / コメントを先に除去（Html.fromHtml では処理されないため）
-        String pre = html
-                .replaceAll("(?is)<script[^>]*>.*?</script>", " ")
-                .replaceAll("(?is)<style[^>]*>.*?</style>", " ")
-                .replaceAll("(?is)<!--.*?-->", " ");
-        // Android HTML パーサーで残タグとエンティティを処理
-        // 正規表現では属性値に > が含まれる場合や改行タグで漏れが生じるため
-        String text;
-        try {
-            text = android.text.Html.fromHtml(pre, android.text.Html.FROM_HTML_MODE_COMPACT).toString();
-        } catch (Exception e) {
-            text = pre.replaceAll("<[^>]+>", " ")
-                      .replace("&nbsp;", " ").replace("&amp;", "&")
-                      .replace("&lt;", "<").replace("&gt;", ">")
-                      .replace("&quot;", "\"").replace("&#39;", "'")
-                      .replaceAll("&#\\d+;", "");
-        }
-        return text.replaceAll(" {2,}", " ").replaceAll("\n{3,}", "\n\n").trim();
-    }
-
     /** Recursively extract all string values from JSON */
     private void extractAllStringValues(Object obj, StringBuilder sb, int depth) {
         if (depth > 10) return; // Prevent infinite recursion
@@ -4030,11 +3985,9 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
     }
 
     private String buildSearchAugmentedUserMessage(String userMsg, String searchResultsBlock) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("以下はWeb検索結果です。SEARCH_RESULTSとして扱ってください。\n");
-        sb.append(searchResultsBlock);
-        sb.append("\n\n質問: ").append(userMsg);
-        return sb.toString();
+        // 検索結果は質問の後ろに付ける（履歴に残る質問までのプレフィックスを次のターンで再利用させる）
+        return ContextPacker.withTrailingContext(userMsg,
+                "以下はWeb検索結果です。SEARCH_RESULTSとして扱ってください。", searchResultsBlock);
     }
 
     private void ensureVoiceController() {
@@ -4117,7 +4070,8 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         setThinkingIndicatorLabel(t("Thinking", "思考中"), streamToken);
 
         try {
-            JSONArray messages = new JSONArray();
+            JSONObject sys = null;
+            List<JSONObject> turns = new ArrayList<>();
             boolean shouldReplaceLastUser = replaceLastUserMessage && transientUserMessage != null;
             List<JSONObject> history = getHistoryForSpeaker(speaker);
             synchronized (historyLock) {
@@ -4132,22 +4086,20 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                                 && !systemContent.contains(searchSystemPrompt)) {
                             systemContent = systemContent + "\n" + searchSystemPrompt;
                         }
-                        JSONObject sys = new JSONObject();
+                        sys = new JSONObject();
                         sys.put("role", "system");
                         sys.put("content", systemContent);
-                        messages.put(sys);
                     }
                 }
                 int size = history.size();
-                int start = Math.max(1, size - Math.max(0, historyLimit));
-                for (int i = start; i < size; i++) {
+                for (int i = 1; i < size; i++) {
                     JSONObject msg = history.get(i);
                     if (shouldReplaceLastUser && i == size - 1 && "user".equals(msg.optString("role"))) {
                         JSONObject replaced = new JSONObject(msg.toString());
                         replaced.put("content", transientUserMessage);
-                        messages.put(replaced);
+                        turns.add(replaced);
                     } else {
-                        messages.put(msg);
+                        turns.add(msg);
                     }
                 }
             }
@@ -4155,11 +4107,19 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                 JSONObject extra = new JSONObject();
                 extra.put("role", "user");
                 extra.put("content", transientUserMessage);
-                messages.put(extra);
+                turns.add(extra);
+            }
+            String model = speaker == ChatSpeaker.BASE ? selectedModel : chatterModel;
+            // 直近ターンを num_ctx に収める（先頭を固定して KV キャッシュを再利用させる）
+            TokenCounter tokens = new TokenCounter(client, ollamaBaseUrl, model);
+            JSONArray messages = new JSONArray();
+            for (JSONObject m : getContextPackerForSpeaker(speaker).pack(model, tokens::estimateCalibrated, sys, turns,
+                    Math.max(0, historyLimit), numCtx, numPredict)) {
+                messages.put(m);
             }
 
             JSONObject body = new JSONObject();
-            body.put("model", speaker == ChatSpeaker.BASE ? selectedModel : chatterModel);
+            body.put("model", model);
             body.put("messages", messages);
             body.put("stream", streamingEnabled);
             applyOllamaOptions(body);
@@ -4194,6 +4154,17 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         return speaker == ChatSpeaker.CHATTER ? chatterHistory : conversationHistory;
     }
 
+    private ContextPacker getContextPackerForSpeaker(ChatSpeaker speaker) {
+        return speaker == ChatSpeaker.CHATTER ? chatterContextPacker : baseContextPacker;
+    }
+
+    /** 応答の prompt_eval_count と送ったプロンプトの推定長を並べて表示する（KV キャッシュの再利用状況の確認用）。 */
+    private void appendPromptEvalDebug(ChatSpeaker speaker, JSONObject done) {
+        if (!debugEnabled) return;
+        int promptTokens = getContextPackerForSpeaker(speaker).lastPromptTokens();
+        appendDebug("/api/chat Prompt cache", ContextPacker.describePromptEval(done, promptTokens));
+    }
+
     /** Streaming mode: Display chunks + sentence-by-sentence TTS */
     private void sendStreaming(Request request, ChatSpeaker speaker, int token) {
         Call call = client.newCall(request);
@@ -4230,6 +4201,8 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                 }
 
                 StringBuilder rawResponse = new StringBuilder();
+                // 差分だけを処理する推論タグフィルタ（累積テキストへの正規表現の再適用を避ける）
+                ReasoningStreamFilter reasoningFilter = new ReasoningStreamFilter();
                 String visibleResponse = "";
                 boolean first = true;
                 boolean streamingStarted = false;
@@ -4255,53 +4228,47 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                                         .optString("content", "");
                                 if (!content.isEmpty()) {
                                     rawResponse.append(content);
-                                    ReasoningFilterResult filterResult =
-                                            filterReasoningSegments(rawResponse.toString());
-                                    String filtered = filterResult.visibleText;
-                                    if (!filtered.isEmpty()) {
+                                    String visibleDelta = reasoningFilter.feed(content);
+                                    if (!visibleDelta.isEmpty()) {
                                         setThinkingIndicator(false, speaker, token);
-                                    }
-                                    if (!filtered.startsWith(visibleResponse)) {
-                                        if (first && !filtered.isEmpty()) {
+                                        if (first) {
                                             beginStreamingMessage(speaker, token);
                                             first = false;
                                         }
-                                        resetStreamBuffer();
-                                        setStreamingMessage(filtered, token);
-                                        if (!streamingStarted && !filtered.isEmpty()) {
+                                        queueStreamingChunk(visibleDelta, token);
+                                        if (!streamingStarted) {
                                             setStreamingResponse(true, speaker);
                                             streamingStarted = true;
                                         }
                                         if (ttsEnabled) {
-                                            sentenceBuffer.setLength(0);
-                                        }
-                                        visibleResponse = filtered;
-                                        continue;
-                                    }
-                                    String visibleDelta = filtered.substring(visibleResponse.length());
-                                    if (!visibleDelta.isEmpty()) {
-                                        if (first) {
-                                            beginStreamingMessage(speaker, token);
-                                            first = false;
+                                            processChunkForTts(visibleDelta, speaker);
                                         }
-                                        queueStreamingChunk(visibleDelta, token);
-                                    }
-                                    if (!streamingStarted && !filtered.isEmpty()) {
-                                        setStreamingResponse(true, speaker);
-                                        streamingStarted = true;
                                     }
-                                    if (ttsEnabled && !visibleDelta.isEmpty()) {
-                                        processChunkForTts(visibleDelta, speaker);
-                                    }
-                                    visibleResponse = filtered;
                                 }
                             }
-                            if (done) break;
+                            if (done) {
+                                appendPromptEvalDebug(speaker, json);
+                                break;
+                            }
                         } catch (Exception e) {
                             Log.e(TAG, "Stream parse error", e);
                         }
                     }
 
+                    // 終端で保留中だった開始タグ途中の文字列を確定させる
+                    String tail = reasoningFilter.finish();
+                    if (!tail.isEmpty()) {
+                        if (first) {
+                            beginStreamingMessage(speaker, token);
+                            first = false;
+                        }
+                        queueStreamingChunk(tail, token);
+                        if (ttsEnabled) {
+                            processChunkForTts(tail, speaker);
+                        }
+                    }
+                    visibleResponse = reasoningFilter.visibleText();
+
                     if (debugRaw != null) {
                         appendDebug("/api/chat Response", buildResponseDebugText(response, debugRaw.toString()));
                     }
@@ -4324,7 +4291,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                         addToHistory(getHistoryForSpeaker(speaker), "assistant", text);
                     } else {
                         // 可視テキストが空でも生の出力があれば（推論のみ／未閉じタグ）中身を見せる。
-                        String recovered = recoverVisibleText(rawResponse.toString());
+                        String recovered = ReasoningStreamFilter.recoverVisibleText(rawResponse.toString());
                         if (!recovered.trim().isEmpty()) {
                             appendAssistantMessage(speaker, recovered);
                             addToHistory(getHistoryForSpeaker(speaker), "assistant", recovered);
@@ -4390,16 +4357,17 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                 String content = "";
                 try {
                     JSONObject json = new JSONObject(body);
+                    appendPromptEvalDebug(speaker, json);
                     String rawContent = "";
                     if (json.has("message")) {
                         rawContent = json.getJSONObject("message").optString("content", "");
                     }
-                    content = stripReasoningSegments(rawContent);
+                    content = ReasoningStreamFilter.strip(rawContent);
 
                     switchActiveSpeaker(speaker);
                     if (content.trim().isEmpty()) {
                         // 可視テキストが空でも生の出力があれば（推論のみ／未閉じタグ）中身を見せる。
-                        content = recoverVisibleText(rawContent);
+                        content = ReasoningStreamFilter.recoverVisibleText(rawContent);
                     }
                     if (autoChatterEnabled) {
                         // モデルが付けた自名/相手名ラベルを除去（表示・履歴・読み上げ・相互供給に反映）。
@@ -4453,88 +4421,6 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         body.put("keep_alive", CHAT_KEEP_ALIVE);
     }
 
-    /**
-     * 可視テキストが空になったときの復旧。まず通常のフィルタ結果を使い、それでも空なら
-     * 推論タグだけ外して中身を残す。モデルが推論しか出さなかった／タグを閉じ忘れた場合に
-     * 「(No response)」より中身を見せ、無回答に見える事象を減らす。
-     */
-    private String recoverVisibleText(String raw) {
-        if (raw == null) {
-            return "";
-        }
-        String filtered = filterReasoningSegments(raw).visibleText;
-        if (!filtered.trim().isEmpty()) {
-            return filtered;
-        }
-        return raw
-                .replaceAll("</?think>", "")
-                .replaceAll("</?analysis>", "")
-                .replaceAll("<\\|thought\\|>", "")
-                .replaceAll("<\\|endthought\\|>", "")
-                .trim();
-    }
-
-    private String stripReasoningSegments(String text) {
-        return filterReasoningSegments(text).visibleText;
-    }
-
-    private ReasoningFilterResult filterReasoningSegments(String text) {
-        if (text == null || text.isEmpty()) {
-            return new ReasoningFilterResult("", false);
-        }
-        String normalized = collapseExtraNewlineAfterReasoningClose(text);
-        String filtered = normalized
-                .replaceAll("(?s)<think>.*?</think>", "")
-                .replaceAll("(?s)<analysis>.*?</analysis>", "")
-                .replaceAll("(?s)<\\|thought\\|>.*?<\\|endthought\\|>", "")
-                .replaceAll("(?s)<think>.*$", "")
-                .replaceAll("(?s)<analysis>.*$", "")
-                .replaceAll("(?s)<\\|thought\\|>.*$", "");
-        int trimLen = trailingReasoningOpenPrefixLength(filtered);
-        if (trimLen > 0) {
-            filtered = filtered.substring(0, filtered.length() - trimLen);
-        }
-        return new ReasoningFilterResult(filtered, hasUnclosedReasoningBlock(normalized));
-    }
-
-    private String collapseExtraNewlineAfterReasoningClose(String text) {
-        return text.replaceAll(
-                "(</think>|</analysis>|<\\|endthought\\|>)\\r?\\n\\r?\\n",
-                "$1\n"
-        );
-    }
-
-    private boolean hasUnclosedReasoningBlock(String text) {
-        return hasUnclosedTag(text, "<think>", "</think>")
-                || hasUnclosedTag(text, "<analysis>", "</analysis>")
-                || hasUnclosedTag(text, "<|thought|>", "<|endthought|>");
-    }
-
-    private boolean hasUnclosedTag(String text, String openTag, String closeTag) {
-        int searchFrom = 0;
-        while (true) {
-            int openIdx = text.indexOf(openTag, searchFrom);
-            if (openIdx < 0) return false;
-            int closeIdx = text.indexOf(closeTag, openIdx + openTag.length());
-            if (closeIdx < 0) return true;
-            searchFrom = closeIdx + closeTag.length();
-        }
-    }
-
-    private int trailingReasoningOpenPrefixLength(String text) {
-        if (text == null || text.isEmpty()) return 0;
-        int max = 0;
-        for (String openTag : REASONING_OPEN_TAGS) {
-            int limit = Math.min(openTag.length() - 1, text.length());
-            for (int len = 1; len <= limit; len++) {
-                if (text.regionMatches(text.length() - len, openTag, 0, len)) {
-                    max = Math.max(max, len);
-                }
-            }
-        }
-        return max;
-    }
-
     private void appendDebug(String title, String detail) {
         if (!debugEnabled) return;
         StringBuilder sb = new StringBuilder();
@@ -4578,14 +4464,17 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
     }
 
     private void appendUserMessage(String text) {
-        String name = (userName == null || userName.trim().isEmpty()) ? defaultUserLabel() : userName.trim();
-        appendMessage(name, text, true, true);
+        appendMessage(userDisplayName(), text, true, true);
+    }
+
+    private String userDisplayName() {
+        return (userName == null || userName.trim().isEmpty()) ? defaultUserLabel() : userName.trim();
     }
 
     private void appendAssistantMessage(ChatSpeaker speaker, String text) {
         appendMessage(
                 getSpeakerName(speaker),
-                stripReasoningSegments(text),
+                ReasoningStreamFilter.strip(text),
                 isUserSideForSpeaker(speaker),
                 false
         );
@@ -4672,7 +4561,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             currentStreamingBubble = createMessageBubble(getSpeakerName(speaker), isUserSideForSpeaker(speaker));
             String header = getSpeakerName(speaker);
             streamingTextBuffer.setLength(0);
-            renderMessageBubble(currentStreamingBubble, header, "");
+            getStreamingMarkdownRenderer().begin(currentStreamingBubble, header);
             flushStreamingBuffer(token);
             requestChatLayoutUpdate();
             maybeScrollToBottom(shouldScroll);
@@ -4683,31 +4572,13 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         runOnUiThread(() -> appendStreamingMessageInternal(content, token));
     }
 
-    private void setStreamingMessage(String content, int token) {
-        runOnUiThread(() -> setStreamingMessageInternal(content, token));
-    }
-
-    private void setStreamingMessageInternal(String content, int token) {
-        if (token != activeStreamingToken) return;
-        if (currentStreamingBubble == null) return;
-        boolean shouldScroll = isNearBottom();
-        streamingTextBuffer.setLength(0);
-        if (content != null) {
-            streamingTextBuffer.append(content);
-        }
-        String header = getSpeakerName(currentStreamingSpeaker);
-        renderMessageBubble(currentStreamingBubble, header, streamingTextBuffer.toString());
-        requestChatLayoutUpdate();
-        maybeScrollToBottom(shouldScroll);
-    }
-
     private void appendStreamingMessageInternal(String content, int token) {
         if (token != activeStreamingToken) return;
         if (currentStreamingBubble == null) return;
         boolean shouldScroll = isNearBottom();
         streamingTextBuffer.append(content);
-        String header = getSpeakerName(currentStreamingSpeaker);
-        renderMessageBubble(currentStreamingBubble, header, streamingTextBuffer.toString());
+        // 閉じたブロックは再解析せず、末尾の開いているブロックだけを描画し直す
+        getStreamingMarkdownRenderer().append(content);
         requestChatLayoutUpdate();
         maybeScrollToBottom(shouldScroll);
     }
@@ -4723,6 +4594,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
                         finalText
                 );
             }
+            getStreamingMarkdownRenderer().end();
             currentStreamingBubble = null;
             streamingTextBuffer.setLength(0);
             requestChatLayoutUpdate();
@@ -4741,7 +4613,16 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
     }
 
     private TextView createMessageBubble(String name, boolean isUserSide) {
+        View row = buildMessageRow(isUserSide, new ConversationTimeline.Position(System.currentTimeMillis(), 0));
+        messageContainer.addView(row);
+        trimVisibleMessageRows();
+        return (TextView) ((LinearLayout) row).getChildAt(0);
+    }
+
+    /** バブル 1 行を作る（追加はしない）。行の tag には位置（時刻, 全履歴の ID）を持たせ、遡り表示の起点に使う。 */
+    private LinearLayout buildMessageRow(boolean isUserSide, ConversationTimeline.Position position) {
         LinearLayout row = new LinearLayout(this);
+        row.setTag(position);
         row.setOrientation(LinearLayout.HORIZONTAL);
         row.setGravity(isUserSide ? Gravity.END : Gravity.START);
         LinearLayout.LayoutParams rowParams = new LinearLayout.LayoutParams(
@@ -4762,21 +4643,89 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         getMarkdownRenderer().prepare(bubble);
 
         row.addView(bubble);
-        messageContainer.addView(row);
-        trimVisibleMessageRows();
-        return bubble;
+        return row;
+    }
+
+    /**
+     * 表示中の最も古い行より前のターンを全履歴（{@link ConversationArchive}）から 1 ページ読み、先頭へ差し込む。
+     * DB 読み出しはワーカースレッドで行い、差し込み後は見ていた位置がずれないようスクロール位置を補正する。
+     */
+    private void loadOlderMessages() {
+        if (scrollbackLoading || messageContainer == null || conversationStore == null) {
+            return;
+        }
+        final int room = maxVisibleRows() - messageContainer.getChildCount();
+        if (room <= 0) {
+            return;
+        }
+        List<Object> tags = new ArrayList<>(messageContainer.getChildCount());
+        for (int i = 0; i < messageContainer.getChildCount(); i++) {
+            tags.add(messageContainer.getChildAt(i).getTag());
+        }
+        final ConversationTimeline.Position before = ConversationTimeline.oldest(tags);
+        if (before == null) {
+            return;
+        }
+        scrollbackLoading = true;
+        final ConversationStore store = conversationStore;
+        TaskScheduler.get().submit(TaskScheduler.Pool.DATABASE, TaskScheduler.Priority.INTERACTIVE, () -> {
+            List<ConversationArchive.Turn> older;
+            try {
+                older = store.loadOlder(before, Math.min(SCROLLBACK_PAGE_SIZE, room));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "loadOlderMessages failed", e);
+                older = new ArrayList<>();
+            }
+            final List<ConversationArchive.Turn> loaded = older;
+            runOnUiThread(() -> {
+                scrollbackLoading = false;
+                if (loaded.isEmpty() || messageContainer == null || scrollView == null) {
+                    return;
+                }
+                // 読み込み中に新しい行が増えていても上限を超えないよう、古い側を切り捨ててから差し込む
+                // （差し込んだ行が次の trimVisibleMessageRows ですぐ外れないようにする）
+                int fit = Math.max(0, maxVisibleRows() - messageContainer.getChildCount());
+                List<ConversationArchive.Turn> page = loaded.subList(Math.max(0, loaded.size() - fit), loaded.size());
+                if (page.isEmpty()) {
+                    return;
+                }
+                int heightBefore = messageContainer.getHeight();
+                for (int i = 0; i < page.size(); i++) {
+                    ConversationArchive.Turn t = page.get(i);
+                    boolean isUser = "user".equals(t.role);
+                    ChatSpeaker speaker = ConversationArchive.SPEAKER_CHATTER.equals(t.speaker)
+                            ? ChatSpeaker.CHATTER : ChatSpeaker.BASE;
+                    String name = isUser ? userDisplayName() : getSpeakerName(speaker);
+                    LinearLayout row = buildMessageRow(isUser || isUserSideForSpeaker(speaker),
+                            new ConversationTimeline.Position(t.createdAt, t.id));
+                    renderMessageBubble((TextView) row.getChildAt(0), name,
+                            isUser ? t.content : ReasoningStreamFilter.strip(t.content));
+                    messageContainer.addView(row, i);
+                }
+                messageContainer.post(() -> {
+                    if (scrollView != null && messageContainer != null) {
+                        scrollView.scrollTo(0, Math.max(0, messageContainer.getHeight() - heightBefore));
+                    }
+                });
+            });
+        });
     }
 
     private void trimVisibleMessageRows() {
         if (messageContainer == null) {
             return;
         }
-        int maxRows = Math.max(MIN_VISIBLE_MESSAGE_ROWS, historyLimit * 6);
+        int maxRows = maxVisibleRows();
         while (messageContainer.getChildCount() > maxRows) {
             messageContainer.removeViewAt(0);
         }
     }
 
+    /** 表示行数の上限。遡り表示で読み足せる行数と trimVisibleMessageRows で外し始める行数を揃える。 */
+    private int maxVisibleRows() {
+        return Math.max(MAX_SCROLLBACK_ROWS, Math.max(MIN_VISIBLE_MESSAGE_ROWS, historyLimit * 6));
+    }
+
     private MarkdownRenderer getMarkdownRenderer() {
         if (markdownRenderer == null) {
             markdownRenderer = MarkdownRenderer.create(this);
@@ -4784,6 +4733,13 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         return markdownRenderer;
     }
 
+    private StreamingMarkdownRenderer getStreamingMarkdownRenderer() {
+        if (streamingMarkdownRenderer == null) {
+            streamingMarkdownRenderer = new StreamingMarkdownRenderer(getMarkdownRenderer());
+        }
+        return streamingMarkdownRenderer;
+    }
+
     private void renderMessageBubble(TextView bubble, String name, String text) {
         getMarkdownRenderer().render(bubble, name, text);
     }
@@ -4894,6 +4850,15 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         streamingTextBuffer.setLength(0);
     }
 
+    /**
+     * チャット系のバックグラウンド処理を共通スケジューラへ投入する。投入時点の activeStreamingToken に紐づけるため、
+     * キャンセルやログリセットでトークンが進むと、未実行なら破棄され、実行中なら割り込まれる。
+     */
+    private void submitTask(Runnable task) {
+        TaskScheduler.get().submit(TaskScheduler.Pool.NETWORK, TaskScheduler.Priority.INTERACTIVE,
+                TASK_GROUP, activeStreamingToken, task);
+    }
+
     private int startStreamingSession() {
         int token = streamingTokenCounter.incrementAndGet();
         activeStreamingToken = token;
@@ -5074,6 +5039,7 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
         unregisterOverlaySyncReceiver();
         stopAvatarAnimation();
         autoHandler.removeCallbacksAndMessages(null);
+        TaskScheduler.get().cancelGroup(TASK_GROUP);
         hideThinkingIndicator();
         if (tts != null) {
             tts.stop();
@@ -5083,6 +5049,12 @@ public class MainActivity extends ComponentActivity implements TextToSpeech.OnIn
             voiceController.destroy();
             voiceController = null;
         }
+        if (conversationStore != null && !conversationStore.flush()) {
+            Log.w(TAG, "conversation log flush incomplete or failed at shutdown");
+        }
+        // 近似最近傍索引は一定間隔でしか書き出さないため、終了時に残りを保存する
+        TaskScheduler.get().submit(TaskScheduler.Pool.DATABASE, TaskScheduler.Priority.BACKGROUND,
+                MemoryDatabase.get(this)::flushVectorIndex);
         super.onDestroy();
     }
 }
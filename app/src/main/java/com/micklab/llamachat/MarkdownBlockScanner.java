@@ -0,0 +1,105 @@
+package com.micklab.llamachat;
+
+/**
+ * ストリーミング中の Markdown テキストを行単位で走査し、「これ以上変化しない閉じたブロック」の終端位置を求める。
+ *
+ * <p>確定境界は、コードフェンス外の空行・ATX 見出し行の直後と、閉じたコードフェンスの直後。
+ * 境界より前は再解析不要、境界以降（開いているブロック）だけを毎回描画し直せばよい。
+ * 走査は前回の位置から再開するため、追記ごとのコストは新着分に比例する。</p>
+ *
+ * <p>Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+final class MarkdownBlockScanner {
+
+    private int scanned = 0;       // 走査済み位置（完結した行の末尾）
+    private int stableEnd = 0;     // 確定境界
+    private boolean inFence = false;
+    private char fenceChar = 0;
+    private int fenceLength = 0;
+
+    void reset() {
+        scanned = 0;
+        stableEnd = 0;
+        inFence = false;
+        fenceChar = 0;
+        fenceLength = 0;
+    }
+
+    /** text（前回より追記されたもの）の未走査の完結行を処理する。 */
+    void scan(CharSequence text) {
+        int len = text.length();
+        while (scanned < len) {
+            int nl = indexOf(text, '\n', scanned);
+            if (nl < 0) return; // 行が未完結
+            processLine(text, scanned, nl);
+            scanned = nl + 1;
+        }
+    }
+
+    /** 閉じたブロックの終端（この位置より前は確定）。 */
+    int stableEnd() {
+        return stableEnd;
+    }
+
+    /** 開いたままのコードフェンスの中か（末尾ブロックをプレーン表示してよい）。 */
+    boolean isInOpenFence() {
+        return inFence;
+    }
+
+    private void processLine(CharSequence text, int start, int end) {
+        int i = start;
+        int indent = 0;
+        while (i < end && text.charAt(i) == ' ' && indent < 4) {
+            i++;
+            indent++;
+        }
+        int lineEnd = end + 1;
+        if (indent < 4 && i < end && (text.charAt(i) == '`' || text.charAt(i) == '~')) {
+            char c = text.charAt(i);
+            int run = 0;
+            while (i + run < end && text.charAt(i + run) == c) run++;
+            if (run >= 3) {
+                if (!inFence) {
+                    inFence = true;
+                    fenceChar = c;
+                    fenceLength = run;
+                    return;
+                }
+                if (c == fenceChar && run >= fenceLength && isBlank(text, i + run, end)) {
+                    inFence = false;
+                    stableEnd = lineEnd;
+                    return;
+                }
+            }
+        }
+        if (inFence) return;
+        if (isBlank(text, start, end)) {
+            stableEnd = lineEnd;
+        } else if (indent < 4 && isAtxHeading(text, i, end)) {
+            stableEnd = lineEnd;
+        }
+    }
+
+    /** {@code #}〜{@code ######} の後が空白か行末（ATX 見出し）。 */
+    private static boolean isAtxHeading(CharSequence text, int from, int end) {
+        int run = 0;
+        while (from + run < end && text.charAt(from + run) == '#') run++;
+        if (run == 0 || run > 6) return false;
+        return from + run == end || text.charAt(from + run) == ' ' || text.charAt(from + run) == '\t';
+    }
+
+    private static boolean isBlank(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\r') return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+}
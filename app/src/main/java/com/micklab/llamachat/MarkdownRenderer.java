@@ -1,6 +1,7 @@
 package com.micklab.llamachat;
 
 import android.content.Context;
+import android.text.Spanned;
 import android.text.TextUtils;
 import android.widget.TextView;
 
@@ -34,6 +35,22 @@ final class MarkdownRenderer {
         markwon.setMarkdown(textView, toMarkdown(title, body));
     }
 
+    /** Markdown を解析して装飾済みテキストにする（TextView へは設定しない）。 */
+    Spanned toSpanned(String markdown) {
+        return markwon.toMarkdown(markdown == null ? "" : markdown);
+    }
+
+    /** {@link #toSpanned} の結果（またはそれを連結したもの）を TextView に設定する。 */
+    void setSpanned(TextView textView, Spanned spanned) {
+        if (textView == null) return;
+        markwon.setParsedMarkdown(textView, spanned);
+    }
+
+    /** 見出し（話者名）部分の Markdown。本文と同じ書式で {@link StreamingMarkdownRenderer} も用いる。 */
+    static String titleMarkdown(String title) {
+        return TextUtils.isEmpty(title) ? "" : "**" + title + "**";
+    }
+
     void renderPlain(TextView textView, String title, String body) {
         if (textView == null) return;
         textView.setText(toPlainText(title, body));
@@ -45,9 +62,9 @@ final class MarkdownRenderer {
             return safeBody;
         }
         if (TextUtils.isEmpty(safeBody)) {
-            return "**" + title + "**";
+            return titleMarkdown(title);
         }
-        return "**" + title + "**\n\n" + safeBody;
+        return titleMarkdown(title) + "\n\n" + safeBody;
     }
 
     private CharSequence toPlainText(String title, String body) {
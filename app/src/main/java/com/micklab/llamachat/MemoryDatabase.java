@@ -1,13 +1,23 @@
 package com.micklab.llamachat;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public final class MemoryDatabase extends SQLiteOpenHelper {
     private static final String DB_NAME = "llamachat_memory.db";
     // v2: 分類（Memo/ToDo/Plan）・計画日時・場所・完了状態を追加（マイグレーションせず作り直す）。
-    private static final int DB_VERSION = 2;
+    // v3: 埋め込みベクトルの永続テーブル（memory_embeddings）を追加。既存の記憶は保持する。
+    // v4: 全文検索用 FTS4 テーブル（memories_fts）と削除同期トリガーを追加し、既存記憶を索引へ投入。
+    // v5: 埋め込みに int8 量子化列（vector_q8）を追加し、既存の埋め込みから作成。
+    // v6: 再採点用の vector 列を float32 から float16 に変更し、既存の埋め込みを変換。
+    private static final int DB_VERSION = 6;
 
     static final String TABLE = "memories";
     static final String COL_ID = "id";
@@ -23,8 +33,26 @@ public final class MemoryDatabase extends SQLiteOpenHelper {
     static final String COL_COMPLETED = "completed";
     static final String COL_TAGS = "tags";
 
+    // 埋め込みサイドテーブル（記憶ID × 埋め込みモデル名で一意）。
+    static final String EMB_TABLE = "memory_embeddings";
+    static final String EMB_COL_MEMORY_ID = "memory_id";
+    static final String EMB_COL_MODEL = "model";
+    static final String EMB_COL_TEXT_HASH = "text_hash";
+    static final String EMB_COL_VECTOR = "vector";
+    static final String EMB_COL_VECTOR_Q8 = "vector_q8";
+
+    // 全文検索テーブル（docid = memories.id、本文は MemorySearchIndex で分かち書き済み）。
+    static final String FTS_TABLE = "memories_fts";
+    static final String FTS_COL_TOKENS = "tokens";
+
+    // アップグレード時に埋め込みを変換する 1 回あたりの行数。
+    private static final int MIGRATION_BATCH = 256;
+
     private static volatile MemoryDatabase instance;
 
+    // 埋め込みの近似最近傍索引（DB ファイルと同じディレクトリに保存）。
+    private final MemoryVectorIndex vectorIndex;
+
     public static MemoryDatabase get(Context ctx) {
         if (instance == null) {
             synchronized (MemoryDatabase.class) {
@@ -38,6 +66,16 @@ public final class MemoryDatabase extends SQLiteOpenHelper {
 
     private MemoryDatabase(Context ctx) {
         super(ctx, DB_NAME, null, DB_VERSION);
+        vectorIndex = new MemoryVectorIndex(ctx.getDatabasePath(DB_NAME).getParentFile());
+    }
+
+    MemoryVectorIndex vectorIndex() {
+        return vectorIndex;
+    }
+
+    /** 近似最近傍索引の未保存の変更をファイルへ書き出す。ファイル I/O を伴うので DB スレッドから呼ぶこと。 */
+    public void flushVectorIndex() {
+        vectorIndex.flush();
     }
 
     @Override
@@ -56,12 +94,111 @@ public final class MemoryDatabase extends SQLiteOpenHelper {
                 + COL_COMPLETED + " INTEGER NOT NULL DEFAULT 0,"
                 + COL_TAGS + " TEXT"
                 + ")");
+        createEmbeddingTable(db);
+        createFtsTable(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // 既存メモリのマイグレーションは行わず作り直す。
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
-        onCreate(db);
+        if (oldVersion < 2) {
+            // v1 からはマイグレーションせず作り直す。
+            db.execSQL("DROP TABLE IF EXISTS " + EMB_TABLE);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+            onCreate(db);
+            return;
+        }
+        if (oldVersion < 3) {
+            createEmbeddingTable(db);
+        }
+        if (oldVersion < 4) {
+            createFtsTable(db);
+            rebuildFtsIndex(db);
+        }
+        if (oldVersion < 5 && oldVersion >= 3) {
+            // v3 未満は上の createEmbeddingTable で新しい列込みの表が作られている
+            db.execSQL("ALTER TABLE " + EMB_TABLE + " ADD COLUMN " + EMB_COL_VECTOR_Q8 + " BLOB");
+        }
+        if (oldVersion < 6) {
+            convertEmbeddingVectors(db);
+        }
+    }
+
+    /**
+     * 埋め込みは L2 正規化済みベクトルを int8 量子化（総当たり走査の一次採点用）と
+     * float16（上位候補の再採点用）の両方で保存する（いずれも {@link QuantizedVectors} 形式）。
+     * 正規化済みなら float16 の内積誤差は 1e-3 程度で順位付けには十分なため、float32 は持たない。
+     */
+    private static void createEmbeddingTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + EMB_TABLE + " ("
+                + EMB_COL_MEMORY_ID + " INTEGER NOT NULL,"
+                + EMB_COL_MODEL + " TEXT NOT NULL,"
+                + EMB_COL_TEXT_HASH + " TEXT NOT NULL,"
+                + EMB_COL_VECTOR + " BLOB NOT NULL,"
+                + EMB_COL_VECTOR_Q8 + " BLOB,"
+                + "PRIMARY KEY (" + EMB_COL_MEMORY_ID + ", " + EMB_COL_MODEL + ")"
+                + ")");
+    }
+
+    /**
+     * FTS4 テーブルと削除同期トリガーを作る。分かち書きは Java 側で行うため、挿入・更新は
+     * {@link MemoryRepository} が同一トランザクション内で反映する。FTS4 が使えない端末では作成に失敗するが、
+     * その場合も検索は LIKE にフォールバックするので無視する。
+     */
+    private static void createFtsTable(SQLiteDatabase db) {
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + FTS_TABLE
+                    + " USING fts4(" + FTS_COL_TOKENS + ", tokenize=simple)");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + FTS_TABLE + "_ad AFTER DELETE ON " + TABLE
+                    + " BEGIN DELETE FROM " + FTS_TABLE + " WHERE docid = old." + COL_ID + "; END");
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * v5 以前の埋め込み（vector 列が float32）を float16 に変換し、空の int8 量子化列も埋める。
+     * 更新で読み途中のカーソルがずれないよう、rowid 順に {@value #MIGRATION_BATCH} 件ずつ読み切ってから書き込む。
+     */
+    private static void convertEmbeddingVectors(SQLiteDatabase db) {
+        long lastRowId = 0;
+        while (true) {
+            List<Object[]> batch = new ArrayList<>();
+            try (Cursor c = db.query(EMB_TABLE,
+                    new String[]{"rowid", EMB_COL_VECTOR, EMB_COL_VECTOR_Q8},
+                    "rowid > ?", new String[]{String.valueOf(lastRowId)},
+                    null, null, "rowid", String.valueOf(MIGRATION_BATCH))) {
+                while (c.moveToNext()) {
+                    lastRowId = c.getLong(0);
+                    batch.add(new Object[]{lastRowId, c.getBlob(1), c.isNull(2) ? null : c.getBlob(2)});
+                }
+            }
+            if (batch.isEmpty()) return;
+            for (Object[] row : batch) {
+                float[] vec = VectorCodec.decode((byte[]) row[1]);
+                if (vec == null) continue;
+                ContentValues v = new ContentValues();
+                v.put(EMB_COL_VECTOR, QuantizedVectors.encodeFloat16(vec));
+                if (row[2] == null) v.put(EMB_COL_VECTOR_Q8, QuantizedVectors.encodeInt8(vec));
+                db.update(EMB_TABLE, v, "rowid=?", new String[]{String.valueOf(row[0])});
+            }
+        }
+    }
+
+    /** 既存の全記憶を FTS 索引へ投入し直す（アップグレード時のみ）。 */
+    private static void rebuildFtsIndex(SQLiteDatabase db) {
+        try {
+            db.execSQL("DELETE FROM " + FTS_TABLE);
+            try (Cursor c = db.query(TABLE,
+                    new String[]{COL_ID, COL_CONTENT, COL_LOCATION, COL_TAGS},
+                    null, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    ContentValues v = new ContentValues();
+                    v.put("docid", c.getLong(0));
+                    v.put(FTS_COL_TOKENS, MemorySearchIndex.indexText(
+                            c.getString(1), c.getString(2), c.getString(3)));
+                    db.insert(FTS_TABLE, null, v);
+                }
+            }
+        } catch (SQLException ignored) {
+        }
     }
 }
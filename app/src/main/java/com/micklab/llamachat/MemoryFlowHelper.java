@@ -23,26 +23,37 @@ import okhttp3.OkHttpClient;
 public final class MemoryFlowHelper {
 
     private final MemoryRepository repo;
-    private final EmbeddingClient embedding; // null 可（その場合 LIKE 検索のみ）
+    private final EmbeddingClient embedding; // null 可（その場合 字句検索のみ）
     private final OkHttpClient client;
     private final String baseUrl;
     private final String model;
     private final StructuredOutput.Mode mode;
     private final String lang;
+    private final HybridMemoryRetriever retriever;
+    private final ConversationStore conversations; // null 可（その場合 過去の会話は渡さない）
+
+    // 呼び出し時に LLM へ渡す記憶の最大件数。
+    private static final int RECALL_LIMIT = 10;
+    // 呼び出し時に LLM へ添える過去の会話ターンの最大件数と、1 ターンあたりの最大文字数。
+    private static final int RECALL_TURN_LIMIT = 5;
+    private static final int RECALL_TURN_MAX_CHARS = 300;
 
     private final SimpleDateFormat createdFmt =
             new SimpleDateFormat("yyyy/MM/dd HH:mm", Locale.getDefault());
 
     public MemoryFlowHelper(MemoryRepository repo, EmbeddingClient embedding,
                             OkHttpClient client, String baseUrl, String model,
-                            StructuredOutput.Mode mode, String appLanguage) {
+                            StructuredOutput.Mode mode, String appLanguage,
+                            ConversationStore conversations) {
         this.repo = repo;
+        this.conversations = conversations;
         this.embedding = embedding;
         this.client = client;
         this.baseUrl = baseUrl;
         this.model = model;
         this.mode = mode;
         this.lang = "ja".equals(appLanguage) ? "ja" : "en";
+        this.retriever = new HybridMemoryRetriever(repo, embedding, lang);
     }
 
     /** 保存または更新の結果。{@link #wasUpdated} が true のとき既存レコードを上書きした。 */
@@ -77,8 +88,10 @@ public final class MemoryFlowHelper {
                 ex.year, ex.month, ex.day, ex.hour, ex.minute, ex.location, false, null);
         long id = repo.save(rec);
         if (id < 0) return null;
-        return new SaveResult(new MemoryRecord(id, ex.category, ex.content, created,
-                ex.year, ex.month, ex.day, ex.hour, ex.minute, ex.location, false, null), false);
+        MemoryRecord saved = new MemoryRecord(id, ex.category, ex.content, created,
+                ex.year, ex.month, ex.day, ex.hour, ex.minute, ex.location, false, null);
+        storeEmbedding(saved);
+        return new SaveResult(saved, false);
     }
 
     /** targetQuery で既存レコードを検索し、抽出した新しい値で上書きする。失敗したら null。 */
@@ -95,7 +108,9 @@ public final class MemoryFlowHelper {
                 TextUtils.isEmpty(ex.location) ? existing.location : ex.location,
                 existing.completed,
                 existing.tags);
-        return repo.update(updated) ? updated : null;
+        if (!repo.update(updated)) return null;
+        storeEmbedding(updated);
+        return updated;
     }
 
     /** 保存/更新結果の確認文（分類＋内容＋予定ラベル）。 */
@@ -121,51 +136,60 @@ public final class MemoryFlowHelper {
 
     // ===== 呼び出し（RAG） =====
 
-    /** 関連記憶を検索・ランク付けし、LLMへ渡すコンテキスト文字列を返す（無ければ空文字）。 */
+    /**
+     * 関連記憶を検索・ランク付けし、LLMへ渡すコンテキスト文字列を返す（無ければ空文字）。
+     * 字句とベクトルのハイブリッド検索（{@link HybridMemoryRetriever}）で候補を選び、該当が無ければ最新の記憶を渡す。
+     * 会話の全履歴に関連するターンがあれば、記憶の後ろに PAST CONVERSATION として添える
+     * （{@link ConversationStore#recall}。プロンプトに載っている直近の会話は除く）。
+     */
     public String buildRecallContext(String userMsg) {
         if (repo == null) return "";
         String query = stripRecallTriggers(userMsg);
-        List<MemoryRecord> candidates = TextUtils.isEmpty(query)
-                ? repo.getRecent(30) : repo.search(query);
-        if (candidates.isEmpty()) candidates = repo.getRecent(30);
-        if (candidates.isEmpty()) return "";
-        List<MemoryRecord> ranked = candidates;
-        if (candidates.size() > 5 && embedding != null) {
-            ranked = rerank(userMsg, candidates);
-        }
-        int take = Math.min(10, ranked.size());
+        List<MemoryRecord> ranked = retriever.retrieve(userMsg, query, RECALL_LIMIT);
+        if (ranked.isEmpty()) ranked = repo.getRecent(RECALL_LIMIT);
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < take; i++) {
+        for (MemoryRecord r : ranked) {
             if (sb.length() > 0) sb.append("\n");
-            sb.append(formatRecordLine(ranked.get(i)));
+            sb.append(formatRecordLine(r));
+        }
+        List<ConversationArchive.Turn> turns = recallTurns(userMsg, query);
+        if (!turns.isEmpty()) {
+            if (sb.length() > 0) sb.append("\n\n");
+            sb.append("PAST CONVERSATION:");
+            for (ConversationArchive.Turn t : turns) {
+                sb.append("\n").append(formatTurnLine(t));
+            }
         }
         return sb.toString();
     }
 
-    private List<MemoryRecord> rerank(String userMsg, List<MemoryRecord> records) {
+    /** 全履歴から関連する過去のターンを古い順に返す。失敗しても記憶の呼び出しは続ける。 */
+    private List<ConversationArchive.Turn> recallTurns(String userMsg, String query) {
+        if (conversations == null) return new ArrayList<>();
         try {
-            float[] queryVec = EmbeddingClient.l2Normalize(embedding.embed(userMsg));
-            List<String> contents = new ArrayList<>();
-            for (MemoryRecord r : records) contents.add(embeddingText(r));
-            List<float[]> vecs = embedding.embedBatch(contents);
-            List<Scored> scored = new ArrayList<>();
-            for (int i = 0; i < vecs.size() && i < records.size(); i++) {
-                float sim = EmbeddingClient.cosineSimilarity(
-                        queryVec, EmbeddingClient.l2Normalize(vecs.get(i)));
-                scored.add(new Scored(records.get(i), sim));
-            }
-            Collections.sort(scored, (a, b) -> Float.compare(b.score, a.score));
-            List<MemoryRecord> result = new ArrayList<>(scored.size());
-            for (Scored s : scored) result.add(s.record);
-            return result;
-        } catch (Exception e) {
-            return records;
+            List<ConversationArchive.Turn> turns =
+                    new ArrayList<>(conversations.recall(embedding, userMsg, query, RECALL_TURN_LIMIT));
+            Collections.sort(turns, new Comparator<ConversationArchive.Turn>() {
+                @Override
+                public int compare(ConversationArchive.Turn a, ConversationArchive.Turn b) {
+                    return Long.compare(a.createdAt, b.createdAt);
+                }
+            });
+            return turns;
+        } catch (RuntimeException e) {
+            return new ArrayList<>();
         }
     }
 
-    private String embeddingText(MemoryRecord r) {
-        String sched = r.scheduleLabel(lang);
-        return TextUtils.isEmpty(sched) ? r.content : (r.content + " " + sched);
+    /** 保存/更新直後に埋め込みを計算して保存する。失敗しても記憶の保存自体は成功扱い（呼び出し時に補完）。 */
+    private void storeEmbedding(MemoryRecord r) {
+        if (embedding == null || r == null || r.id <= 0) return;
+        try {
+            String text = retriever.embeddingText(r);
+            float[] vec = EmbeddingClient.l2Normalize(embedding.embed(text));
+            repo.putEmbedding(r.id, embedding.getModel(), VectorCodec.textHash(text), vec);
+        } catch (Exception ignored) {
+        }
     }
 
     // ===== 通知（予定 / 期限） =====
@@ -259,6 +283,17 @@ public final class MemoryFlowHelper {
         return sb.toString();
     }
 
+    private String formatTurnLine(ConversationArchive.Turn t) {
+        boolean ja = "ja".equals(lang);
+        boolean user = "user".equals(t.role);
+        String text = user ? t.content : ReasoningStreamFilter.strip(t.content);
+        text = text.replace('\n', ' ').trim();
+        if (text.length() > RECALL_TURN_MAX_CHARS) text = text.substring(0, RECALL_TURN_MAX_CHARS) + "…";
+        return "[" + createdFmt.format(new Date(t.createdAt)) + " "
+                + (user ? (ja ? "ユーザー" : "user") : (ja ? "アシスタント" : "assistant"))
+                + "] " + text;
+    }
+
     private String categoryLabel(String category) {
         boolean ja = "ja".equals(lang);
         if (MemoryRecord.CAT_TODO.equals(category)) return ja ? "ToDo" : "TODO";
@@ -286,13 +321,4 @@ public final class MemoryFlowHelper {
         result = result.replaceAll("について$|のことを$|のこと$|を$|が$|は$", "").trim();
         return result.trim();
     }
-
-    private static final class Scored {
-        final MemoryRecord record;
-        final float score;
-        Scored(MemoryRecord record, float score) {
-            this.record = record;
-            this.score = score;
-        }
-    }
 }
@@ -3,13 +3,47 @@ package com.micklab.llamachat;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public final class MemoryRepository {
+    // SQLite のバインド変数上限（999）に収まるよう IN 句を分割する単位。
+    private static final int IN_CLAUSE_CHUNK = 500;
+    // search() が返す最大件数。
+    private static final int SEARCH_LIMIT = 20;
+
     private final MemoryDatabase db;
 
+    /** 保存済み埋め込み。{@link #textHash} が現在の埋め込み対象テキストと一致するときだけ有効。 */
+    public static final class StoredEmbedding {
+        public final long memoryId;
+        public final String textHash;
+        public final float[] vector;
+
+        StoredEmbedding(long memoryId, String textHash, float[] vector) {
+            this.memoryId = memoryId;
+            this.textHash = textHash;
+            this.vector = vector;
+        }
+    }
+
+    /** 一次採点用の int8 量子化埋め込み（{@link QuantizedVectors} 形式）。 */
+    public static final class QuantizedEmbedding {
+        public final long memoryId;
+        public final byte[] vector;
+
+        QuantizedEmbedding(long memoryId, byte[] vector) {
+            this.memoryId = memoryId;
+            this.vector = vector;
+        }
+    }
+
     public MemoryRepository(Context ctx) {
         this.db = MemoryDatabase.get(ctx);
     }
@@ -30,7 +64,16 @@ public final class MemoryRepository {
         v.put(MemoryDatabase.COL_LOCATION, r.location != null ? r.location : "");
         v.put(MemoryDatabase.COL_COMPLETED, r.completed ? 1 : 0);
         v.put(MemoryDatabase.COL_TAGS, r.tags != null ? r.tags : "");
-        return db.getWritableDatabase().insert(MemoryDatabase.TABLE, null, v);
+        SQLiteDatabase w = db.getWritableDatabase();
+        w.beginTransaction();
+        try {
+            long id = w.insert(MemoryDatabase.TABLE, null, v);
+            if (id > 0) indexFts(w, id, r);
+            w.setTransactionSuccessful();
+            return id;
+        } finally {
+            w.endTransaction();
+        }
     }
 
     /** 既存レコードを全項目更新する。成功件数>0でtrue。 */
@@ -47,8 +90,23 @@ public final class MemoryRepository {
         v.put(MemoryDatabase.COL_LOCATION, r.location != null ? r.location : "");
         v.put(MemoryDatabase.COL_COMPLETED, r.completed ? 1 : 0);
         v.put(MemoryDatabase.COL_TAGS, r.tags != null ? r.tags : "");
-        int n = db.getWritableDatabase().update(MemoryDatabase.TABLE, v,
-                MemoryDatabase.COL_ID + "=?", new String[]{String.valueOf(r.id)});
+        SQLiteDatabase w = db.getWritableDatabase();
+        int n;
+        w.beginTransaction();
+        try {
+            n = w.update(MemoryDatabase.TABLE, v,
+                    MemoryDatabase.COL_ID + "=?", new String[]{String.valueOf(r.id)});
+            if (n > 0) {
+                indexFts(w, r.id, r);
+                // 内容が変わった可能性があるため保存済み埋め込みは破棄（呼び出し時に再計算）
+                w.delete(MemoryDatabase.EMB_TABLE, MemoryDatabase.EMB_COL_MEMORY_ID + "=?",
+                        new String[]{String.valueOf(r.id)});
+            }
+            w.setTransactionSuccessful();
+        } finally {
+            w.endTransaction();
+        }
+        if (n > 0) db.vectorIndex().remove(r.id);
         return n > 0;
     }
 
@@ -64,25 +122,262 @@ public final class MemoryRepository {
 
     public boolean delete(long id) {
         if (id <= 0) return false;
+        String[] args = new String[]{String.valueOf(id)};
+        db.getWritableDatabase().delete(MemoryDatabase.EMB_TABLE,
+                MemoryDatabase.EMB_COL_MEMORY_ID + "=?", args);
+        db.vectorIndex().remove(id);
         int n = db.getWritableDatabase().delete(MemoryDatabase.TABLE,
-                MemoryDatabase.COL_ID + "=?", new String[]{String.valueOf(id)});
+                MemoryDatabase.COL_ID + "=?", args);
         return n > 0;
     }
 
-    /** content / location / tags に対してLIKE検索。空クエリの場合は最新10件を返す。 */
-    public List<MemoryRecord> search(String query) {
-        if (query == null || query.trim().isEmpty()) return getRecent(10);
+    // ===== 埋め込み（memory_embeddings） =====
+
+    /**
+     * 記憶の埋め込みを保存（同一 ID × モデルは置き換え）する。
+     * vector は L2 正規化済みであること。textHash は埋め込み対象テキストの {@link VectorCodec#textHash}。
+     * 近似最近傍索引（{@link MemoryVectorIndex}）にも反映する。
+     */
+    public void putEmbedding(long memoryId, String model, String textHash, float[] vector) {
+        if (memoryId <= 0 || model == null || vector == null || vector.length == 0) return;
+        ContentValues v = new ContentValues();
+        v.put(MemoryDatabase.EMB_COL_MEMORY_ID, memoryId);
+        v.put(MemoryDatabase.EMB_COL_MODEL, model);
+        v.put(MemoryDatabase.EMB_COL_TEXT_HASH, textHash != null ? textHash : "");
+        v.put(MemoryDatabase.EMB_COL_VECTOR, QuantizedVectors.encodeFloat16(vector));
+        byte[] q8 = QuantizedVectors.encodeInt8(vector);
+        v.put(MemoryDatabase.EMB_COL_VECTOR_Q8, q8);
+        long rowId = db.getWritableDatabase().insertWithOnConflict(MemoryDatabase.EMB_TABLE, null, v,
+                SQLiteDatabase.CONFLICT_REPLACE);
+        if (rowId > 0) db.vectorIndex().put(model, memoryId, rowId, q8);
+    }
+
+    /**
+     * 近似最近傍索引で q8 に近い順に最大 k 件の記憶 ID を返す。索引の構築途中・件数が minSize 未満なら null
+     * （呼び出し側は {@link #getRecentQuantizedEmbeddings} の総当たり走査を使う）。
+     */
+    public long[] searchNearestIds(String model, byte[] q8, int k, int minSize) {
+        return db.vectorIndex().search(model, q8, k, minSize, vectorSource);
+    }
+
+    /** 近似最近傍索引の読み込み時の突き合わせ・構築に使う DB 側の埋め込み。版は埋め込み行の rowid。 */
+    private final MemoryVectorIndex.Source vectorSource = new MemoryVectorIndex.Source() {
+        @Override
+        public Map<Long, Long> versions(String model) {
+            Map<Long, Long> out = new HashMap<>();
+            try (Cursor c = db.getReadableDatabase().query(
+                    MemoryDatabase.EMB_TABLE,
+                    new String[]{MemoryDatabase.EMB_COL_MEMORY_ID, "rowid"},
+                    MemoryDatabase.EMB_COL_MODEL + "=?", new String[]{model},
+                    null, null, null)) {
+                while (c.moveToNext()) out.put(c.getLong(0), c.getLong(1));
+            }
+            return out;
+        }
+
+        @Override
+        public Map<Long, MemoryVectorIndex.Entry> vectors(String model, Collection<Long> ids) {
+            Map<Long, MemoryVectorIndex.Entry> out = new HashMap<>();
+            List<Long> all = new ArrayList<>(ids);
+            for (int from = 0; from < all.size(); from += IN_CLAUSE_CHUNK) {
+                List<Long> part = all.subList(from, Math.min(all.size(), from + IN_CLAUSE_CHUNK));
+                String[] args = new String[part.size() + 1];
+                args[0] = model;
+                for (int i = 0; i < part.size(); i++) args[i + 1] = String.valueOf(part.get(i));
+                try (Cursor c = db.getReadableDatabase().rawQuery(
+                        "SELECT " + MemoryDatabase.EMB_COL_MEMORY_ID + ", rowid, "
+                                + MemoryDatabase.EMB_COL_VECTOR_Q8 + ", CASE WHEN "
+                                + MemoryDatabase.EMB_COL_VECTOR_Q8 + " IS NULL THEN "
+                                + MemoryDatabase.EMB_COL_VECTOR + " END"
+                                + " FROM " + MemoryDatabase.EMB_TABLE
+                                + " WHERE " + MemoryDatabase.EMB_COL_MODEL + "=? AND "
+                                + MemoryDatabase.EMB_COL_MEMORY_ID + " IN (" + placeholders(part.size()) + ")",
+                        args)) {
+                    while (c.moveToNext()) {
+                        byte[] q8 = c.isNull(2) ? null : c.getBlob(2);
+                        if (q8 == null) {
+                            float[] vec = c.isNull(3) ? null : QuantizedVectors.decodeFloat16(c.getBlob(3));
+                            if (vec == null) continue;
+                            q8 = QuantizedVectors.encodeInt8(vec);
+                        }
+                        out.put(c.getLong(0), new MemoryVectorIndex.Entry(c.getLong(1), q8));
+                    }
+                }
+            }
+            return out;
+        }
+    };
+
+    /**
+     * 新しい記憶から最大 limit 件分の int8 量子化埋め込み（指定モデル）を返す。
+     * ベクトル側ランキングの走査範囲を DB 件数に依らず一定に保つために件数を区切る。
+     * float16 列は量子化列が空の行に限って読み、その場で量子化する。
+     */
+    public List<QuantizedEmbedding> getRecentQuantizedEmbeddings(String model, int limit) {
+        List<QuantizedEmbedding> out = new ArrayList<>();
+        if (model == null) return out;
+        try (Cursor c = db.getReadableDatabase().rawQuery(
+                "SELECT e." + MemoryDatabase.EMB_COL_MEMORY_ID + ", e." + MemoryDatabase.EMB_COL_VECTOR_Q8
+                        + ", CASE WHEN e." + MemoryDatabase.EMB_COL_VECTOR_Q8 + " IS NULL THEN e."
+                        + MemoryDatabase.EMB_COL_VECTOR + " END"
+                        + " FROM " + MemoryDatabase.EMB_TABLE + " e JOIN " + MemoryDatabase.TABLE
+                        + " m ON m." + MemoryDatabase.COL_ID + " = e." + MemoryDatabase.EMB_COL_MEMORY_ID
+                        + " WHERE e." + MemoryDatabase.EMB_COL_MODEL + "=?"
+                        + " ORDER BY m." + MemoryDatabase.COL_CREATED_AT + " DESC LIMIT ?",
+                new String[]{model, String.valueOf(Math.max(1, limit))})) {
+            while (c.moveToNext()) {
+                byte[] q8 = c.isNull(1) ? null : c.getBlob(1);
+                if (q8 == null) {
+                    float[] vec = c.isNull(2) ? null : QuantizedVectors.decodeFloat16(c.getBlob(2));
+                    if (vec == null) continue;
+                    q8 = QuantizedVectors.encodeInt8(vec);
+                }
+                if (QuantizedVectors.int8Dimension(q8) <= 0) continue;
+                out.add(new QuantizedEmbedding(c.getLong(0), q8));
+            }
+        }
+        return out;
+    }
+
+    /** 指定モデルの埋め込みがまだ無い記憶を新しい順に最大 limit 件返す（段階的な補完用）。 */
+    public List<MemoryRecord> getMissingEmbeddings(String model, int limit) {
         List<MemoryRecord> results = new ArrayList<>();
-        String like = "%" + query.trim() + "%";
+        if (model == null) return results;
         try (Cursor c = db.getReadableDatabase().query(
                 MemoryDatabase.TABLE, null,
+                MemoryDatabase.COL_ID + " NOT IN (SELECT " + MemoryDatabase.EMB_COL_MEMORY_ID
+                        + " FROM " + MemoryDatabase.EMB_TABLE
+                        + " WHERE " + MemoryDatabase.EMB_COL_MODEL + "=?)",
+                new String[]{model}, null, null,
+                MemoryDatabase.COL_CREATED_AT + " DESC", String.valueOf(Math.max(1, limit)))) {
+            while (c.moveToNext()) results.add(fromCursor(c));
+        }
+        return results;
+    }
+
+    /** 指定 ID 群について、指定モデルの保存済み埋め込みを返す（無いものは含まれない）。 */
+    public Map<Long, StoredEmbedding> getEmbeddings(String model, Collection<Long> ids) {
+        Map<Long, StoredEmbedding> out = new HashMap<>();
+        if (model == null || ids == null || ids.isEmpty()) return out;
+        List<Long> all = new ArrayList<>(ids);
+        for (int from = 0; from < all.size(); from += IN_CLAUSE_CHUNK) {
+            List<Long> part = all.subList(from, Math.min(all.size(), from + IN_CLAUSE_CHUNK));
+            String[] args = new String[part.size() + 1];
+            args[0] = model;
+            for (int i = 0; i < part.size(); i++) args[i + 1] = String.valueOf(part.get(i));
+            try (Cursor c = db.getReadableDatabase().query(
+                    MemoryDatabase.EMB_TABLE,
+                    new String[]{MemoryDatabase.EMB_COL_MEMORY_ID,
+                            MemoryDatabase.EMB_COL_TEXT_HASH, MemoryDatabase.EMB_COL_VECTOR},
+                    MemoryDatabase.EMB_COL_MODEL + "=? AND "
+                            + MemoryDatabase.EMB_COL_MEMORY_ID + " IN (" + placeholders(part.size()) + ")",
+                    args, null, null, null)) {
+                while (c.moveToNext()) {
+                    float[] vec = QuantizedVectors.decodeFloat16(c.getBlob(2));
+                    if (vec == null || vec.length == 0) continue;
+                    out.put(c.getLong(0), new StoredEmbedding(c.getLong(0), c.getString(1), vec));
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * content / location / tags の全文検索（FTS4 + BM25 順、最大 {@link #SEARCH_LIMIT} 件）。
+     * 空クエリの場合は最新10件を返す。FTS が使えない・1 文字 CJK のみのクエリは LIKE 検索で代替する。
+     */
+    public List<MemoryRecord> search(String query) {
+        if (query == null || query.trim().isEmpty()) return getRecent(10);
+        return getByIds(searchIds(query, SEARCH_LIMIT));
+    }
+
+    /** {@link #search} の ID 版（関連度順・最大 limit 件）。ハイブリッド検索の字句側ランキングに使う。 */
+    public List<Long> searchIds(String query, int limit) {
+        if (query == null || query.trim().isEmpty()) return new ArrayList<>();
+        String match = MemorySearchIndex.matchQuery(query);
+        if (match != null) {
+            try {
+                return searchRankedIds(query, limit);
+            } catch (SQLException e) {
+                // FTS テーブルが無い（FTS4 非対応端末）→ LIKE へ
+            }
+        }
+        return searchLikeIds(query.trim(), limit);
+    }
+
+    /**
+     * FTS で一致した記憶IDを BM25 の高い順（同点は新しい順）に最大 limit 件返す。まず全トークンを含む記憶（AND）だけを
+     * 採点し、limit 件に満たないときだけいずれかを含む記憶（OR）で残りを埋める。ありふれたバイグラムが表の大半に
+     * 一致するクエリでも、通常は AND の少数の一致だけを読む。上位は有界ヒープで選び、一致した全行を並べ替えない。
+     */
+    private List<Long> searchRankedIds(String query, int limit) {
+        int k = Math.max(1, limit);
+        String all = MemorySearchIndex.matchAllQuery(query);
+        List<Long> ids = rankMatches(all, k);
+        String any = MemorySearchIndex.matchQuery(query);
+        if (ids.size() < k && any != null && !any.equals(all)) {
+            for (Long id : rankMatches(any, k)) {
+                if (ids.size() >= k) break;
+                if (!ids.contains(id)) ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private List<Long> rankMatches(String match, int limit) {
+        MemorySearchIndex.TopHits top = new MemorySearchIndex.TopHits(limit);
+        // 新しい順に読むと、同点は先に読んだ（新しい）方が残る
+        try (Cursor c = db.getReadableDatabase().rawQuery(
+                "SELECT docid, matchinfo(" + MemoryDatabase.FTS_TABLE + ", '"
+                        + MemorySearchIndex.MATCHINFO_FORMAT + "') FROM "
+                        + MemoryDatabase.FTS_TABLE + " WHERE " + MemoryDatabase.FTS_TABLE
+                        + " MATCH ? ORDER BY docid DESC",
+                new String[]{match})) {
+            while (c.moveToNext()) {
+                top.add(c.getLong(0), MemorySearchIndex.bm25(MemorySearchIndex.matchinfo(c.getBlob(1))));
+            }
+        }
+        return top.drainIds();
+    }
+
+    private List<Long> searchLikeIds(String query, int limit) {
+        List<Long> ids = new ArrayList<>();
+        String like = "%" + query + "%";
+        try (Cursor c = db.getReadableDatabase().query(
+                MemoryDatabase.TABLE, new String[]{MemoryDatabase.COL_ID},
                 MemoryDatabase.COL_CONTENT + " LIKE ? OR "
                         + MemoryDatabase.COL_LOCATION + " LIKE ? OR "
                         + MemoryDatabase.COL_TAGS + " LIKE ?",
                 new String[]{like, like, like},
                 null, null,
-                MemoryDatabase.COL_CREATED_AT + " DESC", "20")) {
-            while (c.moveToNext()) results.add(fromCursor(c));
+                MemoryDatabase.COL_CREATED_AT + " DESC", String.valueOf(Math.max(1, limit)))) {
+            while (c.moveToNext()) ids.add(c.getLong(0));
+        }
+        return ids;
+    }
+
+    /** 指定IDのレコードを ids と同じ順で返す（存在しないIDは除く）。 */
+    public List<MemoryRecord> getByIds(List<Long> ids) {
+        List<MemoryRecord> results = new ArrayList<>();
+        if (ids == null || ids.isEmpty()) return results;
+        Map<Long, MemoryRecord> byId = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += IN_CLAUSE_CHUNK) {
+            List<Long> part = ids.subList(from, Math.min(ids.size(), from + IN_CLAUSE_CHUNK));
+            String[] args = new String[part.size()];
+            for (int i = 0; i < part.size(); i++) args[i] = String.valueOf(part.get(i));
+            try (Cursor c = db.getReadableDatabase().query(
+                    MemoryDatabase.TABLE, null,
+                    MemoryDatabase.COL_ID + " IN (" + placeholders(part.size()) + ")",
+                    args, null, null, null)) {
+                while (c.moveToNext()) {
+                    MemoryRecord r = fromCursor(c);
+                    byId.put(r.id, r);
+                }
+            }
+        }
+        for (Long id : ids) {
+            MemoryRecord r = byId.get(id);
+            if (r != null) results.add(r);
         }
         return results;
     }
@@ -121,6 +416,29 @@ public final class MemoryRepository {
         }
     }
 
+    /** FTS 索引を記録内容で置き換える（FTS 非対応端末では何もしない）。 */
+    private static void indexFts(SQLiteDatabase w, long id, MemoryRecord r) {
+        try {
+            String[] args = new String[]{String.valueOf(id)};
+            w.delete(MemoryDatabase.FTS_TABLE, "docid=?", args);
+            ContentValues v = new ContentValues();
+            v.put("docid", id);
+            v.put(MemoryDatabase.FTS_COL_TOKENS,
+                    MemorySearchIndex.indexText(r.content, r.location, r.tags));
+            w.insert(MemoryDatabase.FTS_TABLE, null, v);
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private static String placeholders(int n) {
+        StringBuilder sb = new StringBuilder(n * 2);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(',');
+            sb.append('?');
+        }
+        return sb.toString();
+    }
+
     private static void putNullableInt(ContentValues v, String col, Integer value) {
         if (value == null) v.putNull(col);
         else v.put(col, value);
@@ -0,0 +1,281 @@
+package com.micklab.llamachat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 記憶の全文検索（SQLite FTS4）用のトークン化と BM25 採点、およびハイブリッド検索の順位融合。
+ *
+ * <p>Android の組み込み SQLite は FTS5 / trigram トークナイザを保証しないため、FTS4 の simple
+ * トークナイザ（空白区切り）に<strong>アプリ側で分かち書き済みのテキスト</strong>を渡す。
+ * 日本語などの CJK 連続部分は文字バイグラム、英数字は小文字化した単語をトークンとする。
+ * FTS4 には bm25() が無いため、{@code matchinfo(fts, 'pcnalx')} の値から Java 側で BM25 を計算する。
+ * 検索はまず全トークンを含む行（{@link #matchAllQuery}）だけを採点し、足りないときだけいずれかを含む行
+ * （{@link #matchQuery}）へ広げる。上位の選択は {@link TopHits} の有界ヒープで行い、一致した全行を並べ替えない。</p>
+ *
+ * <p>Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class MemorySearchIndex {
+
+    /** matchinfo に渡すフォーマット文字列（{@link #bm25} が前提とする並び）。 */
+    public static final String MATCHINFO_FORMAT = "pcnalx";
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private MemorySearchIndex() {
+    }
+
+    /** 索引・検索共通のトークン列（出現順・重複あり）。 */
+    public static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null || text.isEmpty()) return out;
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        int i = 0;
+        int n = s.length();
+        while (i < n) {
+            int cp = s.codePointAt(i);
+            if (isCjk(cp)) {
+                int start = i;
+                List<Integer> run = new ArrayList<>();
+                while (i < n && isCjk(s.codePointAt(i))) {
+                    run.add(i);
+                    i += Character.charCount(s.codePointAt(i));
+                }
+                if (run.size() == 1) {
+                    out.add(s.substring(start, i));
+                } else {
+                    for (int k = 0; k + 1 < run.size(); k++) {
+                        int end = k + 2 < run.size() ? run.get(k + 2) : i;
+                        out.add(s.substring(run.get(k), end));
+                    }
+                }
+            } else if (Character.isLetterOrDigit(cp)) {
+                int start = i;
+                while (i < n) {
+                    int c = s.codePointAt(i);
+                    if (!Character.isLetterOrDigit(c) || isCjk(c)) break;
+                    i += Character.charCount(c);
+                }
+                out.add(s.substring(start, i));
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+        return out;
+    }
+
+    /** FTS テーブルへ格納するテキスト（トークンを空白で連結）。 */
+    public static String indexText(String... fields) {
+        StringBuilder sb = new StringBuilder();
+        for (String f : fields) {
+            for (String t : tokenize(f)) {
+                if (sb.length() > 0) sb.append(' ');
+                sb.append(t);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * MATCH 式（各トークンのフレーズを OR で結合、英数字の語は前方一致）。1 文字の CJK しか得られないクエリは
+     * バイグラム索引と一致しないため null を返し、呼び出し側で LIKE 検索へフォールバックさせる。
+     */
+    public static String matchQuery(String query) {
+        return joinTerms(query, " OR ");
+    }
+
+    /**
+     * {@link #matchQuery} と同じトークンをすべて含む行だけに一致する MATCH 式（空白区切りの暗黙の AND）。
+     * 「して」「する」のようなありふれたバイグラムを含むクエリでも一致する行が少なく、採点する行数を抑えられる。
+     */
+    public static String matchAllQuery(String query) {
+        return joinTerms(query, " ");
+    }
+
+    private static String joinTerms(String query, String separator) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        StringBuilder sb = new StringBuilder();
+        for (String t : terms) {
+            if (t.codePointCount(0, t.length()) < 2 && isCjk(t.codePointAt(0))) continue;
+            if (sb.length() > 0) sb.append(separator);
+            sb.append('"').append(t).append(isCjk(t.codePointAt(0)) ? "" : "*").append('"');
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /** matchinfo の BLOB（ネイティブバイト順の 32bit 整数列）を int 配列にする。 */
+    public static int[] matchinfo(byte[] blob) {
+        if (blob == null) return new int[0];
+        int[] out = new int[blob.length / 4];
+        ByteBuffer.wrap(blob).order(ByteOrder.nativeOrder()).asIntBuffer().get(out);
+        return out;
+    }
+
+    /**
+     * {@code matchinfo(fts, 'pcnalx')} の結果（32bit 符号なし整数列）から BM25 スコアを計算する。
+     * 値が大きいほど関連度が高い。形式が不正なら 0。
+     */
+    public static double bm25(int[] mi) {
+        if (mi == null || mi.length < 3) return 0.0;
+        int phrases = mi[0];
+        int cols = mi[1];
+        double docs = mi[2];
+        int avgOff = 3;
+        int lenOff = avgOff + cols;
+        int xOff = lenOff + cols;
+        if (mi.length < xOff + phrases * cols * 3) return 0.0;
+        double score = 0.0;
+        for (int p = 0; p < phrases; p++) {
+            for (int c = 0; c < cols; c++) {
+                int base = xOff + 3 * (p * cols + c);
+                double tf = mi[base];
+                double docsWithHit = mi[base + 2];
+                if (tf <= 0) continue;
+                double idf = Math.log(1.0 + (docs - docsWithHit + 0.5) / (docsWithHit + 0.5));
+                double avg = Math.max(1, mi[avgOff + c]);
+                double len = mi[lenOff + c];
+                score += idf * (tf * (K1 + 1)) / (tf + K1 * (1 - B + B * len / avg));
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Reciprocal Rank Fusion。各ランキング（関連度順の ID 列）で順位 r（0 始まり）の要素に
+     * {@code 1 / (k + r + 1)} を加算し、合計の高い順に最大 limit 件を返す。
+     * 同点は先に現れたランキング・順位を優先する（結果が決定的になる）。
+     */
+    public static List<Long> reciprocalRankFusion(List<List<Long>> rankings, int k, int limit) {
+        Map<Long, Double> scores = new LinkedHashMap<>();
+        if (rankings != null) {
+            for (List<Long> ranking : rankings) {
+                if (ranking == null) continue;
+                for (int r = 0; r < ranking.size(); r++) {
+                    Long id = ranking.get(r);
+                    if (id == null) continue;
+                    Double prev = scores.get(id);
+                    scores.put(id, (prev == null ? 0.0 : prev) + 1.0 / (k + r + 1));
+                }
+            }
+        }
+        List<Map.Entry<Long, Double>> entries = new ArrayList<>(scores.entrySet());
+        // 安定ソートのため挿入順（先に現れたもの）が同点時に保たれる
+        Collections.sort(entries, (a, b) -> Double.compare(b.getValue(), a.getValue()));
+        List<Long> out = new ArrayList<>(Math.min(limit, entries.size()));
+        for (int i = 0; i < entries.size() && i < limit; i++) out.add(entries.get(i).getKey());
+        return out;
+    }
+
+    /**
+     * 採点しながら上位 k 件だけを残す有界の最小ヒープ（プリミティブ配列、一致行ごとのオブジェクト生成なし）。
+     * 同点は先に追加した方を優先する（新しい順に追加すれば同点は新しい順）。
+     */
+    public static final class TopHits {
+        private final long[] ids;
+        private final double[] scores;
+        private final long[] order; // 追加順（同点の判定用）
+        private int size;
+        private long added;
+
+        public TopHits(int k) {
+            int cap = Math.max(0, k);
+            ids = new long[cap];
+            scores = new double[cap];
+            order = new long[cap];
+        }
+
+        public void add(long id, double score) {
+            if (Double.isNaN(score) || ids.length == 0) return;
+            long seq = added++;
+            if (size < ids.length) {
+                set(size, id, score, seq);
+                siftUp(size++);
+            } else if (weaker(0, score, seq)) {
+                set(0, id, score, seq);
+                siftDown();
+            }
+        }
+
+        /** 残した ID をスコアの高い順に取り出す（取り出した後は空になる）。 */
+        public List<Long> drainIds() {
+            Long[] out = new Long[size];
+            while (size > 0) {
+                out[size - 1] = ids[0];
+                swap(0, --size);
+                siftDown();
+            }
+            List<Long> list = new ArrayList<>(out.length);
+            Collections.addAll(list, out);
+            return list;
+        }
+
+        /** ヒープ上の位置 i の要素が (score, seq) より弱いか。 */
+        private boolean weaker(int i, double score, long seq) {
+            return scores[i] < score || (scores[i] == score && order[i] > seq);
+        }
+
+        private boolean weakerThan(int a, int b) {
+            return weaker(a, scores[b], order[b]);
+        }
+
+        private void set(int i, long id, double score, long seq) {
+            ids[i] = id;
+            scores[i] = score;
+            order[i] = seq;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!weakerThan(i, parent)) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown() {
+            int i = 0;
+            while (true) {
+                int l = 2 * i + 1;
+                if (l >= size) break;
+                int r = l + 1;
+                int m = r < size && weakerThan(r, l) ? r : l;
+                if (!weakerThan(m, i)) break;
+                swap(i, m);
+                i = m;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long ti = ids[a];
+            ids[a] = ids[b];
+            ids[b] = ti;
+            double ts = scores[a];
+            scores[a] = scores[b];
+            scores[b] = ts;
+            long to = order[a];
+            order[a] = order[b];
+            order[b] = to;
+        }
+    }
+
+    /** 漢字・ひらがな・カタカナ・ハングル（バイグラム分割の対象）。 */
+    static boolean isCjk(int cp) {
+        Character.UnicodeScript sc = Character.UnicodeScript.of(cp);
+        return sc == Character.UnicodeScript.HAN
+                || sc == Character.UnicodeScript.HIRAGANA
+                || sc == Character.UnicodeScript.KATAKANA
+                || sc == Character.UnicodeScript.HANGUL
+                || cp == 0x30FC; // 長音符「ー」（COMMON 扱い）
+    }
+}
@@ -0,0 +1,236 @@
+package com.micklab.llamachat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 記憶の埋め込み（int8 量子化）に対する埋め込みモデルごとの {@link HnswIndex}。DB と同じディレクトリに保存する。
+ *
+ * <ul>
+ *   <li>{@link #put} / {@link #remove} は {@link MemoryRepository} の埋め込み保存・削除から呼ばれ、
+ *       読み込み済みの索引へ逐次反映する。</li>
+ *   <li>各要素には埋め込み行の版（SQLite の rowid。置き換え保存で変わる）を記録しておき、索引を読み込んだとき
+ *       DB の版一覧と突き合わせて、保存後の追加・置き換え・削除を取り込む。索引ファイルが古くても結果は DB と一致する。</li>
+ *   <li>未登録分の追加は 1 回の呼び出しにつき {@link #SYNC_BUDGET} 件まで。全件が揃うまで {@link #search} は null を返し、
+ *       呼び出し側は件数を区切った総当たり走査を使う（初回構築で記憶呼び出しが長く止まらない）。</li>
+ *   <li>墓標の割合が {@link #COMPACT_RATIO} を超えたら作り直す。ファイルへの書き出しは変更があって
+ *       {@link #SAVE_INTERVAL_MS} 以上経ったときと、構築が完了したとき、{@link #flush} を呼んだとき。</li>
+ * </ul>
+ *
+ * <p>スレッドセーフ。Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class MemoryVectorIndex {
+
+    /** 1 回の呼び出しで索引へ追加する未登録ベクトルの最大件数。 */
+    static final int SYNC_BUDGET = 200;
+    /** 墓標の割合がこれを超えたら作り直す。 */
+    static final float COMPACT_RATIO = 0.3f;
+    /** ファイルへ書き出す最短間隔。 */
+    static final long SAVE_INTERVAL_MS = 5 * 60 * 1000L;
+    private static final String FILE_PREFIX = "llamachat_memory_hnsw_";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final int MAGIC = 0x4d564931; // "MVI1"
+
+    /** 埋め込みの保存元（DB）。 */
+    public interface Source {
+        /** 指定モデルの全埋め込みの 記憶ID → 版。 */
+        Map<Long, Long> versions(String model);
+
+        /** 指定 ID 群の int8 量子化埋め込みと版（無いものは含まれない）。 */
+        Map<Long, Entry> vectors(String model, Collection<Long> ids);
+    }
+
+    /** 版付きの int8 量子化埋め込み。 */
+    public static final class Entry {
+        public final long version;
+        public final byte[] vector;
+
+        public Entry(long version, byte[] vector) {
+            this.version = version;
+            this.vector = vector;
+        }
+    }
+
+    private static final class ModelIndex {
+        HnswIndex graph = new HnswIndex();
+        final Map<Long, Long> versions = new HashMap<>();
+        final ArrayDeque<Long> pending = new ArrayDeque<>();
+        boolean dirty;
+        long savedAt;
+    }
+
+    private final File dir; // null 可（メモリのみ）
+    private final LongSupplier clock;
+    private final Map<String, ModelIndex> loaded = new HashMap<>();
+
+    public MemoryVectorIndex(File dir) {
+        this(dir, System::currentTimeMillis);
+    }
+
+    MemoryVectorIndex(File dir, LongSupplier clock) {
+        this.dir = dir;
+        this.clock = clock;
+    }
+
+    /** 埋め込みの保存を反映する（そのモデルの索引が未読み込みなら読み込み時の突き合わせに任せる）。 */
+    public synchronized void put(String model, long memoryId, long version, byte[] vector) {
+        ModelIndex idx = loaded.get(model);
+        if (idx == null) return;
+        if (idx.graph.add(memoryId, vector)) {
+            idx.versions.put(memoryId, version);
+        } else {
+            idx.graph.remove(memoryId);
+            idx.versions.remove(memoryId);
+        }
+        idx.dirty = true;
+    }
+
+    /** 記憶の埋め込み削除を読み込み済みの全モデルの索引へ反映する。 */
+    public synchronized void remove(long memoryId) {
+        for (ModelIndex idx : loaded.values()) {
+            idx.versions.remove(memoryId);
+            if (idx.graph.remove(memoryId)) idx.dirty = true;
+        }
+    }
+
+    /**
+     * q8 に近い順に最大 k 件の記憶 ID。索引がまだ全件揃っていない・件数が minSize 未満なら null
+     * （呼び出し側は総当たり走査に切り替える）。件数が minSize 未満の間は索引の読み込み・構築・保存もしない。
+     */
+    public synchronized long[] search(String model, byte[] q8, int k, int minSize, Source source) {
+        if (model == null) return null;
+        ModelIndex idx = loaded.get(model);
+        if (idx == null) {
+            Map<Long, Long> current = source.versions(model);
+            if (current.size() < minSize) return null;
+            idx = load(model, current);
+        } else if (idx.graph.size() + idx.pending.size() < minSize) {
+            return null;
+        }
+        boolean completed = syncPending(model, idx, source);
+        if (idx.graph.deletedRatio() > COMPACT_RATIO) {
+            idx.graph = idx.graph.compact();
+            idx.dirty = true;
+        }
+        long now = clock.getAsLong();
+        if (idx.dirty && idx.pending.isEmpty() && (completed || now - idx.savedAt >= SAVE_INTERVAL_MS)) {
+            save(model, idx);
+            idx.savedAt = now;
+        }
+        if (!idx.pending.isEmpty() || idx.graph.size() < minSize) return null;
+        return idx.graph.search(q8, k, Math.max(HnswIndex.DEFAULT_EF_SEARCH, k));
+    }
+
+    /** 読み込み済みの索引の件数（未読み込みなら -1）。 */
+    synchronized int size(String model) {
+        ModelIndex idx = loaded.get(model);
+        return idx == null ? -1 : idx.graph.size();
+    }
+
+    /** 読み込み済みの索引の未保存の変更をファイルへ書き出す（画面・サービスの終了時に呼ぶ）。 */
+    public synchronized void flush() {
+        for (Map.Entry<String, ModelIndex> e : loaded.entrySet()) {
+            if (e.getValue().dirty) save(e.getKey(), e.getValue());
+        }
+    }
+
+    // ===== 読み込み・突き合わせ =====
+
+    /** 索引ファイルを読み込み（無ければ空で作り）、DB の版一覧 current と突き合わせる。 */
+    private ModelIndex load(String model, Map<Long, Long> current) {
+        ModelIndex idx = read(model);
+        if (idx == null) idx = new ModelIndex();
+        idx.savedAt = clock.getAsLong();
+        for (Long id : new ArrayList<>(idx.versions.keySet())) {
+            if (!current.containsKey(id)) {
+                idx.graph.remove(id);
+                idx.versions.remove(id);
+                idx.dirty = true;
+            }
+        }
+        for (Map.Entry<Long, Long> e : current.entrySet()) {
+            if (!e.getValue().equals(idx.versions.get(e.getKey()))) idx.pending.add(e.getKey());
+        }
+        loaded.put(model, idx);
+        return idx;
+    }
+
+    /** 未登録分を予算内で追加する。この呼び出しで全件揃ったら true。 */
+    private boolean syncPending(String model, ModelIndex idx, Source source) {
+        if (idx.pending.isEmpty()) return false;
+        List<Long> batch = new ArrayList<>(Math.min(SYNC_BUDGET, idx.pending.size()));
+        while (batch.size() < SYNC_BUDGET && !idx.pending.isEmpty()) batch.add(idx.pending.poll());
+        Map<Long, Entry> vectors = source.vectors(model, batch);
+        for (Long id : batch) {
+            Entry e = vectors.get(id);
+            if (e != null && idx.graph.add(id, e.vector)) {
+                idx.versions.put(id, e.version);
+            } else {
+                idx.graph.remove(id);
+                idx.versions.remove(id);
+            }
+        }
+        idx.dirty = true;
+        return idx.pending.isEmpty();
+    }
+
+    // ===== ファイル =====
+
+    private File fileFor(String model) {
+        return new File(dir, FILE_PREFIX + VectorCodec.textHash(model) + FILE_SUFFIX);
+    }
+
+    private ModelIndex read(String model) {
+        if (dir == null) return null;
+        File f = fileFor(model);
+        if (!f.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC || !model.equals(in.readUTF())) return null;
+            ModelIndex idx = new ModelIndex();
+            idx.graph = HnswIndex.readFrom(in);
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                long id = in.readLong();
+                long version = in.readLong();
+                if (idx.graph.contains(id)) idx.versions.put(id, version);
+            }
+            return idx;
+        } catch (IOException | RuntimeException e) {
+            return null; // 壊れたファイルは作り直す
+        }
+    }
+
+    private void save(String model, ModelIndex idx) {
+        idx.dirty = false;
+        if (dir == null) return;
+        File f = fileFor(model);
+        File tmp = new File(dir, f.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(model);
+            idx.graph.writeTo(out);
+            out.writeInt(idx.versions.size());
+            for (Map.Entry<Long, Long> e : idx.versions.entrySet()) {
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue());
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(f)) tmp.delete();
+    }
+}
@@ -0,0 +1,148 @@
+package com.micklab.llamachat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 埋め込みベクトルの量子化表現（int8 / float16）と、int8 同士の整数内積。
+ *
+ * <ul>
+ *   <li>int8 形式: 先頭 4 バイトにベクトルごとのスケール（float32 LE、最大絶対値 / 127）、続いて次元数ぶんの int8。
+ *       float32 の約 1/4 の大きさで、総当たり走査の一次採点に使う（上位候補は float で再採点する）。</li>
+ *   <li>float16 形式: IEEE 754 半精度の LE 連続列（ヘッダ無し、次元数 = バイト長 / 2）。
+ *       正規化済みベクトルなら類似度の誤差は 1e-3 程度で、再計算できるキャッシュの保存に使う。</li>
+ * </ul>
+ *
+ * <p>Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class QuantizedVectors {
+
+    /** int8 形式のヘッダ（スケール）のバイト数。 */
+    static final int INT8_HEADER_BYTES = 4;
+
+    private QuantizedVectors() {
+    }
+
+    // ===== int8 =====
+
+    /** int8 形式にする（対称量子化）。null は空配列。 */
+    public static byte[] encodeInt8(float[] v) {
+        if (v == null) return new byte[0];
+        float maxAbs = 0f;
+        for (float x : v) maxAbs = Math.max(maxAbs, Math.abs(x));
+        float scale = maxAbs > 0f ? maxAbs / 127f : 0f;
+        float inv = scale > 0f ? 1f / scale : 0f;
+        byte[] out = new byte[INT8_HEADER_BYTES + v.length];
+        ByteBuffer.wrap(out, 0, INT8_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN).putFloat(scale);
+        for (int k = 0; k < v.length; k++) {
+            int q = Math.round(v[k] * inv);
+            out[INT8_HEADER_BYTES + k] = (byte) Math.max(-127, Math.min(127, q));
+        }
+        return out;
+    }
+
+    /** int8 形式の次元数（形式として不正なら -1）。 */
+    public static int int8Dimension(byte[] q) {
+        return q == null || q.length < INT8_HEADER_BYTES ? -1 : q.length - INT8_HEADER_BYTES;
+    }
+
+    static float int8Scale(byte[] q) {
+        return ByteBuffer.wrap(q, 0, INT8_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+    }
+
+    /** int8 形式を float に戻す（近似値）。 */
+    public static float[] decodeInt8(byte[] q) {
+        int dim = int8Dimension(q);
+        if (dim < 0) return null;
+        float scale = int8Scale(q);
+        float[] v = new float[dim];
+        for (int k = 0; k < dim; k++) v[k] = q[INT8_HEADER_BYTES + k] * scale;
+        return v;
+    }
+
+    /** int8 形式同士の近似内積（整数内積 × 両スケール）。次元不一致・不正形式は 0。 */
+    public static float dotInt8(byte[] a, byte[] b) {
+        int dim = int8Dimension(a);
+        if (dim < 0 || dim != int8Dimension(b)) return 0f;
+        return rawDotInt8(a, b, dim) * int8Scale(a) * int8Scale(b);
+    }
+
+    /** 量子化値の整数内積。4 本の int 累積変数で展開する（1 次元あたり最大 127² なので 13 万次元までは溢れない）。 */
+    static int rawDotInt8(byte[] a, byte[] b, int dim) {
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int k = INT8_HEADER_BYTES;
+        int end = INT8_HEADER_BYTES + (dim & ~3);
+        for (; k < end; k += 4) {
+            s0 += a[k] * b[k];
+            s1 += a[k + 1] * b[k + 1];
+            s2 += a[k + 2] * b[k + 2];
+            s3 += a[k + 3] * b[k + 3];
+        }
+        for (; k < INT8_HEADER_BYTES + dim; k++) s0 += a[k] * b[k];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    // ===== float16 =====
+
+    /** float16 形式にする（最近接偶数丸め）。null は空配列。 */
+    public static byte[] encodeFloat16(float[] v) {
+        if (v == null) return new byte[0];
+        byte[] out = new byte[v.length * 2];
+        for (int k = 0; k < v.length; k++) {
+            short h = toHalf(v[k]);
+            out[2 * k] = (byte) h;
+            out[2 * k + 1] = (byte) (h >> 8);
+        }
+        return out;
+    }
+
+    /** {@link #encodeFloat16} の逆変換。null・奇数長は null。 */
+    public static float[] decodeFloat16(byte[] bytes) {
+        if (bytes == null || bytes.length % 2 != 0) return null;
+        float[] v = new float[bytes.length / 2];
+        for (int k = 0; k < v.length; k++) {
+            v[k] = fromHalf((short) ((bytes[2 * k] & 0xff) | (bytes[2 * k + 1] << 8)));
+        }
+        return v;
+    }
+
+    static short toHalf(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int val = bits & 0x7fffffff;
+        if (val >= 0x7f800000) {
+            // 無限大・NaN
+            return (short) (sign | 0x7c00 | (val > 0x7f800000 ? 0x200 : 0));
+        }
+        if (val >= 0x477ff000) return (short) (sign | 0x7c00); // 65520 以上は無限大へ丸まる
+        if (val < 0x38800000) {
+            // 半精度の非正規化数（2^-14 未満）
+            if (val < 0x33000000) return (short) sign;
+            int exp = val >>> 23;
+            int mant = (val & 0x7fffff) | 0x800000;
+            int shift = 126 - exp;
+            int h = mant >> shift;
+            int rem = mant & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (rem > halfway || (rem == halfway && (h & 1) != 0)) h++;
+            return (short) (sign | h);
+        }
+        int h = (val - 0x38000000) >> 13; // 指数の偏りを 127 → 15 に付け替え
+        int rem = val & 0x1fff;
+        if (rem > 0x1000 || (rem == 0x1000 && (h & 1) != 0)) h++;
+        return (short) (sign | h);
+    }
+
+    static float fromHalf(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exp = (bits >>> 10) & 0x1f;
+        int mant = bits & 0x3ff;
+        if (exp == 0) {
+            float v = mant / 16777216f; // mant × 2^-24
+            return sign != 0 ? -v : v;
+        }
+        if (exp == 31) return Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+        return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mant << 13));
+    }
+}
@@ -0,0 +1,173 @@
+package com.micklab.llamachat;
+
+/**
+ * 推論ブロック（{@code <think>…</think>} / {@code <analysis>…</analysis>} /
+ * {@code <|thought|>…<|endthought|>}）をストリーミング応答から取り除くインクリメンタルフィルタ。
+ *
+ * <p>{@link #feed} には新着の差分だけを渡し、戻り値として<strong>新たに可視になった差分</strong>を受け取る。
+ * チャンク境界をまたぐタグ（{@code "<thi" + "nk>"}）や未閉じブロックは内部状態で追跡するため、
+ * 累積テキスト全体に正規表現をかけ直す必要が無い（1 応答あたり O(n)）。</p>
+ *
+ * <ul>
+ *   <li>閉じたブロックは除去し、閉じタグ直後の空行（{@code \n\n}）は 1 改行に詰める。</li>
+ *   <li>未閉じのブロックは以降すべて非表示（{@link #isInsideReasoning()} が true）。</li>
+ *   <li>末尾が開始タグの途中（{@code "<th"}）のときは確定するまで保留し、{@link #finish()} で吐き出す。</li>
+ * </ul>
+ *
+ * <p>スレッドセーフではない（1 応答につき 1 インスタンスを、受信スレッドから使う）。
+ * Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class ReasoningStreamFilter {
+
+    private static final String[] OPEN_TAGS = {"<think>", "<analysis>", "<|thought|>"};
+    private static final String[] CLOSE_TAGS = {"</think>", "</analysis>", "<|endthought|>"};
+
+    private final StringBuilder visible = new StringBuilder();
+    // 未確定の入力（開始/終了タグの途中、閉じタグ直後の改行）
+    private String pending = "";
+    // 現在開いているブロックの閉じタグ（ブロック外なら null）
+    private String closeTag = null;
+    // 直前に閉じタグを処理した（続く空行を 1 改行に詰める）
+    private boolean justClosed = false;
+
+    /** 差分を取り込み、新たに可視になった差分を返す（無ければ空文字）。 */
+    public String feed(String delta) {
+        if (delta == null || delta.isEmpty()) return "";
+        int before = visible.length();
+        String buf = pending.isEmpty() ? delta : pending + delta;
+        pending = "";
+        process(buf);
+        return visible.substring(before);
+    }
+
+    /** ストリーム終端。保留中のタグ途中の文字列を可視として確定し、その差分を返す。 */
+    public String finish() {
+        int before = visible.length();
+        if (closeTag == null) {
+            visible.append(pending);
+        }
+        pending = "";
+        justClosed = false;
+        return visible.substring(before);
+    }
+
+    /** これまでの可視テキスト全体。 */
+    public String visibleText() {
+        return visible.toString();
+    }
+
+    /** 推論ブロックが開いたまま（未閉じ）か。 */
+    public boolean isInsideReasoning() {
+        return closeTag != null;
+    }
+
+    private void process(String buf) {
+        int pos = 0;
+        int len = buf.length();
+        while (pos < len) {
+            if (closeTag != null) {
+                int idx = buf.indexOf(closeTag, pos);
+                if (idx < 0) {
+                    // 閉じタグがチャンク境界をまたぐ可能性がある分だけ保留
+                    int keep = Math.min(closeTag.length() - 1, len - pos);
+                    pending = buf.substring(len - keep);
+                    return;
+                }
+                pos = idx + closeTag.length();
+                closeTag = null;
+                justClosed = true;
+                continue;
+            }
+            if (justClosed) {
+                int nl = collapsibleNewlines(buf, pos);
+                if (nl < 0) {
+                    // 改行の途中で終わった → 次の差分を待つ
+                    pending = buf.substring(pos);
+                    return;
+                }
+                justClosed = false;
+                if (nl > 0) {
+                    visible.append('\n');
+                    pos += nl;
+                    continue;
+                }
+            }
+            int open = -1;
+            int openIdx = -1;
+            for (int t = 0; t < OPEN_TAGS.length; t++) {
+                int idx = buf.indexOf(OPEN_TAGS[t], pos);
+                if (idx >= 0 && (openIdx < 0 || idx < openIdx)) {
+                    openIdx = idx;
+                    open = t;
+                }
+            }
+            if (openIdx >= 0) {
+                visible.append(buf, pos, openIdx);
+                pos = openIdx + OPEN_TAGS[open].length();
+                closeTag = CLOSE_TAGS[open];
+                continue;
+            }
+            int partial = trailingOpenPrefixLength(buf, pos);
+            visible.append(buf, pos, len - partial);
+            pending = buf.substring(len - partial);
+            return;
+        }
+    }
+
+    /**
+     * pos からの {@code \r?\n\r?\n} の長さ。一致しなければ 0、入力が途中で尽きて判定できなければ -1。
+     */
+    private static int collapsibleNewlines(String buf, int pos) {
+        int i = pos;
+        for (int n = 0; n < 2; n++) {
+            if (i < buf.length() && buf.charAt(i) == '\r') i++;
+            if (i >= buf.length()) return -1;
+            if (buf.charAt(i) != '\n') return 0;
+            i++;
+        }
+        return i - pos;
+    }
+
+    /** buf[from..] の末尾が開始タグの先頭部分（完全一致は除く）になっている最大長。 */
+    private static int trailingOpenPrefixLength(String buf, int from) {
+        int avail = buf.length() - from;
+        int max = 0;
+        for (String tag : OPEN_TAGS) {
+            int limit = Math.min(tag.length() - 1, avail);
+            for (int l = limit; l > max; l--) {
+                if (buf.regionMatches(buf.length() - l, tag, 0, l)) {
+                    max = l;
+                    break;
+                }
+            }
+        }
+        return max;
+    }
+
+    // ===== 一括処理（非ストリーミング応答・最終テキスト用） =====
+
+    /** 完成したテキストから推論ブロックを除いた可視テキストを返す。 */
+    public static String strip(String text) {
+        if (text == null || text.isEmpty()) return "";
+        ReasoningStreamFilter f = new ReasoningStreamFilter();
+        f.feed(text);
+        f.finish();
+        return f.visibleText();
+    }
+
+    /**
+     * 可視テキストが空になったときの復旧。まず通常のフィルタ結果を使い、それでも空なら
+     * 推論タグだけ外して中身を残す。モデルが推論しか出さなかった／タグを閉じ忘れた場合に
+     * 「(No response)」より中身を見せ、無回答に見える事象を減らす。
+     */
+    public static String recoverVisibleText(String raw) {
+        if (raw == null) return "";
+        String filtered = strip(raw);
+        if (!filtered.trim().isEmpty()) return filtered;
+        String out = raw;
+        for (int t = 0; t < OPEN_TAGS.length; t++) {
+            out = out.replace(OPEN_TAGS[t], "").replace(CLOSE_TAGS[t], "");
+        }
+        return out.trim();
+    }
+}
@@ -0,0 +1,133 @@
+package com.micklab.llamachat;
+
+import java.text.Normalizer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 組み立て済みの SEARCH_RESULTS ブロックを（検索元, 正規化クエリ）で保持する TTL 付き LRU。
+ *
+ * <p>同じ質問の言い直しや再送信で Wikipedia / Brave への往復（ブースト時はページ本文の取得も）を繰り返さない。
+ * 件数と合計文字数の両方に上限を設け、超えたら古いものから捨てる。期限切れの項目は参照時に捨てる。
+ * 結果なし（null）は一時的な失敗の可能性があるため保存しない。</p>
+ *
+ * <p>スレッドセーフ。Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class SearchResultCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 64;
+    static final long DEFAULT_MAX_CHARS = 512 * 1024;
+    static final long DEFAULT_TTL_MS = 15 * 60 * 1000L;
+
+    private static final SearchResultCache SHARED = new SearchResultCache(
+            DEFAULT_MAX_ENTRIES, DEFAULT_MAX_CHARS, DEFAULT_TTL_MS, System::currentTimeMillis);
+
+    private static final class Entry {
+        final String value;
+        final long expiresAt;
+
+        Entry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxChars;
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalChars = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long expirations = 0;
+    private long evictions = 0;
+
+    SearchResultCache(int maxEntries, long maxChars, long ttlMs, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+    }
+
+    /** プロセス共通のインスタンス（画面とフロートで共有する）。 */
+    public static SearchResultCache shared() {
+        return SHARED;
+    }
+
+    /** 保存済みの結果（無い・期限切れなら null）。 */
+    public synchronized String get(String namespace, String query) {
+        String key = key(namespace, query);
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        if (clock.getAsLong() >= e.expiresAt) {
+            remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.value;
+    }
+
+    /** 結果を保存する。null・空文字、および単独で文字数上限を超えるものは保存しない。 */
+    public synchronized void put(String namespace, String query, String value) {
+        if (value == null || value.isEmpty() || value.length() > maxChars) return;
+        String key = key(namespace, query);
+        remove(key);
+        entries.put(key, new Entry(value, clock.getAsLong() + ttlMs));
+        totalChars += value.length();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalChars > maxChars) && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            totalChars -= eldest.getValue().value.length();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalChars = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    public synchronized long missCount() {
+        return misses;
+    }
+
+    /** デバッグ表示用の 1 行要約。 */
+    public synchronized String statsLine() {
+        return String.format(Locale.ROOT, "search cache: %d hit / %d miss, %d entries (%.1f KB), %d expired, %d evicted",
+                hits, misses, entries.size(), totalChars * 2 / 1024.0, expirations, evictions);
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) totalChars -= old.value.length();
+    }
+
+    private static String key(String namespace, String query) {
+        return (namespace == null ? "" : namespace) + '\u0000' + normalizeQuery(query);
+    }
+
+    /** 全角半角（NFKC）・大文字小文字・空白の違いを吸収したクエリ。 */
+    static String normalizeQuery(String query) {
+        if (query == null) return "";
+        String s = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        return s.trim().replaceAll("\\s+", " ");
+    }
+}
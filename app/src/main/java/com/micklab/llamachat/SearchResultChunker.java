@@ -0,0 +1,336 @@
+package com.micklab.llamachat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SEARCH_RESULTS ブロックを、再ランキング用の文単位・トークン上限付きの窓（チャンク）に分割する。
+ *
+ * <ul>
+ *   <li>まず記事・検索結果単位（{@code [Wikipedia/xx]} / {@code [n]} 見出し）に分け、見出し行と URL 行を出典として取り出す。</li>
+ *   <li>本文を文に分け、{@link TokenCounter#estimate} で maxTokens を超えない範囲で文を詰めて窓にする。
+ *       隣の窓とは末尾 overlapTokens ぶんの文を重ねる。</li>
+ *   <li>文字バイグラムの Jaccard 係数がしきい値以上の窓は、先に出た窓の重複として捨てる。</li>
+ *   <li>窓が maxChunks を超える場合は、各記事の先頭から順に 1 つずつ取る（記事の偏りを避ける）。</li>
+ * </ul>
+ *
+ * <p>選ばれた窓は {@link #render} で記事ごとにまとめ直し、重なる文は 1 回だけ出力する。
+ * Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class SearchResultChunker {
+
+    static final int DEFAULT_MAX_TOKENS = 160;
+    static final int DEFAULT_OVERLAP_TOKENS = 32;
+    static final int DEFAULT_MAX_CHUNKS = 32;
+    /** これ以上似ている窓は重複とみなす。 */
+    static final float DUPLICATE_JACCARD = 0.85f;
+    private static final String RESULTS_HEADER = "SEARCH_RESULTS:";
+
+    /** 記事・検索結果 1 件（出典の見出しと、文に分けた本文）。 */
+    public static final class Document {
+        final String header;
+        final List<String> sentences;
+
+        Document(String header, List<String> sentences) {
+            this.header = header;
+            this.sentences = sentences;
+        }
+    }
+
+    /** 文の範囲 [start, end) で表した窓。 */
+    public static final class Chunk {
+        final Document document;
+        final int documentIndex;
+        final int start;
+        final int end;
+        private final String text;
+
+        Chunk(Document document, int documentIndex, int start, int end) {
+            this.document = document;
+            this.documentIndex = documentIndex;
+            this.start = start;
+            this.end = end;
+            this.text = (document.header.isEmpty() ? "" : document.header + "\n") + joinSentences(document, start, end);
+        }
+
+        /** 出典見出し付きの窓の本文（埋め込み・トークン計測に使う）。 */
+        public String text() {
+            return text;
+        }
+    }
+
+    private final int maxTokens;
+    private final int overlapTokens;
+    private final int maxChunks;
+
+    public SearchResultChunker(int maxTokens, int overlapTokens, int maxChunks) {
+        this.maxTokens = Math.max(1, maxTokens);
+        this.overlapTokens = Math.max(0, Math.min(overlapTokens, maxTokens / 2));
+        this.maxChunks = Math.max(1, maxChunks);
+    }
+
+    public SearchResultChunker() {
+        this(DEFAULT_MAX_TOKENS, DEFAULT_OVERLAP_TOKENS, DEFAULT_MAX_CHUNKS);
+    }
+
+    /** 検索結果を窓に分割する（重複除去・件数上限の適用後、記事順・文順）。 */
+    public List<Chunk> chunk(String searchResults) {
+        List<Document> documents = splitDocuments(searchResults, maxTokens);
+        List<List<Chunk>> perDocument = new ArrayList<>(documents.size());
+        List<Set<Long>> keptShingles = new ArrayList<>();
+        for (int d = 0; d < documents.size(); d++) {
+            List<Chunk> windows = new ArrayList<>();
+            for (Chunk c : windows(documents.get(d), d)) {
+                Set<Long> shingles = shingles(joinSentences(c.document, c.start, c.end));
+                if (isDuplicate(shingles, keptShingles)) continue;
+                keptShingles.add(shingles);
+                windows.add(c);
+            }
+            perDocument.add(windows);
+        }
+
+        // 記事ごとに先頭の窓から順に取る
+        List<Chunk> selected = new ArrayList<>();
+        for (int round = 0; selected.size() < maxChunks; round++) {
+            boolean any = false;
+            for (List<Chunk> windows : perDocument) {
+                if (round < windows.size() && selected.size() < maxChunks) {
+                    selected.add(windows.get(round));
+                    any = true;
+                }
+            }
+            if (!any) break;
+        }
+        Collections.sort(selected, (a, b) -> a.documentIndex != b.documentIndex
+                ? Integer.compare(a.documentIndex, b.documentIndex) : Integer.compare(a.start, b.start));
+        return selected;
+    }
+
+    /**
+     * 選んだ窓を SEARCH_RESULTS ブロックに組み立て直す。記事は元の順、同じ記事の窓は 1 つの見出しの下にまとめ、
+     * 重なる・隣接する窓は連結し、離れた窓の間は「…」でつなぐ。
+     */
+    public static String render(List<Chunk> chunks) {
+        List<Chunk> sorted = new ArrayList<>(chunks);
+        Collections.sort(sorted, (a, b) -> a.documentIndex != b.documentIndex
+                ? Integer.compare(a.documentIndex, b.documentIndex) : Integer.compare(a.start, b.start));
+        StringBuilder sb = new StringBuilder(RESULTS_HEADER).append('\n');
+        int i = 0;
+        boolean firstDocument = true;
+        while (i < sorted.size()) {
+            Document doc = sorted.get(i).document;
+            if (!firstDocument) sb.append("\n\n");
+            firstDocument = false;
+            if (!doc.header.isEmpty()) sb.append(doc.header).append('\n');
+            int start = sorted.get(i).start;
+            int end = sorted.get(i).end;
+            boolean firstRange = true;
+            i++;
+            while (true) {
+                Chunk next = i < sorted.size() && sorted.get(i).document == doc ? sorted.get(i) : null;
+                if (next != null && next.start <= end) {
+                    end = Math.max(end, next.end);
+                    i++;
+                    continue;
+                }
+                if (!firstRange) sb.append(" … ");
+                sb.append(joinSentences(doc, start, end));
+                firstRange = false;
+                if (next == null) break;
+                start = next.start;
+                end = next.end;
+                i++;
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    // ===== 分割 =====
+
+    private List<Chunk> windows(Document doc, int documentIndex) {
+        List<Chunk> out = new ArrayList<>();
+        int n = doc.sentences.size();
+        if (n == 0) {
+            if (!doc.header.isEmpty()) out.add(new Chunk(doc, documentIndex, 0, 0));
+            return out;
+        }
+        int[] tokens = new int[n];
+        for (int i = 0; i < n; i++) tokens[i] = Math.max(1, TokenCounter.estimate(doc.sentences.get(i)));
+        int start = 0;
+        while (start < n) {
+            int end = start;
+            int used = 0;
+            while (end < n && (end == start || used + tokens[end] <= maxTokens)) {
+                used += tokens[end];
+                end++;
+            }
+            out.add(new Chunk(doc, documentIndex, start, end));
+            if (end >= n) break;
+            // 末尾 overlapTokens ぶんの文を次の窓の先頭に重ねる（必ず 1 文以上は進める）
+            int next = end;
+            int overlap = 0;
+            while (next - 1 > start && overlap + tokens[next - 1] <= overlapTokens) {
+                next--;
+                overlap += tokens[next];
+            }
+            start = next;
+        }
+        return out;
+    }
+
+    /** 検索結果を記事・結果単位に分け、見出し（1 行目と URL 行）と本文の文リストにする。 */
+    static List<Document> splitDocuments(String searchResults, int maxSentenceTokens) {
+        List<Document> out = new ArrayList<>();
+        if (searchResults == null) return out;
+        String body = searchResults.trim();
+        if (body.startsWith(RESULTS_HEADER)) body = body.substring(RESULTS_HEADER.length()).trim();
+        if (body.isEmpty()) return out;
+
+        String[] parts;
+        boolean headed;
+        if (body.contains("[Wikipedia/")) {
+            parts = body.split("(?=\\[Wikipedia/)");
+            headed = true;
+        } else if (body.matches("(?s)\\[\\d+\\].*")) {
+            // Brave / 汎用形式: 行頭の [n] で区切る
+            parts = body.split("\n+(?=\\[\\d+\\])");
+            headed = true;
+        } else {
+            parts = body.split("\n\n+");
+            headed = false;
+        }
+        for (String part : parts) {
+            String t = part.trim();
+            if (t.isEmpty()) continue;
+            StringBuilder header = new StringBuilder();
+            StringBuilder text = new StringBuilder();
+            String[] lines = t.split("\n");
+            for (int i = 0; i < lines.length; i++) {
+                String line = lines[i].trim();
+                if (line.isEmpty()) continue;
+                boolean isHeader = (headed && i == 0) || line.matches("https?://\\S+");
+                StringBuilder target = isHeader ? header : text;
+                if (target.length() > 0) target.append('\n');
+                target.append(line);
+            }
+            out.add(new Document(header.toString(),
+                    splitLongSentences(splitSentences(text.toString()), maxSentenceTokens)));
+        }
+        return out;
+    }
+
+    /** 文末（。．！？!? と、空白が続く . ）と改行で文に分ける。各文は末尾の区切り空白を含む。 */
+    static List<String> splitSentences(String text) {
+        List<String> out = new ArrayList<>();
+        int len = text.length();
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            char c = text.charAt(i);
+            boolean boundary;
+            if (c == '\n') {
+                boundary = true;
+            } else if (c == '。' || c == '．' || c == '！' || c == '？') {
+                boundary = true;
+            } else if (c == '.' || c == '!' || c == '?') {
+                boundary = i + 1 >= len || Character.isWhitespace(text.charAt(i + 1));
+            } else {
+                boundary = false;
+            }
+            if (!boundary) continue;
+            int end = i + 1;
+            // 閉じ括弧・引用符と後続の空白は同じ文に含める
+            while (end < len && "」』）)\"'”’".indexOf(text.charAt(end)) >= 0) end++;
+            while (end < len && text.charAt(end) == ' ') end++;
+            addSentence(out, text.substring(start, end));
+            start = end;
+            i = end - 1;
+        }
+        if (start < len) addSentence(out, text.substring(start));
+        return out;
+    }
+
+    /** 1 文で maxTokens を超えるもの（句読点の無い長いページ本文など）を、空白位置を優先して分ける。 */
+    static List<String> splitLongSentences(List<String> sentences, int maxTokens) {
+        List<String> out = new ArrayList<>(sentences.size());
+        for (String s : sentences) {
+            int tokens = TokenCounter.estimate(s);
+            if (tokens <= maxTokens) {
+                out.add(s);
+                continue;
+            }
+            int pieceChars = Math.max(1, (int) ((long) s.length() * maxTokens / tokens));
+            int start = 0;
+            while (start < s.length()) {
+                int end = Math.min(s.length(), start + pieceChars);
+                if (end < s.length()) {
+                    int space = s.lastIndexOf(' ', end);
+                    if (space > start + pieceChars * 4 / 5) end = space + 1;
+                    if (Character.isLowSurrogate(s.charAt(end)) && end - 1 > start) end--;
+                }
+                addSentence(out, s.substring(start, end));
+                start = end;
+            }
+        }
+        return out;
+    }
+
+    private static void addSentence(List<String> out, String s) {
+        String t = s.replace('\n', ' ');
+        if (t.trim().isEmpty()) return;
+        if (!t.endsWith(" ") && !endsWithCjk(t)) t = t + " ";
+        out.add(t);
+    }
+
+    /** 末尾が全角文字（CJK・全角記号）なら次の文と空白なしでつなぐ。 */
+    private static boolean endsWithCjk(String s) {
+        String t = s.trim();
+        if (t.isEmpty()) return false;
+        int cp = t.codePointBefore(t.length());
+        return cp >= 0x2E80 || MemorySearchIndex.isCjk(cp);
+    }
+
+    private static String joinSentences(Document doc, int start, int end) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = start; i < end; i++) sb.append(doc.sentences.get(i));
+        return sb.toString().trim();
+    }
+
+    // ===== 重複判定 =====
+
+    private static boolean isDuplicate(Set<Long> shingles, List<Set<Long>> kept) {
+        if (shingles.isEmpty()) return false;
+        for (Set<Long> other : kept) {
+            if (jaccard(shingles, other) >= DUPLICATE_JACCARD) return true;
+        }
+        return false;
+    }
+
+    /** 空白・記号を除き小文字化した文字バイグラムの集合。 */
+    static Set<Long> shingles(String text) {
+        Set<Long> out = new HashSet<>();
+        int prev = -1;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (!Character.isLetterOrDigit(cp)) continue;
+            cp = Character.toLowerCase(cp);
+            if (prev >= 0) out.add(((long) prev << 32) | cp);
+            prev = cp;
+        }
+        return out;
+    }
+
+    static float jaccard(Set<Long> a, Set<Long> b) {
+        if (a.isEmpty() && b.isEmpty()) return 1f;
+        Set<Long> small = a.size() <= b.size() ? a : b;
+        Set<Long> large = small == a ? b : a;
+        int inter = 0;
+        for (Long x : small) {
+            if (large.contains(x)) inter++;
+        }
+        return inter / (float) (a.size() + b.size() - inter);
+    }
+}
@@ -0,0 +1,295 @@
+package com.micklab.llamachat;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 1 行 1 レコードの追記専用ログ。ディレクトリ内の番号付きセグメントファイルに書き、一定件数ごとに次のセグメントへ切り替える。
+ *
+ * <ul>
+ *   <li>{@link #append} / {@link #appendAll} は現在のセグメント末尾への追記だけ（既存レコードの書き直しは無い）。</li>
+ *   <li>閉じたセグメントの件数は索引ファイル（{@value #INDEX_FILE}）に記録する。{@link #readTail} は索引から
+ *       必要な新しいセグメントだけを選んで読む。索引が無い・合わないときはセグメントを数え直して作り直す。</li>
+ *   <li>{@link #compact} は直近 n 件を含まない古いセグメントをファイルごと削除する（書き直しはしない）。
+ *       対象の決定と索引の更新だけをロック内で行い、削除はロック外で行う。</li>
+ *   <li>書き込み途中で落ちて改行で終わっていないセグメントは、開いたときに改行を補って次の行と混ざらないようにする
+ *       （途中の行は読み手側で不正行として捨てる）。</li>
+ * </ul>
+ *
+ * <p>スレッドセーフ。Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class SegmentedLog {
+
+    static final String INDEX_FILE = "segments.idx";
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".jsonl";
+
+    /** 閉じたセグメント（番号と件数）。 */
+    private static final class Segment {
+        final long seq;
+        final int count;
+
+        Segment(long seq, int count) {
+            this.seq = seq;
+            this.count = count;
+        }
+    }
+
+    private final File dir;
+    private final int segmentEntries;
+    private final ArrayDeque<Segment> sealed = new ArrayDeque<>();
+    private long activeSeq;
+    private int activeCount;
+    private FileOutputStream activeOut; // 遅延オープン
+
+    /**
+     * @param dir            セグメントの置き場所（無ければ作る）
+     * @param segmentEntries 1 セグメントあたりのレコード数
+     */
+    public SegmentedLog(File dir, int segmentEntries) {
+        this.dir = dir;
+        this.segmentEntries = Math.max(1, segmentEntries);
+        open();
+    }
+
+    /** 1 レコード追記する（改行を含まないこと。含む場合は空白に置き換える）。 */
+    public void append(String line) throws IOException {
+        appendAll(Collections.singletonList(line));
+    }
+
+    /** 複数レコードを順に追記する。セグメントの切り替えを挟まない範囲は 1 回の書き込みにまとめる。 */
+    public synchronized void appendAll(List<String> lines) throws IOException {
+        StringBuilder chunk = new StringBuilder();
+        for (String line : lines) {
+            if (activeCount >= segmentEntries) {
+                writeActive(chunk);
+                roll();
+            }
+            if (line.indexOf('\n') >= 0 || line.indexOf('\r') >= 0) {
+                line = line.replace('\n', ' ').replace('\r', ' ');
+            }
+            chunk.append(line).append('\n');
+            activeCount++;
+        }
+        writeActive(chunk);
+    }
+
+    /** 書き込み中のセグメントを記憶装置へ確定させる（fsync）。 */
+    public synchronized void sync() throws IOException {
+        if (activeOut != null) activeOut.getFD().sync();
+    }
+
+    /** 総レコード数（削除済みセグメントを除く）。 */
+    public synchronized int size() {
+        int n = activeCount;
+        for (Segment s : sealed) n += s.count;
+        return n;
+    }
+
+    /** 新しい方から最大 n 件を古い順に返す。必要なセグメントだけを読む。 */
+    public synchronized List<String> readTail(int n) throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        seqs.add(activeSeq);
+        int covered = activeCount;
+        List<Segment> older = new ArrayList<>(sealed);
+        for (int i = older.size() - 1; i >= 0 && covered < n; i--) {
+            seqs.add(0, older.get(i).seq);
+            covered += older.get(i).count;
+        }
+        List<String> out = new ArrayList<>();
+        for (long seq : seqs) readLines(segmentFile(seq), out);
+        return out.size() > n ? new ArrayList<>(out.subList(out.size() - n, out.size())) : out;
+    }
+
+    /** 直近 keep 件に掛からない古いセグメントを削除する。削除したセグメント数を返す。 */
+    public int compact(int keep) {
+        List<File> doomed = new ArrayList<>();
+        synchronized (this) {
+            int newer = activeCount;
+            List<Segment> older = new ArrayList<>(sealed);
+            int firstKept = older.size();
+            for (int i = older.size() - 1; i >= 0 && newer < keep; i--) {
+                newer += older.get(i).count;
+                firstKept = i;
+            }
+            for (int i = 0; i < firstKept; i++) {
+                sealed.pollFirst();
+                doomed.add(segmentFile(older.get(i).seq));
+            }
+            if (!doomed.isEmpty()) writeIndex();
+        }
+        for (File f : doomed) f.delete();
+        return doomed.size();
+    }
+
+    /** 全レコードを削除する。 */
+    public synchronized void clear() {
+        closeActive();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        sealed.clear();
+        activeSeq = 0;
+        activeCount = 0;
+    }
+
+    /** 書き込み中のセグメントを閉じる（以降の追記で開き直す）。 */
+    public synchronized void close() {
+        closeActive();
+    }
+
+    // ===== internal =====
+
+    private void open() {
+        dir.mkdirs();
+        long[] seqs = listSegmentSeqs();
+        if (!readIndex(seqs)) {
+            // 索引が無い・壊れている・セグメントと合わない → 閉じたセグメントを数え直す
+            sealed.clear();
+            for (int i = 0; i + 1 < seqs.length; i++) sealed.add(new Segment(seqs[i], countLines(segmentFile(seqs[i]))));
+            writeIndex();
+        }
+        if (seqs.length == 0) {
+            activeSeq = 0;
+            activeCount = 0;
+            return;
+        }
+        activeSeq = seqs[seqs.length - 1];
+        File active = segmentFile(activeSeq);
+        terminateLastLine(active);
+        activeCount = countLines(active);
+    }
+
+    private void writeActive(StringBuilder chunk) throws IOException {
+        if (chunk.length() == 0) return;
+        if (activeOut == null) activeOut = new FileOutputStream(segmentFile(activeSeq), true);
+        activeOut.write(chunk.toString().getBytes(StandardCharsets.UTF_8));
+        chunk.setLength(0);
+    }
+
+    private void roll() throws IOException {
+        closeActive();
+        sealed.add(new Segment(activeSeq, activeCount));
+        activeSeq++;
+        activeCount = 0;
+        writeIndex();
+    }
+
+    private void closeActive() {
+        if (activeOut == null) return;
+        try {
+            activeOut.close();
+        } catch (IOException ignored) {
+        }
+        activeOut = null;
+    }
+
+    private File segmentFile(long seq) {
+        return new File(dir, SEGMENT_PREFIX + String.format(Locale.ROOT, "%010d", seq) + SEGMENT_SUFFIX);
+    }
+
+    private long[] listSegmentSeqs() {
+        String[] names = dir.list();
+        if (names == null) return new long[0];
+        long[] seqs = new long[names.length];
+        int n = 0;
+        for (String name : names) {
+            if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) continue;
+            try {
+                seqs[n++] = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        seqs = Arrays.copyOf(seqs, n);
+        Arrays.sort(seqs);
+        return seqs;
+    }
+
+    /** 索引（1 行 1 セグメント「番号 件数」）を読む。実在する閉じたセグメントと一致したときだけ true。 */
+    private boolean readIndex(long[] seqs) {
+        File f = new File(dir, INDEX_FILE);
+        if (!f.isFile()) return seqs.length <= 1;
+        List<Segment> read = new ArrayList<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length != 2) return false;
+                read.add(new Segment(Long.parseLong(parts[0]), Integer.parseInt(parts[1])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+        if (read.size() != Math.max(0, seqs.length - 1)) return false;
+        for (int i = 0; i < read.size(); i++) {
+            if (read.get(i).seq != seqs[i]) return false;
+        }
+        sealed.clear();
+        sealed.addAll(read);
+        return true;
+    }
+
+    private void writeIndex() {
+        File f = new File(dir, INDEX_FILE);
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        StringBuilder sb = new StringBuilder();
+        for (Segment s : sealed) sb.append(s.seq).append(' ').append(s.count).append('\n');
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            tmp.delete();
+            f.delete(); // 古い索引を残すより、次回起動時に数え直させる
+            return;
+        }
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            f.delete();
+        }
+    }
+
+    private static int countLines(File f) {
+        if (!f.isFile()) return 0;
+        int n = 0;
+        byte[] buf = new byte[8192];
+        try (FileInputStream in = new FileInputStream(f)) {
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                for (int i = 0; i < len; i++) {
+                    if (buf[i] == '\n') n++;
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        return n;
+    }
+
+    private static void terminateLastLine(File f) {
+        if (!f.isFile() || f.length() == 0) return;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(raf.length() - 1);
+            if (raf.read() != '\n') raf.write('\n');
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void readLines(File f, List<String> out) throws IOException {
+        if (!f.isFile()) return;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) out.add(line);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.micklab.llamachat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link SemanticExpertClassifier} の代表発話埋め込み行列の保存先。鍵は「埋め込みモデル名＋代表発話セットのハッシュ」。
+ *
+ * <p>メモリ上に保持するため、閾値・マージン変更で分類器を作り直しても行列は引き継がれる。
+ * ディレクトリを与えた場合はファイルにも書き出し、再起動後は読み戻すだけで済む
+ * （初回の意味ルーティングはクエリ 1 件の埋め込みのみになる）。ファイルは新しい順に
+ * {@link #MAX_FILES} 個まで残す。</p>
+ *
+ * <p>スレッドセーフ。Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class SemanticExampleStore {
+
+    /** 保持するファイル数（モデルを切り替えて戻った場合に再利用できるよう複数残す）。 */
+    static final int MAX_FILES = 4;
+    private static final String FILE_PREFIX = "semantic_examples_";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final int MAGIC = 0x53454d31; // "SEM1"
+
+    private final File dir; // null 可（メモリのみ）
+    private final Map<String, float[][]> memory = new HashMap<>();
+
+    public SemanticExampleStore(File dir) {
+        this.dir = dir;
+    }
+
+    /** 保存済みの行列（無ければ null）。 */
+    public synchronized float[][] load(String key) {
+        float[][] rows = memory.get(key);
+        if (rows != null || dir == null) return rows;
+        File f = fileFor(key);
+        if (!f.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC || !key.equals(in.readUTF())) return null;
+            int n = in.readInt();
+            int dim = in.readInt();
+            if (n < 0 || dim < 0 || (long) n * dim > 16L * 1024 * 1024) return null;
+            rows = new float[n][dim];
+            for (float[] row : rows) {
+                for (int k = 0; k < dim; k++) row[k] = in.readFloat();
+            }
+        } catch (IOException e) {
+            return null; // 壊れたファイルは作り直す
+        }
+        memory.put(key, rows);
+        f.setLastModified(System.currentTimeMillis());
+        return rows;
+    }
+
+    /** 行列を保存する（ファイル書き込みの失敗はメモリ上の保存に影響しない）。 */
+    public synchronized void save(String key, float[][] rows) {
+        memory.put(key, rows);
+        if (dir == null) return;
+        File f = fileFor(key);
+        File tmp = new File(dir, f.getName() + ".tmp");
+        int dim = rows.length == 0 ? 0 : rows[0].length;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(key);
+            out.writeInt(rows.length);
+            out.writeInt(dim);
+            for (float[] row : rows) {
+                for (int k = 0; k < dim; k++) out.writeFloat(row[k]);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            return;
+        }
+        pruneOldFiles();
+    }
+
+    private File fileFor(String key) {
+        return new File(dir, FILE_PREFIX + VectorCodec.textHash(key) + FILE_SUFFIX);
+    }
+
+    private void pruneOldFiles() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null || files.length <= MAX_FILES) return;
+        Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (int i = MAX_FILES; i < files.length; i++) files[i].delete();
+    }
+}
@@ -1,6 +1,8 @@
 package com.micklab.llamachat;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
@@ -26,6 +28,35 @@ public final class SemanticExpertClassifier {
      */
     public interface Embedder {
         float[] embed(String text) throws Exception;
+
+        /** 複数テキストをまとめて埋め込む（入力順）。既定は 1 件ずつ {@link #embed} を呼ぶ。 */
+        default float[][] embedAll(List<String> texts) throws Exception {
+            float[][] out = new float[texts.size()][];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = embed(texts.get(i));
+            }
+            return out;
+        }
+    }
+
+    /** {@link EmbeddingClient} を、代表発話を 1 回のバッチ要求で埋め込む {@link Embedder} として使う。 */
+    public static Embedder embedderFor(EmbeddingClient client) {
+        return new Embedder() {
+            @Override
+            public float[] embed(String text) throws Exception {
+                return client.embed(text);
+            }
+
+            @Override
+            public float[][] embedAll(List<String> texts) throws Exception {
+                EmbeddingBatch batch = client.embedBatchFlat(texts);
+                float[][] out = new float[batch.size()][];
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = batch.get(i);
+                }
+                return out;
+            }
+        };
     }
 
     /** 分類結果。{@link ExpertType#NONE} は「エキスパート不要＝通常チャット」を表す。 */
@@ -42,9 +73,15 @@ public final class SemanticExpertClassifier {
     }
 
     private static final Map<ExpertType, String[]> EXAMPLES = buildExamples();
+    // 代表発話を EXAMPLES の順に平坦化したもの（バッチ埋め込みの入力・保存行列の行順）。
+    private static final List<String> ALL_EXAMPLES = flattenExamples();
+    // 代表発話セットのハッシュ。文言を変えたら保存済みの行列は使われなくなる。
+    static final String EXAMPLE_SET_HASH = VectorCodec.textHash(String.join("\n", ALL_EXAMPLES));
 
     private final float threshold;
     private final float margin;
+    // 代表発話の埋め込み行列の保存先（閾値を変えて作り直しても共有できるよう外から渡す）。
+    private final SemanticExampleStore exampleStore;
 
     // 代表発話の埋め込みキャッシュ（モデルが変わったら破棄）。
     private final Map<ExpertType, float[][]> cache = new LinkedHashMap<>();
@@ -62,8 +99,13 @@ public final class SemanticExpertClassifier {
     }
 
     public SemanticExpertClassifier(float threshold, float margin) {
+        this(threshold, margin, new SemanticExampleStore(null));
+    }
+
+    public SemanticExpertClassifier(float threshold, float margin, SemanticExampleStore exampleStore) {
         this.threshold = threshold;
         this.margin = margin;
+        this.exampleStore = exampleStore;
     }
 
     /**
@@ -129,18 +171,35 @@ public final class SemanticExpertClassifier {
         }
     }
 
+    /**
+     * 代表発話の埋め込みを用意する。保存済み（同じモデル・同じ代表発話セット）ならそれを使い、
+     * 無ければ全件を 1 回のバッチで埋め込んで正規化し、保存する。
+     */
     private void ensureExampleCache(Embedder embedder, String cacheKey) throws Exception {
-        String key = cacheKey == null ? "" : cacheKey;
+        String key = (cacheKey == null ? "" : cacheKey) + "\n" + EXAMPLE_SET_HASH;
         if (key.equals(cachedKey) && !cache.isEmpty()) {
             return;
         }
+        float[][] rows = exampleStore.load(key);
+        if (rows == null || rows.length != ALL_EXAMPLES.size()) {
+            float[][] raw = embedder.embedAll(ALL_EXAMPLES);
+            if (raw.length != ALL_EXAMPLES.size()) {
+                throw new IllegalStateException("example embedding count " + raw.length
+                        + " != " + ALL_EXAMPLES.size());
+            }
+            rows = new float[raw.length][];
+            for (int i = 0; i < raw.length; i++) {
+                rows[i] = EmbeddingClient.l2Normalize(raw[i]);
+            }
+            exampleStore.save(key, rows);
+        }
         cache.clear();
+        int row = 0;
         for (Map.Entry<ExpertType, String[]> e : EXAMPLES.entrySet()) {
-            String[] examples = e.getValue();
-            float[][] vecs = new float[examples.length][];
-            for (int i = 0; i < examples.length; i++) {
-                vecs[i] = EmbeddingClient.l2Normalize(embedder.embed(examples[i]));
-            }
+            int n = e.getValue().length;
+            float[][] vecs = new float[n][];
+            System.arraycopy(rows, row, vecs, 0, n);
+            row += n;
             cache.put(e.getKey(), vecs);
         }
         cachedKey = key;
@@ -155,7 +214,7 @@ public final class SemanticExpertClassifier {
     private static float maxCosine(float[] q, float[][] examples) {
         float best = -1f;
         for (float[] ex : examples) {
-            float s = EmbeddingClient.cosineSimilarity(q, ex);
+            float s = VectorScoring.dot(q, ex); // 両方とも正規化済み
             if (s > best) {
                 best = s;
             }
@@ -167,6 +226,14 @@ public final class SemanticExpertClassifier {
         return String.format(Locale.ROOT, "%.3f", v);
     }
 
+    private static List<String> flattenExamples() {
+        List<String> all = new ArrayList<>();
+        for (String[] examples : EXAMPLES.values()) {
+            all.addAll(Arrays.asList(examples));
+        }
+        return Collections.unmodifiableList(all);
+    }
+
     private static Map<ExpertType, String[]> buildExamples() {
         Map<ExpertType, String[]> m = new LinkedHashMap<>();
         m.put(ExpertType.WEB, new String[]{
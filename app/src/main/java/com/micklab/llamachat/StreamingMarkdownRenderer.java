@@ -0,0 +1,88 @@
+package com.micklab.llamachat;
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.TypefaceSpan;
+import android.widget.TextView;
+
+/**
+ * ストリーミング中の吹き出しをインクリメンタルに描画する {@link MarkdownRenderer} のラッパー。
+ *
+ * <p>閉じたブロック（{@link MarkdownBlockScanner#stableEnd()} より前）は一度だけ Markwon で解析して
+ * 装飾済みテキストを保持し、毎回解析し直すのは末尾の開いているブロックだけにする。
+ * コードフェンスが開いている間は末尾をプレーンテキスト（等幅）で表示し、解析自体を省く。
+ * 応答完了時は呼び出し側が {@link MarkdownRenderer#render} で全文を描画し直すため、
+ * ブロック分割による細かな差（緩いリストの行間など）は最終表示には残らない。</p>
+ *
+ * <p>UI スレッド専用。1 インスタンスで同時に扱う吹き出しは 1 つ。</p>
+ */
+final class StreamingMarkdownRenderer {
+
+    private final MarkdownRenderer renderer;
+    private final MarkdownBlockScanner scanner = new MarkdownBlockScanner();
+    private final StringBuilder body = new StringBuilder();
+    private final SpannableStringBuilder closed = new SpannableStringBuilder();
+    private TextView target;
+    private int renderedUpTo = 0;
+
+    StreamingMarkdownRenderer(MarkdownRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /** 新しい吹き出しの描画を始める（見出しのみ描画）。 */
+    void begin(TextView textView, String title) {
+        target = textView;
+        body.setLength(0);
+        closed.clear();
+        closed.clearSpans();
+        scanner.reset();
+        renderedUpTo = 0;
+        appendBlock(closed, renderer.toSpanned(MarkdownRenderer.titleMarkdown(title)));
+        renderer.setSpanned(target, closed);
+    }
+
+    /** 本文の差分を追記して描画する。 */
+    void append(CharSequence delta) {
+        if (target == null || delta == null || delta.length() == 0) return;
+        body.append(delta);
+        scanner.scan(body);
+        int stable = scanner.stableEnd();
+        if (stable > renderedUpTo) {
+            appendBlock(closed, renderer.toSpanned(body.substring(renderedUpTo, stable)));
+            renderedUpTo = stable;
+        }
+        SpannableStringBuilder out = new SpannableStringBuilder(closed);
+        String tail = body.substring(renderedUpTo);
+        if (scanner.isInOpenFence()) {
+            appendBlock(out, monospace(tail));
+        } else {
+            appendBlock(out, renderer.toSpanned(tail));
+        }
+        renderer.setSpanned(target, out);
+    }
+
+    /** 吹き出しの描画を終える（保持している装飾済みテキストを解放する）。 */
+    void end() {
+        target = null;
+        body.setLength(0);
+        closed.clear();
+        closed.clearSpans();
+        scanner.reset();
+        renderedUpTo = 0;
+    }
+
+    /** ブロック間を空行 1 つで区切って連結する（各ブロック末尾の改行は詰める）。 */
+    private static void appendBlock(SpannableStringBuilder dst, CharSequence block) {
+        int end = block.length();
+        while (end > 0 && block.charAt(end - 1) == '\n') end--;
+        if (end == 0) return;
+        if (dst.length() > 0) dst.append("\n\n");
+        dst.append(block, 0, end);
+    }
+
+    private static Spanned monospace(String text) {
+        SpannableStringBuilder sb = new SpannableStringBuilder(text);
+        sb.setSpan(new TypefaceSpan("monospace"), 0, sb.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        return sb;
+    }
+}
@@ -0,0 +1,206 @@
+package com.micklab.llamachat;
+
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * プロセス共通のバックグラウンド実行基盤。MainActivity と FloatOverlayService のチャット系フロー
+ * （意味ルーティング・記憶保存/呼び出し・Web 検索・定時ブリーフィング）はリクエストごとにスレッドを作らず、ここへ投入する。
+ *
+ * <ul>
+ *   <li>用途別の上限付きプール：{@link Pool#NETWORK}（Ollama/検索 API。バックエンドは 1 台なので少数に制限）、
+ *       {@link Pool#DATABASE}（SQLite への書き込みを直列化）、{@link Pool#CPU}（ベクトル走査・再採点・索引更新などの計算）。
+ *       ネットワーク待ちのタスクの途中にある計算部分は {@link #call} で CPU プールへ回し、結果を待つ。</li>
+ *   <li>待ち行列は優先度順。{@link Priority#INTERACTIVE}（ユーザ操作起点）は
+ *       {@link Priority#BACKGROUND}（定時ブリーフィング等）より先に取り出される。同順位は投入順。</li>
+ *   <li>グループ名＋トークン付きで投入したタスクは {@link #cancelStale} で一括キャンセルできる。
+ *       トークンは呼び出し側のストリーミング/応答トークンをそのまま使い、キャンセル時に進めた値を渡すと
+ *       それより前に投入された待機中タスクは実行されず、実行中のものには割り込みがかかる。</li>
+ * </ul>
+ *
+ * <p>スレッドはアイドル時に回収するため、未使用のプールはスレッドを保持しない。</p>
+ */
+public final class TaskScheduler {
+
+    private static final String TAG = "TaskScheduler";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public enum Pool { NETWORK, DATABASE, CPU }
+
+    /** 宣言順が優先度（先が高い）。 */
+    public enum Priority { INTERACTIVE, BACKGROUND }
+
+    private static final TaskScheduler INSTANCE = new TaskScheduler(
+            3, 1, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+    public static TaskScheduler get() {
+        return INSTANCE;
+    }
+
+    private final ThreadPoolExecutor network;
+    private final ThreadPoolExecutor database;
+    private final ThreadPoolExecutor cpu;
+    private final AtomicLong sequence = new AtomicLong();
+    // 各プールのスレッドが自分のプールを覚える（同じプール内からの call は入れ子にせずその場で実行する）
+    private static final ThreadLocal<Pool> CURRENT_POOL = new ThreadLocal<>();
+    // グループ付きで投入され、まだ完了していないタスク
+    private final Set<Task> grouped = ConcurrentHashMap.newKeySet();
+
+    TaskScheduler(int networkThreads, int databaseThreads, int cpuThreads) {
+        network = newPool(Pool.NETWORK, networkThreads);
+        database = newPool(Pool.DATABASE, databaseThreads);
+        cpu = newPool(Pool.CPU, cpuThreads);
+    }
+
+    /** グループに属さない（個別にキャンセルしない）タスクを投入する。 */
+    public Future<?> submit(Pool pool, Priority priority, Runnable body) {
+        return submit(pool, priority, null, 0, body);
+    }
+
+    /**
+     * タスクを投入する。
+     *
+     * @param group キャンセル単位（呼び出し元ごとの固定名）。null ならグループに属さない
+     * @param token 投入時点の呼び出し元トークン
+     */
+    public Future<?> submit(Pool pool, Priority priority, String group, int token, Runnable body) {
+        Task task = new Task(body, null, priority, sequence.getAndIncrement(), group, token, true);
+        if (group != null) grouped.add(task);
+        executorFor(pool).execute(task);
+        return task;
+    }
+
+    /**
+     * body を pool で実行し、終わるまで待って結果を返す（body の例外はそのまま投げる）。
+     * 呼び出し元がすでに同じプールのスレッドならその場で実行する。待っている間に割り込まれたら body もキャンセルする。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T call(Pool pool, Priority priority, Callable<T> body) throws Exception {
+        if (CURRENT_POOL.get() == pool) return body.call();
+        Task task = new Task(null, (Callable<Object>) body, priority, sequence.getAndIncrement(), null, 0, false);
+        executorFor(pool).execute(task);
+        try {
+            return (T) task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /** group のタスクのうち、トークンが currentToken と異なるもの（古いリクエスト分）をキャンセルする。 */
+    public int cancelStale(String group, int currentToken) {
+        int cancelled = 0;
+        for (Task task : grouped) {
+            if (group.equals(task.group) && task.token != currentToken && task.cancel(true)) {
+                cancelled++;
+            }
+        }
+        if (cancelled > 0) purge();
+        return cancelled;
+    }
+
+    /** group のタスクをすべてキャンセルする（画面・サービスの破棄時）。 */
+    public int cancelGroup(String group) {
+        int cancelled = 0;
+        for (Task task : grouped) {
+            if (group.equals(task.group) && task.cancel(true)) cancelled++;
+        }
+        if (cancelled > 0) purge();
+        return cancelled;
+    }
+
+    private void purge() {
+        network.purge();
+        database.purge();
+        cpu.purge();
+    }
+
+    private ThreadPoolExecutor executorFor(Pool pool) {
+        switch (pool) {
+            case DATABASE:
+                return database;
+            case CPU:
+                return cpu;
+            case NETWORK:
+            default:
+                return network;
+        }
+    }
+
+    private static ThreadPoolExecutor newPool(Pool pool, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        String name = pool.name().toLowerCase(Locale.ROOT);
+        ThreadFactory factory = r -> {
+            Runnable bound = () -> {
+                CURRENT_POOL.set(pool);
+                r.run();
+            };
+            Thread t = new Thread(bound, "llamachat-" + name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        // 待ち行列が無制限のため core = max。アイドル時は core スレッドも回収する。
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private final class Task extends FutureTask<Object> implements Comparable<Task> {
+        final Priority priority;
+        final long seq;
+        final String group;
+        final int token;
+        // submit のタスクは失敗をここでログに残す（call のタスクは呼び出し元へ例外を返す）
+        final boolean logFailure;
+
+        Task(Runnable runnable, Callable<Object> callable, Priority priority, long seq, String group, int token,
+             boolean logFailure) {
+            super(callable != null ? callable : Executors.callable(runnable));
+            this.priority = priority;
+            this.seq = seq;
+            this.group = group;
+            this.token = token;
+            this.logFailure = logFailure;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int c = Integer.compare(priority.ordinal(), other.priority.ordinal());
+            return c != 0 ? c : Long.compare(seq, other.seq);
+        }
+
+        @Override
+        protected void done() {
+            if (group != null) grouped.remove(this);
+            if (isCancelled() || !logFailure) return;
+            try {
+                get();
+            } catch (ExecutionException e) {
+                // 旧来の生スレッドと違い例外で落ちないため、握りつぶさずログに残す
+                Log.e(TAG, "task failed", e.getCause());
+            } catch (InterruptedException | CancellationException ignored) {
+            }
+        }
+    }
+}
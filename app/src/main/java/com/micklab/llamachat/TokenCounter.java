@@ -0,0 +1,236 @@
+package com.micklab.llamachat;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * チャットモデルのトークン数を数えるサービス。
+ *
+ * <ul>
+ *   <li>複数テキストは区切りで連結して {@code /api/tokenize} へ 1 回だけ送り、合計を各テキストの推定値の比で
+ *       配分する（合計は実測と一致）。1 件だけなら実測そのもの。</li>
+ *   <li>結果は（モデル, テキストハッシュ）でプロセス共通の LRU にキャッシュする。</li>
+ *   <li>サーバーが使えないときはローカル推定（{@link #estimate}）に、実測から学習したモデル別の補正係数を掛けて返す。</li>
+ * </ul>
+ *
+ * <p>同期メソッドのため、バックグラウンドスレッドから呼び出すこと。</p>
+ */
+public final class TokenCounter {
+
+    private static final MediaType JSON_MEDIA = MediaType.get("application/json; charset=utf-8");
+    private static final int CACHE_CAPACITY = 256;
+    /** 連結時の区切り（段落区切り）と、そのトークン数の見込み。 */
+    private static final String SEPARATOR = "\n\n";
+    private static final int SEPARATOR_TOKENS = 1;
+    /** 補正係数の更新率（指数移動平均）。 */
+    private static final float CALIBRATION_ALPHA = 0.3f;
+
+    private static final Map<String, Integer> CACHE = new LinkedHashMap<String, Integer>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+    // モデル別の「実測 / ローカル推定」比
+    private static final Map<String, Float> CALIBRATION = new ConcurrentHashMap<>();
+
+    private final OkHttpClient client;
+    private final String baseUrl;
+    private final String model;
+
+    public TokenCounter(OkHttpClient client, String baseUrl, String model) {
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.model = model == null ? "" : model;
+    }
+
+    /** 1 件のトークン数。 */
+    public int count(String text) {
+        List<String> one = new ArrayList<>(1);
+        one.add(text);
+        return countAll(one)[0];
+    }
+
+    /** 各テキストのトークン数（入力順）。未キャッシュ分は 1 回の要求にまとめる。 */
+    public int[] countAll(List<String> texts) {
+        int n = texts.size();
+        int[] out = new int[n];
+        String[] keys = new String[n];
+        List<Integer> misses = new ArrayList<>();
+        synchronized (CACHE) {
+            for (int i = 0; i < n; i++) {
+                keys[i] = model + '\u0000' + VectorCodec.textHash(texts.get(i) == null ? "" : texts.get(i));
+                Integer cached = CACHE.get(keys[i]);
+                if (cached != null) {
+                    out[i] = cached;
+                } else {
+                    misses.add(i);
+                }
+            }
+        }
+        if (misses.isEmpty()) return out;
+
+        int[] estimates = new int[misses.size()];
+        long estimateSum = 0;
+        StringBuilder joined = new StringBuilder();
+        for (int j = 0; j < misses.size(); j++) {
+            String t = texts.get(misses.get(j));
+            estimates[j] = estimate(t);
+            estimateSum += estimates[j];
+            if (j > 0) joined.append(SEPARATOR);
+            if (t != null) joined.append(t);
+        }
+        int total = tokenize(joined.toString());
+        if (total < 0) {
+            // サーバー不可 → 補正済みローカル推定（キャッシュしない）
+            float ratio = calibration();
+            for (int j = 0; j < misses.size(); j++) {
+                out[misses.get(j)] = Math.round(estimates[j] * ratio);
+            }
+            return out;
+        }
+        int separators = (misses.size() - 1) * SEPARATOR_TOKENS;
+        int real = Math.max(0, total - separators);
+        if (estimateSum > 0) calibrate(real / (float) estimateSum);
+        int[] split = distribute(real, estimates);
+        synchronized (CACHE) {
+            for (int j = 0; j < misses.size(); j++) {
+                int i = misses.get(j);
+                out[i] = split[j];
+                CACHE.put(keys[i], split[j]);
+            }
+        }
+        return out;
+    }
+
+    /** ローカル推定にこのモデルの補正係数を掛けた値（ネットワークを使わない）。 */
+    public int estimateCalibrated(String text) {
+        return Math.round(estimate(text) * calibration());
+    }
+
+    /** /api/tokenize の実測値。失敗時は -1。 */
+    private int tokenize(String text) {
+        if (client == null || baseUrl == null) return -1;
+        try {
+            JSONObject body = new JSONObject();
+            body.put("model", model);
+            body.put("prompt", text);
+            Request req = new Request.Builder()
+                    .url(baseUrl + "/api/tokenize")
+                    .post(RequestBody.create(body.toString(), JSON_MEDIA))
+                    .build();
+            try (Response resp = client.newCall(req).execute()) {
+                if (!resp.isSuccessful()) return -1;
+                String respBody = resp.body() != null ? resp.body().string() : "";
+                JSONArray tokens = new JSONObject(respBody).optJSONArray("tokens");
+                return tokens != null ? tokens.length() : -1;
+            }
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private float calibration() {
+        Float r = CALIBRATION.get(model);
+        return r == null ? 1f : r;
+    }
+
+    private void calibrate(float observed) {
+        float clamped = Math.max(0.25f, Math.min(4f, observed));
+        CALIBRATION.merge(model, clamped,
+                (old, obs) -> old + CALIBRATION_ALPHA * (obs - old));
+    }
+
+    // ===== ローカル推定（純粋計算 / ユニットテスト対象） =====
+
+    /**
+     * 文字種別のローカル推定トークン数。
+     * CJK（漢字・かな・ハングル）は 1 文字 ≒ 1 トークン、英字は 6 文字までの語を 1 トークン（以降 6 文字ごとに +1）、
+     * 数字は 3 桁で 1 トークン、記号は 1 文字 1 トークン、その他の文字（アクセント付き・キリル等）は 2 文字で 1 トークン。
+     * 空白は数えない。
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) return 0;
+        double tokens = 0;
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            int cp = text.codePointAt(i);
+            int step = Character.charCount(cp);
+            if (isAsciiLetter(cp)) {
+                int run = 0;
+                while (i < len && isAsciiLetter(text.charAt(i))) {
+                    run++;
+                    i++;
+                }
+                tokens += 1 + (run - 1) / 6;
+                continue;
+            }
+            if (cp >= '0' && cp <= '9') {
+                int run = 0;
+                while (i < len && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                    run++;
+                    i++;
+                }
+                tokens += Math.ceil(run / 3.0);
+                continue;
+            }
+            if (Character.isWhitespace(cp)) {
+                // 空白は直後の語に吸収される
+            } else if (MemorySearchIndex.isCjk(cp)) {
+                tokens += 1.0;
+            } else if (Character.isLetter(cp)) {
+                tokens += 0.5;
+            } else {
+                tokens += 1.0;
+            }
+            i += step;
+        }
+        return (int) Math.ceil(tokens);
+    }
+
+    /**
+     * total を weights の比で整数配分する（最大剰余法。合計は total と一致）。
+     * weights がすべて 0 なら均等に配分する。
+     */
+    static int[] distribute(int total, int[] weights) {
+        int n = weights.length;
+        int[] out = new int[n];
+        if (n == 0) return out;
+        long sum = 0;
+        for (int w : weights) sum += Math.max(0, w);
+        double[] remainders = new double[n];
+        int assigned = 0;
+        for (int i = 0; i < n; i++) {
+            double exact = sum > 0 ? (double) total * Math.max(0, weights[i]) / sum : (double) total / n;
+            out[i] = (int) Math.floor(exact);
+            remainders[i] = exact - out[i];
+            assigned += out[i];
+        }
+        for (int left = total - assigned; left > 0; left--) {
+            int best = 0;
+            for (int i = 1; i < n; i++) {
+                if (remainders[i] > remainders[best]) best = i;
+            }
+            out[best]++;
+            remainders[best] = -1;
+        }
+        return out;
+    }
+
+    private static boolean isAsciiLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
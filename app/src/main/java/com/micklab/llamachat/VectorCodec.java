@@ -0,0 +1,56 @@
+package com.micklab.llamachat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 埋め込みベクトルを SQLite の BLOB / ファイルへ保存するためのバイト表現と、
+ * 埋め込み対象テキストの同一性判定に使うハッシュを提供する。
+ *
+ * <p>形式はリトルエンディアンの float32 連続列（ヘッダ無し、次元数 = バイト長 / 4）。
+ * Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class VectorCodec {
+
+    private VectorCodec() {
+    }
+
+    /** float 配列をリトルエンディアン float32 のバイト列にする。null は空配列。 */
+    public static byte[] encode(float[] v) {
+        if (v == null) return new byte[0];
+        ByteBuffer buf = ByteBuffer.allocate(v.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buf.asFloatBuffer().put(v);
+        return buf.array();
+    }
+
+    /** {@link #encode} の逆変換。null・4 の倍数でない長さは null を返す。 */
+    public static float[] decode(byte[] bytes) {
+        if (bytes == null || bytes.length % 4 != 0) return null;
+        float[] v = new float[bytes.length / 4];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(v);
+        return v;
+    }
+
+    /**
+     * テキストの内容ハッシュ（SHA-1 の 16 進表記）。保存済みベクトルが現在のテキストから
+     * 作られたものかを判定する鍵として使う。
+     */
+    public static String textHash(String text) {
+        byte[] data = (text == null ? "" : text).getBytes(StandardCharsets.UTF_8);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 は全 JVM / Android で必須アルゴリズムのため通常到達しない
+            return Integer.toHexString((text == null ? "" : text).hashCode());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.micklab.llamachat;
+
+/**
+ * 正規化済み埋め込みベクトルの採点カーネルと上位 k 件の選択。
+ *
+ * <ul>
+ *   <li>{@link #dot} は 4 本の独立した累積変数で 4 要素ずつ展開したループ。加算の依存鎖が切れるため
+ *       JIT がパイプライン化・ベクトル化しやすい。入力が L2 正規化済みなら内積がそのままコサイン類似度になる
+ *       （ノルムの再計算はしない）。</li>
+ *   <li>{@link #scoreAll} は行優先の連続配列（{@link EmbeddingBatch#data()} 等）をコピーせずに全行採点する。</li>
+ *   <li>{@link #topK} は大きさ k の最小ヒープ（プリミティブ配列）で選び、候補ごとのオブジェクト生成も全体ソートもしない。</li>
+ * </ul>
+ *
+ * <p>Android 依存が無いため JVM 上でユニットテスト可能。</p>
+ */
+public final class VectorScoring {
+
+    private VectorScoring() {
+    }
+
+    /** 内積。長さ不一致・null は 0 を返す。 */
+    public static float dot(float[] a, float[] b) {
+        if (a == null || b == null || a.length != b.length) return 0f;
+        return dot(a, b, 0, a.length);
+    }
+
+    /** a と matrix[offset, offset + dim) の内積。 */
+    public static float dot(float[] a, float[] matrix, int offset, int dim) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int k = 0;
+        int end = dim & ~3;
+        for (; k < end; k += 4) {
+            int j = offset + k;
+            s0 += a[k] * matrix[j];
+            s1 += a[k + 1] * matrix[j + 1];
+            s2 += a[k + 2] * matrix[j + 2];
+            s3 += a[k + 3] * matrix[j + 3];
+        }
+        for (; k < dim; k++) s0 += a[k] * matrix[offset + k];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * 行優先 rows × dim の行列の各行と q の内積を out[0..rows) に書く。q の長さが dim と違えばすべて 0。
+     */
+    public static void scoreAll(float[] q, float[] matrix, int rows, int dim, float[] out) {
+        if (q == null || q.length != dim) {
+            for (int i = 0; i < rows; i++) out[i] = 0f;
+            return;
+        }
+        for (int i = 0, off = 0; i < rows; i++, off += dim) out[i] = dot(q, matrix, off, dim);
+    }
+
+    /** {@link #scoreAll(float[], float[], int, int, float[])} の {@link EmbeddingBatch} 版（先頭 from 行は飛ばす）。 */
+    public static float[] scoreAll(float[] q, EmbeddingBatch batch, int from) {
+        int rows = Math.max(0, batch.size() - from);
+        float[] out = new float[rows];
+        if (rows == 0) return out;
+        int dim = batch.dimension();
+        if (q == null || q.length != dim) return out;
+        float[] data = batch.data();
+        for (int i = 0; i < rows; i++) out[i] = dot(q, data, batch.offset(from + i), dim);
+        return out;
+    }
+
+    /** 各行を L2 正規化した行優先配列（零ベクトルの行は 0 のまま）。入力は変更しない。 */
+    public static float[] normalizeRows(float[] matrix, int rows, int dim) {
+        float[] out = new float[rows * dim];
+        for (int i = 0, off = 0; i < rows; i++, off += dim) {
+            double n = 0.0;
+            for (int k = 0; k < dim; k++) n += (double) matrix[off + k] * matrix[off + k];
+            if (n == 0.0) continue;
+            float inv = (float) (1.0 / Math.sqrt(n));
+            for (int k = 0; k < dim; k++) out[off + k] = matrix[off + k] * inv;
+        }
+        return out;
+    }
+
+    /** scores[0..n) のうち値の大きい順に最大 k 個の添字（同点は添字の小さい方を優先）。NaN は選ばない。 */
+    public static int[] topK(float[] scores, int n, int k) {
+        int cap = Math.max(0, Math.min(k, n));
+        int[] heapIdx = new int[cap];
+        float[] heapVal = new float[cap];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            float v = scores[i];
+            if (Float.isNaN(v)) continue;
+            if (size < cap) {
+                heapIdx[size] = i;
+                heapVal[size] = v;
+                siftUp(heapIdx, heapVal, size++);
+            } else if (cap > 0 && v > heapVal[0]) {
+                heapIdx[0] = i;
+                heapVal[0] = v;
+                siftDown(heapIdx, heapVal, size);
+            }
+        }
+        // 最小ヒープの根を末尾から取り出す → 降順
+        int[] out = new int[size];
+        for (int last = size - 1; last >= 0; last--) {
+            out[last] = heapIdx[0];
+            heapIdx[0] = heapIdx[last];
+            heapVal[0] = heapVal[last];
+            siftDown(heapIdx, heapVal, last);
+        }
+        return out;
+    }
+
+    /** a が b より「弱い」（ヒープの根側）か。値が小さい方、同値なら添字が大きい方。 */
+    private static boolean weaker(float va, int ia, float vb, int ib) {
+        return va < vb || (va == vb && ia > ib);
+    }
+
+    private static void siftUp(int[] idx, float[] val, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!weaker(val[i], idx[i], val[parent], idx[parent])) break;
+            swap(idx, val, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] idx, float[] val, int size) {
+        int i = 0;
+        while (true) {
+            int l = 2 * i + 1;
+            if (l >= size) break;
+            int r = l + 1;
+            int m = r < size && weaker(val[r], idx[r], val[l], idx[l]) ? r : l;
+            if (!weaker(val[m], idx[m], val[i], idx[i])) break;
+            swap(idx, val, i, m);
+            i = m;
+        }
+    }
+
+    private static void swap(int[] idx, float[] val, int a, int b) {
+        int ti = idx[a];
+        idx[a] = idx[b];
+        idx[b] = ti;
+        float tv = val[a];
+        val[a] = val[b];
+        val[b] = tv;
+    }
+}
@@ -0,0 +1,249 @@
+package com.micklab.llamachat;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 検索結果ページ本文の並行取得（Brave のブーストモード用）。
+ *
+ * <ul>
+ *   <li>最大 {@link #MAX_PARALLEL} 件ずつ非同期に発行し、1 件終わるごとに次を発行する。</li>
+ *   <li>全体の期限 {@link #DEADLINE_MS} を過ぎたら未完了の要求を取り消し、その URL は null（呼び出し側でスニペットに戻す）。</li>
+ *   <li>本文は {@link HtmlTextExtractor} で受信しながらテキスト化し、必要な文字数が揃うか
+ *       {@link #MAX_BODY_BYTES} バイトを読んだ時点で打ち切る（残りは受信しない）。</li>
+ *   <li>{@link #renderBraveResults} は Brave の検索結果を本文（取れなければスニペット）付きの文脈テキストにする。
+ *       MainActivity と FloatOverlayService で共用する。</li>
+ * </ul>
+ *
+ * <p>同期メソッドのため、バックグラウンドスレッドから呼び出すこと。</p>
+ */
+public final class WebPageFetcher {
+
+    static final int MAX_PARALLEL = 4;
+    static final long DEADLINE_MS = 10_000;
+    /** 1 ページあたりに読む上限（本文の前に巨大な script 等が続くページで読み続けないため）。 */
+    static final int MAX_BODY_BYTES = 128 * 1024;
+
+    /** 文脈に使う Brave 検索結果の最大件数。 */
+    public static final int BRAVE_RESULT_LIMIT = 8;
+    /** 検索結果 1 件あたりの本文の最大文字数。 */
+    static final int PAGE_TEXT_CHARS = 1500;
+    /** 本文が取れなかった結果に添える extra_snippets の最大件数。 */
+    private static final int MAX_EXTRA_SNIPPETS = 2;
+
+    private final OkHttpClient client;
+    private final int maxParallel;
+    private final long deadlineMs;
+
+    /** @param client 取得に使うクライアント（接続・読み取りタイムアウトは短めのもの） */
+    public WebPageFetcher(OkHttpClient client) {
+        this(client, MAX_PARALLEL, DEADLINE_MS);
+    }
+
+    WebPageFetcher(OkHttpClient client, int maxParallel, long deadlineMs) {
+        this.client = client;
+        this.maxParallel = Math.max(1, maxParallel);
+        this.deadlineMs = deadlineMs;
+    }
+
+    /**
+     * Brave の検索結果（web.results）先頭 limit 件を文脈テキストにする。fetchPages なら各結果の本文を並行取得して使い、
+     * 取れなかった結果は description と extra_snippets に戻す。結果が無ければ空文字。
+     */
+    public String renderBraveResults(JSONArray results, int limit, boolean fetchPages) {
+        int n = Math.min(results.length(), limit);
+        String[] pageTexts = null;
+        if (fetchPages) {
+            List<String> pageUrls = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                JSONObject item = results.optJSONObject(i);
+                String resultUrl = item != null ? item.optString("url", "").trim() : "";
+                pageUrls.add(resultUrl.isEmpty() ? null : resultUrl);
+            }
+            pageTexts = fetchAll(pageUrls, PAGE_TEXT_CHARS);
+        }
+
+        StringBuilder extracted = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            JSONObject item = results.optJSONObject(i);
+            if (item == null) continue;
+            String title = item.optString("title", "").trim();
+            String description = item.optString("description", "").trim();
+            String resultUrl = item.optString("url", "").trim();
+            if (title.isEmpty() && description.isEmpty() && resultUrl.isEmpty()) continue;
+            if (extracted.length() > 0) extracted.append("\n\n");
+            extracted.append("[").append(i + 1).append("]");
+            if (!title.isEmpty()) extracted.append(" ").append(title);
+            extracted.append("\n");
+            if (!resultUrl.isEmpty()) extracted.append(resultUrl).append("\n");
+
+            String pageText = pageTexts != null ? pageTexts[i] : null;
+            if (pageText != null) {
+                extracted.append(pageText);
+            } else {
+                if (!description.isEmpty()) extracted.append(description);
+                JSONArray snippets = item.optJSONArray("extra_snippets");
+                if (snippets != null) {
+                    for (int j = 0; j < snippets.length() && j < MAX_EXTRA_SNIPPETS; j++) {
+                        String snippet = snippets.optString(j, "").trim();
+                        if (!snippet.isEmpty()) extracted.append("\n").append(snippet);
+                    }
+                }
+            }
+        }
+        return extracted.toString().trim();
+    }
+
+    /**
+     * 各 URL の本文テキスト（先頭 maxChars 文字、入力順）。null の URL・失敗・期限切れ・HTML 以外の URL は null。
+     */
+    public String[] fetchAll(List<String> urls, int maxChars) {
+        int n = urls.size();
+        AtomicReferenceArray<String> results = new AtomicReferenceArray<>(n);
+        if (n == 0) return new String[0];
+        CountDownLatch finished = new CountDownLatch(n);
+        AtomicInteger next = new AtomicInteger(0);
+        List<Call> calls = new ArrayList<>();
+        boolean[] closed = new boolean[1]; // calls で同期
+        Runnable[] launcher = new Runnable[1];
+        launcher[0] = () -> {
+            int i = next.getAndIncrement();
+            if (i >= n) return;
+            Call call;
+            try {
+                if (urls.get(i) == null) throw new IllegalArgumentException("no url");
+                call = client.newCall(buildRequest(urls.get(i)));
+            } catch (IllegalArgumentException e) {
+                // URL 無し・不正な URL はその場で失敗扱い
+                finished.countDown();
+                launcher[0].run();
+                return;
+            }
+            synchronized (calls) {
+                if (closed[0]) return;
+                calls.add(call);
+            }
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call c, IOException e) {
+                    finished.countDown();
+                    if (!c.isCanceled()) launcher[0].run();
+                }
+
+                @Override
+                public void onResponse(Call c, Response resp) {
+                    try (Response r = resp) {
+                        results.set(i, extractText(r, maxChars));
+                    } catch (Exception e) {
+                        // 読み取り途中の失敗・取り消しは null のまま
+                    } finally {
+                        finished.countDown();
+                        if (!c.isCanceled()) launcher[0].run();
+                    }
+                }
+            });
+        };
+        for (int k = 0; k < Math.min(maxParallel, n); k++) launcher[0].run();
+
+        try {
+            finished.await(deadlineMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 期限後は未発行分を発行させず、発行済みの要求は取り消す
+        next.set(n);
+        synchronized (calls) {
+            closed[0] = true;
+            for (Call c : calls) c.cancel();
+        }
+        String[] out = new String[n];
+        for (int i = 0; i < n; i++) out[i] = results.get(i);
+        return out;
+    }
+
+    private static Request buildRequest(String url) {
+        return new Request.Builder()
+                .url(url)
+                .get()
+                .addHeader("User-Agent", "Mozilla/5.0 (Android) AppleWebKit/537.36")
+                .addHeader("Accept", "text/html,application/xhtml+xml")
+                .build();
+    }
+
+    private static String extractText(Response resp, int maxChars) throws IOException {
+        ResponseBody body = resp.body();
+        if (!resp.isSuccessful() || body == null) return null;
+        String contentType = resp.header("Content-Type", "");
+        if (!contentType.contains("text/html") && !contentType.contains("text/plain")
+                && !contentType.contains("application/xhtml")) return null;
+        String text = readText(body, MAX_BODY_BYTES, maxChars);
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * 本文を Content-Type の文字コード（既定 UTF-8）で読みながらテキスト化する。
+     * 読むのは先頭 maxBytes バイトまでで、テキストが maxChars 文字に達したらそこで止める。
+     */
+    static String readText(ResponseBody body, int maxBytes, int maxChars) throws IOException {
+        MediaType type = body.contentType();
+        Charset charset = type != null ? type.charset(StandardCharsets.UTF_8) : StandardCharsets.UTF_8;
+        try (Reader reader = new InputStreamReader(new LimitedInputStream(body.byteStream(), maxBytes), charset)) {
+            return HtmlTextExtractor.extract(reader, maxChars);
+        }
+    }
+
+    /** 指定バイト数で EOF を返す入力ストリーム。 */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int r = super.read(b, off, (int) Math.min(len, remaining));
+            if (r > 0) remaining -= r;
+            return r;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long s = super.skip(Math.min(n, remaining));
+            remaining -= s;
+            return s;
+        }
+    }
+}
@@ -1,43 +1,34 @@
 package com.micklab.llamachat;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
 
 /**
- * 埋め込みベクトルとOllama tokenize APIを用いた
+ * 埋め込みベクトルとトークン数計測（{@link TokenCounter}）を用いた
  * Web検索結果のRAG再ランキングヘルパー。
  *
- * <p>検索結果をチャンク分割し、クエリとの埋め込みコサイン類似度で
- * 関連度の高い上位K件のみを抽出してLLMに渡すことで、
- * 関連性の低い情報のノイズを削減し応答品質を向上させる。</p>
+ * <p>検索結果を {@link SearchResultChunker} で文単位の小さな窓に分割し、クエリとの埋め込みコサイン類似度で
+ * 関連度の高い窓だけをトークン予算内で抽出してLLMに渡すことで、
+ * 関連性の低い情報のノイズとプロンプト長（プリフィル時間）を削減する。</p>
  */
 public final class WebSearchRagHelper {
-    private static final int MAX_CHUNKS_TO_EMBED = 8;
-    private static final int TOP_K_CHUNKS = 3;
-    private static final int MAX_CONTEXT_TOKENS = 3000;
-    private static final MediaType JSON_MEDIA = MediaType.get("application/json; charset=utf-8");
+    /** 1 回の検索で埋め込む窓の上限（埋め込み予算）。 */
+    private static final int MAX_CHUNKS_TO_EMBED = 32;
+    private static final int TOP_K_CHUNKS = 6;
+    private static final int MAX_CONTEXT_TOKENS = 1200;
 
     private final EmbeddingClient embeddingClient;
-    private final OkHttpClient httpClient;
-    private final String baseUrl;
-    private final String chatModel;
+    private final TokenCounter tokenCounter;
+    private final SearchResultChunker chunker;
 
     public WebSearchRagHelper(EmbeddingClient embeddingClient, OkHttpClient httpClient,
                                String baseUrl, String chatModel) {
         this.embeddingClient = embeddingClient;
-        this.httpClient = httpClient;
-        this.baseUrl = normalizeUrl(baseUrl);
-        this.chatModel = chatModel;
+        this.tokenCounter = new TokenCounter(httpClient, normalizeUrl(baseUrl), chatModel);
+        this.chunker = new SearchResultChunker(SearchResultChunker.DEFAULT_MAX_TOKENS,
+                SearchResultChunker.DEFAULT_OVERLAP_TOKENS, MAX_CHUNKS_TO_EMBED);
     }
 
     /**
@@ -48,101 +39,49 @@ public final class WebSearchRagHelper {
     public String rerankSearchResults(String userQuery, String rawSearchResults) {
         if (rawSearchResults == null || rawSearchResults.isEmpty()) return rawSearchResults;
         try {
-            List<String> chunks = splitIntoChunks(rawSearchResults);
+            List<SearchResultChunker.Chunk> chunks = TaskScheduler.get().call(TaskScheduler.Pool.CPU,
+                    TaskScheduler.Priority.INTERACTIVE, () -> chunker.chunk(rawSearchResults));
             if (chunks.size() <= TOP_K_CHUNKS) return rawSearchResults;
 
-            int batchSize = Math.min(chunks.size(), MAX_CHUNKS_TO_EMBED);
-            List<String> batchChunks = chunks.subList(0, batchSize);
-
             // クエリと全チャンクを1回のリクエストにまとめて埋め込む
-            List<String> allTexts = new ArrayList<>(batchSize + 1);
+            List<String> allTexts = new ArrayList<>(chunks.size() + 1);
             allTexts.add(userQuery);
-            allTexts.addAll(batchChunks);
-            List<float[]> allVecs = embeddingClient.embedBatch(allTexts);
+            for (SearchResultChunker.Chunk c : chunks) allTexts.add(c.text());
+            EmbeddingBatch allVecs = embeddingClient.embedBatchFlat(allTexts);
             if (allVecs.size() < 2) return rawSearchResults;
 
-            float[] queryVec = EmbeddingClient.l2Normalize(allVecs.get(0));
-            List<float[]> chunkVecs = allVecs.subList(1, allVecs.size());
-
-            List<ScoredChunk> scored = new ArrayList<>(chunkVecs.size());
-            for (int i = 0; i < chunkVecs.size(); i++) {
-                float sim = EmbeddingClient.cosineSimilarity(
-                        queryVec, EmbeddingClient.l2Normalize(chunkVecs.get(i)));
-                scored.add(new ScoredChunk(batchChunks.get(i), sim));
-            }
-            Collections.sort(scored, (a, b) -> Float.compare(b.score, a.score));
-
-            StringBuilder result = new StringBuilder("SEARCH_RESULTS:\n");
+            // 正規化してから内積で一括採点し、上位 TOP_K だけをヒープで選ぶ（全体ソートしない）。計算は CPU プールで行う
+            int[] top = TaskScheduler.get().call(TaskScheduler.Pool.CPU, TaskScheduler.Priority.INTERACTIVE, () -> {
+                EmbeddingBatch unit = allVecs.normalized();
+                float[] scores = VectorScoring.scoreAll(unit.get(0), unit, 1);
+                int chunkCount = Math.min(scores.length, chunks.size());
+                return VectorScoring.topK(scores, chunkCount, TOP_K_CHUNKS);
+            });
+
+            // 採用候補（上位 TOP_K）のトークン数は 1 回の要求でまとめて数える
+            int candidates = top.length;
+            List<String> candidateChunks = new ArrayList<>(candidates);
+            for (int idx : top) candidateChunks.add(chunks.get(idx).text());
+            int[] candidateTokens = tokenCounter.countAll(candidateChunks);
+
+            List<SearchResultChunker.Chunk> selected = new ArrayList<>(candidates);
             int budget = MAX_CONTEXT_TOKENS;
-            int count = 0;
-            for (ScoredChunk sc : scored) {
-                if (count >= TOP_K_CHUNKS || budget <= 0) break;
-                int tokens = countTokensSafe(sc.chunk);
-                if (budget - tokens < 0 && count > 0) break;
-                if (result.length() > "SEARCH_RESULTS:\n".length()) result.append("\n\n");
-                result.append(sc.chunk);
+            for (int i = 0; i < candidates && budget > 0; i++) {
+                int tokens = candidateTokens[i];
+                if (budget - tokens < 0 && !selected.isEmpty()) continue;
+                selected.add(chunks.get(top[i]));
                 budget -= tokens;
-                count++;
             }
-            return result.toString();
+            // 記事順に並べ直し、同じ記事の窓は見出し 1 つにまとめる（重なった文は 1 回だけ）
+            return SearchResultChunker.render(selected);
         } catch (Exception e) {
             return rawSearchResults;
         }
     }
 
-    /** Ollama /api/tokenize でトークン数を計算。失敗時は文字数推定で代替。 */
+    /** チャットモデルのトークン数（{@link TokenCounter}。失敗時は補正済みのローカル推定）。 */
     public int countTokensSafe(String text) {
-        try {
-            JSONObject body = new JSONObject();
-            body.put("model", chatModel);
-            body.put("prompt", text);
-            Request req = new Request.Builder()
-                    .url(baseUrl + "/api/tokenize")
-                    .post(RequestBody.create(body.toString(), JSON_MEDIA))
-                    .build();
-            try (Response resp = httpClient.newCall(req).execute()) {
-                if (!resp.isSuccessful()) return estimateTokens(text);
-                String respBody = resp.body() != null ? resp.body().string() : "";
-                JSONArray tokens = new JSONObject(respBody).optJSONArray("tokens");
-                return tokens != null ? tokens.length() : estimateTokens(text);
-            }
-        } catch (Exception e) {
-            return estimateTokens(text);
-        }
-    }
-
-    private List<String> splitIntoChunks(String searchResults) {
-        List<String> chunks = new ArrayList<>();
-
-        // Wikipedia 形式: [Wikipedia/lang] で記事単位に分割
-        if (searchResults.contains("[Wikipedia/")) {
-            String[] parts = searchResults.split("(?=\\[Wikipedia/)");
-            for (String p : parts) {
-                String t = p.trim();
-                if (t.startsWith("[Wikipedia/")) chunks.add(t);
-            }
-            if (!chunks.isEmpty()) return chunks;
-        }
-
-        // Brave/generic 形式: [1] Title\nDesc\nURL で区切る
-        String[] parts = searchResults.split("(?=\\[\\d+\\])");
-        for (String p : parts) {
-            String t = p.trim();
-            if (!t.isEmpty()) chunks.add(t);
-        }
-        if (chunks.size() <= 1) {
-            chunks.clear();
-            for (String p : searchResults.split("\n\n+")) {
-                String t = p.trim();
-                if (!t.isEmpty()) chunks.add(t);
-            }
-        }
-        return chunks;
-    }
-
-    private static int estimateTokens(String text) {
-        if (text == null) return 0;
-        return (int) (text.length() * 0.75);
+        return tokenCounter.count(text);
     }
 
     private static String normalizeUrl(String url) {
@@ -151,13 +90,4 @@ public final class WebSearchRagHelper {
         while (u.endsWith("/")) u = u.substring(0, u.length() - 1);
         return u;
     }
-
-    private static final class ScoredChunk {
-        final String chunk;
-        final float score;
-        ScoredChunk(String chunk, float score) {
-            this.chunk = chunk;
-            this.score = score;
-        }
-    }
 }
@@ -2,6 +2,8 @@ package com.micklab.llamachat;
 
 import android.text.TextUtils;
 
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -11,7 +13,13 @@ import okhttp3.Response;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Wikipedia Search API を使った無料Web検索。
@@ -20,6 +28,10 @@ import java.util.LinkedHashSet;
 public final class WikipediaSearchHelper {
 
     private static final MediaType JSON_MEDIA = MediaType.get("application/json; charset=utf-8");
+    /** search() 全体の期限。超えたら揃った分だけ返す。 */
+    static final long SEARCH_DEADLINE_MS = 8000;
+    /** {@link SearchResultCache} 上の検索元名。 */
+    static final String CACHE_NAMESPACE = "wikipedia";
 
     private WikipediaSearchHelper() {}
 
@@ -80,16 +92,39 @@ public final class WikipediaSearchHelper {
     /**
      * クエリ言語を優先しながら日本語・英語 Wikipedia を検索して結果を統合する。
      * タイトルにクエリが含まれる記事は先頭に配置する。
+     *
+     * <p>両言語のタイトル直接ルックアップ・キーワード検索と、検索ヒットの要約取得はすべて非同期で同時に発行する。
+     * {@link #SEARCH_DEADLINE_MS} を過ぎたら未完了の要求を取り消し、それまでに揃った分だけで結果を組み立てる。</p>
+     *
+     * <p>期限内に揃った結果は {@link SearchResultCache} に保存し、同じクエリ（正規化後）は TTL の間そこから返す。
+     * 期限切れで欠けた結果は保存しない。</p>
      */
     public static String search(OkHttpClient client, String query) {
         if (client == null || TextUtils.isEmpty(query)) return null;
+        SearchResultCache cache = SearchResultCache.shared();
+        String cached = cache.get(CACHE_NAMESPACE, query);
+        if (cached != null) return cached;
+        CallGroup calls = new CallGroup();
         try {
             boolean cjk = hasCjkChars(query);
             String primary = cjk ? "ja" : "en";
             String secondary = cjk ? "en" : "ja";
 
-            String primaryPart = searchWikipedia(client, primary, query);
-            String secondaryPart = searchWikipedia(client, secondary, query);
+            LanguageSearch primarySearch = new LanguageSearch(client, calls, primary, query);
+            LanguageSearch secondarySearch = new LanguageSearch(client, calls, secondary, query);
+            boolean complete = true;
+            try {
+                CompletableFuture.allOf(primarySearch.done, secondarySearch.done)
+                        .get(SEARCH_DEADLINE_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 期限切れ → 揃った分だけで組み立てる
+                complete = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            String primaryPart = primarySearch.render();
+            String secondaryPart = secondarySearch.render();
 
             StringBuilder combined = new StringBuilder();
             if (primaryPart != null) combined.append(primaryPart);
@@ -99,78 +134,136 @@ public final class WikipediaSearchHelper {
             }
 
             String result = combined.toString().trim();
-            return result.isEmpty() ? null : "SEARCH_RESULTS:\n" + result;
+            if (result.isEmpty()) return null;
+            String block = "SEARCH_RESULTS:\n" + result;
+            if (complete) cache.put(CACHE_NAMESPACE, query, block);
+            return block;
         } catch (Exception e) {
             return null;
+        } finally {
+            calls.cancelAll();
         }
     }
 
-    // タイトル直接マッチを先頭に、キーワード検索結果をその後に並べる
-    private static String searchWikipedia(OkHttpClient client, String lang, String query) {
-        try {
-            StringBuilder sb = new StringBuilder();
-            LinkedHashSet<String> seen = new LinkedHashSet<>();
+    /**
+     * 1 言語版の検索。タイトル直接ルックアップとキーワード検索を同時に発行し、
+     * 検索ヒットが返ったらその要約取得も同時に発行する。
+     */
+    private static final class LanguageSearch {
+        final String lang;
+        final String query;
+        final CompletableFuture<JSONObject> exact;
+        // 検索ヒット（要約は各 Hit が個別に保持する。期限切れ時に完了済みの分だけ使うため）
+        final CompletableFuture<List<Hit>> hits;
+        // すべての要求が完了したら完了する
+        final CompletableFuture<Void> done;
 
+        LanguageSearch(OkHttpClient client, CallGroup calls, String lang, String query) {
+            this.lang = lang;
+            this.query = query;
             // 1. クエリをタイトルとして直接ルックアップ（タイトル優先）
             // Summary API がリダイレクト先の正規タイトルを返すためそれを重複キーに使う
-            JSONObject exactSummary = fetchSummary(client, lang, query);
-            boolean titleMatched = exactSummary != null;
+            this.exact = fetchSummaryAsync(client, calls, lang, query);
+            // 2. キーワード全文検索。タイトル直接マッチがあれば結果は使わないが、往復を待たずに並行で投げる
+            this.hits = getJsonAsync(client, calls, keywordSearchUrl(lang, query)).thenApply(json -> {
+                List<Hit> out = new ArrayList<>();
+                JSONObject q = json == null ? null : json.optJSONObject("query");
+                JSONArray arr = q == null ? null : q.optJSONArray("search");
+                if (arr == null) return out;
+                for (int i = 0; i < arr.length(); i++) {
+                    JSONObject hit = arr.optJSONObject(i);
+                    String title = hit == null ? "" : hit.optString("title", "").trim();
+                    if (title.isEmpty()) continue;
+                    out.add(new Hit(title, hit.optString("timestamp", ""),
+                            fetchSummaryAsync(client, calls, lang, title)));
+                }
+                return out;
+            });
+            CompletableFuture<Void> hitSummaries = hits.thenCompose(list -> {
+                CompletableFuture<?>[] fs = new CompletableFuture<?>[list.size()];
+                for (int i = 0; i < fs.length; i++) fs[i] = list.get(i).summary;
+                return CompletableFuture.allOf(fs);
+            });
+            this.done = CompletableFuture.allOf(exact, hitSummaries);
+        }
+
+        /** 完了済みの結果から記事一覧を組み立てる（タイトル直接マッチを先頭、無ければ検索ヒット上位 2 件）。 */
+        String render() {
+            StringBuilder sb = new StringBuilder();
+            LinkedHashSet<String> seen = new LinkedHashSet<>();
+            JSONObject exactSummary = exact.getNow(null);
             if (exactSummary != null) {
                 String canonicalTitle = exactSummary.optString("title", query).trim();
-                String extract = exactSummary.optString("extract", "").trim();
-                if (extract.length() > 1500) extract = extract.substring(0, 1500);
                 seen.add(canonicalTitle);
-                appendArticle(sb, lang, canonicalTitle, null, extract);
-            }
-
-            // 2. キーワード全文検索（タイトル直接マッチがあればスキップ）
-            // タイトルマッチがある場合はそれが最も関連性が高いため、
-            // キーワード検索で返る周辺記事（Seiko等）の混入を防ぐ
-            if (!titleMatched) {
-                String url = "https://" + lang + ".wikipedia.org/w/api.php"
-                        + "?action=query&list=search&srsearch="
-                        + java.net.URLEncoder.encode(query.trim(), "UTF-8")
-                        + "&srlimit=3&srprop=timestamp&utf8=1&format=json";
-                Request request = new Request.Builder()
-                        .url(url)
-                        .addHeader("User-Agent", "llamachat/1.0 (Android)")
-                        .addHeader("Accept", "application/json")
-                        .get()
-                        .build();
-
-                try (Response resp = client.newCall(request).execute()) {
-                    if (resp.isSuccessful()) {
-                        String body = resp.body() != null ? resp.body().string() : "";
-                        JSONObject json = new JSONObject(body);
-                        JSONArray hits = json.getJSONObject("query").getJSONArray("search");
-                        int added = 0;
-                        for (int i = 0; i < hits.length() && added < 2; i++) {
-                            JSONObject hit = hits.getJSONObject(i);
-                            String title = hit.optString("title", "").trim();
-                            if (title.isEmpty() || seen.contains(title)) continue;
-                            JSONObject summary = fetchSummary(client, lang, title);
-                            if (summary == null) continue;
-                            String canonicalTitle = summary.optString("title", title).trim();
-                            if (seen.contains(canonicalTitle)) continue;
-                            seen.add(canonicalTitle);
-                            String ts = hit.optString("timestamp", "");
-                            String updated = ts.length() >= 10 ? ts.substring(0, 10) : ts;
-                            String extract = summary.optString("extract", "").trim();
-                            if (extract.length() > 1500) extract = extract.substring(0, 1500);
-                            appendArticle(sb, lang, canonicalTitle, updated, extract);
-                            added++;
-                        }
-                    }
+                appendArticle(sb, lang, canonicalTitle, null, clip(exactSummary.optString("extract", "").trim()));
+            } else {
+                // タイトルマッチがある場合はそれが最も関連性が高いため、
+                // キーワード検索で返る周辺記事（Seiko等）の混入を防ぐ（＝マッチが無いときだけ使う）
+                List<Hit> list = hits.getNow(null);
+                int added = 0;
+                for (int i = 0; list != null && i < list.size() && added < 2; i++) {
+                    Hit hit = list.get(i);
+                    if (seen.contains(hit.title)) continue;
+                    JSONObject summary = hit.summary.getNow(null);
+                    if (summary == null) continue;
+                    String canonicalTitle = summary.optString("title", hit.title).trim();
+                    if (seen.contains(canonicalTitle)) continue;
+                    seen.add(canonicalTitle);
+                    String updated = hit.timestamp.length() >= 10 ? hit.timestamp.substring(0, 10) : hit.timestamp;
+                    appendArticle(sb, lang, canonicalTitle, updated, clip(summary.optString("extract", "").trim()));
+                    added++;
                 }
             }
-
             String result = sb.toString().trim();
             return result.isEmpty() ? null : result;
+        }
+    }
+
+    /** 1 回の search() で発行した要求。戻るときにまとめて取り消し、以降の発行は断る。 */
+    private static final class CallGroup {
+        private final List<Call> calls = new ArrayList<>();
+        private boolean closed = false;
+
+        synchronized boolean add(Call call) {
+            if (closed) return false;
+            calls.add(call);
+            return true;
+        }
+
+        synchronized void cancelAll() {
+            closed = true;
+            for (Call c : calls) c.cancel();
+            calls.clear();
+        }
+    }
+
+    private static final class Hit {
+        final String title;
+        final String timestamp;
+        final CompletableFuture<JSONObject> summary;
+
+        Hit(String title, String timestamp, CompletableFuture<JSONObject> summary) {
+            this.title = title;
+            this.timestamp = timestamp;
+            this.summary = summary;
+        }
+    }
+
+    private static String keywordSearchUrl(String lang, String query) {
+        try {
+            return "https://" + lang + ".wikipedia.org/w/api.php"
+                    + "?action=query&list=search&srsearch="
+                    + java.net.URLEncoder.encode(query.trim(), "UTF-8")
+                    + "&srlimit=3&srprop=timestamp&utf8=1&format=json";
         } catch (Exception e) {
             return null;
         }
     }
 
+    private static String clip(String extract) {
+        return extract.length() > 1500 ? extract.substring(0, 1500) : extract;
+    }
+
     private static void appendArticle(StringBuilder sb, String lang,
                                        String title, String updated, String extract) {
         String articleUrl = "https://" + lang + ".wikipedia.org/wiki/";
@@ -187,28 +280,63 @@ public final class WikipediaSearchHelper {
         sb.append(articleUrl).append("\n");
     }
 
-    // Wikipedia Summary REST API で記事 JSON を取得する（title・extract を含む）
-    private static JSONObject fetchSummary(OkHttpClient client, String lang, String title) {
+    // Wikipedia Summary REST API で記事 JSON を非同期に取得する（title・extract を含む。曖昧さ回避・本文なしは null）
+    private static CompletableFuture<JSONObject> fetchSummaryAsync(OkHttpClient client, CallGroup calls,
+                                                                  String lang, String title) {
+        String url;
         try {
-            String url = "https://" + lang + ".wikipedia.org/api/rest_v1/page/summary/"
+            url = "https://" + lang + ".wikipedia.org/api/rest_v1/page/summary/"
                     + java.net.URLEncoder.encode(title.replace(" ", "_"), "UTF-8");
-            Request request = new Request.Builder()
-                    .url(url)
-                    .addHeader("User-Agent", "llamachat/1.0 (Android)")
-                    .addHeader("Accept", "application/json")
-                    .get()
-                    .build();
-            try (Response resp = client.newCall(request).execute()) {
-                if (!resp.isSuccessful()) return null;
-                String body = resp.body() != null ? resp.body().string() : "";
-                JSONObject json = new JSONObject(body);
-                if ("disambiguation".equals(json.optString("type", ""))) return null;
-                if (json.optString("extract", "").trim().isEmpty()) return null;
-                return json;
-            }
         } catch (Exception e) {
-            return null;
+            return CompletableFuture.completedFuture(null);
+        }
+        return getJsonAsync(client, calls, url).thenApply(json -> {
+            if (json == null) return null;
+            if ("disambiguation".equals(json.optString("type", ""))) return null;
+            if (json.optString("extract", "").trim().isEmpty()) return null;
+            return json;
+        });
+    }
+
+    /** GET して JSON を返す非同期要求。失敗・非 2xx・解析失敗は null で完了する（例外では完了しない）。 */
+    private static CompletableFuture<JSONObject> getJsonAsync(OkHttpClient client, CallGroup calls, String url) {
+        CompletableFuture<JSONObject> future = new CompletableFuture<>();
+        if (url == null) {
+            future.complete(null);
+            return future;
+        }
+        Request request = new Request.Builder()
+                .url(url)
+                .addHeader("User-Agent", "llamachat/1.0 (Android)")
+                .addHeader("Accept", "application/json")
+                .get()
+                .build();
+        Call call = client.newCall(request);
+        if (!calls.add(call)) {
+            // search() が既に戻った後（期限切れ後に届いた検索ヒットの要約など）は発行しない
+            future.complete(null);
+            return future;
         }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                future.complete(null);
+            }
+
+            @Override
+            public void onResponse(Call c, Response resp) {
+                try (Response r = resp) {
+                    if (!r.isSuccessful() || r.body() == null) {
+                        future.complete(null);
+                        return;
+                    }
+                    future.complete(new JSONObject(r.body().string()));
+                } catch (Exception e) {
+                    future.complete(null);
+                }
+            }
+        });
+        return future;
     }
 
     // クエリに CJK 文字（日本語・中国語）が含まれるか判定
@@ -0,0 +1,202 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * {@link ContextPacker} の検証。予算内への詰め込み、先頭の固定（KV キャッシュ再利用）、まとめて落とす挙動、キャッシュを確認する。
+ */
+public class ContextPackerTest {
+
+    // 1 文字 1 トークンとして数える
+    private static final ToIntFunction<String> LENGTH = String::length;
+
+    @Test
+    public void fitsEverything_whenWithinBudget() throws Exception {
+        ContextPacker packer = new ContextPacker();
+        JSONObject sys = msg("system", "sys");
+        List<JSONObject> turns = conversation(6, 10);
+        List<JSONObject> out = packer.pack("m", LENGTH, sys, turns, 100, 4096, 256);
+        assertEquals(turns.size() + 1, out.size());
+        assertSame(sys, out.get(0));
+        assertSame(turns.get(turns.size() - 1), out.get(out.size() - 1));
+    }
+
+    @Test
+    public void dropsOldestTurns_toFitTokenBudget() throws Exception {
+        ContextPacker packer = new ContextPacker();
+        List<JSONObject> turns = conversation(40, 50);
+        int numCtx = 1000;
+        int numPredict = 200;
+        List<JSONObject> out = packer.pack("m", LENGTH, null, turns, 100, numCtx, numPredict);
+        assertSame(turns.get(turns.size() - 1), out.get(out.size() - 1));
+        assertEquals("user", out.get(0).optString("role"));
+        assertTrue(total(out) <= numCtx - numPredict - ContextPacker.MIN_SAFETY_TOKENS);
+        assertTrue(out.size() > 4);
+    }
+
+    @Test
+    public void keepsPrefixStable_acrossTurnsUntilBudgetRunsOut() throws Exception {
+        ContextPacker packer = new ContextPacker();
+        List<JSONObject> history = conversation(40, 50);
+        List<JSONObject> first = packer.pack("m", LENGTH, null, history, 100, 1000, 200);
+        JSONObject head = first.get(0);
+
+        // 次のターン: 同じ先頭から送り、途中のターンは落とさない
+        history.add(msg("assistant", pad("x", 50)));
+        history.add(msg("user", pad("y", 50)));
+        List<JSONObject> second = packer.pack("m", LENGTH, null, history, 100, 1000, 200);
+        assertSame(head, second.get(0));
+        assertEquals(first.size() + 2, second.size());
+
+        // 収まらなくなるまで先頭は変わらず、溢れたときはまとめて落とす
+        int shifts = 0;
+        JSONObject current = head;
+        int previousSize = second.size();
+        for (int t = 0; t < 20; t++) {
+            history.add(msg("assistant", pad("x" + t, 50)));
+            history.add(msg("user", pad("y" + t, 50)));
+            List<JSONObject> out = packer.pack("m", LENGTH, null, history, 100, 1000, 200);
+            if (out.get(0) != current) {
+                shifts++;
+                current = out.get(0);
+                assertTrue(out.size() < previousSize);
+            }
+            previousSize = out.size();
+        }
+        assertTrue("shifts=" + shifts, shifts > 0 && shifts <= 8);
+    }
+
+    @Test
+    public void keepsPrefixStable_withDuplicateShortTurns() throws Exception {
+        ContextPacker packer = new ContextPacker();
+        // 同じ文面のターンばかりの履歴（「ok」の応酬）
+        List<JSONObject> history = new ArrayList<>();
+        for (int i = 0; i < 40; i++) history.add(msg(i % 2 == 0 ? "user" : "assistant", pad("ok", 50)));
+        history.add(msg("user", pad("ok", 50)));
+        List<JSONObject> first = packer.pack("m", LENGTH, null, history, 100, 1000, 200);
+        JSONObject head = first.get(0);
+        assertTrue(head != history.get(0));
+
+        history.add(msg("assistant", pad("ok", 50)));
+        history.add(msg("user", pad("ok", 50)));
+        List<JSONObject> second = packer.pack("m", LENGTH, null, history, 100, 1000, 200);
+        assertSame(head, second.get(0));
+        assertEquals(first.size() + 2, second.size());
+
+        // 保存側の履歴が先頭から削られても同じターンから送る
+        history.subList(0, 4).clear();
+        List<JSONObject> third = packer.pack("m", LENGTH, null, history, 100, 1000, 200);
+        assertSame(head, third.get(0));
+        assertEquals(second.size(), third.size());
+    }
+
+    @Test
+    public void respectsTurnLimit_withoutTokenLimit() throws Exception {
+        ContextPacker packer = new ContextPacker();
+        List<JSONObject> turns = conversation(30, 5);
+        List<JSONObject> out = packer.pack("m", LENGTH, null, turns, 8, 0, 0);
+        assertTrue(out.size() - 1 <= 8);
+        assertEquals("user", out.get(0).optString("role"));
+        assertSame(turns.get(turns.size() - 1), out.get(out.size() - 1));
+    }
+
+    @Test
+    public void alwaysKeepsSystemAndLatest_evenWhenOverBudget() throws Exception {
+        ContextPacker packer = new ContextPacker();
+        JSONObject sys = msg("system", "sys");
+        List<JSONObject> turns = conversation(4, 10);
+        turns.add(msg("user", pad("huge", 5000)));
+        List<JSONObject> out = packer.pack("m", LENGTH, sys, turns, 100, 1000, 200);
+        assertEquals(2, out.size());
+        assertSame(sys, out.get(0));
+    }
+
+    @Test
+    public void tokenCounts_areCachedPerModelAndContent() throws Exception {
+        ContextPacker packer = new ContextPacker();
+        AtomicInteger calls = new AtomicInteger();
+        ToIntFunction<String> counting = s -> {
+            calls.incrementAndGet();
+            return s.length();
+        };
+        List<JSONObject> turns = conversation(10, 10);
+        packer.pack("m", counting, null, turns, 100, 4096, 256);
+        assertEquals(turns.size(), calls.get());
+        packer.pack("m", counting, null, turns, 100, 4096, 256);
+        assertEquals(turns.size(), calls.get());
+        packer.pack("other", counting, null, turns, 100, 4096, 256);
+        assertEquals(2 * turns.size(), calls.get());
+    }
+
+    @Test
+    public void lastPromptTokens_matchesPackedMessages() throws Exception {
+        ContextPacker packer = new ContextPacker();
+        JSONObject sys = msg("system", "system prompt");
+        List<JSONObject> out = packer.pack("m", LENGTH, sys, conversation(40, 50), 100, 1000, 200);
+        assertEquals(total(out), packer.lastPromptTokens());
+    }
+
+    @Test
+    public void blockTrimCount_dropsWholeEvenBlocks() {
+        assertEquals(0, ContextPacker.blockTrimCount(24, 24));
+        assertEquals(6, ContextPacker.blockTrimCount(25, 24));  // ブロック = 24 / 4 = 6
+        assertEquals(6, ContextPacker.blockTrimCount(30, 24));
+        assertEquals(12, ContextPacker.blockTrimCount(31, 24));
+        assertEquals(8, ContextPacker.blockTrimCount(29, 28));  // 28 / 4 = 7 → 偶数に切り上げて 8
+        assertEquals(3, ContextPacker.blockTrimCount(3, 0));
+    }
+
+    @Test
+    public void describePromptEval_reportsReusedPrefix() throws Exception {
+        JSONObject done = new JSONObject().put("done", true).put("prompt_eval_count", 30).put("eval_count", 12);
+        assertEquals("prompt_eval_count=30 / prompt≈120 tokens (reused≈90, 75%), eval_count=12",
+                ContextPacker.describePromptEval(done, 120));
+        assertEquals("prompt_eval_count=? / prompt≈50 tokens",
+                ContextPacker.describePromptEval(new JSONObject(), 50));
+    }
+
+    @Test
+    public void withTrailingContext_startsWithTheStoredQuestion() {
+        String sent = ContextPacker.withTrailingContext("明日の予定は？", "MEMORIES:", "- 10時 歯医者");
+        assertEquals("明日の予定は？\n\nMEMORIES:\n- 10時 歯医者", sent);
+        assertTrue(sent.startsWith("明日の予定は？"));
+        assertEquals("明日の予定は？", ContextPacker.withTrailingContext("明日の予定は？", "MEMORIES:", " "));
+    }
+
+    private static List<JSONObject> conversation(int n, int length) throws Exception {
+        List<JSONObject> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String role = i % 2 == 0 ? "user" : "assistant";
+            out.add(msg(role, pad(role.charAt(0) + Integer.toString(i), length)));
+        }
+        // 末尾は今回のユーザーメッセージ
+        if (!"user".equals(out.get(out.size() - 1).optString("role"))) out.add(msg("user", pad("q", length)));
+        return out;
+    }
+
+    private static JSONObject msg(String role, String content) throws Exception {
+        return new JSONObject().put("role", role).put("content", content);
+    }
+
+    private static String pad(String prefix, int length) {
+        StringBuilder sb = new StringBuilder(prefix);
+        while (sb.length() < length) sb.append('.');
+        return sb.toString();
+    }
+
+    private static int total(List<JSONObject> messages) {
+        int sum = 0;
+        for (JSONObject m : messages) sum += m.optString("content").length() + ContextPacker.MESSAGE_OVERHEAD_TOKENS;
+        return sum;
+    }
+}
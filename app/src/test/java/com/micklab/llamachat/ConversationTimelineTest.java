@@ -0,0 +1,109 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@link ConversationTimeline} の検証。単調な時刻、旧形式の行への安定した時刻付け、(時刻, ID) によるページ送りを確認する。
+ */
+public class ConversationTimelineTest {
+
+    @Test
+    public void nextTimestamp_isStrictlyIncreasing() {
+        assertEquals(1000L, ConversationTimeline.nextTimestamp(999L, 1000L));
+        assertEquals(1001L, ConversationTimeline.nextTimestamp(1000L, 1000L));
+        assertEquals(1001L, ConversationTimeline.nextTimestamp(1000L, 900L)); // 時計の巻き戻り
+        assertEquals(5L, ConversationTimeline.nextTimestamp(0L, 5L));
+    }
+
+    @Test
+    public void stampLegacy_keepsOrderAndIsStable() {
+        long[] stamped = ConversationTimeline.stampLegacy(new long[]{0, 0, 0}, 1000L);
+        assertArrayEquals(new long[]{997, 998, 999}, stamped);
+        // 書き戻した値をもう一度読んでも変わらない
+        assertArrayEquals(stamped, ConversationTimeline.stampLegacy(stamped, 5000L));
+    }
+
+    @Test
+    public void stampLegacy_placesUntimedLinesBeforeTheNextTimedOne() {
+        long[] stamped = ConversationTimeline.stampLegacy(new long[]{0, 0, 500, 0, 800}, 1000L);
+        assertArrayEquals(new long[]{498, 499, 500, 799, 800}, stamped);
+    }
+
+    @Test
+    public void oldest_comparesTimeThenId() {
+        ConversationTimeline.Position a = new ConversationTimeline.Position(100, 7);
+        ConversationTimeline.Position b = new ConversationTimeline.Position(100, 3);
+        ConversationTimeline.Position c = new ConversationTimeline.Position(200, 1);
+        List<Object> tags = new ArrayList<>(Arrays.asList(c, "other", a, null, b));
+        assertSame(b, ConversationTimeline.oldest(tags));
+        assertNull(ConversationTimeline.oldest(Arrays.asList("x", 1L)));
+    }
+
+    @Test
+    public void follows_breaksTiesById() {
+        ConversationTimeline.Position p = new ConversationTimeline.Position(100, 5);
+        assertTrue(p.follows(99, 50));
+        assertTrue(p.follows(100, 4));
+        assertFalse(p.follows(100, 5));
+        assertFalse(p.follows(100, 6));
+        assertFalse(p.follows(101, 1));
+        // ID の分からない行（窓から描いた行）は同じ時刻のターンを含めない
+        assertFalse(new ConversationTimeline.Position(100, 0).follows(100, 1));
+    }
+
+    @Test
+    public void paging_overTurnsSharingAMillisecond_neitherSkipsNorRepeats() {
+        // 10 件のうち 6 件が同じ時刻
+        List<ConversationArchive.Turn> all = new ArrayList<>();
+        long[] times = {10, 20, 30, 30, 30, 30, 30, 30, 40, 50};
+        for (int i = 0; i < times.length; i++) all.add(turn(i + 1, times[i]));
+
+        List<Long> seen = new ArrayList<>();
+        ConversationTimeline.Position before = new ConversationTimeline.Position(60, 0);
+        while (true) {
+            List<ConversationArchive.Turn> page =
+                    ConversationTimeline.olderPage(pageBefore(all, before, 3), before, 0L);
+            if (page.isEmpty()) break;
+            for (int i = page.size() - 1; i >= 0; i--) seen.add(page.get(i).id);
+            ConversationArchive.Turn first = page.get(0);
+            before = new ConversationTimeline.Position(first.createdAt, first.id);
+        }
+        assertEquals(Arrays.asList(10L, 9L, 8L, 7L, 6L, 5L, 4L, 3L, 2L, 1L), seen);
+    }
+
+    @Test
+    public void olderPage_returnsOldestFirstAndStopsAtReset() {
+        List<ConversationArchive.Turn> newestFirst = Arrays.asList(turn(4, 40), turn(3, 30), turn(2, 20), turn(1, 10));
+        List<ConversationArchive.Turn> page = ConversationTimeline.olderPage(
+                newestFirst, new ConversationTimeline.Position(50, 0), 25L);
+        assertEquals(2, page.size());
+        assertEquals(3L, page.get(0).id);
+        assertEquals(4L, page.get(1).id);
+    }
+
+    /** {@link ConversationArchive#pageBefore} と同じ条件・順序で絞り込む。 */
+    private static List<ConversationArchive.Turn> pageBefore(List<ConversationArchive.Turn> all,
+                                                             ConversationTimeline.Position before, int limit) {
+        List<ConversationArchive.Turn> out = new ArrayList<>();
+        for (int i = all.size() - 1; i >= 0 && out.size() < limit; i--) {
+            ConversationArchive.Turn t = all.get(i);
+            if (t.createdAt < before.createdAt || (t.createdAt == before.createdAt && t.id < before.id)) out.add(t);
+        }
+        return out;
+    }
+
+    private static ConversationArchive.Turn turn(long id, long createdAt) {
+        return new ConversationArchive.Turn(id, createdAt, "user", "user", "t" + id);
+    }
+}
@@ -0,0 +1,101 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * {@link EmbeddingCache} の検証。LRU の容量上限・永続ストアからの読み戻し・モデル別のキー分離を確認する。
+ */
+public class EmbeddingCacheTest {
+
+    /** メモリ上の Map で代用する永続ストア（load 回数も数える）。 */
+    private static final class MapStore implements EmbeddingCache.Store {
+        final Map<String, float[]> rows = new HashMap<>();
+        int loads = 0;
+
+        @Override
+        public Map<String, float[]> load(String model, Collection<String> textHashes) {
+            loads++;
+            Map<String, float[]> out = new HashMap<>();
+            for (String h : textHashes) {
+                float[] v = rows.get(model + "/" + h);
+                if (v != null) out.put(h, v);
+            }
+            return out;
+        }
+
+        @Override
+        public void save(String model, Map<String, float[]> vectors) {
+            for (Map.Entry<String, float[]> e : vectors.entrySet()) rows.put(model + "/" + e.getKey(), e.getValue());
+        }
+    }
+
+    @Test
+    public void lru_evictsLeastRecentlyUsed() {
+        EmbeddingCache cache = new EmbeddingCache(2, null);
+        cache.putAll("m", Collections.singletonMap("a", new float[]{1f}));
+        cache.putAll("m", Collections.singletonMap("b", new float[]{2f}));
+        cache.getAll("m", Collections.singletonList("a")); // a を最近使用に
+        cache.putAll("m", Collections.singletonMap("c", new float[]{3f}));
+        assertEquals(2, cache.memorySize());
+        Map<String, float[]> hit = cache.getAll("m", Arrays.asList("a", "b", "c"));
+        assertTrue(hit.containsKey("a"));
+        assertFalse(hit.containsKey("b"));
+        assertTrue(hit.containsKey("c"));
+    }
+
+    @Test
+    public void store_servesMemoryMissesAndIsQueriedOnlyForThem() {
+        MapStore store = new MapStore();
+        EmbeddingCache writer = new EmbeddingCache(8, store);
+        writer.putAll("m", Collections.singletonMap("a", new float[]{1f, 2f}));
+
+        // 再起動相当：空の LRU から永続ストアを引く
+        EmbeddingCache cache = new EmbeddingCache(8, store);
+        Map<String, float[]> hit = cache.getAll("m", Arrays.asList("a", "x"));
+        assertArrayEquals(new float[]{1f, 2f}, hit.get("a"), 0f);
+        assertFalse(hit.containsKey("x"));
+        assertEquals(1, store.loads);
+
+        // 2 回目は LRU に載っているので、ストアへの問い合わせはミス分（x）だけ
+        cache.getAll("m", Collections.singletonList("a"));
+        assertEquals(1, store.loads);
+        cache.getAll("m", Arrays.asList("a", "x"));
+        assertEquals(2, store.loads);
+    }
+
+    @Test
+    public void keys_areSeparatedByModel() {
+        EmbeddingCache cache = new EmbeddingCache(8, new MapStore());
+        cache.putAll("m1", Collections.singletonMap("a", new float[]{1f}));
+        assertTrue(cache.getAll("m2", Collections.singletonList("a")).isEmpty());
+        assertEquals(1, cache.getAll("m1", Collections.singletonList("a")).size());
+    }
+
+    @Test
+    public void storeFailure_isTreatedAsMiss() {
+        EmbeddingCache cache = new EmbeddingCache(8, new EmbeddingCache.Store() {
+            @Override
+            public Map<String, float[]> load(String model, Collection<String> textHashes) {
+                throw new IllegalStateException("db closed");
+            }
+
+            @Override
+            public void save(String model, Map<String, float[]> vectors) {
+                throw new IllegalStateException("db closed");
+            }
+        });
+        cache.putAll("m", Collections.singletonMap("a", new float[]{1f}));
+        assertEquals(1, cache.getAll("m", Arrays.asList("a", "b")).size());
+    }
+}
@@ -3,11 +3,26 @@ package com.micklab.llamachat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Test;
 
+import okhttp3.OkHttpClient;
+
 /**
- * {@link EmbeddingClient} の純粋計算ユーティリティ（コサイン類似度・L2 正規化）の検証。
- * HTTP / JSON 経路は Android スタブを踏むためここでは対象外。
+ * {@link EmbeddingClient} の純粋計算ユーティリティ（コサイン類似度・L2 正規化）と、
+ * ローカルのスタブサーバーに対するキャッシュ経路（同名モデルの次元変更）の検証。
  */
 public class EmbeddingClientTest {
 
@@ -81,4 +96,42 @@ public class EmbeddingClientTest {
                 EmbeddingClient.l2Normalize(a), EmbeddingClient.l2Normalize(b));
         assertTrue(Math.abs(raw - norm) < 1e-4f);
     }
+
+    @Test
+    public void embedBatchFlat_dimensionChange_refetchesOnceAndOverwritesCache() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/embed", ex -> {
+            requests.incrementAndGet();
+            String body;
+            try (InputStream in = ex.getRequestBody(); Scanner sc = new Scanner(in, "UTF-8")) {
+                body = sc.useDelimiter("\\A").hasNext() ? sc.next() : "";
+            }
+            int n = new JSONObject(body).getJSONArray("input").length();
+            JSONArray vecs = new JSONArray();
+            for (int i = 0; i < n; i++) vecs.put(new JSONArray(Arrays.asList(1, 2, 3)));
+            byte[] bytes = new JSONObject().put("embeddings", vecs).toString().getBytes(StandardCharsets.UTF_8);
+            ex.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        try {
+            EmbeddingCache cache = new EmbeddingCache(16, null);
+            // 差し替え前のモデルが 2 次元で保存した「a」
+            cache.putAll("m", Collections.singletonMap(VectorCodec.textHash("a"), new float[]{1f, 0f}));
+            EmbeddingClient client = new EmbeddingClient(new OkHttpClient(),
+                    "http://127.0.0.1:" + server.getAddress().getPort(), "m", cache);
+
+            EmbeddingBatch first = client.embedBatchFlat(Arrays.asList("a", "b"));
+            assertEquals(3, first.dimension());
+            int afterFirst = requests.get();
+            EmbeddingBatch second = client.embedBatchFlat(Arrays.asList("a", "b"));
+            assertEquals(3, second.dimension());
+            assertEquals(afterFirst, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
 }
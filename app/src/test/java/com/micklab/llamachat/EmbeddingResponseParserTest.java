@@ -0,0 +1,137 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * {@link EmbeddingResponseParser} / {@link EmbeddingBatch} の検証。数値表記の揺れ・無関係フィールドの読み飛ばし・
+ * 1 文字ずつ届く入力・不正入力を確認する。
+ */
+public class EmbeddingResponseParserTest {
+
+    private static final float EPS = 1e-6f;
+
+    /** 1 回の read で 1 文字しか返さない Reader（チャンク境界をまたぐ数値・キーの確認用）。 */
+    private static final class TrickleReader extends Reader {
+        private final String s;
+        private int i = 0;
+
+        TrickleReader(String s) {
+            this.s = s;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (i >= s.length()) return -1;
+            cbuf[off] = s.charAt(i++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static EmbeddingBatch parseBoth(String json, String field, int expected) throws IOException {
+        EmbeddingBatch a = EmbeddingResponseParser.parse(new StringReader(json), field, expected);
+        EmbeddingBatch b = EmbeddingResponseParser.parse(new TrickleReader(json), field, expected);
+        assertEquals(a.size(), b.size());
+        assertEquals(a.dimension(), b.dimension());
+        for (int i = 0; i < a.size(); i++) assertArrayEquals(a.get(i), b.get(i), 0f);
+        return a;
+    }
+
+    @Test
+    public void apiEmbed_parsesVectorsIntoFlatArray() throws IOException {
+        String json = "{\"model\":\"nomic \\\"embed\\\" {x}\",\"embeddings\":[[0.5,-1.25e-3,12],"
+                + " [ 0 , 1.5E+2 , -0.0 ]],\"total_duration\":12345,\"load_duration\":null,"
+                + "\"meta\":{\"a\":[1,{\"b\":\"]\"}],\"ok\":true}}";
+        EmbeddingBatch batch = parseBoth(json, EmbeddingResponseParser.FIELD_EMBEDDINGS, 2);
+        assertEquals(2, batch.size());
+        assertEquals(3, batch.dimension());
+        assertArrayEquals(new float[]{0.5f, -0.00125f, 12f}, batch.get(0), EPS);
+        assertArrayEquals(new float[]{0f, 150f, 0f}, batch.get(1), EPS);
+        assertEquals(3, batch.offset(1));
+    }
+
+    @Test
+    public void legacyEmbedding_parsesSingleVector() throws IOException {
+        EmbeddingBatch batch = parseBoth("{\"embedding\":[1,2,3]}", EmbeddingResponseParser.FIELD_EMBEDDING, 1);
+        assertEquals(1, batch.size());
+        assertArrayEquals(new float[]{1f, 2f, 3f}, batch.get(0), 0f);
+    }
+
+    @Test
+    public void emptyEmbeddings_yieldsEmptyBatch() throws IOException {
+        EmbeddingBatch batch = parseBoth("{\"embeddings\":[]}", EmbeddingResponseParser.FIELD_EMBEDDINGS, 4);
+        assertTrue(batch.isEmpty());
+        assertEquals(0, batch.dimension());
+    }
+
+    @Test
+    public void numbers_matchJdkParsingWithinOneUlp() throws IOException {
+        Random rnd = new Random(42);
+        int n = 3, dim = 512;
+        float[] expected = new float[n * dim];
+        StringBuilder json = new StringBuilder("{\"embeddings\":[");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) json.append(',');
+            json.append('[');
+            for (int k = 0; k < dim; k++) {
+                double v = rnd.nextGaussian() * Math.pow(10, rnd.nextInt(7) - 4);
+                String text = (k % 2 == 0) ? Double.toString(v) : Float.toString((float) v);
+                expected[i * dim + k] = Float.parseFloat(text);
+                if (k > 0) json.append(',');
+                json.append(text);
+            }
+            json.append(']');
+        }
+        json.append("]}");
+        EmbeddingBatch batch = parseBoth(json.toString(), EmbeddingResponseParser.FIELD_EMBEDDINGS, 1);
+        assertEquals(n, batch.size());
+        assertEquals(dim, batch.dimension());
+        for (int i = 0; i < expected.length; i++) {
+            float got = batch.data()[i];
+            assertEquals("index " + i, expected[i], got, Math.ulp(expected[i]));
+        }
+    }
+
+    @Test
+    public void batchCosine_matchesEmbeddingClient() {
+        float[] data = {1f, 0f, 3f, 4f};
+        EmbeddingBatch batch = new EmbeddingBatch(data, 2, 2);
+        float[] q = {3f, 4f};
+        assertEquals(EmbeddingClient.cosineSimilarity(q, batch.get(0)), batch.cosineSimilarity(0, q), EPS);
+        assertEquals(1f, batch.cosineSimilarity(1, q), EPS);
+        assertEquals(0f, batch.cosineSimilarity(1, new float[]{1f}), 0f);
+    }
+
+    @Test
+    public void invalidInput_throwsIOException() {
+        String[] bad = {
+                "",
+                "{\"model\":\"x\"}",
+                "{\"embeddings\":[[1,2],[3]]}",
+                "{\"embeddings\":[[1,,2]]}",
+                "{\"embeddings\":[[1,2]",
+                "{\"embeddings\":[[1e]]}",
+        };
+        for (String json : bad) {
+            try {
+                EmbeddingResponseParser.parse(new StringReader(json), EmbeddingResponseParser.FIELD_EMBEDDINGS, 1);
+                fail("expected IOException for: " + json);
+            } catch (IOException expected) {
+                // ok
+            }
+        }
+    }
+}
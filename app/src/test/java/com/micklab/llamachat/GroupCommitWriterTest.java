@@ -0,0 +1,138 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@link GroupCommitWriter} の検証。間隔内の追記が 1 回の書き出しにまとまること、flush・clear の順序、sync の回数、書き出し失敗の通知を確認する。
+ */
+public class GroupCommitWriterTest {
+
+    /** 書き出し内容と呼び出し回数を記録する書き出し先。 */
+    private static final class RecordingSink implements GroupCommitWriter.Sink {
+        final List<String> stored = new ArrayList<>();
+        final List<Integer> batchSizes = new ArrayList<>();
+        int syncs;
+
+        @Override
+        public synchronized void write(List<String> records) {
+            stored.addAll(records);
+            batchSizes.add(records.size());
+        }
+
+        @Override
+        public synchronized void sync() {
+            syncs++;
+        }
+
+        @Override
+        public synchronized void clear() {
+            stored.clear();
+        }
+    }
+
+    @Test
+    public void appendsWithinInterval_areCommittedTogether() {
+        RecordingSink sink = new RecordingSink();
+        GroupCommitWriter w = new GroupCommitWriter("test-writer", sink, 64, 500, true);
+        for (int i = 0; i < 20; i++) w.append("r" + i);
+        assertTrue(w.flush(5000));
+        synchronized (sink) {
+            assertEquals(20, sink.stored.size());
+            assertEquals("r0", sink.stored.get(0));
+            assertEquals("r19", sink.stored.get(19));
+            // 最初の 1 件を待つ間に届いた分はまとめて書かれる（flush で待たずに確定）
+            assertTrue(sink.batchSizes.toString(), sink.batchSizes.size() <= 2);
+            assertEquals(sink.batchSizes.size(), sink.syncs);
+        }
+    }
+
+    @Test
+    public void flush_returnsPromptlyWithoutWaitingForInterval() {
+        RecordingSink sink = new RecordingSink();
+        GroupCommitWriter w = new GroupCommitWriter("test-writer", sink, 64, 60_000, false);
+        w.append("only");
+        long start = System.currentTimeMillis();
+        assertTrue(w.flush(5000));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        synchronized (sink) {
+            assertEquals(Arrays.asList("only"), sink.stored);
+            assertEquals(0, sink.syncs);
+        }
+    }
+
+    @Test
+    public void clear_appliesInQueueOrder() {
+        RecordingSink sink = new RecordingSink();
+        GroupCommitWriter w = new GroupCommitWriter("test-writer", sink, 64, 200, false);
+        w.append("before-1");
+        w.append("before-2");
+        w.clear();
+        w.append("after");
+        assertTrue(w.flush(5000));
+        synchronized (sink) {
+            assertEquals(Arrays.asList("after"), sink.stored);
+        }
+    }
+
+    @Test
+    public void boundedQueue_blocksProducerUntilDrained() {
+        RecordingSink sink = new RecordingSink();
+        GroupCommitWriter w = new GroupCommitWriter("test-writer", sink, 2, 0, false);
+        for (int i = 0; i < 100; i++) w.append("r" + i);
+        assertTrue(w.flush(5000));
+        synchronized (sink) {
+            assertEquals(100, sink.stored.size());
+            assertEquals("r99", sink.stored.get(99));
+        }
+    }
+
+    @Test
+    public void writeFailures_areReportedAndCounted() {
+        List<Integer> reported = new ArrayList<>();
+        GroupCommitWriter.Sink failing = new GroupCommitWriter.Sink() {
+            boolean full = true;
+
+            @Override
+            public void write(List<String> records) throws IOException {
+                if (full) throw new IOException("No space left on device");
+            }
+
+            @Override
+            public void sync() {
+            }
+
+            @Override
+            public void clear() {
+                full = false;
+            }
+
+            @Override
+            public void failed(Exception e, int records) {
+                synchronized (reported) {
+                    reported.add(records);
+                }
+            }
+        };
+        GroupCommitWriter w = new GroupCommitWriter("test-writer", failing, 64, 0, false);
+        w.append("lost");
+        assertFalse(w.flush(5000));
+        assertEquals(1, w.failureCount());
+        synchronized (reported) {
+            assertEquals(Arrays.asList(1), reported);
+        }
+        // 失敗は 1 度だけ報告し、次の flush は新しい失敗が無ければ true
+        w.clear();
+        w.append("kept");
+        assertTrue(w.flush(5000));
+        assertEquals(1, w.failureCount());
+    }
+}
@@ -0,0 +1,139 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * {@link HnswIndex} の検証。総当たりとの recall@k、削除・置き換え、作り直し、保存・復元を確認する。
+ */
+public class HnswIndexTest {
+
+    private static final int DIM = 64;
+
+    @Test
+    public void recallAt10_matchesBruteForce() {
+        // 問い合わせもデータと同じ分布から取る（末尾 100 件は索引に入れない）
+        byte[][] all = clusteredVectors(new Random(3), 5100);
+        int n = 5000;
+        HnswIndex index = new HnswIndex();
+        for (int i = 0; i < n; i++) assertTrue(index.add(i, all[i]));
+        assertEquals(n, index.size());
+
+        int hits = 0;
+        for (int t = n; t < all.length; t++) {
+            Set<Long> exact = bruteForce(all, n, all[t], 10);
+            for (long id : index.search(all[t], 10)) {
+                if (exact.contains(id)) hits++;
+            }
+        }
+        float recall = hits / (float) ((all.length - n) * 10);
+        assertTrue("recall@10 = " + recall, recall >= 0.95f);
+    }
+
+    @Test
+    public void removedAndReplaced_areReflected() {
+        Random rnd = new Random(5);
+        HnswIndex index = new HnswIndex();
+        byte[][] data = clusteredVectors(rnd, 500);
+        for (int i = 0; i < data.length; i++) index.add(i, data[i]);
+
+        assertEquals(7L, index.search(data[7], 1)[0]);
+        assertTrue(index.remove(7));
+        assertFalse(index.remove(7));
+        assertFalse(index.contains(7));
+        for (long id : index.search(data[7], 10)) assertTrue(id != 7L);
+
+        // 同じ ID を別のベクトルで登録し直すと、新しいベクトル側で見つかる
+        index.add(8, data[7]);
+        assertEquals(8L, index.search(data[7], 1)[0]);
+        assertEquals(499, index.size());
+        assertTrue(index.deletedRatio() > 0f);
+
+        HnswIndex compacted = index.compact();
+        assertEquals(499, compacted.size());
+        assertEquals(0f, compacted.deletedRatio(), 0f);
+        assertEquals(8L, compacted.search(data[7], 1)[0]);
+    }
+
+    @Test
+    public void mismatchedDimension_isRejected() {
+        HnswIndex index = new HnswIndex();
+        assertTrue(index.add(1, QuantizedVectors.encodeInt8(new float[]{1f, 0f})));
+        assertFalse(index.add(2, QuantizedVectors.encodeInt8(new float[]{1f, 0f, 0f})));
+        assertEquals(0, index.search(QuantizedVectors.encodeInt8(new float[]{1f, 0f, 0f}), 3).length);
+        assertArrayEquals(new long[]{1L}, index.search(QuantizedVectors.encodeInt8(new float[]{0f, 1f}), 3));
+    }
+
+    @Test
+    public void writeAndRead_roundTrip() throws Exception {
+        Random rnd = new Random(9);
+        HnswIndex index = new HnswIndex();
+        byte[][] data = clusteredVectors(rnd, 800);
+        for (int i = 0; i < data.length; i++) index.add(i + 100, data[i]);
+        index.remove(100);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        HnswIndex restored = HnswIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(index.size(), restored.size());
+        assertFalse(restored.contains(100));
+        for (int t = 0; t < 20; t++) {
+            byte[] q = QuantizedVectors.encodeInt8(randomUnit(rnd));
+            assertArrayEquals(index.search(q, 10), restored.search(q, 10));
+        }
+        // 復元後も追加できる
+        assertTrue(restored.add(5000, data[0]));
+        assertEquals(800, restored.size());
+    }
+
+    // ===== データ生成 =====
+
+    /** 64 個の中心のまわりに散らした正規化ベクトル（実際の文埋め込みのように偏りのある分布）。 */
+    static byte[][] clusteredVectors(Random rnd, int n) {
+        float[][] centers = new float[64][];
+        for (int c = 0; c < centers.length; c++) centers[c] = randomUnit(rnd);
+        byte[][] out = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            float[] center = centers[rnd.nextInt(centers.length)];
+            float[] v = new float[DIM];
+            for (int k = 0; k < DIM; k++) v[k] = center[k] + 0.08f * (float) rnd.nextGaussian();
+            out[i] = QuantizedVectors.encodeInt8(normalize(v));
+        }
+        return out;
+    }
+
+    static float[] randomUnit(Random rnd) {
+        float[] v = new float[DIM];
+        for (int k = 0; k < DIM; k++) v[k] = (float) rnd.nextGaussian();
+        return normalize(v);
+    }
+
+    private static float[] normalize(float[] v) {
+        double n = 0.0;
+        for (float x : v) n += x * x;
+        float inv = (float) (1.0 / Math.sqrt(n));
+        for (int k = 0; k < v.length; k++) v[k] *= inv;
+        return v;
+    }
+
+    private static Set<Long> bruteForce(byte[][] data, int n, byte[] q, int k) {
+        float[] scores = new float[n];
+        for (int i = 0; i < n; i++) scores[i] = QuantizedVectors.dotInt8(q, data[i]);
+        Set<Long> out = new HashSet<>();
+        for (int i : VectorScoring.topK(scores, scores.length, k)) out.add((long) i);
+        return out;
+    }
+}
@@ -0,0 +1,79 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.junit.Test;
+
+/**
+ * {@link HtmlTextExtractor} の検証。不要要素の除外・文字参照・空白と改行の整形・文字数上限での停止を確認する。
+ */
+public class HtmlTextExtractorTest {
+
+    @Test
+    public void skipsScriptStyleCommentsAndChrome() {
+        String html = "<!DOCTYPE html><html><head><title>T</title><style>p{color:red}</style></head>"
+                + "<body><nav><a href='/'>Home</a><ul><li>Menu</li></ul></nav>"
+                + "<script>if (a < b && c > d) { document.write('</p>'); }</script>"
+                + "<!-- <p>hidden</p> -->"
+                + "<main><h1>見出し</h1><p>本文 <b>です</b>。</p></main>"
+                + "<footer>Copyright</footer></body></html>";
+        assertEquals("見出し\n本文 です。", HtmlTextExtractor.extract(html, 1000));
+    }
+
+    @Test
+    public void decodesEntitiesAndKeepsUnknownOnesVerbatim() {
+        String html = "<p>A &amp; B &lt;tag&gt; &#x41;&#66; &hellip; &unknown; AT&T 5 &lt 6</p>";
+        assertEquals("A & B <tag> AB … &unknown; AT&T 5 &lt 6", HtmlTextExtractor.extract(html, 1000));
+    }
+
+    @Test
+    public void collapsesWhitespaceAndBreaksBlocks() {
+        String html = "<div>  one \n\t two</div><div></div><p>three<br>four</p> a < b";
+        assertEquals("one two\nthree\nfour\na < b", HtmlTextExtractor.extract(html, 1000));
+    }
+
+    @Test
+    public void attributesWithAngleBracketsAreSkipped() {
+        String html = "<a title=\"x > y\" href='/?a=1&b=2'>link</a>";
+        assertEquals("link", HtmlTextExtractor.extract(html, 1000));
+    }
+
+    @Test
+    public void headWithoutClosingTag_stillYieldsBody() {
+        assertEquals("hello", HtmlTextExtractor.extract("<head><title>t</title><body><p>hello</p>", 100));
+        assertEquals("本文", HtmlTextExtractor.extract(
+                "<html><head><meta charset=utf-8><script>x()</script><p>本文", 100));
+    }
+
+    @Test
+    public void formWrappingWholePage_keepsBodyButDropsControls() {
+        String html = "<body><form action=\"/x\"><div>記事本文</div>"
+                + "<select><option>選択肢</option></select><button>送信</button>"
+                + "<textarea>入力</textarea><p>続き</p></form></body>";
+        assertEquals("記事本文\n続き", HtmlTextExtractor.extract(html, 100));
+    }
+
+    @Test
+    public void stopsReadingOnceBudgetIsReached() throws IOException {
+        // 上限に達したら残りの入力を読まない
+        int[] reads = new int[1];
+        Reader endless = new Reader() {
+            @Override
+            public int read(char[] cbuf, int off, int len) {
+                reads[0]++;
+                for (int i = 0; i < len; i++) cbuf[off + i] = 'x';
+                return len;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        String text = HtmlTextExtractor.extract(endless, 10);
+        assertEquals("xxxxxxxxxx", text);
+        assertEquals(1, reads[0]);
+    }
+}
@@ -0,0 +1,73 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * {@link MarkdownBlockScanner} の確定境界（空行・見出し・閉じたコードフェンス）の検証。
+ */
+public class MarkdownBlockScannerTest {
+
+    private static MarkdownBlockScanner scanAll(String text) {
+        MarkdownBlockScanner s = new MarkdownBlockScanner();
+        s.scan(text);
+        return s;
+    }
+
+    @Test
+    public void openParagraph_hasNoStableBlock() {
+        assertEquals(0, scanAll("一行目\n二行目").stableEnd());
+    }
+
+    @Test
+    public void blankLine_closesPreviousBlock() {
+        String text = "段落1\n\n段落2の途中";
+        assertEquals("段落1\n\n".length(), scanAll(text).stableEnd());
+    }
+
+    @Test
+    public void heading_isClosedAfterItsLine() {
+        String text = "## 見出し\n本文";
+        assertEquals("## 見出し\n".length(), scanAll(text).stableEnd());
+        assertEquals(0, scanAll("#タグ\n本文").stableEnd());
+    }
+
+    @Test
+    public void openFence_ignoresBlankLinesInside() {
+        String text = "前文\n\n```java\nint a;\n\nint b;\n";
+        MarkdownBlockScanner s = scanAll(text);
+        assertTrue(s.isInOpenFence());
+        assertEquals("前文\n\n".length(), s.stableEnd());
+    }
+
+    @Test
+    public void closedFence_isStableAfterClosingLine() {
+        String text = "```\ncode\n```\n続き";
+        MarkdownBlockScanner s = scanAll(text);
+        assertFalse(s.isInOpenFence());
+        assertEquals("```\ncode\n```\n".length(), s.stableEnd());
+    }
+
+    @Test
+    public void shorterOrDifferentFence_doesNotClose() {
+        MarkdownBlockScanner s = scanAll("````\n```\n~~~~\n");
+        assertTrue(s.isInOpenFence());
+    }
+
+    @Test
+    public void incrementalScan_matchesOneShot() {
+        String text = "# T\n\n- a\n- b\n\n```\nx\n\n```\n\n末尾";
+        MarkdownBlockScanner inc = new MarkdownBlockScanner();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            sb.append(text.charAt(i));
+            inc.scan(sb);
+        }
+        MarkdownBlockScanner once = scanAll(text);
+        assertEquals(once.stableEnd(), inc.stableEnd());
+        assertEquals(text.length() - "末尾".length(), inc.stableEnd());
+    }
+}
@@ -0,0 +1,133 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link MemorySearchIndex} の分かち書き（CJK バイグラム / 英数字単語）、MATCH 式、BM25 計算、上位選択の検証。
+ */
+public class MemorySearchIndexTest {
+
+    @Test
+    public void tokenize_cjkRun_becomesBigrams() {
+        assertEquals(Arrays.asList("歯医", "医者"), MemorySearchIndex.tokenize("歯医者"));
+    }
+
+    @Test
+    public void tokenize_mixedText_splitsScriptsAndLowercases() {
+        assertEquals(Arrays.asList("明日", "日は", "は東", "東京", "meeting", "10", "時"),
+                MemorySearchIndex.tokenize("明日は東京 Meeting 10時"));
+    }
+
+    @Test
+    public void tokenize_fullwidthAndLongVowel_areNormalized() {
+        assertEquals(Arrays.asList("abc", "コー", "ーヒ", "ヒー"),
+                MemorySearchIndex.tokenize("ＡＢＣ、コーヒー"));
+    }
+
+    @Test
+    public void indexText_joinsAllFieldsWithSpaces() {
+        assertEquals("歯医 医者 渋谷", MemorySearchIndex.indexText("歯医者", "渋谷", ""));
+    }
+
+    @Test
+    public void matchQuery_orsDistinctTermsAndPrefixesWords() {
+        assertEquals("\"歯医\" OR \"医者\" OR \"dentist*\"",
+                MemorySearchIndex.matchQuery("歯医者 dentist 歯医者"));
+    }
+
+    @Test
+    public void matchAllQuery_requiresEveryTerm() {
+        assertEquals("\"歯医\" \"医者\" \"dentist*\"",
+                MemorySearchIndex.matchAllQuery("歯医者 dentist 歯医者"));
+        assertNull(MemorySearchIndex.matchAllQuery("猫"));
+    }
+
+    @Test
+    public void topHits_keepsHighestScoresAndPrefersEarlierOnTies() {
+        MemorySearchIndex.TopHits top = new MemorySearchIndex.TopHits(3);
+        // 新しい順（ID 降順）に追加する
+        double[] scores = {0.5, 2.0, 1.0, 2.0, 0.1, 3.0, 1.0};
+        for (int i = 0; i < scores.length; i++) top.add(100 - i, scores[i]);
+        top.add(1, Double.NaN);
+        assertEquals(Arrays.asList(95L, 99L, 97L), top.drainIds());
+        assertEquals(Collections.emptyList(), top.drainIds());
+    }
+
+    @Test
+    public void topHits_fewerThanK_returnsAllInOrder() {
+        MemorySearchIndex.TopHits top = new MemorySearchIndex.TopHits(10);
+        top.add(1, 1.0);
+        top.add(2, 3.0);
+        top.add(3, 2.0);
+        assertEquals(Arrays.asList(2L, 3L, 1L), top.drainIds());
+        assertEquals(Collections.emptyList(), new MemorySearchIndex.TopHits(0).drainIds());
+    }
+
+    @Test
+    public void matchQuery_singleCjkChar_isNull() {
+        assertNull(MemorySearchIndex.matchQuery("猫"));
+        assertNull(MemorySearchIndex.matchQuery("  、。 "));
+    }
+
+    @Test
+    public void bm25_rareTermAndShortDocScoreHigher() {
+        // p=1, c=1, n=100, avg=10, len, {hitsThisRow, hitsAllRows, docsWithHits}
+        double rareShort = MemorySearchIndex.bm25(new int[]{1, 1, 100, 10, 5, 1, 1, 1});
+        double rareLong = MemorySearchIndex.bm25(new int[]{1, 1, 100, 10, 40, 1, 1, 1});
+        double common = MemorySearchIndex.bm25(new int[]{1, 1, 100, 10, 5, 1, 80, 80});
+        assertTrue(rareShort > rareLong);
+        assertTrue(rareShort > common);
+        assertTrue(common > 0);
+    }
+
+    @Test
+    public void bm25_malformed_isZero() {
+        assertEquals(0.0, MemorySearchIndex.bm25(null), 0.0);
+        assertEquals(0.0, MemorySearchIndex.bm25(new int[]{2, 1, 10, 5, 5, 1}), 0.0);
+    }
+
+    @Test
+    public void matchinfo_decodesNativeOrderIntegers() {
+        int[] values = {1, 1, 100, 10, 5, 1, 1, 1};
+        ByteBuffer buf = ByteBuffer.allocate(values.length * 4).order(ByteOrder.nativeOrder());
+        for (int v : values) buf.putInt(v);
+        assertArrayEquals(values, MemorySearchIndex.matchinfo(buf.array()));
+        assertEquals(0, MemorySearchIndex.matchinfo(null).length);
+    }
+
+    @Test
+    public void reciprocalRankFusion_rewardsItemsInBothRankings() {
+        List<Long> lexical = Arrays.asList(1L, 2L, 3L);
+        List<Long> vector = Arrays.asList(4L, 3L, 5L);
+        List<Long> fused = MemorySearchIndex.reciprocalRankFusion(
+                Arrays.asList(lexical, vector), 60, 10);
+        assertEquals(Long.valueOf(3L), fused.get(0));
+        assertEquals(5, fused.size());
+    }
+
+    @Test
+    public void reciprocalRankFusion_tiesKeepFirstSeenOrderAndRespectLimit() {
+        List<Long> a = Arrays.asList(10L, 11L);
+        List<Long> b = Arrays.asList(20L, 21L);
+        assertEquals(Arrays.asList(10L, 20L, 11L),
+                MemorySearchIndex.reciprocalRankFusion(Arrays.asList(a, b), 60, 3));
+    }
+
+    @Test
+    public void reciprocalRankFusion_emptyInputs_isEmpty() {
+        assertTrue(MemorySearchIndex.reciprocalRankFusion(null, 60, 5).isEmpty());
+        assertTrue(MemorySearchIndex.reciprocalRankFusion(
+                Arrays.asList(Collections.<Long>emptyList(), null), 60, 5).isEmpty());
+    }
+}
@@ -0,0 +1,155 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * {@link MemoryVectorIndex} の検証。予算内での段階構築、件数下限、逐次反映、保存・書き出しと保存後の DB 変更の突き合わせを確認する。
+ */
+public class MemoryVectorIndexTest {
+
+    private static final String MODEL = "nomic-embed-text";
+
+    /** DB の代わり（記憶ID → 版付きベクトル）。 */
+    private static final class FakeSource implements MemoryVectorIndex.Source {
+        final Map<Long, MemoryVectorIndex.Entry> rows = new HashMap<>();
+        long nextVersion = 1;
+
+        void put(long id, byte[] vector) {
+            rows.put(id, new MemoryVectorIndex.Entry(nextVersion++, vector));
+        }
+
+        @Override
+        public Map<Long, Long> versions(String model) {
+            Map<Long, Long> out = new HashMap<>();
+            for (Map.Entry<Long, MemoryVectorIndex.Entry> e : rows.entrySet()) out.put(e.getKey(), e.getValue().version);
+            return out;
+        }
+
+        @Override
+        public Map<Long, MemoryVectorIndex.Entry> vectors(String model, Collection<Long> ids) {
+            Map<Long, MemoryVectorIndex.Entry> out = new HashMap<>();
+            for (Long id : ids) {
+                if (rows.containsKey(id)) out.put(id, rows.get(id));
+            }
+            return out;
+        }
+    }
+
+    @Test
+    public void buildsWithinBudget_thenSearches() {
+        Random rnd = new Random(1);
+        FakeSource db = new FakeSource();
+        byte[][] data = HnswIndexTest.clusteredVectors(rnd, MemoryVectorIndex.SYNC_BUDGET * 2 + 10);
+        for (int i = 0; i < data.length; i++) db.put(i + 1, data[i]);
+
+        MemoryVectorIndex index = new MemoryVectorIndex(null);
+        assertNull(index.search(MODEL, data[0], 5, 1, db));
+        assertEquals(MemoryVectorIndex.SYNC_BUDGET, index.size(MODEL));
+        assertNull(index.search(MODEL, data[0], 5, 1, db));
+        long[] hits = index.search(MODEL, data[0], 5, 1, db);
+        assertNotNull(hits);
+        assertEquals(1L, hits[0]);
+        // 件数が下限未満なら使わない
+        assertNull(index.search(MODEL, data[0], 5, data.length + 1, db));
+    }
+
+    @Test
+    public void putAndRemove_areAppliedIncrementally() {
+        Random rnd = new Random(2);
+        FakeSource db = new FakeSource();
+        byte[][] data = HnswIndexTest.clusteredVectors(rnd, 50);
+        for (int i = 0; i < 40; i++) db.put(i + 1, data[i]);
+        MemoryVectorIndex index = new MemoryVectorIndex(null);
+        index.search(MODEL, data[0], 1, 1, db);
+
+        index.put(MODEL, 99, 1000, data[45]);
+        assertEquals(99L, index.search(MODEL, data[45], 1, 1, db)[0]);
+        index.remove(99);
+        for (long id : index.search(MODEL, data[45], 10, 1, db)) assertTrue(id != 99L);
+        // 未読み込みのモデルへの反映は読み込み時の突き合わせに任せる
+        index.put("other-model", 1, 1, data[0]);
+        assertEquals(-1, index.size("other-model"));
+    }
+
+    @Test
+    public void smallStore_isNeitherBuiltNorSaved() throws Exception {
+        Random rnd = new Random(3);
+        File dir = Files.createTempDirectory("hnsw").toFile();
+        FakeSource db = new FakeSource();
+        byte[][] data = HnswIndexTest.clusteredVectors(rnd, 20);
+        for (int i = 0; i < data.length; i++) db.put(i + 1, data[i]);
+
+        MemoryVectorIndex index = new MemoryVectorIndex(dir);
+        assertNull(index.search(MODEL, data[0], 5, data.length + 1, db));
+        assertEquals(-1, index.size(MODEL));
+        assertEquals(0, dir.listFiles().length);
+
+        // 下限に届いたら構築する
+        assertNotNull(index.search(MODEL, data[0], 5, data.length, db));
+        assertEquals(data.length, index.size(MODEL));
+
+        for (File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void flush_writesChangesMadeAfterTheLastSave() throws Exception {
+        Random rnd = new Random(5);
+        File dir = Files.createTempDirectory("hnsw").toFile();
+        FakeSource db = new FakeSource();
+        byte[][] data = HnswIndexTest.clusteredVectors(rnd, 40);
+        for (int i = 0; i < 30; i++) db.put(i + 1, data[i]);
+
+        MemoryVectorIndex index = new MemoryVectorIndex(dir);
+        index.search(MODEL, data[0], 1, 1, db);
+        File saved = dir.listFiles()[0];
+        long before = saved.length();
+        index.put(MODEL, 31, 1000, data[30]);
+        index.search(MODEL, data[30], 1, 1, db); // 保存間隔内なので書き出さない
+        assertEquals(before, saved.length());
+        index.flush();
+        assertTrue(saved.length() > before);
+
+        for (File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void savedFile_isReconciledWithDatabase() throws Exception {
+        Random rnd = new Random(4);
+        File dir = Files.createTempDirectory("hnsw").toFile();
+        FakeSource db = new FakeSource();
+        byte[][] data = HnswIndexTest.clusteredVectors(rnd, 60);
+        for (int i = 0; i < 30; i++) db.put(i + 1, data[i]);
+
+        MemoryVectorIndex first = new MemoryVectorIndex(dir);
+        first.search(MODEL, data[0], 1, 1, db); // 構築完了時に保存される
+        assertEquals(1, dir.listFiles().length);
+
+        // 索引の外で DB が変わる（削除・置き換え・追加）
+        db.rows.remove(1L);
+        db.put(2L, data[40]);
+        db.put(100L, data[50]);
+
+        MemoryVectorIndex second = new MemoryVectorIndex(dir);
+        for (long id : second.search(MODEL, data[0], 30, 1, db)) assertTrue(id != 1L);
+        assertEquals(30, second.size(MODEL));
+        assertEquals(2L, second.search(MODEL, data[40], 1, 1, db)[0]);
+        assertEquals(100L, second.search(MODEL, data[50], 1, 1, db)[0]);
+
+        for (File f : dir.listFiles()) f.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,109 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * {@link QuantizedVectors} の検証。float16 の変換精度と特殊値、int8 内積の近似誤差、
+ * 一次採点＋再採点で正確な上位件数が得られることを確認する。
+ */
+public class QuantizedVectorsTest {
+
+    @Test
+    public void float16_roundTripsExactValuesAndSpecials() {
+        float[] exact = {0f, -0f, 1f, -2f, 0.5f, 65504f, 6.1035156e-5f, 5.9604645e-8f,
+                Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        float[] back = QuantizedVectors.decodeFloat16(QuantizedVectors.encodeFloat16(exact));
+        assertArrayEquals(exact, back, 0f);
+        assertTrue(Float.isNaN(QuantizedVectors.fromHalf(QuantizedVectors.toHalf(Float.NaN))));
+        // 範囲外は無限大、極小値は 0 へ
+        assertEquals(Float.POSITIVE_INFINITY, QuantizedVectors.fromHalf(QuantizedVectors.toHalf(1e6f)), 0f);
+        assertEquals(0f, QuantizedVectors.fromHalf(QuantizedVectors.toHalf(1e-9f)), 0f);
+    }
+
+    @Test
+    public void float16_relativeErrorIsWithinHalfUlp() {
+        Random rnd = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            float f = (rnd.nextFloat() - 0.5f) * 4f;
+            if (Math.abs(f) < 1e-4f) continue;
+            float back = QuantizedVectors.fromHalf(QuantizedVectors.toHalf(f));
+            assertEquals(f, back, Math.abs(f) / 2048f + 1e-7f);
+        }
+    }
+
+    @Test
+    public void int8Dot_approximatesFloatDot() {
+        Random rnd = new Random(11);
+        for (int t = 0; t < 50; t++) {
+            float[] a = EmbeddingClient.l2Normalize(randomVector(rnd, 384));
+            float[] b = EmbeddingClient.l2Normalize(randomVector(rnd, 384));
+            float exact = VectorScoring.dot(a, b);
+            float approx = QuantizedVectors.dotInt8(QuantizedVectors.encodeInt8(a), QuantizedVectors.encodeInt8(b));
+            assertEquals(exact, approx, 0.01f);
+        }
+        assertEquals(0f, QuantizedVectors.dotInt8(QuantizedVectors.encodeInt8(new float[3]),
+                QuantizedVectors.encodeInt8(new float[]{1f, 2f, 3f})), 0f);
+        assertEquals(0f, QuantizedVectors.dotInt8(QuantizedVectors.encodeInt8(new float[3]),
+                QuantizedVectors.encodeInt8(new float[4])), 0f);
+    }
+
+    @Test
+    public void int8Encoding_isQuarterSizeAndDecodesClosely() {
+        float[] v = EmbeddingClient.l2Normalize(randomVector(new Random(5), 1024));
+        byte[] q = QuantizedVectors.encodeInt8(v);
+        assertEquals(1024 + QuantizedVectors.INT8_HEADER_BYTES, q.length);
+        assertEquals(1024, QuantizedVectors.int8Dimension(q));
+        float[] back = QuantizedVectors.decodeInt8(q);
+        float maxAbs = 0f;
+        for (float x : v) maxAbs = Math.max(maxAbs, Math.abs(x));
+        for (int k = 0; k < v.length; k++) assertEquals(v[k], back[k], maxAbs / 254f + 1e-7f);
+    }
+
+    @Test
+    public void quantizedScanWithRescoring_findsExactTopK() {
+        Random rnd = new Random(99);
+        int n = 2000, dim = 128, k = 20;
+        float[][] rows = new float[n][];
+        byte[][] q8 = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            rows[i] = EmbeddingClient.l2Normalize(randomVector(rnd, dim));
+            q8[i] = QuantizedVectors.encodeInt8(rows[i]);
+        }
+        float[] query = EmbeddingClient.l2Normalize(randomVector(rnd, dim));
+        byte[] qq = QuantizedVectors.encodeInt8(query);
+
+        float[] exact = new float[n];
+        float[] approx = new float[n];
+        for (int i = 0; i < n; i++) {
+            exact[i] = VectorScoring.dot(query, rows[i]);
+            approx[i] = QuantizedVectors.dotInt8(qq, q8[i]);
+        }
+        int[] truth = VectorScoring.topK(exact, n, k);
+        int[] candidates = VectorScoring.topK(approx, n, k * 3);
+        float[] rescored = new float[candidates.length];
+        for (int j = 0; j < candidates.length; j++) rescored[j] = exact[candidates[j]];
+        int[] top = VectorScoring.topK(rescored, rescored.length, k);
+
+        Set<Integer> expected = new HashSet<>();
+        for (int i : truth) expected.add(i);
+        int hits = 0;
+        for (int j : top) {
+            if (expected.contains(candidates[j])) hits++;
+        }
+        assertEquals(k, hits);
+    }
+
+    private static float[] randomVector(Random rnd, int dim) {
+        float[] v = new float[dim];
+        for (int k = 0; k < dim; k++) v[k] = (float) rnd.nextGaussian();
+        return v;
+    }
+}
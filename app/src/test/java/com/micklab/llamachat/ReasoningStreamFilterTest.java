@@ -0,0 +1,89 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * {@link ReasoningStreamFilter} の検証。チャンク境界をまたぐタグ・未閉じブロック・閉じタグ直後の空行詰めを、
+ * 一括処理（{@link ReasoningStreamFilter#strip}）と 1 文字ずつの逐次処理の双方で確認する。
+ */
+public class ReasoningStreamFilterTest {
+
+    /** 1 文字ずつ feed した結果（差分の連結）と visibleText が一致することも確認する。 */
+    private static String feedCharByChar(String text) {
+        ReasoningStreamFilter f = new ReasoningStreamFilter();
+        StringBuilder deltas = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            deltas.append(f.feed(text.substring(i, i + 1)));
+        }
+        deltas.append(f.finish());
+        assertEquals(f.visibleText(), deltas.toString());
+        return deltas.toString();
+    }
+
+    private static void assertVisible(String expected, String raw) {
+        assertEquals(expected, ReasoningStreamFilter.strip(raw));
+        assertEquals(expected, feedCharByChar(raw));
+    }
+
+    @Test
+    public void plainText_passesThrough() {
+        assertVisible("こんにちは。今日は晴れです。", "こんにちは。今日は晴れです。");
+    }
+
+    @Test
+    public void closedBlocks_areRemoved() {
+        assertVisible("答えは42です。", "<think>考え中…</think>答えは42です。");
+        assertVisible("A B", "A<analysis>x</analysis> B");
+        assertVisible("結果", "<|thought|>内部<|endthought|>結果");
+    }
+
+    @Test
+    public void blankLineAfterClose_collapsesToSingleNewline() {
+        assertVisible("\n本文", "<think>x</think>\n\n本文");
+        assertVisible("\n本文", "<think>x</think>\r\n\r\n本文");
+        assertVisible("\n本文", "<think>x</think>\n本文");
+    }
+
+    @Test
+    public void unclosedBlock_hidesRestAndReportsState() {
+        ReasoningStreamFilter f = new ReasoningStreamFilter();
+        assertEquals("前置き", f.feed("前置き<think>まだ考えて"));
+        assertEquals("", f.feed("いる</thi"));
+        assertTrue(f.isInsideReasoning());
+        assertEquals("", f.finish());
+        assertEquals("前置き", f.visibleText());
+    }
+
+    @Test
+    public void tagsSplitAcrossChunks_areDetected() {
+        ReasoningStreamFilter f = new ReasoningStreamFilter();
+        assertEquals("", f.feed("<th"));
+        assertEquals("", f.feed("ink>推論"));
+        assertEquals("", f.feed("</th"));
+        assertEquals("", f.feed("ink>"));
+        assertFalse(f.isInsideReasoning());
+        assertEquals("\n", f.feed("\n\n"));
+        assertEquals("回答", f.feed("回答"));
+    }
+
+    @Test
+    public void partialOpenPrefix_isHeldThenReleased() {
+        ReasoningStreamFilter f = new ReasoningStreamFilter();
+        assertEquals("a ", f.feed("a <"));
+        assertEquals("< b", f.feed(" b"));
+        assertEquals("x", f.feed("x<thi"));
+        assertEquals("<thi", f.finish());
+    }
+
+    @Test
+    public void recoverVisibleText_keepsReasoningWhenNothingElse() {
+        assertEquals("考えだけ", ReasoningStreamFilter.recoverVisibleText("<think>考えだけ</think>"));
+        assertEquals("未閉じ", ReasoningStreamFilter.recoverVisibleText("<think>未閉じ"));
+        assertEquals("答え", ReasoningStreamFilter.recoverVisibleText("<think>x</think>答え"));
+        assertEquals("", ReasoningStreamFilter.recoverVisibleText(null));
+    }
+}
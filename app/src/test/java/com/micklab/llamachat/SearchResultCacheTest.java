@@ -0,0 +1,65 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * {@link SearchResultCache} の検証。クエリ正規化・TTL 失効・件数/文字数上限による追い出し・統計を確認する。
+ */
+public class SearchResultCacheTest {
+
+    private long now = 1_000L;
+
+    private SearchResultCache newCache(int maxEntries, long maxChars) {
+        return new SearchResultCache(maxEntries, maxChars, 100L, () -> now);
+    }
+
+    @Test
+    public void normalizedQueries_shareOneEntry() {
+        SearchResultCache cache = newCache(8, 1000);
+        cache.put("wikipedia", "Ｔｏｋｙｏ　 Tower", "SEARCH_RESULTS:\nA");
+        assertEquals("SEARCH_RESULTS:\nA", cache.get("wikipedia", "  tokyo tower "));
+        assertNull(cache.get("brave", "tokyo tower"));
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void entries_expireAfterTtl() {
+        SearchResultCache cache = newCache(8, 1000);
+        cache.put("w", "q", "r");
+        now += 99;
+        assertEquals("r", cache.get("w", "q"));
+        now += 1;
+        assertNull(cache.get("w", "q"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void caps_evictLeastRecentlyUsed() {
+        SearchResultCache cache = newCache(2, 1000);
+        cache.put("w", "a", "1");
+        cache.put("w", "b", "2");
+        cache.get("w", "a");
+        cache.put("w", "c", "3");
+        assertEquals("1", cache.get("w", "a"));
+        assertNull(cache.get("w", "b"));
+
+        SearchResultCache small = newCache(8, 10);
+        small.put("w", "a", "123456");
+        small.put("w", "b", "123456");
+        assertNull(small.get("w", "a"));
+        assertEquals("123456", small.get("w", "b"));
+        small.put("w", "huge", "12345678901");
+        assertNull(small.get("w", "huge"));
+    }
+
+    @Test
+    public void nullResults_areNotStored() {
+        SearchResultCache cache = newCache(8, 1000);
+        cache.put("w", "q", null);
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,100 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@link SearchResultChunker} の検証。文分割・トークン上限付きの窓と重なり・重複除去・件数上限・再組み立てを確認する。
+ */
+public class SearchResultChunkerTest {
+
+    @Test
+    public void splitSentences_handlesJapaneseAndEnglish() {
+        assertEquals(Arrays.asList("東京は首都です。", "人口は多い！", "Tokyo is big. ", "Really? "),
+                SearchResultChunker.splitSentences("東京は首都です。人口は多い！Tokyo is big. Really?"));
+        // 小数点や略語の途中では切らない
+        assertEquals(1, SearchResultChunker.splitSentences("Version 3.14 was released").size());
+    }
+
+    @Test
+    public void windows_respectBudgetAndOverlap() {
+        String[] words = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet"};
+        StringBuilder sb = new StringBuilder("SEARCH_RESULTS:\n[1] Title\nhttps://example.com/a\n");
+        for (String w : words) sb.append(w).append(" is a word. ");
+        // 1 文 = 5 トークン（語 4 + 句点 1）。上限 10 で 2 文ずつ、重なり 5 で 1 文ずつ重ねる
+        List<SearchResultChunker.Chunk> chunks = new SearchResultChunker(10, 5, 100).chunk(sb.toString());
+        assertTrue(chunks.size() > 2);
+        for (SearchResultChunker.Chunk c : chunks) {
+            assertTrue(c.text().startsWith("[1] Title\nhttps://example.com/a\n"));
+            assertTrue(c.end - c.start <= 2);
+        }
+        assertEquals(chunks.get(0).end - 1, chunks.get(1).start);
+        // 全窓を選べば元の本文が重複なく戻る
+        String rendered = SearchResultChunker.render(chunks);
+        assertEquals(1, count(rendered, "delta is a word."));
+        assertTrue(rendered.endsWith("\nalpha is a word. bravo is a word. charlie is a word. delta is a word. echo is a word. "
+                + "foxtrot is a word. golf is a word. hotel is a word. india is a word. juliet is a word."));
+    }
+
+    @Test
+    public void nearDuplicatePassages_areDropped() {
+        String raw = "SEARCH_RESULTS:\n"
+                + "[1] A\nThe quick brown fox jumps over the lazy dog.\n\n"
+                + "[2] B\nThe quick brown fox jumps over the lazy dog!\n\n"
+                + "[3] C\nSomething entirely different is written here.";
+        List<SearchResultChunker.Chunk> chunks = new SearchResultChunker().chunk(raw);
+        assertEquals(2, chunks.size());
+        assertEquals(0, chunks.get(0).documentIndex);
+        assertEquals(2, chunks.get(1).documentIndex);
+    }
+
+    @Test
+    public void maxChunks_takesFromEachDocumentInTurn() {
+        StringBuilder sb = new StringBuilder("SEARCH_RESULTS:\n");
+        for (int d = 0; d < 3; d++) {
+            sb.append("[Wikipedia/en] Article ").append(d).append('\n');
+            for (int i = 0; i < 6; i++) sb.append("Doc ").append(d).append(" fact ").append(i).append(" alpha beta. ");
+            sb.append("\nhttps://en.wikipedia.org/wiki/A").append(d).append('\n');
+        }
+        List<SearchResultChunker.Chunk> chunks = new SearchResultChunker(8, 0, 4).chunk(sb.toString());
+        assertEquals(4, chunks.size());
+        List<Integer> docs = new ArrayList<>();
+        for (SearchResultChunker.Chunk c : chunks) docs.add(c.documentIndex);
+        assertEquals(Arrays.asList(0, 0, 1, 2), docs);
+        // URL 行は本文ではなく見出し側に入る
+        assertTrue(chunks.get(0).text().startsWith("[Wikipedia/en] Article 0\nhttps://en.wikipedia.org/wiki/A0\n"));
+    }
+
+    @Test
+    public void render_joinsDistantWindowsWithEllipsis() {
+        StringBuilder sb = new StringBuilder("[1] T\n");
+        for (int i = 0; i < 6; i++) sb.append("Part ").append(i).append(" text. ");
+        List<SearchResultChunker.Chunk> chunks = new SearchResultChunker(4, 0, 100).chunk(sb.toString());
+        List<SearchResultChunker.Chunk> picked = Arrays.asList(chunks.get(chunks.size() - 1), chunks.get(0));
+        String rendered = SearchResultChunker.render(picked);
+        assertEquals("SEARCH_RESULTS:\n[1] T\nPart 0 text. … Part 5 text.", rendered);
+        assertFalse(rendered.contains("Part 3"));
+    }
+
+    @Test
+    public void longSentenceWithoutPunctuation_isSplit() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) sb.append("word ");
+        List<String> pieces = SearchResultChunker.splitLongSentences(Arrays.asList(sb.toString()), 50);
+        assertTrue(pieces.size() >= 4);
+        for (String p : pieces) assertTrue(TokenCounter.estimate(p) <= 50);
+    }
+
+    private static int count(String s, String needle) {
+        int n = 0;
+        for (int i = s.indexOf(needle); i >= 0; i = s.indexOf(needle, i + 1)) n++;
+        return n;
+    }
+}
@@ -0,0 +1,134 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link SegmentedLog} の検証。セグメント切り替え、末尾読み、古いセグメントの削除、再オープン時の復旧を確認する。
+ */
+public class SegmentedLogTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("seglog").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void append_rollsSegmentsAndReadsTail() throws Exception {
+        SegmentedLog log = new SegmentedLog(dir, 4);
+        for (int i = 0; i < 10; i++) log.append("r" + i);
+        assertEquals(10, log.size());
+        assertEquals(3, segmentFiles().length);
+        assertEquals(Arrays.asList("r7", "r8", "r9"), log.readTail(3));
+        assertEquals(10, log.readTail(100).size());
+        assertEquals("r0", log.readTail(100).get(0));
+    }
+
+    @Test
+    public void appendAll_splitsBatchAcrossSegments() throws Exception {
+        SegmentedLog log = new SegmentedLog(dir, 4);
+        log.append("r0");
+        List<String> batch = new ArrayList<>();
+        for (int i = 1; i < 10; i++) batch.add("r" + i);
+        log.appendAll(batch);
+        log.sync();
+        assertEquals(3, segmentFiles().length);
+        assertEquals(10, new SegmentedLog(dir, 4).size());
+        assertEquals(Arrays.asList("r3", "r4", "r5"), log.readTail(7).subList(0, 3));
+    }
+
+    @Test
+    public void readTail_readsOnlyNeededSegments() throws Exception {
+        SegmentedLog log = new SegmentedLog(dir, 4);
+        for (int i = 0; i < 12; i++) log.append("r" + i);
+        // 最古のセグメントを壊しても、末尾 5 件の読み出しには影響しない
+        File oldest = segmentFiles()[0];
+        try (FileOutputStream out = new FileOutputStream(oldest)) {
+            out.write("garbage\n".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(Arrays.asList("r7", "r8", "r9", "r10", "r11"), log.readTail(5));
+    }
+
+    @Test
+    public void compact_dropsWholeOldSegmentsOnly() throws Exception {
+        SegmentedLog log = new SegmentedLog(dir, 4);
+        for (int i = 0; i < 14; i++) log.append("r" + i);
+        // セグメント: [0-3][4-7][8-11][12-13]。直近 5 件は [8-11] と [12-13] に収まる
+        assertEquals(2, log.compact(5));
+        assertEquals(6, log.size());
+        assertEquals(2, segmentFiles().length);
+        assertEquals(Arrays.asList("r8", "r9", "r10", "r11", "r12", "r13"), log.readTail(100));
+        assertEquals(0, log.compact(5));
+
+        log.append("r14");
+        SegmentedLog reopened = new SegmentedLog(dir, 4);
+        assertEquals(7, reopened.size());
+        assertEquals(Arrays.asList("r12", "r13", "r14"), reopened.readTail(3));
+    }
+
+    @Test
+    public void reopen_rebuildsMissingIndexAndTerminatesTornLine() throws Exception {
+        SegmentedLog log = new SegmentedLog(dir, 3);
+        for (int i = 0; i < 7; i++) log.append("r" + i);
+        log.close();
+        assertTrue(new File(dir, SegmentedLog.INDEX_FILE).delete());
+        File[] segs = segmentFiles();
+        try (FileOutputStream out = new FileOutputStream(segs[segs.length - 1], true)) {
+            out.write("{\"torn".getBytes(StandardCharsets.UTF_8)); // 書き込み途中で落ちた行
+        }
+
+        SegmentedLog reopened = new SegmentedLog(dir, 3);
+        reopened.append("r7");
+        List<String> tail = reopened.readTail(3);
+        assertEquals(Arrays.asList("r6", "{\"torn", "r7"), tail);
+        assertEquals(9, reopened.size());
+        assertTrue(new File(dir, SegmentedLog.INDEX_FILE).isFile());
+    }
+
+    @Test
+    public void clear_removesEverything() throws Exception {
+        SegmentedLog log = new SegmentedLog(dir, 2);
+        for (int i = 0; i < 5; i++) log.append("r" + i);
+        log.clear();
+        assertEquals(0, log.size());
+        assertEquals(new ArrayList<String>(), log.readTail(10));
+        log.append("after");
+        assertEquals(Arrays.asList("after"), new SegmentedLog(dir, 2).readTail(10));
+    }
+
+    @Test
+    public void newlinesInRecord_areFlattened() throws Exception {
+        SegmentedLog log = new SegmentedLog(dir, 10);
+        log.append("a\nb\r\nc");
+        assertEquals(Arrays.asList("a b  c"), log.readTail(1));
+    }
+
+    private File[] segmentFiles() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith("seg-"));
+        Arrays.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,71 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * {@link SemanticExampleStore} の検証。ファイル経由の読み戻し（再起動相当）・鍵の区別・
+ * 壊れたファイルの無視・古いファイルの整理を確認する。
+ */
+public class SemanticExampleStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final float[][] ROWS = {{0.6f, 0.8f}, {1f, 0f}, {0f, -1f}};
+
+    @Test
+    public void savedMatrix_isReadBackByNewInstance() throws IOException {
+        File dir = tmp.newFolder();
+        new SemanticExampleStore(dir).save("modelA\nhash", ROWS);
+
+        float[][] loaded = new SemanticExampleStore(dir).load("modelA\nhash");
+        assertNotNull(loaded);
+        assertEquals(ROWS.length, loaded.length);
+        for (int i = 0; i < ROWS.length; i++) assertArrayEquals(ROWS[i], loaded[i], 0f);
+        assertNull(new SemanticExampleStore(dir).load("modelB\nhash"));
+    }
+
+    @Test
+    public void corruptFile_isIgnored() throws IOException {
+        File dir = tmp.newFolder();
+        new SemanticExampleStore(dir).save("k", ROWS);
+        File[] files = dir.listFiles();
+        assertNotNull(files);
+        try (FileOutputStream out = new FileOutputStream(files[0])) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        assertNull(new SemanticExampleStore(dir).load("k"));
+    }
+
+    @Test
+    public void oldFiles_arePruned() throws IOException {
+        File dir = tmp.newFolder();
+        SemanticExampleStore store = new SemanticExampleStore(dir);
+        for (int i = 0; i < SemanticExampleStore.MAX_FILES + 3; i++) {
+            store.save("model" + i, ROWS);
+        }
+        File[] files = dir.listFiles();
+        assertNotNull(files);
+        assertEquals(SemanticExampleStore.MAX_FILES, files.length);
+    }
+
+    @Test
+    public void memoryOnlyStore_keepsMatrix() {
+        SemanticExampleStore store = new SemanticExampleStore(null);
+        assertNull(store.load("k"));
+        store.save("k", ROWS);
+        assertSame(ROWS, store.load("k"));
+    }
+}
@@ -7,6 +7,7 @@ import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * {@link SemanticExpertClassifier} の判定ロジック検証。
@@ -138,4 +139,36 @@ public class SemanticExpertClassifierTest {
         // モデル鍵が変わったら代表発話を埋め込み直す（1 件より多い）。
         assertTrue(afterSecond - afterFirst > 1);
     }
+
+    @Test
+    public void examplesAreEmbeddedInOneBatchAndSharedThroughStore() {
+        final int[] batches = {0};
+        final int[] singles = {0};
+        SemanticExpertClassifier.Embedder batching = new SemanticExpertClassifier.Embedder() {
+            @Override
+            public float[] embed(String text) {
+                singles[0]++;
+                return bigramBow(text);
+            }
+
+            @Override
+            public float[][] embedAll(List<String> texts) {
+                batches[0]++;
+                float[][] out = new float[texts.size()][];
+                for (int i = 0; i < out.length; i++) out[i] = bigramBow(texts.get(i));
+                return out;
+            }
+        };
+        SemanticExampleStore store = new SemanticExampleStore(null);
+        SemanticExpertClassifier first = new SemanticExpertClassifier(0.60f, 0.015f, store);
+        assertEquals(ExpertType.WEB, first.classify("今日の天気を教えて", batching, true, true, "m").expertType);
+        assertEquals(1, batches[0]);
+        assertEquals(1, singles[0]);
+
+        // 閾値を変えて作り直しても、同じストアなら代表発話は埋め込み直さない（クエリ 1 件のみ）。
+        SemanticExpertClassifier rebuilt = new SemanticExpertClassifier(0.5f, 0.01f, store);
+        assertEquals(ExpertType.WEB, rebuilt.classify("今日の天気を教えて", batching, true, true, "m").expertType);
+        assertEquals(1, batches[0]);
+        assertEquals(2, singles[0]);
+    }
 }
@@ -0,0 +1,117 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * {@link TaskScheduler} の検証。単一スレッドのプールを先行タスクで塞いだうえで、
+ * 待ち行列の優先度順・トークンによるキャンセルを確認する。
+ */
+public class TaskSchedulerTest {
+
+    private static final TaskScheduler.Pool POOL = TaskScheduler.Pool.NETWORK;
+
+    /** プールの唯一のスレッドを gate が開くまで塞ぐ。 */
+    private static CountDownLatch block(TaskScheduler scheduler) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        scheduler.submit(POOL, TaskScheduler.Priority.INTERACTIVE, () -> {
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return gate;
+    }
+
+    @Test
+    public void interactiveTasks_runBeforeQueuedBackgroundTasks() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1, 1, 1);
+        CountDownLatch gate = block(scheduler);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Future<?> b1 = scheduler.submit(POOL, TaskScheduler.Priority.BACKGROUND, () -> order.add("b1"));
+        Future<?> i1 = scheduler.submit(POOL, TaskScheduler.Priority.INTERACTIVE, () -> order.add("i1"));
+        Future<?> b2 = scheduler.submit(POOL, TaskScheduler.Priority.BACKGROUND, () -> order.add("b2"));
+        Future<?> i2 = scheduler.submit(POOL, TaskScheduler.Priority.INTERACTIVE, () -> order.add("i2"));
+        gate.countDown();
+        for (Future<?> f : new Future<?>[]{b1, i1, b2, i2}) f.get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("i1", "i2", "b1", "b2"), order);
+    }
+
+    @Test
+    public void cancelStale_dropsQueuedTasksOfOlderTokens() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1, 1, 1);
+        CountDownLatch gate = block(scheduler);
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        Future<?> old = scheduler.submit(POOL, TaskScheduler.Priority.INTERACTIVE, "g", 1, () -> ran.add("old"));
+        Future<?> other = scheduler.submit(POOL, TaskScheduler.Priority.INTERACTIVE, "h", 1, () -> ran.add("other"));
+        Future<?> current = scheduler.submit(POOL, TaskScheduler.Priority.INTERACTIVE, "g", 2, () -> ran.add("current"));
+        assertEquals(1, scheduler.cancelStale("g", 2));
+        gate.countDown();
+        other.get(5, TimeUnit.SECONDS);
+        current.get(5, TimeUnit.SECONDS);
+        assertTrue(old.isCancelled());
+        assertEquals(Arrays.asList("other", "current"), ran);
+    }
+
+    @Test
+    public void cancelGroup_interruptsRunningTask() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1, 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        scheduler.submit(POOL, TaskScheduler.Priority.INTERACTIVE, "g", 1, () -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.cancelGroup("g"));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void call_runsOnRequestedPoolAndReturnsResult() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1, 1, 1);
+        String thread = scheduler.call(TaskScheduler.Pool.CPU, TaskScheduler.Priority.INTERACTIVE,
+                () -> Thread.currentThread().getName());
+        assertTrue(thread, thread.startsWith("llamachat-cpu-"));
+    }
+
+    @Test
+    public void call_rethrowsBodyException() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1, 1, 1);
+        try {
+            scheduler.call(TaskScheduler.Pool.CPU, TaskScheduler.Priority.INTERACTIVE, () -> {
+                throw new IllegalStateException("boom");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("boom", e.getMessage());
+        }
+    }
+
+    @Test
+    public void call_fromSamePool_runsInlineWithoutDeadlock() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1, 1, 1);
+        String inner = scheduler.call(TaskScheduler.Pool.CPU, TaskScheduler.Priority.INTERACTIVE,
+                () -> scheduler.call(TaskScheduler.Pool.CPU, TaskScheduler.Priority.INTERACTIVE,
+                        () -> Thread.currentThread().getName()));
+        assertTrue(inner, inner.startsWith("llamachat-cpu-"));
+    }
+}
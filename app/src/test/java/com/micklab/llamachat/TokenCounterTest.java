@@ -0,0 +1,52 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * {@link TokenCounter} のローカル推定と配分ロジックの検証（HTTP 経路は対象外）。
+ */
+public class TokenCounterTest {
+
+    @Test
+    public void estimate_countsCjkPerCharacter() {
+        assertEquals(5, TokenCounter.estimate("今日は晴れ"));
+        assertEquals(6, TokenCounter.estimate("カタカナー。")); // 記号「。」も 1
+    }
+
+    @Test
+    public void estimate_countsLatinPerWordChunk() {
+        assertEquals(2, TokenCounter.estimate("hello world"));
+        assertEquals(4, TokenCounter.estimate("internationalization")); // 20 文字
+    }
+
+    @Test
+    public void estimate_handlesDigitsSymbolsAndEmpty() {
+        assertEquals(0, TokenCounter.estimate(null));
+        assertEquals(0, TokenCounter.estimate("   "));
+        assertEquals(2, TokenCounter.estimate("2024"));
+        assertEquals(3, TokenCounter.estimate("a+b"));
+    }
+
+    @Test
+    public void estimate_cjkIsDenserThanLatinForSameLength() {
+        String ja = "東京都の天気予報によると明日は雨です";
+        String en = "according to the forecast it rains";
+        assertTrue(TokenCounter.estimate(ja) > TokenCounter.estimate(en));
+    }
+
+    @Test
+    public void distribute_preservesTotalAndProportions() {
+        int[] out = TokenCounter.distribute(100, new int[]{10, 30, 60});
+        assertArrayEquals(new int[]{10, 30, 60}, out);
+        int[] odd = TokenCounter.distribute(10, new int[]{1, 1, 1});
+        assertEquals(10, Arrays.stream(odd).sum());
+        int[] zeros = TokenCounter.distribute(4, new int[]{0, 0});
+        assertArrayEquals(new int[]{2, 2}, zeros);
+    }
+}
@@ -0,0 +1,41 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * {@link VectorCodec} のバイト表現（BLOB 保存形式）とテキストハッシュの検証。
+ */
+public class VectorCodecTest {
+
+    @Test
+    public void encodeDecode_roundTrips() {
+        float[] v = {0.25f, -1.5f, 3.0e-7f, 0f, Float.MAX_VALUE};
+        byte[] bytes = VectorCodec.encode(v);
+        assertEquals(v.length * 4, bytes.length);
+        assertArrayEquals(v, VectorCodec.decode(bytes), 0f);
+    }
+
+    @Test
+    public void encode_isLittleEndian() {
+        byte[] bytes = VectorCodec.encode(new float[]{1.0f}); // 0x3F800000
+        assertArrayEquals(new byte[]{0, 0, (byte) 0x80, 0x3F}, bytes);
+    }
+
+    @Test
+    public void decode_invalidLength_isNull() {
+        assertNull(VectorCodec.decode(new byte[]{1, 2, 3}));
+        assertNull(VectorCodec.decode(null));
+    }
+
+    @Test
+    public void textHash_isStableAndContentSensitive() {
+        assertEquals(VectorCodec.textHash("明日は歯医者"), VectorCodec.textHash("明日は歯医者"));
+        assertNotEquals(VectorCodec.textHash("明日は歯医者"), VectorCodec.textHash("明後日は歯医者"));
+        assertEquals(40, VectorCodec.textHash("").length());
+    }
+}
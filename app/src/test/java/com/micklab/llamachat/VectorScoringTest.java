@@ -0,0 +1,74 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * {@link VectorScoring} の検証。展開した内積が素朴な実装と一致すること、一括採点、上位 k 件の順序と同点処理を確認する。
+ */
+public class VectorScoringTest {
+
+    @Test
+    public void dot_matchesNaiveForAllTailLengths() {
+        Random rnd = new Random(7);
+        for (int dim = 0; dim <= 9; dim++) {
+            float[] a = new float[dim];
+            float[] b = new float[dim];
+            double expected = 0;
+            for (int k = 0; k < dim; k++) {
+                a[k] = rnd.nextFloat() - 0.5f;
+                b[k] = rnd.nextFloat() - 0.5f;
+                expected += (double) a[k] * b[k];
+            }
+            assertEquals(expected, VectorScoring.dot(a, b), 1e-6);
+        }
+        assertEquals(0f, VectorScoring.dot(new float[]{1f}, new float[]{1f, 2f}), 0f);
+    }
+
+    @Test
+    public void normalizedDot_equalsCosine() {
+        float[] a = {3f, 4f, 0f, 1f, 2f};
+        float[] b = {1f, -2f, 5f, 0f, 1f};
+        float expected = EmbeddingClient.cosineSimilarity(a, b);
+        assertEquals(expected, VectorScoring.dot(EmbeddingClient.l2Normalize(a), EmbeddingClient.l2Normalize(b)), 1e-6);
+    }
+
+    @Test
+    public void scoreAll_scoresEveryRowOfFlatMatrix() {
+        float[] matrix = {1f, 0f, 0f, 1f, 1f, 1f};
+        float[] out = new float[3];
+        VectorScoring.scoreAll(new float[]{2f, 3f}, matrix, 3, 2, out);
+        assertArrayEquals(new float[]{2f, 3f, 5f}, out, 0f);
+
+        EmbeddingBatch batch = new EmbeddingBatch(new float[]{3f, 4f, 0f, 2f, 0f, 0f}, 3, 2).normalized();
+        float[] scores = VectorScoring.scoreAll(batch.get(0), batch, 1);
+        assertArrayEquals(new float[]{0.8f, 0f}, scores, 1e-6f);
+    }
+
+    @Test
+    public void topK_returnsDescendingIndicesWithStableTies() {
+        float[] scores = {0.1f, 0.9f, 0.5f, 0.9f, Float.NaN, 0.7f, -1f};
+        assertArrayEquals(new int[]{1, 3, 5}, VectorScoring.topK(scores, scores.length, 3));
+        assertArrayEquals(new int[]{1, 3, 5, 2, 0, 6}, VectorScoring.topK(scores, scores.length, 10));
+        assertArrayEquals(new int[0], VectorScoring.topK(scores, scores.length, 0));
+        // n は配列長より短くてもよい
+        assertArrayEquals(new int[]{1, 2}, VectorScoring.topK(scores, 3, 2));
+    }
+
+    @Test
+    public void topK_agreesWithFullSortOnRandomInput() {
+        Random rnd = new Random(42);
+        float[] scores = new float[500];
+        for (int i = 0; i < scores.length; i++) scores[i] = rnd.nextFloat();
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (x, y) -> Float.compare(scores[y], scores[x]));
+        int[] top = VectorScoring.topK(scores, scores.length, 10);
+        for (int i = 0; i < 10; i++) assertEquals((int) order[i], top[i]);
+    }
+}
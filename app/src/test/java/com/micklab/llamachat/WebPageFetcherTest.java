@@ -0,0 +1,137 @@
+package com.micklab.llamachat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
+
+/**
+ * {@link WebPageFetcher} の検証。本文の読み取り（上限バイト数での打ち切り・文字コード・切れた多バイト文字の除去）と、
+ * ローカルのスタブサーバーに対する並行数の上限・全体の期限・検索結果の整形を確認する。
+ */
+public class WebPageFetcherTest {
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/page", ex -> respond(ex, 200, "<p>page " + ex.getRequestURI().getQuery() + "</p>"));
+        server.createContext("/slow", ex -> respond(ex, 3000, "<p>slow</p>"));
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    private void respond(HttpExchange ex, long delayMs, String html) throws IOException {
+        int now = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(now, Math::max);
+        try {
+            Thread.sleep(delayMs);
+            byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+            ex.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (InterruptedException | IOException ignored) {
+            // 取り消された接続
+        } finally {
+            inFlight.decrementAndGet();
+            ex.close();
+        }
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static OkHttpClient client() {
+        return new OkHttpClient.Builder().readTimeout(30, TimeUnit.SECONDS).build();
+    }
+
+    @Test
+    public void fetchAll_neverExceedsParallelLimit() {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) urls.add(url("/page?" + i));
+        String[] texts = new WebPageFetcher(client(), 2, 10_000).fetchAll(urls, 100);
+        for (int i = 0; i < 8; i++) assertEquals("page " + i, texts[i]);
+        assertTrue("max in flight = " + maxInFlight.get(), maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void fetchAll_returnsByDeadlineAndLeavesSlowPagesNull() {
+        List<String> urls = Arrays.asList(url("/page?0"), url("/slow"), null, url("/page?3"));
+        long start = System.currentTimeMillis();
+        String[] texts = new WebPageFetcher(client(), 4, 800).fetchAll(urls, 100);
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed = " + elapsed, elapsed < 2500);
+        assertEquals("page 0", texts[0]);
+        assertNull(texts[1]);
+        assertNull(texts[2]);
+        assertEquals("page 3", texts[3]);
+    }
+
+    @Test
+    public void renderBraveResults_usesPageTextOrFallsBackToSnippets() throws Exception {
+        JSONArray results = new JSONArray()
+                .put(new JSONObject().put("title", "A").put("url", url("/page?a")).put("description", "desc a"))
+                .put(new JSONObject().put("title", "B").put("url", url("/slow")).put("description", "desc b")
+                        .put("extra_snippets", new JSONArray().put("s1").put("s2").put("s3")));
+        String text = new WebPageFetcher(client(), 4, 800).renderBraveResults(results, 8, true);
+        assertEquals("[1] A\n" + url("/page?a") + "\npage a\n\n[2] B\n" + url("/slow") + "\ndesc b\ns1\ns2", text);
+    }
+
+    @Test
+    public void readText_extractsWholeShortBody() throws Exception {
+        ResponseBody body = ResponseBody.create("<p>本文</p>", MediaType.get("text/html; charset=utf-8"));
+        assertEquals("本文", WebPageFetcher.readText(body, 1024, 100));
+    }
+
+    @Test
+    public void readText_stopsAtByteLimitAndDropsSplitCharacter() throws Exception {
+        // "あいう" は UTF-8 で 9 バイト。7 バイトで切ると 3 文字目が不完全になる
+        ResponseBody body = ResponseBody.create("あいう", MediaType.get("text/html; charset=utf-8"));
+        assertEquals("あい", WebPageFetcher.readText(body, 7, 100));
+    }
+
+    @Test
+    public void readText_usesDeclaredCharset() throws Exception {
+        byte[] latin1 = "<b>café</b>".getBytes(StandardCharsets.ISO_8859_1);
+        ResponseBody body = ResponseBody.create(latin1, MediaType.get("text/html; charset=iso-8859-1"));
+        assertEquals("café", WebPageFetcher.readText(body, 1024, 100));
+    }
+}
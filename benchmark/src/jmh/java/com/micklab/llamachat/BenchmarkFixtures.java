@@ -0,0 +1,122 @@
+package com.micklab.llamachat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ベンチマーク共通の入力。実際の利用に近い日本語・英語混在の発話、検索結果、モデル応答と、
+ * 決定的なフェイク埋め込みを用意する。
+ */
+final class BenchmarkFixtures {
+
+    /** 埋め込みの次元数（nomic-embed-text 等と同じ）。 */
+    static final int DIM = 768;
+
+    /** ルーティング対象の発話（Web・記憶保存・記憶呼び出し・雑談が混在）。 */
+    static final List<String> UTTERANCES = Arrays.asList(
+            "今日の東京の天気を調べて",
+            "明日の10時に歯医者の予約があることを覚えておいて",
+            "先週メモした買い物リストを思い出して",
+            "こんにちは、調子はどう？",
+            "Search the web for the latest Android 15 release notes",
+            "Pixel 9 の発売日はいつ？ウェブで検索して",
+            "Remember that my locker code is 4721",
+            "量子コンピュータの仕組みをわかりやすく説明してください",
+            "昨日話したレストランの名前、覚えてる？",
+            "Write a haiku about autumn leaves in Kyoto");
+
+    private BenchmarkFixtures() {
+    }
+
+    /** Brave / Wikipedia 形式の検索結果（SEARCH_RESULTS ブロック、記事 n 件）。 */
+    static String searchResults(int articles) {
+        StringBuilder sb = new StringBuilder("SEARCH_RESULTS:\n");
+        for (int a = 0; a < articles; a++) {
+            if (a % 2 == 0) {
+                sb.append("[Wikipedia/ja] 東京都の気候 ").append(a).append('\n');
+                for (int i = 0; i < 12; i++) {
+                    sb.append("東京都心の年平均気温は約").append(15 + i % 3).append("度で、夏は高温多湿、冬は乾燥した晴天が続く。")
+                            .append("梅雨の時期には降水量が増え、台風の接近による大雨も見られる。");
+                }
+                sb.append("\nhttps://ja.wikipedia.org/wiki/Tokyo_climate_").append(a).append("\n\n");
+            } else {
+                sb.append("[").append(a + 1).append("] Android release notes ").append(a).append('\n')
+                        .append("https://developer.android.com/about/versions/").append(a).append('\n');
+                for (int i = 0; i < 12; i++) {
+                    sb.append("Android ").append(14 + i % 2).append(" introduces partial screen sharing, ")
+                            .append("improved predictive back gestures and stricter foreground service types. ")
+                            .append("Developers targeting API level ").append(34 + i % 2)
+                            .append(" must declare the new permissions before release. ");
+                }
+                sb.append("\n\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /** 推論ブロック・Markdown・HTML を含むモデル応答。 */
+    static String modelResponse() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<think>ユーザは東京の天気を知りたい。検索結果から気温と降水確率を拾って要約する。")
+                .append("Let me double-check the forecast numbers before answering.</think>\n\n");
+        for (int i = 0; i < 8; i++) {
+            sb.append("## 東京の天気 ").append(i + 1).append("日目\n\n")
+                    .append("**最高気温**は").append(20 + i).append("度、<strong>最低気温</strong>は")
+                    .append(12 + i).append("度の見込みです。詳しくは[気象庁](https://www.jma.go.jp/)を参照してください。\n\n")
+                    .append("- 降水確率: ").append(10 * i).append("%\n- 風: 北の風 やや強く&nbsp;注意\n\n")
+                    .append("```json\n{\"day\": ").append(i).append(", \"temp\": ").append(20 + i).append("}\n```\n\n")
+                    .append("> The forecast may change; check again before you head out.\n\n");
+        }
+        return sb.toString();
+    }
+
+    /** ストリーミング受信を模して text を n 文字ずつに分けた差分列。 */
+    static String[] streamDeltas(String text, int n) {
+        String[] out = new String[(text.length() + n - 1) / n];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = text.substring(i * n, Math.min(text.length(), (i + 1) * n));
+        }
+        return out;
+    }
+
+    /** Ollama /api/embed 形式の応答本文（count 本 × DIM 次元）。 */
+    static String embedResponseJson(int count, long seed) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder(count * DIM * 12);
+        sb.append("{\"model\":\"nomic-embed-text\",\"embeddings\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(',');
+            sb.append('[');
+            for (int k = 0; k < DIM; k++) {
+                if (k > 0) sb.append(',');
+                sb.append((float) (rnd.nextGaussian() * 0.05));
+            }
+            sb.append(']');
+        }
+        sb.append("],\"total_duration\":14529000,\"load_duration\":1019500,\"prompt_eval_count\":")
+                .append(count * 12).append('}');
+        return sb.toString();
+    }
+
+    /** 正規分布の乱数で作った L2 正規化済みベクトル。 */
+    static float[] randomUnit(Random rnd, int dim) {
+        float[] v = new float[dim];
+        for (int k = 0; k < dim; k++) v[k] = (float) rnd.nextGaussian();
+        return EmbeddingClient.l2Normalize(v);
+    }
+
+    /**
+     * 文字バイグラムを DIM 次元へハッシュした決定的な埋め込み（ネットワーク無しで意味ルーティングを回すためのスタブ）。
+     * 同じ文は同じベクトルになり、語の重なりが多いほど近くなる。
+     */
+    static float[] bigramEmbedding(String text) {
+        float[] v = new float[DIM];
+        if (text == null) return v;
+        for (int i = 0; i + 1 < text.length(); i++) {
+            int h = (text.charAt(i) * 31 + text.charAt(i + 1)) & 0x7fffffff;
+            v[h % DIM] += 1f;
+        }
+        return v;
+    }
+}
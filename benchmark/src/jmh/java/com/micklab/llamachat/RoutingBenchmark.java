@@ -0,0 +1,39 @@
+package com.micklab.llamachat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * エキスパートの振り分け。キーワード判定（{@link ExpertSelector#selectDetailed}）と、スタブ埋め込みを使った
+ * 意味ルーティング（{@link SemanticExpertClassifier#classify}、代表発話の行列はキャッシュ済み）を
+ * 発話 10 件ぶん回す。
+ */
+@State(Scope.Benchmark)
+public class RoutingBenchmark {
+
+    private static final SemanticExpertClassifier.Embedder STUB = BenchmarkFixtures::bigramEmbedding;
+
+    private ExpertSelector selector;
+    private SemanticExpertClassifier classifier;
+
+    @Setup
+    public void setUp() {
+        selector = new ExpertSelector();
+        classifier = new SemanticExpertClassifier();
+        // 代表発話の埋め込みを先に作っておき、計測はクエリ 1 件の埋め込みと採点だけにする
+        classifier.classify(BenchmarkFixtures.UTTERANCES.get(0), STUB, true, true, "bench");
+    }
+
+    @Benchmark
+    public void selectDetailed(Blackhole bh) {
+        for (String u : BenchmarkFixtures.UTTERANCES) bh.consume(selector.selectDetailed(u, true, true));
+    }
+
+    @Benchmark
+    public void classifySemantic(Blackhole bh) {
+        for (String u : BenchmarkFixtures.UTTERANCES) bh.consume(classifier.classify(u, STUB, true, true, "bench"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.micklab.llamachat;
+
+import java.util.List;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 応答まわりのテキスト処理。
+ *
+ * <ul>
+ *   <li>検索結果の分割と再組み立て（WebSearchRagHelper が使う {@link SearchResultChunker}）。</li>
+ *   <li>推論タグの除去。16 文字ずつのストリーミング差分（{@link ReasoningStreamFilter#feed}）と一括（{@link ReasoningStreamFilter#strip}）。</li>
+ *   <li>読み上げ前の装飾除去（{@link TtsTextSanitizer#sanitize}）。</li>
+ *   <li>GBNF 文法の生成とリクエストボディへの適用（{@link StructuredOutput}）。</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+public class TextPipelineBenchmark {
+
+    private String searchResults;
+    private String response;
+    private String[] deltas;
+
+    @Setup
+    public void setUp() {
+        searchResults = BenchmarkFixtures.searchResults(8);
+        response = BenchmarkFixtures.modelResponse();
+        deltas = BenchmarkFixtures.streamDeltas(response, 16);
+    }
+
+    @Benchmark
+    public String chunkAndRender() {
+        List<SearchResultChunker.Chunk> chunks = new SearchResultChunker().chunk(searchResults);
+        return SearchResultChunker.render(chunks);
+    }
+
+    @Benchmark
+    public String reasoningFilterStreaming() {
+        ReasoningStreamFilter f = new ReasoningStreamFilter();
+        for (String d : deltas) f.feed(d);
+        f.finish();
+        return f.visibleText();
+    }
+
+    @Benchmark
+    public String reasoningFilterStrip() {
+        return ReasoningStreamFilter.strip(response);
+    }
+
+    @Benchmark
+    public String ttsSanitize() {
+        return TtsTextSanitizer.sanitize(ReasoningStreamFilter.strip(response));
+    }
+
+    @Benchmark
+    public String genericJsonGbnf() {
+        return StructuredOutput.genericJsonGbnf();
+    }
+
+    @Benchmark
+    public JSONObject applyGbnfToRequest() {
+        JSONObject body = new JSONObject();
+        body.put("model", "llama3.2");
+        body.put("stream", true);
+        StructuredOutput.applyGenericJson(body, StructuredOutput.Mode.GBNF);
+        return body;
+    }
+}
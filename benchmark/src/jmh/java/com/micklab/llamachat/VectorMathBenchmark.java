@@ -0,0 +1,108 @@
+package com.micklab.llamachat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 埋め込みまわりのベクトル演算と JSON 解析。
+ *
+ * <ul>
+ *   <li>コサイン類似度・正規化（{@link EmbeddingClient}）と、正規化済み前提の内積・上位 k 件（{@link VectorScoring}）。</li>
+ *   <li>int8 量子化走査（{@link QuantizedVectors}）と HNSW 探索（{@link HnswIndex}）の記憶呼び出し 1 回分。</li>
+ *   <li>/api/embed 応答 32 本の解析を、ストリーミング解析（{@link EmbeddingResponseParser}）と org.json で比べる。</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+public class VectorMathBenchmark {
+
+    private static final int ROWS = 2000;
+    private static final int HNSW_ROWS = 20000;
+
+    private float[] a;
+    private float[] b;
+    private float[] raw;
+    private float[] matrix;
+    private byte[] q8;
+    private byte[][] quantized;
+    private HnswIndex hnsw;
+    private String embedJson;
+
+    @Setup
+    public void setUp() {
+        Random rnd = new Random(42);
+        a = BenchmarkFixtures.randomUnit(rnd, BenchmarkFixtures.DIM);
+        b = BenchmarkFixtures.randomUnit(rnd, BenchmarkFixtures.DIM);
+        raw = new float[BenchmarkFixtures.DIM];
+        for (int k = 0; k < raw.length; k++) raw[k] = (float) rnd.nextGaussian();
+        matrix = new float[ROWS * BenchmarkFixtures.DIM];
+        for (int i = 0; i < ROWS; i++) {
+            System.arraycopy(BenchmarkFixtures.randomUnit(rnd, BenchmarkFixtures.DIM), 0,
+                    matrix, i * BenchmarkFixtures.DIM, BenchmarkFixtures.DIM);
+        }
+        q8 = QuantizedVectors.encodeInt8(a);
+        quantized = new byte[ROWS][];
+        for (int i = 0; i < ROWS; i++) quantized[i] = QuantizedVectors.encodeInt8(BenchmarkFixtures.randomUnit(rnd, BenchmarkFixtures.DIM));
+        hnsw = new HnswIndex();
+        for (int i = 0; i < HNSW_ROWS; i++) hnsw.add(i, QuantizedVectors.encodeInt8(BenchmarkFixtures.randomUnit(rnd, BenchmarkFixtures.DIM)));
+        embedJson = BenchmarkFixtures.embedResponseJson(32, 7);
+    }
+
+    @Benchmark
+    public float cosineSimilarity() {
+        return EmbeddingClient.cosineSimilarity(a, b);
+    }
+
+    @Benchmark
+    public float dotNormalized() {
+        return VectorScoring.dot(a, b);
+    }
+
+    @Benchmark
+    public float[] l2Normalize() {
+        return EmbeddingClient.l2Normalize(raw);
+    }
+
+    @Benchmark
+    public int[] scoreAllAndTopK() {
+        float[] scores = new float[ROWS];
+        VectorScoring.scoreAll(a, matrix, ROWS, BenchmarkFixtures.DIM, scores);
+        return VectorScoring.topK(scores, ROWS, 20);
+    }
+
+    @Benchmark
+    public int[] int8ScanAndTopK() {
+        float[] scores = new float[ROWS];
+        for (int i = 0; i < ROWS; i++) scores[i] = QuantizedVectors.dotInt8(q8, quantized[i]);
+        return VectorScoring.topK(scores, ROWS, 60);
+    }
+
+    @Benchmark
+    public long[] hnswSearch() {
+        return hnsw.search(q8, 60);
+    }
+
+    @Benchmark
+    public EmbeddingBatch parseEmbedResponseStreaming() throws IOException {
+        return EmbeddingResponseParser.parse(new StringReader(embedJson), EmbeddingResponseParser.FIELD_EMBEDDINGS, 32);
+    }
+
+    @Benchmark
+    public void parseEmbedResponseOrgJson(Blackhole bh) {
+        JSONArray rows = new JSONObject(embedJson).getJSONArray("embeddings");
+        for (int i = 0; i < rows.length(); i++) {
+            JSONArray row = rows.getJSONArray(i);
+            float[] v = new float[row.length()];
+            for (int k = 0; k < v.length; k++) v[k] = (float) row.getDouble(k);
+            bh.consume(v);
+        }
+    }
+}